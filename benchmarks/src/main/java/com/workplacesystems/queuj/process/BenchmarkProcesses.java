@@ -0,0 +1,117 @@
+/*
+ * Copyright 2010 Workplace Systems PLC (http://www.workplacesystems.com/).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.workplacesystems.queuj.process;
+
+import com.workplacesystems.queuj.Process;
+import com.workplacesystems.queuj.ProcessBuilder;
+import com.workplacesystems.queuj.Queue;
+import com.workplacesystems.queuj.QueueBuilder;
+import com.workplacesystems.queuj.QueueFactory;
+import com.workplacesystems.queuj.occurrence.RunOnce;
+import com.workplacesystems.queuj.process.java.JavaProcessBuilder;
+import com.workplacesystems.queuj.process.java.JavaProcessRunner;
+import com.workplacesystems.queuj.restriction.SimpleQueueRestriction;
+import com.workplacesystems.queuj.schedule.RelativeScheduleBuilder;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * The queues and processes shared by the benchmarks. The restricted queue
+ * allows no processes to run so anything submitted to it stays parked.
+ *
+ * @author dave
+ */
+final class BenchmarkProcesses {
+
+    static final Queue<JavaProcessBuilder> RESTRICTED_QUEUE;
+
+    static {
+        QueueBuilder<JavaProcessBuilder> qb = QueueFactory.DEFAULT_QUEUE.newQueueBuilder();
+        qb.setQueueRestriction(new SimpleQueueRestriction(0));
+        RESTRICTED_QUEUE = qb.newQueue();
+    }
+
+    private BenchmarkProcesses() {}
+
+    public static class NoopRunner extends JavaProcessRunner {
+
+        public void run() {} // Do nothing so only overhead is the queue.
+    }
+
+    static ProcessImplServer<Integer> getServer() {
+        return (ProcessImplServer<Integer>)QueujFactory.getProcessServer((String)null, null);
+    }
+
+    /**
+     * A builder of non-persistent no-op processes that run immediately or a
+     * day later.
+     */
+    static JavaProcessBuilder newProcessBuilder(Queue<JavaProcessBuilder> queue, String processName, boolean delayed) {
+        RunOnce occurrence = new RunOnce();
+        RelativeScheduleBuilder rsb = occurrence.newRelativeScheduleBuilder();
+        if (delayed)
+            rsb.setRunDelayDays(1);
+        else
+            rsb.setRunImmediately();
+        rsb.createSchedule();
+
+        JavaProcessBuilder pb = queue.newProcessBuilder(Locale.getDefault());
+        pb.setProcessName(processName);
+        pb.setProcessPersistence(false);
+        pb.setProcessOccurrence(occurrence);
+        pb.setProcessDetails(new NoopRunner(), "run", new Class[] {}, new Object[] {});
+        return pb;
+    }
+
+    /**
+     * Submits count processes that stay parked, either held by the restricted
+     * queue or waiting for a time a day away, and waits for them to park.
+     */
+    static List<ProcessWrapper<Integer>> park(String processName, int count, boolean restricted) {
+        final JavaProcessBuilder pb = restricted ? newProcessBuilder(RESTRICTED_QUEUE, processName, false) :
+            newProcessBuilder(QueueFactory.DEFAULT_QUEUE, processName, true);
+
+        ArrayList<Integer> items = new ArrayList<Integer>();
+        for (int i = 0; i < count; i++)
+            items.add(i);
+
+        ProcessImplServer<Integer> server = getServer();
+        QueueState total = server.getTotalState();
+        int expected = total.getParkedCount() + total.getReadyCount() + count;
+
+        List<Process<Integer>> processes = pb.newProcesses(items, new ProcessBuilder.ItemSetup<Integer>() {
+
+            public void setup(Integer item) {}
+        });
+
+        ArrayList<ProcessWrapper<Integer>> wrappers = new ArrayList<ProcessWrapper<Integer>>(count);
+        for (Process<Integer> process : processes)
+            wrappers.add(server.get(process.getProcessKey()));
+
+        while (total.getParkedCount() + total.getReadyCount() < expected) {
+            try {
+                Thread.sleep(10);
+            }
+            catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        return wrappers;
+    }
+}
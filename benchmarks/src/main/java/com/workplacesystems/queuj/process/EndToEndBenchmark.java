@@ -0,0 +1,77 @@
+/*
+ * Copyright 2010 Workplace Systems PLC (http://www.workplacesystems.com/).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.workplacesystems.queuj.process;
+
+import com.workplacesystems.queuj.Process;
+import com.workplacesystems.queuj.ProcessBuilder;
+import com.workplacesystems.queuj.QueueFactory;
+import com.workplacesystems.queuj.process.java.JavaProcessBuilder;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The time from submitting a batch of no-op processes in one transaction
+ * until they have all completed, with the batch size setting how many run
+ * concurrently.
+ *
+ * @author dave
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EndToEndBenchmark {
+
+    @Param({"1", "16", "256"})
+    public int concurrency;
+
+    private JavaProcessBuilder pb;
+
+    private final ArrayList<Integer> items = new ArrayList<Integer>();
+
+    @Setup
+    public void setup() {
+        BenchmarkProcesses.getServer();
+        pb = BenchmarkProcesses.newProcessBuilder(QueueFactory.DEFAULT_QUEUE, "End To End Benchmark", false);
+        for (int i = 0; i < concurrency; i++)
+            items.add(i);
+    }
+
+    @Benchmark
+    public void run() {
+        List<Process<Integer>> processes = pb.newProcesses(items, new ProcessBuilder.ItemSetup<Integer>() {
+
+            public void setup(Integer item) {}
+        });
+        for (Process<Integer> process : processes)
+            process.attach();
+    }
+}
@@ -0,0 +1,79 @@
+/*
+ * Copyright 2010 Workplace Systems PLC (http://www.workplacesystems.com/).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.workplacesystems.queuj.process;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Adds, removes and counts processes in a ProcessIndexesImpl already holding
+ * the given number of not run processes. Each change is committed as the
+ * server does at the end of a transaction.
+ *
+ * @author dave
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class IndexBenchmark {
+
+    @Param({"1000", "100000"})
+    public int indexed;
+
+    private ProcessIndexesImpl indexes;
+
+    private ProcessWrapper<Integer> process;
+
+    @Setup
+    public void setup() {
+        List<ProcessWrapper<Integer>> processes = BenchmarkProcesses.park("Index Benchmark", indexed + 1, true);
+        process = processes.remove(indexed);
+
+        indexes = new ProcessIndexesImpl();
+        for (ProcessWrapper<Integer> indexed_process : processes)
+            indexes.addProcessToIndex(indexed_process);
+        indexes.finalizeIndexes(true);
+    }
+
+    @Benchmark
+    public boolean addAndRemove() {
+        indexes.addProcessToIndex(process);
+        indexes.finalizeIndexes(true);
+        boolean removed = indexes.removeProcessFromIndex(process);
+        indexes.finalizeIndexes(true);
+        return removed;
+    }
+
+    @Benchmark
+    public int count() {
+        return indexes.countOfNotRunProcesses(BenchmarkProcesses.RESTRICTED_QUEUE);
+    }
+}
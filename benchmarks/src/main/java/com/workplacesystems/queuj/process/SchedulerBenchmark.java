@@ -0,0 +1,125 @@
+/*
+ * Copyright 2010 Workplace Systems PLC (http://www.workplacesystems.com/).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.workplacesystems.queuj.process;
+
+import java.util.Date;
+import java.util.GregorianCalendar;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Schedules parked processes on a ProcessScheduler of its own that already
+ * holds the given number of processes due over the next day.
+ *
+ * @author dave
+ */
+@State(Scope.Benchmark)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SchedulerBenchmark {
+
+    @Param({"1000", "10000"})
+    public int scheduled;
+
+    private ProcessScheduler scheduler;
+
+    private List<ProcessWrapper<Integer>> processes;
+
+    private ProcessWrapper<Integer> fired;
+
+    private long base;
+
+    private int next;
+
+    @Setup
+    public void setup() {
+        processes = BenchmarkProcesses.park("Scheduler Benchmark", scheduled + 1, true);
+        fired = processes.remove(scheduled);
+
+        scheduler = new ProcessScheduler();
+        base = System.currentTimeMillis() + TimeUnit.HOURS.toMillis(1);
+        for (int i = 0; i < scheduled; i++)
+            scheduler.scheduleProcess(processes.get(i), getTime(i));
+    }
+
+    @TearDown
+    public void tearDown() {
+        scheduler.stopRunning();
+    }
+
+    private GregorianCalendar getTime(int i) {
+        return getTime(i, 0);
+    }
+
+    private GregorianCalendar getTime(int i, long offset) {
+        GregorianCalendar time = new GregorianCalendar();
+        time.setTimeInMillis(base + i * 1000L + offset);
+        return time;
+    }
+
+    /**
+     * Moves a process to a new time, which unschedules it from the old one.
+     */
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    public void reschedule() {
+        int i = next % scheduled;
+        // Alternate between two times so the process always moves
+        scheduler.scheduleProcess(processes.get(i), getTime(i, (next++ / scheduled) % 2 * 500));
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    public void unscheduleAndSchedule() {
+        int i = next++ % scheduled;
+        ProcessWrapper<Integer> process = processes.get(i);
+        scheduler.unScheduleProcess(process);
+        scheduler.scheduleProcess(process, getTime(i));
+    }
+
+    /**
+     * The time from scheduling a process 1ms ahead until the scheduler thread
+     * has woken and taken it, so the lateness is the score less 1ms.
+     */
+    @Benchmark
+    @BenchmarkMode(Mode.SampleTime)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public void fire() {
+        GregorianCalendar time = new GregorianCalendar();
+        time.setTimeInMillis(System.currentTimeMillis() + 1);
+        scheduler.scheduleProcess(fired, time);
+
+        Date next_fire;
+        while ((next_fire = scheduler.getNextFireTime()) != null && !next_fire.after(time.getTime()))
+            Thread.yield();
+    }
+}
@@ -0,0 +1,75 @@
+/*
+ * Copyright 2010 Workplace Systems PLC (http://www.workplacesystems.com/).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.workplacesystems.queuj.process;
+
+import com.workplacesystems.queuj.Process;
+import com.workplacesystems.queuj.QueueFactory;
+import com.workplacesystems.queuj.process.java.JavaProcessBuilder;
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The throughput of ProcessBuilder.newProcess for processes that are due a
+ * day later, so only the submission is timed. The processes are deleted
+ * after each iteration.
+ *
+ * @author dave
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SubmitBenchmark {
+
+    private JavaProcessBuilder pb;
+
+    private final ArrayList<Process<Integer>> processes = new ArrayList<Process<Integer>>();
+
+    @Setup
+    public void setup() {
+        BenchmarkProcesses.getServer();
+        pb = BenchmarkProcesses.newProcessBuilder(QueueFactory.DEFAULT_QUEUE, "Submit Benchmark", true);
+    }
+
+    @Benchmark
+    public Process<Integer> newProcess() {
+        Process<Integer> process = pb.newProcess();
+        processes.add(process);
+        return process;
+    }
+
+    @TearDown(Level.Iteration)
+    public void deleteProcesses() {
+        for (Process<Integer> process : processes)
+            process.delete();
+        processes.clear();
+    }
+}
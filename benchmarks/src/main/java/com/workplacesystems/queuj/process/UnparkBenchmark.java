@@ -0,0 +1,68 @@
+/*
+ * Copyright 2010 Workplace Systems PLC (http://www.workplacesystems.com/).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.workplacesystems.queuj.process;
+
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Passes over all the parked processes of the server checking whether any
+ * can run, as happens when a queue is notified. Restricted processes are
+ * refused by the queue restriction, the others are parked until the next day
+ * so are refused on their run time. Multiply the score by the number of parked
+ * processes for the processes checked per second.
+ *
+ * @author dave
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class UnparkBenchmark {
+
+    @Param({"false", "true"})
+    public boolean restricted;
+
+    @Param({"100", "10000"})
+    public int parked;
+
+    private ProcessImplServer<Integer> server;
+
+    @Setup
+    public void setup() {
+        server = BenchmarkProcesses.getServer();
+        BenchmarkProcesses.park("Unpark Benchmark", parked, restricted);
+    }
+
+    @Benchmark
+    public boolean notifyAllProcesses() {
+        return server.getProcessScheduler().notifyAllProcesses(server, new ArrayList());
+    }
+}
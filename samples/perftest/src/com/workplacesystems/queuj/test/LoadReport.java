@@ -0,0 +1,185 @@
+/*
+ * Copyright 2012 Workplace Systems PLC (http://www.workplacesystems.com/).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.workplacesystems.queuj.test;
+
+import com.workplacesystems.queuj.process.metrics.Histogram;
+import com.workplacesystems.queuj.process.metrics.Metrics;
+import com.workplacesystems.queuj.process.metrics.QueueMetrics;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.lang.management.MemoryUsage;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Collects the results of a LoadTest. The throughput and scheduling lag of
+ * each job come from the QueuJ process metrics, the lag being the time from
+ * when a process was due until it started. All times are reported in
+ * milliseconds. Heap and thread counts are sampled
+ * while the test runs.
+ *
+ * @author dave
+ */
+public class LoadReport {
+
+    private static final double[] PERCENTILES = { 50, 90, 99, 99.9 };
+
+    private final Workload workload;
+
+    private final String backend;
+
+    private final MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+
+    private final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+
+    private final LinkedHashMap<Workload.Job,long[]> submissions = new LinkedHashMap<Workload.Job,long[]>();
+
+    private final ArrayList<long[]> samples = new ArrayList<long[]>();
+
+    private final LinkedHashMap<Workload.Job,QueueMetrics.Snapshot> results = new LinkedHashMap<Workload.Job,QueueMetrics.Snapshot>();
+
+    private long start;
+
+    private long end;
+
+    private long maxHeapUsed;
+
+    private int peakThreads;
+
+    public LoadReport(Workload workload, String backend) {
+        this.workload = workload;
+        this.backend = backend;
+        for (Workload.Job job : workload.getJobs())
+            submissions.put(job, new long[2]);
+    }
+
+    void start() {
+        threads.resetPeakThreadCount();
+        start = System.currentTimeMillis();
+    }
+
+    synchronized void submitted(Workload.Job job, int count, long nanos) {
+        long[] submission = submissions.get(job);
+        submission[0] += count;
+        submission[1] += nanos;
+    }
+
+    synchronized void sample() {
+        MemoryUsage heap = memory.getHeapMemoryUsage();
+        long completed = 0;
+        for (Workload.Job job : workload.getJobs())
+            completed += Metrics.getProcessMetrics(job.getProcessName()).snapshot().getCompleted();
+
+        samples.add(new long[] { System.currentTimeMillis() - start, heap.getUsed(), heap.getCommitted(), threads.getThreadCount(), completed });
+        maxHeapUsed = Math.max(maxHeapUsed, heap.getUsed());
+    }
+
+    synchronized void finish() {
+        end = System.currentTimeMillis();
+        peakThreads = threads.getPeakThreadCount();
+        for (Workload.Job job : workload.getJobs())
+            results.put(job, Metrics.getProcessMetrics(job.getProcessName()).snapshot());
+    }
+
+    public synchronized String toJson() {
+        double seconds = (end - start) / 1000.0;
+        MemoryUsage heap = memory.getHeapMemoryUsage();
+
+        StringBuilder sb = new StringBuilder();
+        sb.append("{\n");
+        sb.append("  \"workload\": ").append(quote(workload.getName())).append(",\n");
+        sb.append("  \"backend\": ").append(quote(backend)).append(",\n");
+        sb.append("  \"durationMillis\": ").append(end - start).append(",\n");
+        sb.append("  \"jobs\": [");
+        String separator = "\n";
+        for (Map.Entry<Workload.Job,QueueMetrics.Snapshot> result : results.entrySet()) {
+            Workload.Job job = result.getKey();
+            QueueMetrics.Snapshot snapshot = result.getValue();
+            long[] submission = submissions.get(job);
+            sb.append(separator).append("    {\n");
+            sb.append("      \"name\": ").append(quote(job.getName())).append(",\n");
+            sb.append("      \"submitted\": ").append(submission[0]).append(",\n");
+            sb.append("      \"submitMillis\": ").append(submission[1] / 1000000).append(",\n");
+            sb.append("      \"started\": ").append(snapshot.getStarted()).append(",\n");
+            sb.append("      \"completed\": ").append(snapshot.getCompleted()).append(",\n");
+            sb.append("      \"failed\": ").append(snapshot.getFailed()).append(",\n");
+            sb.append("      \"throughputPerSecond\": ").append(format(seconds <= 0 ? 0 : snapshot.getCompleted() / seconds)).append(",\n");
+            sb.append("      \"lagMillis\": ").append(toJson(snapshot.getStartDelay(), 1000)).append(",\n");
+            sb.append("      \"runMillis\": ").append(toJson(snapshot.getRunTime(), 1000)).append("\n");
+            sb.append("    }");
+            separator = ",\n";
+        }
+        sb.append("\n  ],\n");
+        sb.append("  \"schedulerLatenessMillis\": ").append(toJson(Metrics.getSchedulerLateness(), 1)).append(",\n");
+        sb.append("  \"heap\": { \"maxUsedBytes\": ").append(maxHeapUsed)
+                .append(", \"usedBytes\": ").append(heap.getUsed())
+                .append(", \"committedBytes\": ").append(heap.getCommitted())
+                .append(", \"maxBytes\": ").append(heap.getMax()).append(" },\n");
+        sb.append("  \"threads\": { \"peak\": ").append(peakThreads)
+                .append(", \"final\": ").append(threads.getThreadCount()).append(" },\n");
+        sb.append("  \"samples\": [");
+        separator = "\n";
+        for (long[] sample : samples) {
+            sb.append(separator).append("    { \"millis\": ").append(sample[0])
+                    .append(", \"heapUsedBytes\": ").append(sample[1])
+                    .append(", \"heapCommittedBytes\": ").append(sample[2])
+                    .append(", \"threads\": ").append(sample[3])
+                    .append(", \"completed\": ").append(sample[4]).append(" }");
+            separator = ",\n";
+        }
+        sb.append("\n  ]\n");
+        sb.append("}\n");
+        return sb.toString();
+    }
+
+    /**
+     * The histogram values divided by unit, 1000 for the process metrics that
+     * are held in microseconds.
+     */
+    private static String toJson(Histogram.Snapshot snapshot, long unit) {
+        StringBuilder sb = new StringBuilder();
+        sb.append("{ \"count\": ").append(snapshot.getCount());
+        sb.append(", \"mean\": ").append(format(snapshot.getMean() / unit));
+        for (double percentile : PERCENTILES)
+            sb.append(", \"p").append(format(percentile).replace(".", "_")).append("\": ").append(format((double)snapshot.getPercentile(percentile) / unit));
+        sb.append(", \"max\": ").append(format((double)snapshot.getMax() / unit));
+        sb.append(" }");
+        return sb.toString();
+    }
+
+    private static String format(double value) {
+        if (value == Math.rint(value))
+            return Long.toString((long)value);
+        return String.format(Locale.ROOT, "%.3f", value);
+    }
+
+    private static String quote(String value) {
+        StringBuilder sb = new StringBuilder("\"");
+        for (char c : value.toCharArray()) {
+            if (c == '"' || c == '\\')
+                sb.append('\\').append(c);
+            else if (c < ' ')
+                sb.append(String.format("\\u%04x", (int)c));
+            else
+                sb.append(c);
+        }
+        return sb.append('"').toString();
+    }
+}
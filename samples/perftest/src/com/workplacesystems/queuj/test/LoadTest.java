@@ -0,0 +1,310 @@
+/*
+ * Copyright 2012 Workplace Systems PLC (http://www.workplacesystems.com/).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.workplacesystems.queuj.test;
+
+import com.workplacesystems.queuj.ProcessBuilder;
+import com.workplacesystems.queuj.Queue;
+import com.workplacesystems.queuj.QueueBuilder;
+import com.workplacesystems.queuj.QueueFactory;
+import com.workplacesystems.queuj.Resilience;
+import com.workplacesystems.queuj.occurrence.RunFiniteTimes;
+import com.workplacesystems.queuj.occurrence.RunMinutely;
+import com.workplacesystems.queuj.occurrence.RunOnce;
+import com.workplacesystems.queuj.process.QueujFactory;
+import com.workplacesystems.queuj.process.java.JavaProcessBuilder;
+import com.workplacesystems.queuj.process.java.JavaProcessRunner;
+import com.workplacesystems.queuj.resilience.RunOnlyOnce;
+import com.workplacesystems.queuj.restriction.SimpleQueueRestriction;
+import com.workplacesystems.queuj.schedule.MinutelyScheduleBuilder;
+import com.workplacesystems.queuj.schedule.RelativeScheduleBuilder;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Locale;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs a Workload against one of the backends and writes a JSON report of
+ * the throughput, scheduling lag, heap and threads.
+ *
+ * <pre>
+ * java com.workplacesystems.queuj.test.LoadTest workloads/minutely-with-bursts.properties memory report.json
+ * </pre>
+ *
+ * The backend is memory, journal (in a new temporary directory) or a JDBC url
+ * of a database holding the process table, for example an embedded H2 or
+ * Derby database with its driver on the classpath. The process table is
+ * created if it doesn't exist for an H2 url, any other database needs the
+ * table created first.
+ *
+ * @author dave
+ */
+public class LoadTest {
+
+    /** Processes submitted in each transaction */
+    private static final int SUBMIT_BATCH = 1000;
+
+    /** The process table of ProcessImpl for H2 */
+    private static final String H2_PROCESS_TABLE = "create table if not exists process (" +
+            "process_id integer auto_increment not null primary key, OPTLOCK integer not null, " +
+            "queue_owner_id varchar(255), uuid varchar(255) not null unique, process_name varchar(255), " +
+            "creation_timestamp timestamp, description varchar(255), scheduled_timestamp timestamp, " +
+            "started_timestamp timestamp, parameters blob, queue blob, user_id varchar(255), locale blob, " +
+            "status integer, occurrence blob, access blob, visibility blob, resilience blob, output blob, " +
+            "attempt integer not null, run_count integer not null, result_code integer not null, " +
+            "associated_report boolean not null, keep_completed boolean not null, " +
+            "unique (queue_owner_id, process_id))";
+
+    private final Workload workload;
+
+    private final String backend;
+
+    private final boolean persistent;
+
+    private final LoadReport report;
+
+    public LoadTest(Workload workload, String backend, boolean persistent) {
+        this.workload = workload;
+        this.backend = backend;
+        this.persistent = persistent;
+        this.report = new LoadReport(workload, backend);
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 2) {
+            System.err.println("Usage: LoadTest <workload.properties> <memory|journal|jdbc:url> [report.json]");
+            System.exit(1);
+        }
+
+        Workload workload = Workload.load(new File(args[0]));
+        boolean persistent = setBackend(args[1]);
+
+        // Init the queue
+        QueujFactory.getProcessServer((String)null, null);
+
+        String json = new LoadTest(workload, args[1], persistent).run();
+        if (args.length > 2) {
+            Writer out = new OutputStreamWriter(new FileOutputStream(args[2]), "UTF-8");
+            try {
+                out.write(json);
+            }
+            finally {
+                out.close();
+            }
+        }
+        else
+            System.out.println(json);
+
+        // Recurring processes would otherwise keep running
+        System.exit(0);
+    }
+
+    private static boolean setBackend(String backend) throws IOException, SQLException {
+        if (backend.equals("memory"))
+            return false;
+
+        if (backend.equals("journal")) {
+            File directory = File.createTempFile("queuj-loadtest", "");
+            if (!directory.delete() || !directory.mkdir())
+                throw new IOException("Unable to create " + directory);
+            System.setProperty("com.workplacesystems.queuj.QueujFactory", "com.workplacesystems.queuj.process.journal.JournalFactory");
+            System.setProperty("com.workplacesystems.queuj.journal.directory", directory.getPath());
+            if (System.getProperty("com.workplacesystems.queuj.journal.sync") == null)
+                System.setProperty("com.workplacesystems.queuj.journal.sync", "GROUP");
+            return true;
+        }
+
+        if (backend.startsWith("jdbc:")) {
+            if (backend.startsWith("jdbc:h2:"))
+                execute(backend, H2_PROCESS_TABLE);
+            System.setProperty("com.workplacesystems.queuj.QueujFactory", "com.workplacesystems.queuj.process.jdbc.JDBCFactory");
+            System.setProperty("com.workplacesystems.queuj.jdbc.url", backend);
+            return true;
+        }
+
+        throw new IllegalArgumentException("Unknown backend " + backend);
+    }
+
+    private static void execute(String url, String sql) throws SQLException {
+        Connection connection = DriverManager.getConnection(url);
+        try {
+            Statement statement = connection.createStatement();
+            statement.execute(sql);
+            statement.close();
+        }
+        finally {
+            connection.close();
+        }
+    }
+
+    public String run() throws InterruptedException {
+        // Every batch of every job in the order they are due
+        ArrayList<Batch> batches = new ArrayList<Batch>();
+        for (Workload.Job job : workload.getJobs()) {
+            JavaProcessBuilder pb = newProcessBuilder(job);
+            for (int i = 0; i < job.getRepeat(); i++)
+                batches.add(new Batch(job, pb, (job.getStart() + i * job.getEvery()) * 1000L));
+        }
+        Collections.sort(batches, new Comparator<Batch>() {
+
+            public int compare(Batch batch1, Batch batch2) {
+                return batch1.due < batch2.due ? -1 : (batch1.due == batch2.due ? 0 : 1);
+            }
+        });
+
+        ScheduledExecutorService sampler = Executors.newSingleThreadScheduledExecutor();
+        report.start();
+        sampler.scheduleAtFixedRate(new Runnable() {
+
+            public void run() {
+                report.sample();
+            }
+        }, 0, workload.getSampleInterval(), TimeUnit.SECONDS);
+
+        long start = System.currentTimeMillis();
+        long end = start + workload.getDuration() * 1000L;
+        try {
+            for (Batch batch : batches) {
+                long due = start + batch.due;
+                if (due >= end)
+                    break;
+                sleepUntil(due);
+                submit(batch);
+            }
+            sleepUntil(end);
+        }
+        finally {
+            sampler.shutdown();
+            sampler.awaitTermination(workload.getSampleInterval() + 1, TimeUnit.SECONDS);
+        }
+
+        report.finish();
+        return report.toJson();
+    }
+
+    private static void sleepUntil(long time) throws InterruptedException {
+        long now;
+        while ((now = System.currentTimeMillis()) < time)
+            Thread.sleep(time - now);
+    }
+
+    private void submit(Batch batch) {
+        long start = System.nanoTime();
+        ArrayList<Integer> items = new ArrayList<Integer>(SUBMIT_BATCH);
+        for (int i = 0; i < batch.job.getCount(); i++) {
+            items.add(i);
+            if (items.size() == SUBMIT_BATCH || i == batch.job.getCount() - 1) {
+                batch.pb.newProcesses(items, new ProcessBuilder.ItemSetup<Integer>() {
+
+                    public void setup(Integer item) {}
+                });
+                items.clear();
+            }
+        }
+        report.submitted(batch.job, batch.job.getCount(), System.nanoTime() - start);
+    }
+
+    private JavaProcessBuilder newProcessBuilder(Workload.Job job) {
+        Queue<JavaProcessBuilder> queue = QueueFactory.DEFAULT_QUEUE;
+        if (job.getLimit() > 0) {
+            QueueBuilder<JavaProcessBuilder> qb = QueueFactory.DEFAULT_QUEUE.newQueueBuilder();
+            qb.setQueueRestriction(new SimpleQueueRestriction(job.getLimit()));
+            queue = qb.newQueue();
+        }
+
+        JavaProcessBuilder pb = queue.newProcessBuilder(Locale.getDefault());
+        pb.setProcessName(job.getProcessName());
+        pb.setProcessDescription("Load Test " + workload.getName());
+        pb.setProcessPersistence(persistent);
+
+        if (job.getOccurrence() == Workload.Occurrence.MINUTELY) {
+            RunMinutely occurrence = new RunMinutely();
+            MinutelyScheduleBuilder msb = occurrence.newSchedulerBuilder();
+            msb.setIntervalMinutes(1);
+            msb.createSchedule();
+            pb.setProcessOccurrence(occurrence);
+        }
+        else {
+            RunOnce occurrence = new RunOnce();
+            RelativeScheduleBuilder rsb = occurrence.newRelativeScheduleBuilder();
+            rsb.setRunImmediately();
+            rsb.createSchedule();
+            pb.setProcessOccurrence(occurrence);
+        }
+
+        if (job.getRetries() > 0) {
+            Resilience resilience = new RunOnlyOnce();
+            RunFiniteTimes failure_occurrence = new RunFiniteTimes(job.getRetries());
+            for (int i = 0; i < job.getRetries(); i++) {
+                RelativeScheduleBuilder rsb = failure_occurrence.newRelativeScheduleBuilder();
+                rsb.setRunDelaySeconds(job.getRetryDelay() * (i + 1));
+                rsb.createSchedule();
+            }
+            resilience.setFailureSchedule(failure_occurrence);
+            pb.setProcessResilience(resilience);
+        }
+
+        pb.setProcessDetails(new LoadRunner(job.getWork(), job.getFailureRate()), "run", new Class[] {}, new Object[] {});
+        return pb;
+    }
+
+    private static class Batch {
+
+        private final Workload.Job job;
+        private final JavaProcessBuilder pb;
+        private final long due;
+
+        private Batch(Workload.Job job, JavaProcessBuilder pb, long due) {
+            this.job = job;
+            this.pb = pb;
+            this.due = due;
+        }
+    }
+
+    /**
+     * Runs for the given time and fails at the given rate.
+     */
+    public static class LoadRunner extends JavaProcessRunner {
+
+        private final int work;
+
+        private final double failureRate;
+
+        public LoadRunner(int work, double failureRate) {
+            this.work = work;
+            this.failureRate = failureRate;
+        }
+
+        public void run() throws InterruptedException {
+            if (work > 0)
+                Thread.sleep(work);
+            if (failureRate > 0 && Math.random() < failureRate)
+                throw new IllegalStateException("Simulated failure");
+        }
+    }
+}
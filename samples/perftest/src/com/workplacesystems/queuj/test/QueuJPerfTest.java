@@ -17,6 +17,7 @@
 package com.workplacesystems.queuj.test;
 
 import com.workplacesystems.queuj.Process;
+import com.workplacesystems.queuj.ProcessBuilder;
 import com.workplacesystems.queuj.Queue;
 import com.workplacesystems.queuj.QueueBuilder;
 import com.workplacesystems.queuj.QueueFactory;
@@ -32,6 +33,7 @@ import com.workplacesystems.queuj.schedule.RelativeScheduleBuilder;
 import com.workplacesystems.utilsj.collections.helpers.HasLessThan;
 import java.util.ArrayList;
 import java.util.GregorianCalendar;
+import java.util.List;
 import java.util.Locale;
 
 /**
@@ -90,7 +92,7 @@ public class QueuJPerfTest {
     private String run(boolean persistent) {
         StringBuffer buffer = new StringBuffer();
 
-        JavaProcessBuilder pb = PERF_QUEUE.newProcessBuilder(Locale.getDefault());
+        final JavaProcessBuilder pb = PERF_QUEUE.newProcessBuilder(Locale.getDefault());
         pb.setProcessName("Test 2");
         pb.setProcessDescription("Perf Test");
         pb.setProcessPersistence(persistent);
@@ -101,21 +103,30 @@ public class QueuJPerfTest {
         rsb.createSchedule();
         pb.setProcessOccurrence(occurrence);
 
-        ArrayList<Process> processes = new ArrayList<Process>();
+        ArrayList<Integer> items = new ArrayList<Integer>();
+        for (int i = 0; i<10000; i++)
+            items.add(i);
 
         GregorianCalendar start = new GregorianCalendar();
 
-        for (int i = 0; i<10000; i++) {
-            pb.setProcessDetails(new PerfRunner(), "run", new Class[] {}, new Object[] {});
-            processes.add(pb.newProcess());
-        }
+        // Submit all the processes in one transaction
+        List<Process<Integer>> processes = pb.newProcesses(items, new ProcessBuilder.ItemSetup<Integer>() {
+
+            public void setup(Integer item) {
+                pb.setProcessDetails(new PerfRunner(), "run", new Class[] {}, new Object[] {});
+            }
+        });
+
+        GregorianCalendar submitted = new GregorianCalendar();
 
         for (Process process : processes)
             process.attach();
 
         GregorianCalendar finish = new GregorianCalendar();
 
-        buffer.append("Time taken was ");
+        buffer.append("Submission took ");
+        buffer.append(submitted.getTimeInMillis() - start.getTimeInMillis());
+        buffer.append("ms, time taken was ");
         buffer.append(finish.getTimeInMillis() - start.getTimeInMillis());
         buffer.append("ms");
 
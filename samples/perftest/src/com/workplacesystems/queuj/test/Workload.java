@@ -0,0 +1,144 @@
+/*
+ * Copyright 2012 Workplace Systems PLC (http://www.workplacesystems.com/).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.workplacesystems.queuj.test;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+
+/**
+ * A load test scenario read from a properties file. The jobs property lists
+ * the job groups, each configured by job.&lt;name&gt;.* properties:
+ *
+ * <pre>
+ * name=minutely-with-bursts
+ * duration=180               seconds to run for
+ * sampleInterval=1           seconds between heap and thread samples
+ * jobs=minutely,burst
+ *
+ * job.minutely.count=100000  processes submitted in each batch
+ * job.minutely.occurrence=minutely (or once)
+ * job.burst.start=30         seconds before the first batch
+ * job.burst.repeat=5         number of batches
+ * job.burst.every=30         seconds between batches
+ * job.burst.limit=4          run in a queue allowing this many at once
+ * job.burst.work=10          milliseconds each process runs for
+ * job.burst.failureRate=0.2  fraction of runs that throw
+ * job.burst.retries=3        retries of a failed run
+ * job.burst.retryDelay=5     seconds between retries
+ * </pre>
+ *
+ * @author dave
+ */
+public class Workload {
+
+    public enum Occurrence { ONCE, MINUTELY }
+
+    public static class Job {
+
+        private final String name;
+        private final int count;
+        private final Occurrence occurrence;
+        private final int start;
+        private final int repeat;
+        private final int every;
+        private final int limit;
+        private final int work;
+        private final double failureRate;
+        private final int retries;
+        private final int retryDelay;
+
+        private Job(String name, Properties p) {
+            String prefix = "job." + name + ".";
+            this.name = name;
+            count = getInt(p, prefix + "count", 1);
+            occurrence = Occurrence.valueOf(p.getProperty(prefix + "occurrence", "once").trim().toUpperCase());
+            start = getInt(p, prefix + "start", 0);
+            repeat = getInt(p, prefix + "repeat", 1);
+            every = getInt(p, prefix + "every", 0);
+            limit = getInt(p, prefix + "limit", 0);
+            work = getInt(p, prefix + "work", 0);
+            failureRate = Double.parseDouble(p.getProperty(prefix + "failureRate", "0").trim());
+            retries = getInt(p, prefix + "retries", 0);
+            retryDelay = getInt(p, prefix + "retryDelay", 1);
+        }
+
+        public String getName() { return name; }
+        public int getCount() { return count; }
+        public Occurrence getOccurrence() { return occurrence; }
+        public int getStart() { return start; }
+        public int getRepeat() { return repeat; }
+        public int getEvery() { return every; }
+        public int getLimit() { return limit; }
+        public int getWork() { return work; }
+        public double getFailureRate() { return failureRate; }
+        public int getRetries() { return retries; }
+        public int getRetryDelay() { return retryDelay; }
+
+        /** The name given to the processes so their metrics can be found */
+        public String getProcessName() {
+            return "loadtest-" + name;
+        }
+    }
+
+    private final String name;
+    private final int duration;
+    private final int sampleInterval;
+    private final List<Job> jobs;
+
+    public Workload(Properties p) {
+        name = p.getProperty("name", "workload").trim();
+        duration = getInt(p, "duration", 60);
+        sampleInterval = getInt(p, "sampleInterval", 1);
+
+        ArrayList<Job> jobs = new ArrayList<Job>();
+        for (String job : p.getProperty("jobs", "").split(",")) {
+            if (job.trim().length() > 0)
+                jobs.add(new Job(job.trim(), p));
+        }
+        if (jobs.isEmpty())
+            throw new IllegalArgumentException("Workload " + name + " has no jobs.");
+        this.jobs = Collections.unmodifiableList(jobs);
+    }
+
+    public static Workload load(File file) throws IOException {
+        Properties p = new Properties();
+        InputStream in = new FileInputStream(file);
+        try {
+            p.load(in);
+        }
+        finally {
+            in.close();
+        }
+        return new Workload(p);
+    }
+
+    public String getName() { return name; }
+    public int getDuration() { return duration; }
+    public int getSampleInterval() { return sampleInterval; }
+    public List<Job> getJobs() { return jobs; }
+
+    private static int getInt(Properties p, String key, int defaultValue) {
+        String value = p.getProperty(key);
+        return value == null ? defaultValue : Integer.parseInt(value.trim());
+    }
+}
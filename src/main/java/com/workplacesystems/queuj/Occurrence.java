@@ -16,6 +16,7 @@
 
 package com.workplacesystems.queuj;
 
+import com.workplacesystems.queuj.schedule.ZoneRules;
 import java.io.Serializable;
 import java.util.GregorianCalendar;
 
@@ -37,6 +38,9 @@ public abstract class Occurrence implements Serializable
     // Increase the number when an incompatible change is made
     private static final long serialVersionUID = Occurrence.class.getName().hashCode() + 1;
 
+    /** Returned by getNextRunTime(long, int) when there is no next run. */
+    public static final long NO_RUN = Long.MIN_VALUE;
+
     /** INDENT allows the toString implementation to indent when owned by Resilience. */
     protected String INDENT = "";
 
@@ -64,6 +68,35 @@ public abstract class Occurrence implements Serializable
         return schedule == null ? null : schedule.getNextRunTime(schedule_start);
     }
 
+    /**
+     * Get the next run time for this Occurrence as milliseconds since the
+     * epoch in the default time zone, NO_RUN if there isn't one.
+     */
+    public final long getNextRunTime(long schedule_start, int run_count)
+    {
+        return getNextRunTime(schedule_start, run_count, ZoneRules.getDefault());
+    }
+
+    /**
+     * Get the next run time for this Occurrence as milliseconds since the
+     * epoch in the zone of the rules, NO_RUN if there isn't one.
+     */
+    public final long getNextRunTime(long schedule_start, int run_count, ZoneRules rules)
+    {
+        Schedule schedule = getSchedule(run_count);
+        return schedule == null ? NO_RUN : schedule.getNextRunTime(schedule_start, rules);
+    }
+
+    /**
+     * Get the last run time not after instant when the schedule for run_count
+     * is repeated from schedule_start, null if there isn't one.
+     */
+    public final GregorianCalendar getLastRunTime(GregorianCalendar schedule_start, int run_count, GregorianCalendar instant)
+    {
+        Schedule schedule = getSchedule(run_count);
+        return schedule == null ? null : schedule.getLastRunTime(schedule_start, instant);
+    }
+
     public abstract Schedule getSchedule(int run_count);
 
     public abstract Schedule[] getSchedules();
@@ -29,7 +29,10 @@ import com.workplacesystems.queuj.process.QueujTransaction;
 import com.workplacesystems.queuj.utils.User;
 import com.workplacesystems.utilsj.collections.FilterableArrayList;
 import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.List;
 
 /**
  * ProcessBuilder is provided by a Queue to allow for the easy creation
@@ -377,6 +380,48 @@ public class ProcessBuilder
         return new Process<K>(transaction.doTransaction(queueOwner, is_persistent, callback, true));
     }
 
+    /**
+     * Called before each Process of a batch is created to set the details of
+     * the item into the ProcessBuilder.
+     */
+    public interface ItemSetup<T>
+    {
+        void setup(T item);
+    }
+
+    /**
+     * Creates a Process for each item in a single transaction. The setup is
+     * called before each Process is created so that item specific details can
+     * be set, the other parameters are shared. The Processes are committed to
+     * the ProcessServer together and started once the transaction completes.
+     * Each Process is still started and scheduled on its own, only the
+     * persistence and the ProcessServer commit are shared. The inserts are sent
+     * as one batch by the JDBC implementation when idBlockSize or nextIdSql is
+     * set, with JPA only when the id generator allocates ids in blocks and the
+     * provider is set up for batching.
+     */
+    public <K extends Serializable & Comparable, T> List<Process<K>> newProcesses(final Collection<T> items, final ItemSetup<T> setup)
+    {
+        final String queueOwner = partition == null ? null : partition.getQueueOwnerKey();
+        final ArrayList<Process<K>> processes = new ArrayList<Process<K>>(items.size());
+        Callback<Void> callback = new Callback<Void>() {
+
+            @Override
+            protected void doAction() {
+                // Each newProcess joins this transaction
+                for (T item : items) {
+                    if (setup != null)
+                        setup.setup(item);
+                    processes.add(ProcessBuilder.this.<K>newProcess());
+                }
+            }
+        };
+
+        QueujTransaction<K> transaction = (QueujTransaction<K>)QueujFactory.getTransaction();
+        transaction.doTransaction(queueOwner, is_persistent, callback, false);
+        return processes;
+    }
+
     /**
      * Allows subclasses to set their local parameters into the Process.
      */
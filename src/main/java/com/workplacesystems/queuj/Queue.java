@@ -85,6 +85,8 @@ public final class Queue<B extends ProcessBuilder> implements Serializable
 
     private transient String queue_string = null;
 
+    private transient String queue_id = null;
+
     /** Creates a new instance of QueueBuilder */
     Queue(Queue parent_queue, QueueRestriction restriction, Index index, Class<B> process_builder_class,
         Class<? extends BatchProcessServer> process_server_class, Occurrence default_occurence, Visibility default_visibility,
@@ -317,6 +319,28 @@ public final class Queue<B extends ProcessBuilder> implements Serializable
         return queue_string;
     }
     
+    /**
+     * Get a short id for this Queue, a hash of toString. Equal queues have the
+     * same id in every JVM so it can be used to name the queue in the metrics.
+     */
+    public String getQueueId()
+    {
+        if (queue_id != null)
+            return queue_id;
+
+        // 64 bit FNV-1a
+        String queue_string = toString();
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < queue_string.length(); i++)
+        {
+            hash ^= queue_string.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        String hex = Long.toHexString(hash);
+        queue_id = "0000000000000000".substring(hex.length()) + hex;
+        return queue_id;
+    }
+
    /**
      * Get a short description of queue for debug (standard toString has many lines)  
      */
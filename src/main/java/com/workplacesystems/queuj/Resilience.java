@@ -22,6 +22,7 @@ import java.util.GregorianCalendar;
 import com.workplacesystems.queuj.occurrence.RunFiniteTimes;
 import com.workplacesystems.queuj.resilience.RunOnlyOnce;
 import com.workplacesystems.queuj.schedule.RelativeScheduleBuilder;
+import com.workplacesystems.queuj.utils.Clock;
 
 /**
  * The Resilience class provides the resilience of a Process.
@@ -116,7 +117,7 @@ public abstract class Resilience implements Serializable
             failure_attempts = failure_schedule.getSchedules().length;
         }
 
-        return getAdjustedNextRunTime(occurrence, schedule_start, run_count + (attempt_count - failure_attempts), new GregorianCalendar());
+        return getAdjustedNextRunTime(occurrence, schedule_start, run_count + (attempt_count - failure_attempts), Clock.getInstance().newCalendar());
     }
 
     protected abstract GregorianCalendar getAdjustedNextRunTime(Occurrence occurrence, GregorianCalendar schedule_start, int run_count, GregorianCalendar now);
@@ -16,8 +16,10 @@
 
 package com.workplacesystems.queuj;
 
+import com.workplacesystems.queuj.schedule.ZoneRules;
 import java.io.Serializable;
 import java.util.GregorianCalendar;
+import java.util.TimeZone;
 
 /**
  * The Schedule class provides the appropriate schedule for the Processes
@@ -39,6 +41,137 @@ public abstract class Schedule implements Serializable
 
     protected abstract GregorianCalendar getNextRunTime(GregorianCalendar schedule_start);
 
+    /**
+     * Get the next run time as milliseconds since the epoch in the zone of the
+     * rules, Occurrence.NO_RUN if there isn't one. The default goes through
+     * getNextRunTime(GregorianCalendar), the provided schedules override it to
+     * work out the same time arithmetically.
+     */
+    protected long getNextRunTime(long schedule_start, ZoneRules rules)
+    {
+        GregorianCalendar start = new GregorianCalendar(rules.getTimeZone());
+        start.setTimeInMillis(schedule_start);
+        GregorianCalendar next_run = getNextRunTime(start);
+        return next_run == null ? Occurrence.NO_RUN : next_run.getTimeInMillis();
+    }
+
+    /**
+     * Get the last run time not after instant when the schedule is repeated
+     * from schedule_start, null if the first run time is after instant.
+     * Subclasses that repeat at a fixed interval override this to skip ahead
+     * rather than stepping through every run time.
+     */
+    protected GregorianCalendar getLastRunTime(GregorianCalendar schedule_start, GregorianCalendar instant)
+    {
+        GregorianCalendar first_run = getNextRunTime(schedule_start);
+        if (first_run == null || first_run.after(instant))
+            return null;
+        return stepTo(first_run, instant);
+    }
+
+    /**
+     * Skip whole intervals from first_run, a run time not after instant, to
+     * the last run time not after instant. Run times only repeat at exactly
+     * interval_millis while the zone offset is constant so the run times
+     * around each daylight saving change are stepped through.
+     */
+    protected final GregorianCalendar skipTo(GregorianCalendar first_run, GregorianCalendar instant, long interval_millis)
+    {
+        if (interval_millis <= 0)
+            return stepTo(first_run, instant);
+
+        TimeZone zone = first_run.getTimeZone();
+        long end = instant.getTimeInMillis();
+        GregorianCalendar run = first_run;
+        while (true)
+        {
+            // Step until away from any offset change and repeating at exactly
+            // interval_millis, the calendar can take a day to settle after
+            // a run time in a daylight saving gap
+            while (true)
+            {
+                GregorianCalendar next_run = getNextRunTime(run);
+                if (next_run == null || !next_run.after(run) || next_run.after(instant))
+                    return run;
+                if (isStable(zone, run.getTimeInMillis()) &&
+                        next_run.getTimeInMillis() - run.getTimeInMillis() == interval_millis)
+                    break;
+                run = next_run;
+            }
+
+            long time = run.getTimeInMillis();
+            long change = getOffsetChange(zone, time, end);
+            long limit = change == Long.MAX_VALUE ? end : change - OFFSET_MARGIN;
+            if (limit - time >= interval_millis)
+            {
+                run = (GregorianCalendar)run.clone();
+                run.setTimeInMillis(time + ((limit - time) / interval_millis) * interval_millis);
+            }
+
+            if (change == Long.MAX_VALUE)
+                return stepTo(run, instant);
+
+            while (run.getTimeInMillis() < change + OFFSET_MARGIN)
+            {
+                GregorianCalendar next_run = getNextRunTime(run);
+                if (next_run == null || !next_run.after(run) || next_run.after(instant))
+                    return run;
+                run = next_run;
+            }
+        }
+    }
+
+    /** Run times this close to an offset change may be moved by it */
+    private static final long OFFSET_MARGIN = 3 * 60 * 60 * 1000L;
+
+    private static final long DAY = 24 * 60 * 60 * 1000L;
+
+    private static boolean isStable(TimeZone zone, long time)
+    {
+        int offset = zone.getOffset(time);
+        return zone.getOffset(time - OFFSET_MARGIN) == offset && zone.getOffset(time + OFFSET_MARGIN) == offset;
+    }
+
+    /**
+     * The first time after from and not after to with a different offset to
+     * from, Long.MAX_VALUE if there isn't one. Checks a day at a time and then
+     * bisects the day the offset changes in.
+     */
+    private static long getOffsetChange(TimeZone zone, long from, long to)
+    {
+        int offset = zone.getOffset(from);
+        long time = from;
+        while (time < to)
+        {
+            long next = Math.min(time + DAY, to);
+            if (zone.getOffset(next) != offset)
+            {
+                while (next - time > 1)
+                {
+                    long middle = time + (next - time) / 2;
+                    if (zone.getOffset(middle) == offset)
+                        time = middle;
+                    else
+                        next = middle;
+                }
+                return next;
+            }
+            time = next;
+        }
+        return Long.MAX_VALUE;
+    }
+
+    private GregorianCalendar stepTo(GregorianCalendar run, GregorianCalendar instant)
+    {
+        while (true)
+        {
+            GregorianCalendar next_run = getNextRunTime(run);
+            if (next_run == null || !next_run.after(run) || next_run.after(instant))
+                return run;
+            run = next_run;
+        }
+    }
+
     /**
      * Generate a unique String for this Schedule.
      */
@@ -17,6 +17,7 @@
 package com.workplacesystems.queuj.occurrence;
 
 import com.workplacesystems.queuj.schedule.AbsoluteScheduleBuilder;
+import com.workplacesystems.queuj.schedule.CronScheduleBuilder;
 import com.workplacesystems.queuj.schedule.DailyScheduleBuilder;
 import com.workplacesystems.queuj.schedule.HourlyScheduleBuilder;
 import com.workplacesystems.queuj.schedule.MinutelyScheduleBuilder;
@@ -55,4 +56,6 @@ public abstract class ScheduleFactory
     protected abstract YearlyScheduleBuilder newYearlyScheduleBuilder(ScheduleSetter schedule_setter);
 
     protected abstract VariableScheduleBuilder newVariableScheduleBuilder(ScheduleSetter schedule_setter);
+
+    protected abstract CronScheduleBuilder newCronScheduleBuilder(ScheduleSetter schedule_setter);
 }
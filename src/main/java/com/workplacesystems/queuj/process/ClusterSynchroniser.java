@@ -0,0 +1,147 @@
+/*
+ * Copyright 2010 Workplace Systems PLC (http://www.workplacesystems.com/).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.workplacesystems.queuj.process;
+
+import com.workplacesystems.queuj.process.cluster.ClusterNode;
+import com.workplacesystems.queuj.process.jpa.ProcessDAO;
+import com.workplacesystems.queuj.process.jpa.ProcessImpl;
+import com.workplacesystems.queuj.utils.QueujException;
+import com.workplacesystems.utilsj.Callback;
+import com.workplacesystems.utilsj.collections.FilterableArrayList;
+import com.workplacesystems.utilsj.collections.IterativeCallback;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Keeps the loaded queue owners of a cluster node in step with the processes
+ * created and deleted by the other nodes by re-reading them every
+ * com.workplacesystems.queuj.cluster.syncInterval milliseconds. New processes
+ * are started, their runner then has to claim them before they are run. Queue
+ * owners created by other nodes are loaded if they belong to this node.
+ *
+ * @author dave
+ */
+class ClusterSynchroniser implements Runnable {
+
+    private final static Log log = LogFactory.getLog(ClusterSynchroniser.class);
+
+    private final long interval;
+
+    ClusterSynchroniser(long interval) {
+        this.interval = interval;
+    }
+
+    static void start() {
+        if (ClusterNode.getInstance() == null || QueujFactory.getProcessDAO() == null)
+            return;
+
+        long interval = Long.getLong("com.workplacesystems.queuj.cluster.syncInterval", 30000).longValue();
+        if (interval <= 0)
+            return;
+
+        Thread thread = new Thread(new ClusterSynchroniser(interval), "QueuJ Cluster Synchroniser");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    public void run() {
+        while (true) {
+            try {
+                Thread.sleep(interval);
+            }
+            catch (InterruptedException ie) {
+                return;
+            }
+
+            try {
+                for (String queueOwner : QueujFactory.getProcessDAO().findQueueOwners()) {
+                    if (queueOwner != null && ShardManager.isLocal(queueOwner))
+                        ProcessImplServer.load(queueOwner);
+                }
+            }
+            catch (Exception e) {
+                new QueujException(e);
+            }
+
+            for (ProcessImplServer server : ProcessImplServer.getInstances()) {
+                // Servers only holding processes submitted here for another node are left alone
+                if (!server.isInitialised() || !ShardManager.isLocal(server.getQueueOwner()))
+                    continue;
+
+                try {
+                    synchronise(server);
+                }
+                catch (Exception e) {
+                    new QueujException(e);
+                }
+            }
+        }
+    }
+
+    void synchronise(final ProcessImplServer server) {
+        ProcessDAO processDAO = QueujFactory.getProcessDAO();
+        final List<ProcessImpl> rows = processDAO.findProcesses(server.getQueueOwner());
+        final HashSet<Object> ids = new HashSet<Object>();
+        for (ProcessImpl row : rows)
+            ids.add(row.getProcessId());
+
+        final FilterableArrayList<ProcessWrapper> added = new FilterableArrayList<ProcessWrapper>();
+        server.writeLocked(new Callback<Void>() {
+
+            @Override
+            protected void doAction() {
+                try {
+                    for (ProcessImpl row : rows) {
+                        if (server.get(row.getProcessId()) == null) {
+                            ProcessWrapper process = ProcessWrapper.getNewInstance(server.getQueueOwner(), row, true);
+                            server.submitProcess(process);
+                            added.add(process);
+                        }
+                    }
+                    server.commit();
+                }
+                catch (RuntimeException re) {
+                    server.rollback();
+                    throw re;
+                }
+            }
+        });
+
+        for (ProcessWrapper process : added)
+            process.start();
+
+        // Processes missing from the rows may just have been created so are
+        // re-read individually before being removed
+        final ArrayList<ProcessWrapper> missing = new ArrayList<ProcessWrapper>();
+        server.iterate(new IterativeCallback<ProcessWrapper,Void>() {
+
+            @Override
+            protected void nextObject(ProcessWrapper process) {
+                if (process.isPersistent() && process.processRunner == null && !ids.contains(process.getProcessKey()))
+                    missing.add(process);
+            }
+        });
+        for (ProcessWrapper process : missing)
+            process.refresh();
+
+        if (!added.isEmpty() && log.isDebugEnabled())
+            log.debug("Loaded " + added.size() + " processes created by other nodes for queue owner " + server.getQueueOwner() + ".");
+    }
+}
@@ -0,0 +1,151 @@
+/*
+ * Copyright 2010 Workplace Systems PLC (http://www.workplacesystems.com/).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.workplacesystems.queuj.process;
+
+import com.workplacesystems.queuj.Process;
+import com.workplacesystems.queuj.process.cluster.ClusterNode;
+import com.workplacesystems.queuj.process.cluster.PermitPool;
+import com.workplacesystems.queuj.restriction.ClusterQueueRestriction;
+import java.util.Arrays;
+import java.util.GregorianCalendar;
+
+/**
+ * ProcessRunner used when clustering is enabled. A persistent process is only
+ * started once the node holds its lease. A scheduled run also claims its fire
+ * time, keyed by the process id and scheduled time, which is kept for
+ * com.workplacesystems.queuj.cluster.fireRetention milliseconds after the run
+ * so a node with a stale copy of the process can't run the same fire again.
+ * A fire claimed by a node that dies mid-run expires with its other leases and
+ * is run again by the node that claims it next. Runs retrying a failure re-read
+ * the process instead. A process that another node has run or rescheduled in
+ * the meantime is restarted from its current state. A claim that fails is
+ * retried on the next heartbeat.
+ *
+ * @author dave
+ */
+class ClusteredProcessRunner extends ProcessRunnerImpl {
+
+    private static final long fireRetention = Long.getLong("com.workplacesystems.queuj.cluster.fireRetention", 3600000).longValue();
+
+    private final ClusterNode node;
+
+    private final String leaseKey;
+
+    private volatile boolean claimed = false;
+
+    private volatile String fireKey = null;
+
+    private volatile boolean ran = false;
+
+    ClusteredProcessRunner(ClusterNode node, ProcessWrapper process, GregorianCalendar runTime, boolean failed) {
+        super(process, runTime, failed);
+        this.node = node;
+        this.leaseKey = "process:" + process.getProcessKey();
+    }
+
+    @Override
+    protected boolean claimProcess() {
+        if (!process.isPersistent() || claimed)
+            return true;
+
+        // The fire time is claimed along with the process in one go
+        String key = null;
+        int count;
+        if (!isFailedRun()) {
+            // Seconds as the database may not keep the milliseconds of the timestamps the schedule is based on
+            key = "fire:" + process.getProcessKey() + ":" + getRunTime().getTimeInMillis() / 1000;
+            count = node.claim(Arrays.asList(leaseKey, key));
+        }
+        else
+            count = node.claim(leaseKey) ? 1 : 0;
+
+        if (count == 0) {
+            retryLater();
+            return false;
+        }
+        claimed = true;
+
+        boolean changed;
+        if (key != null) {
+            if (count == 2) {
+                fireKey = key;
+                return true;
+            }
+
+            // Already run by another node, or it has died and the claim has still to expire
+            changed = process.refresh();
+            if (!changed) {
+                claimed = false;
+                node.release(leaseKey);
+                retryLater();
+                return false;
+            }
+        }
+        else
+            changed = process.refresh();
+
+        if (changed) {
+            releasePermits();
+
+            // Changed by another node so start again from the current state
+            if (!process.isDeleted())
+                doInterrupt();
+            return false;
+        }
+        return true;
+    }
+
+    private void retryLater() {
+        releasePermits();
+        node.retryLater(leaseKey, new Runnable() {
+
+            public void run() {
+                doNotify();
+            }
+        });
+    }
+
+    @Override
+    protected void postStart() {
+        ran = true;
+    }
+
+    @Override
+    protected void doFinally() {
+        releasePermits();
+        if (fireKey != null) {
+            if (ran)
+                node.retain(fireKey, fireRetention);
+            else
+                node.release(fireKey);
+            fireKey = null;
+        }
+        ran = false;
+        if (claimed) {
+            claimed = false;
+            node.release(leaseKey);
+        }
+        super.doFinally();
+    }
+
+    /**
+     * Releases any permits taken for the process by a ClusterQueueRestriction.
+     */
+    private void releasePermits() {
+        PermitPool.releasePermits(ClusterQueueRestriction.getHolder(new Process(process)));
+    }
+}
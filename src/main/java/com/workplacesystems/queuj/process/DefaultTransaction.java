@@ -15,15 +15,27 @@
  */
 package com.workplacesystems.queuj.process;
 
+import com.workplacesystems.queuj.process.events.Probes;
 import com.workplacesystems.queuj.utils.QueujException;
 import com.workplacesystems.utilsj.Callback;
+import com.workplacesystems.utilsj.collections.FilterableArrayList;
+import java.util.ArrayList;
 
 /**
+ * Transaction for non persistent processes. Transactions started within another
+ * transaction join it so the ProcessServers are committed and the processes
+ * started once the outer transaction completes.
  *
  * @author dave
  */
 public class DefaultTransaction implements QueujTransaction<Integer> {
 
+    private static final ThreadLocal<ArrayList<ProcessWrapper>> tlProcesses = new ThreadLocal<ArrayList<ProcessWrapper>>();
+
+    private static final ThreadLocal<ArrayList<ProcessWrapper>> tlStartProcesses = new ThreadLocal<ArrayList<ProcessWrapper>>();
+
+    private static final ThreadLocal<ArrayList<Callback<Void>>> tlCommitCallbacks = new ThreadLocal<ArrayList<Callback<Void>>>();
+
     public <T> T doTransaction(ProcessWrapper<Integer> process, Callback<T> callback, boolean doStart) {
         return doTransaction(process.getQueueOwner(), process.isPersistent(), callback, doStart);
     }
@@ -40,35 +52,76 @@ public class DefaultTransaction implements QueujTransaction<Integer> {
         if (persistent)
             throw new QueujException("No persistence has been enabled.");
 
-        T result = callback.action();
+        boolean transactionIsLocal = false;
+        boolean committed = false;
+        try {
+            if (tlProcesses.get() == null) {
+                tlProcesses.set(new FilterableArrayList<ProcessWrapper>());
+                tlStartProcesses.set(new FilterableArrayList<ProcessWrapper>());
+                tlCommitCallbacks.set(new FilterableArrayList<Callback<Void>>());
+                transactionIsLocal = true;
+            }
 
-        if (result instanceof ProcessWrapper) {
-            ProcessWrapper process = (ProcessWrapper)result;
-            ((ProcessImplServer)process.getContainingServer()).commit();
-        }
+            T result = callback.action();
 
-        if (commitCallback != null) {
-            try {
-                commitCallback.action();
+            if (result instanceof ProcessWrapper) {
+                tlProcesses.get().add((ProcessWrapper)result);
+                if (doStart)
+                    tlStartProcesses.get().add((ProcessWrapper)result);
             }
-            catch (Exception e) {
-                new QueujException(e);
+            if (commitCallback != null)
+                tlCommitCallbacks.get().add(commitCallback);
+
+            if (transactionIsLocal) {
+                long commitStart = Probes.start();
+                for (ProcessServer ps : getProcessServers())
+                    ((ProcessImplServer)ps).commit();
+                Probes.committed(commitStart, tlProcesses.get().size());
+
+                for (Callback<Void> commitCallback0 : tlCommitCallbacks.get()) {
+                    try {
+                        commitCallback0.action();
+                    }
+                    catch (Exception e) {
+                        new QueujException(e);
+                    }
+                }
+
+                for (ProcessWrapper process : tlStartProcesses.get()) {
+                    if (process.rescheduleRequired(false))
+                        process.interruptRunner();
+                    else
+                        process.start();
+                }
+
+                for (ProcessWrapper process : tlProcesses.get())
+                    process.callListeners();
+
+                committed = true;
             }
+            return result;
         }
+        finally {
+            if (transactionIsLocal) {
+                if (!committed) {
+                    for (ProcessServer ps : getProcessServers())
+                        ((ProcessImplServer)ps).rollback();
+                }
 
-        if (result instanceof ProcessWrapper && doStart) {
-            ProcessWrapper process = (ProcessWrapper)result;
-            if (process.rescheduleRequired(false))
-                process.interruptRunner();
-            else
-                process.start();
+                tlProcesses.remove();
+                tlStartProcesses.remove();
+                tlCommitCallbacks.remove();
+            }
         }
+    }
 
-        if (result instanceof ProcessWrapper) {
-            ProcessWrapper process = (ProcessWrapper)result;
-            process.callListeners();
+    private FilterableArrayList<ProcessServer> getProcessServers() {
+        FilterableArrayList<ProcessServer> processServers = new FilterableArrayList<ProcessServer>();
+        for (ProcessWrapper process : tlProcesses.get()) {
+            ProcessServer ps = process.getContainingServer();
+            if (!processServers.contains(ps))
+                processServers.add(ps);
         }
-
-        return result;
+        return processServers;
     }
 }
@@ -0,0 +1,53 @@
+/*
+ * Copyright 2010 Workplace Systems PLC (http://www.workplacesystems.com/).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.workplacesystems.queuj.process;
+
+/**
+ * Hands out process ids from blocks reserved in a single call to the backing
+ * store. Each thread takes ids from its own block so ids are allocated without
+ * contention until the block is used up. Ids left in a block when a thread or
+ * the node ends are never used.
+ *
+ * @author dave
+ */
+public abstract class IdBlockAllocator {
+
+    private final int blockSize;
+
+    private final ThreadLocal<int[]> tlBlock = new ThreadLocal<int[]>();
+
+    protected IdBlockAllocator(int blockSize) {
+        if (blockSize < 1)
+            throw new IllegalArgumentException("Block size must be at least 1.");
+        this.blockSize = blockSize;
+    }
+
+    public Integer nextId() {
+        int[] block = tlBlock.get();
+        if (block == null || block[0] >= block[1]) {
+            int first = allocateBlock(blockSize);
+            block = new int[] { first, first + blockSize };
+            tlBlock.set(block);
+        }
+        return Integer.valueOf(block[0]++);
+    }
+
+    /**
+     * Reserve a block of ids and return the first of them.
+     */
+    protected abstract int allocateBlock(int size);
+}
@@ -0,0 +1,166 @@
+/*
+ * Copyright 2010 Workplace Systems PLC (http://www.workplacesystems.com/).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.workplacesystems.queuj.process;
+
+import com.workplacesystems.queuj.ProcessServer;
+import com.workplacesystems.queuj.process.events.Probes;
+import com.workplacesystems.utilsj.Callback;
+import com.workplacesystems.utilsj.collections.FilterableArrayList;
+import java.util.ArrayList;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Base for the transactions of the persistent QueujFactory implementations.
+ * Subclasses begin, commit and end the underlying transaction. Transactions
+ * started within another transaction join it so the ProcessServers are committed
+ * and the processes started once the outer transaction commits.
+ *
+ * @author dave
+ */
+public abstract class PersistentTransaction implements QueujTransaction<Integer> {
+
+    private final static Log log = LogFactory.getLog(PersistentTransaction.class);
+
+    private static final ThreadLocal<ArrayList<ProcessWrapper>> tlProcesses = new ThreadLocal<ArrayList<ProcessWrapper>>() {
+
+        @Override
+        protected ArrayList<ProcessWrapper> initialValue() {
+            return new FilterableArrayList<ProcessWrapper>();
+        }
+    };
+
+    private static final ThreadLocal<ArrayList<ProcessWrapper>> tlStartProcesses = new ThreadLocal<ArrayList<ProcessWrapper>>() {
+
+        @Override
+        protected ArrayList<ProcessWrapper> initialValue() {
+            return new FilterableArrayList<ProcessWrapper>();
+        }
+    };
+
+    private static final ThreadLocal<ArrayList<Callback<Void>>> tlCommitCallbacks = new ThreadLocal<ArrayList<Callback<Void>>>() {
+
+        @Override
+        protected ArrayList<Callback<Void>> initialValue() {
+            return new FilterableArrayList<Callback<Void>>();
+        }
+    };
+
+    /**
+     * Begins the underlying transaction if there isn't one for this thread yet.
+     *
+     * @return true if the transaction was begun and so must be committed here
+     */
+    protected abstract boolean begin();
+
+    /**
+     * Commits the underlying transaction begun by this transaction.
+     */
+    protected abstract void commit();
+
+    /**
+     * Called once the callback has run, whether or not it succeeded. Local
+     * transactions that haven't been committed must be rolled back.
+     */
+    protected abstract void end(boolean transactionIsLocal, boolean committed);
+
+    public <T> T doTransaction(ProcessWrapper<Integer> process, Callback<T> callback, boolean doStart) {
+        return doTransaction(process.getQueueOwner(), process.isPersistent(), callback, doStart);
+    }
+
+    public <T> T doTransaction(ProcessWrapper<Integer> process, Callback<T> callback, Callback<Void> commitCallback, boolean doStart) {
+        return doTransaction(process.getQueueOwner(), process.isPersistent(), callback, commitCallback, doStart);
+    }
+
+    public <T> T doTransaction(String queueOwner, boolean persistent, Callback<T> callback, boolean doStart) {
+        return doTransaction(queueOwner, persistent, callback, null, doStart);
+    }
+
+    public <T> T doTransaction(String queueOwner, boolean persistent, Callback<T> callback, Callback<Void> commitCallback, boolean doStart) {
+        boolean transactionIsLocal = false;
+        boolean committed = false;
+        try {
+            transactionIsLocal = begin();
+
+            T result = callback.action();
+
+            if (result instanceof ProcessWrapper) {
+                tlProcesses.get().add((ProcessWrapper)result);
+                if (doStart)
+                    tlStartProcesses.get().add((ProcessWrapper)result);
+            }
+            if (commitCallback != null)
+                tlCommitCallbacks.get().add(commitCallback);
+
+            if (transactionIsLocal) {
+                long commitStart = Probes.start();
+                commit();
+
+                for (ProcessServer ps : getProcessServers())
+                    ((ProcessImplServer)ps).commit();
+                Probes.committed(commitStart, tlProcesses.get().size());
+
+                for (Callback<Void> commitCallback0 : tlCommitCallbacks.get()) {
+                    try {
+                        commitCallback0.action();
+                    }
+                    catch (Exception e) {
+                        log.error("Commit callback failed.", e);
+                    }
+                }
+
+                for (ProcessWrapper process : tlStartProcesses.get()) {
+                    if (process.rescheduleRequired(false))
+                        process.interruptRunner();
+                    else
+                        process.start();
+                }
+
+                for (ProcessWrapper process : tlProcesses.get())
+                    process.callListeners();
+
+                committed = true;
+            }
+            return result;
+        }
+        finally {
+            try {
+                end(transactionIsLocal, committed);
+            }
+            finally {
+                if (transactionIsLocal) {
+                    for (ProcessServer ps : getProcessServers())
+                        ((ProcessImplServer)ps).rollback();
+
+                    tlProcesses.remove();
+                    tlStartProcesses.remove();
+                    tlCommitCallbacks.remove();
+                }
+            }
+        }
+    }
+
+    private FilterableArrayList<ProcessServer> getProcessServers() {
+        FilterableArrayList<ProcessServer> processServers = new FilterableArrayList<ProcessServer>();
+        for (ProcessWrapper process : tlProcesses.get()) {
+            ProcessServer ps = process.getContainingServer();
+            if (!processServers.contains(ps))
+                processServers.add(ps);
+        }
+        return processServers;
+    }
+}
@@ -0,0 +1,178 @@
+/*
+ * Copyright 2010 Workplace Systems PLC (http://www.workplacesystems.com/).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.workplacesystems.queuj.process;
+
+import com.workplacesystems.queuj.process.archive.ProcessArchive;
+import com.workplacesystems.queuj.process.jpa.ProcessImpl;
+import com.workplacesystems.queuj.utils.Clock;
+import com.workplacesystems.queuj.utils.QueujException;
+import com.workplacesystems.utilsj.Callback;
+import com.workplacesystems.utilsj.collections.FilterableArrayList;
+import com.workplacesystems.utilsj.collections.IterativeCallback;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Moves completed and failed processes that have nothing left to run out of the
+ * live queues into the ProcessArchive once they are older than the retention
+ * period com.workplacesystems.queuj.archive.retention (milliseconds). Archiving
+ * is disabled unless a retention period is set.
+ *
+ * @author dave
+ */
+class ProcessArchiver implements Runnable {
+
+    private final static Log log = LogFactory.getLog(ProcessArchiver.class);
+
+    private final long retention;
+
+    private final long interval;
+
+    private final int batchSize;
+
+    ProcessArchiver(long retention, long interval, int batchSize) {
+        this.retention = retention;
+        this.interval = interval;
+        this.batchSize = batchSize;
+    }
+
+    static void start() {
+        long retention = Long.getLong("com.workplacesystems.queuj.archive.retention", 0).longValue();
+        if (retention <= 0)
+            return;
+
+        long interval = Long.getLong("com.workplacesystems.queuj.archive.interval", 60000).longValue();
+        int batchSize = Integer.getInteger("com.workplacesystems.queuj.archive.batchSize", 100).intValue();
+
+        Thread thread = new Thread(new ProcessArchiver(retention, interval, batchSize), "QueuJ Archiver");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    public void run() {
+        while (true) {
+            try {
+                Thread.sleep(interval);
+            }
+            catch (InterruptedException ie) {
+                return;
+            }
+
+            for (ProcessImplServer server : ProcessImplServer.getInstances()) {
+                try {
+                    archive(server);
+                }
+                catch (Exception e) {
+                    new QueujException(e);
+                }
+            }
+        }
+    }
+
+    void archive(final ProcessImplServer server) {
+        final long cutoff = Clock.getInstance().currentTimeMillis() - retention;
+
+        final ArrayList<ProcessWrapper> persistent = new ArrayList<ProcessWrapper>();
+        final ArrayList<ProcessWrapper> transientProcesses = new ArrayList<ProcessWrapper>();
+        server.iterate(new IterativeCallback<ProcessWrapper,Void>() {
+
+            @Override
+            protected void nextObject(ProcessWrapper process) {
+                if (isArchivable(process, cutoff))
+                    (process.isPersistent() ? persistent : transientProcesses).add(process);
+            }
+        });
+
+        int archived = archive(server, persistent, true, cutoff) + archive(server, transientProcesses, false, cutoff);
+        if (archived > 0 && log.isInfoEnabled())
+            log.info("Archived " + archived + " processes for queue owner " + server.getQueueOwner() + ".");
+    }
+
+    private int archive(final ProcessImplServer server, List<ProcessWrapper> processes, boolean persistent, final long cutoff) {
+        int archived = 0;
+        for (int i = 0; i < processes.size(); i += batchSize) {
+            final List<ProcessWrapper> batch = processes.subList(i, Math.min(i + batchSize, processes.size()));
+
+            // Recheck as the process may have been restarted since it was selected
+            final FilterableArrayList<ProcessWrapper> toArchive = (FilterableArrayList<ProcessWrapper>)server.readLocked(new Callback<FilterableArrayList<ProcessWrapper>>() {
+
+                @Override
+                protected void doAction() {
+                    FilterableArrayList<ProcessWrapper> toArchive = new FilterableArrayList<ProcessWrapper>();
+                    for (ProcessWrapper process : batch) {
+                        if (isArchivable(process, cutoff))
+                            toArchive.add(process);
+                    }
+                    _return(toArchive);
+                }
+            });
+            if (toArchive.isEmpty())
+                continue;
+
+            // Written outside the lock so the queue isn't held up by the file I/O. A process
+            // restarted before the delete stays live, its archived copy is replaced when it's
+            // archived again.
+            ArrayList<ProcessImpl> entities = new ArrayList<ProcessImpl>();
+            for (ProcessWrapper process : toArchive)
+                entities.add((ProcessImpl)process.getProcessEntity());
+            ProcessArchive.getInstance().archive(server.getQueueOwner(), entities);
+
+            // Deleting the whole batch in one transaction lets the persistence write it together
+            Integer count = QueujFactory.getTransaction().doTransaction(server.getQueueOwner(), persistent, new Callback<Integer>() {
+
+                @Override
+                protected void doAction() {
+                    _return((Integer)server.writeLocked(new Callback<Integer>() {
+
+                        @Override
+                        protected void doAction() {
+                            int deleted = 0;
+                            for (ProcessWrapper process : toArchive) {
+                                if (isArchivable(process, cutoff)) {
+                                    process.delete();
+                                    deleted++;
+                                }
+                            }
+                            _return(Integer.valueOf(deleted));
+                        }
+                    }));
+                }
+            }, false);
+            archived += count.intValue();
+        }
+        return archived;
+    }
+
+    private boolean isArchivable(ProcessWrapper process, long cutoff) {
+        if (process.isDeleted() || process.processRunner != null)
+            return false;
+
+        if (!process.isComplete() && !process.isRunError())
+            return false;
+
+        ProcessEntity entity = process.getProcessEntity();
+        Date lastActive = entity.getStartedTimestamp() != null ? entity.getStartedTimestamp() : entity.getCreationTimestamp();
+        if (lastActive == null || lastActive.getTime() > cutoff)
+            return false;
+
+        // Recurring and retrying processes are still active
+        return process.getNextRunTime() == null;
+    }
+}
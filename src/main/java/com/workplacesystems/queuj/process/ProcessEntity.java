@@ -123,6 +123,8 @@ public interface ProcessEntity<K extends Serializable & Comparable> {
     public Output getOutput();
     public void setOutput(Output output);
 
+    public void evictPayload();
+
     public int getAttempt();
     public void setAttempt(int attempt);
 
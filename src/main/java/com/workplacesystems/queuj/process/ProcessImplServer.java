@@ -17,10 +17,16 @@
 package com.workplacesystems.queuj.process;
 
 import com.workplacesystems.queuj.Process;
+import com.workplacesystems.queuj.Queue;
 import com.workplacesystems.queuj.QueueListener;
 import com.workplacesystems.queuj.QueueOwner;
+import com.workplacesystems.queuj.process.cluster.ClusterNode;
+import com.workplacesystems.queuj.process.events.LifecycleEvents;
+import com.workplacesystems.queuj.process.jmx.Management;
+import com.workplacesystems.queuj.process.jpa.PagedProcessDAO;
 import com.workplacesystems.queuj.process.jpa.ProcessDAO;
 import com.workplacesystems.queuj.process.jpa.ProcessImpl;
+import com.workplacesystems.queuj.process.metrics.LockProfiler;
 import com.workplacesystems.utilsj.Callback;
 import com.workplacesystems.utilsj.collections.FilterableArrayList;
 import com.workplacesystems.utilsj.collections.FilterableCollection;
@@ -32,25 +38,39 @@ import com.workplacesystems.utilsj.collections.TransactionalSortedFilterableBidi
 import com.workplacesystems.utilsj.collections.decorators.SynchronizedFilterableCollection;
 import com.workplacesystems.utilsj.collections.decorators.SynchronizedTransactionalSortedFilterableBidiMap;
 import java.io.Serializable;
+import java.util.ArrayList;
 import java.util.GregorianCalendar;
 import java.util.HashMap;
+import java.util.List;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
 
 
 public class ProcessImplServer<K extends Serializable & Comparable> implements ProcessServer<K>, Serializable {
 
+    private final static Log log = LogFactory.getLog(ProcessImplServer.class);
+
     private final static HashMap<String,ProcessImplServer> instances = new HashMap<String, ProcessImplServer>();
 
     private final static ProcessImplServer instance = new ProcessImplServer(null);
 
-    final ProcessIndexesImpl indexes = new ProcessIndexesImpl();
+    static {
+        Management.register(instance);
+    }
+
+    private final QueueStates states = new QueueStates(this);
+
+    final ProcessIndexesImpl indexes = new ProcessIndexesImpl(states);
 
     final Object mutex = new Object();
 
     private final String queueOwner;
 
+    private volatile boolean initialised = false;
+
     private final TransactionalSortedFilterableBidiMap<K,ProcessWrapper<K>> processes;
 
-    private final ProcessScheduler processScheduler = new ProcessScheduler();
+    private final ProcessScheduler processScheduler = new ProcessScheduler(states);
 
     private final FilterableCollection<QueueListener> queueListeners = SynchronizedFilterableCollection.decorate(new FilterableArrayList<QueueListener>());
 
@@ -58,10 +78,20 @@ public class ProcessImplServer<K extends Serializable & Comparable> implements P
         if (queueOwner == null)
             return instance;
 
-        if (!instances.containsKey(queueOwner))
-            instances.put(queueOwner, new ProcessImplServer(queueOwner));
+        ProcessImplServer server = instances.get(queueOwner);
+        if (server == null) {
+            server = new ProcessImplServer(queueOwner);
+            instances.put(queueOwner, server);
+            Management.register(server);
+        }
+
+        return server;
+    }
 
-        return instances.get(queueOwner);
+    static synchronized List<ProcessImplServer> getInstances() {
+        ArrayList<ProcessImplServer> servers = new ArrayList<ProcessImplServer>(instances.values());
+        servers.add(0, instance);
+        return servers;
     }
 
     private ProcessImplServer(String queueOwner) {
@@ -71,6 +101,10 @@ public class ProcessImplServer<K extends Serializable & Comparable> implements P
         processes.setAutoCommit(false);
     }
 
+    public String getQueueOwner() {
+        return queueOwner;
+    }
+
     public Object getMutex() {
         return mutex;
     }
@@ -85,6 +119,17 @@ public class ProcessImplServer<K extends Serializable & Comparable> implements P
     }
 
     public void init() {
+        initialised = true;
+
+        int pageSize = Integer.getInteger("com.workplacesystems.queuj.startupPageSize", 0).intValue();
+        if (pageSize > 0) {
+            ProcessDAO processDAO = QueujFactory.getProcessDAO();
+            if (processDAO instanceof PagedProcessDAO) {
+                initPaged((PagedProcessDAO)processDAO, pageSize);
+                return;
+            }
+        }
+
         writeLocked(new Callback<Void>() {
 
             @Override
@@ -104,28 +149,200 @@ public class ProcessImplServer<K extends Serializable & Comparable> implements P
                     throw re;
                 }
 
-                (new IterativeCallback<ProcessWrapper,Void>() {
+                getRecoveryCallback().iterate(processes.valuesByValue());
+            }
+        });
+    }
+
+    /**
+     * Unloads the queue owner so it can be loaded by another cluster node. The
+     * scheduled runners are dropped and the server is forgotten, returns false
+     * leaving it loaded while any of its processes are running.
+     */
+    boolean teardown() {
+        if (queueOwner == null)
+            return false;
+
+        // The mutex is taken first as it is held by runners when unparking
+        Boolean unloaded;
+        synchronized (mutex) {
+            unloaded = writeLocked(new Callback<Boolean>() {
+
+                @Override
+                protected void doAction() {
+                    for (ProcessWrapper<K> process : processes.valuesByValue()) {
+                        ProcessRunner runner = process.processRunner;
+                        if (runner != null && !runner.isSleeping()) {
+                            _return(Boolean.FALSE);
+                            return;
+                        }
+                    }
+
+                    for (ProcessWrapper<K> process : processes.valuesByValue()) {
+                        synchronized (process.mutex) {
+                            if (process.processRunner != null) {
+                                processScheduler.unScheduleProcess(process);
+                                process.processRunner = null;
+                            }
+                        }
+                    }
+                    processScheduler.stopRunning();
+                    _return(Boolean.TRUE);
+                }
+            });
+        }
+
+        if (!unloaded.booleanValue())
+            return false;
+
+        synchronized (ProcessImplServer.class) {
+            if (instances.get(queueOwner) == this)
+                instances.remove(queueOwner);
+        }
+        Management.unregister(this);
+        if (log.isInfoEnabled())
+            log.info("Unloaded queue owner " + queueOwner + ".");
+        return true;
+    }
+
+    boolean isInitialised() {
+        return initialised;
+    }
+
+    /**
+     * Loads a queue owner that was not recovered at startup, replacing any
+     * server created for it by submitting processes. Returns false if that
+     * server still has running processes.
+     */
+    static boolean load(String queueOwner) {
+        ProcessImplServer server = newInstance(queueOwner);
+        if (server.isInitialised())
+            return true;
+
+        if (server.size() > 0) {
+            if (!server.teardown())
+                return false;
+            server = newInstance(queueOwner);
+        }
+
+        if (log.isInfoEnabled())
+            log.info("Loading queue owner " + queueOwner + ".");
+        server.init();
+        return true;
+    }
+
+    /**
+     * Streams the processes in pages, each page is indexed and its due processes
+     * started before the next page is read so processes can run while the rest of
+     * the queue is still being recovered.
+     */
+    private void initPaged(PagedProcessDAO processDAO, int pageSize) {
+        long start = System.currentTimeMillis();
+        int total = 0;
+
+        ProcessImpl last = null;
+        List<ProcessImpl> page;
+        do {
+            page = processDAO.findProcesses(queueOwner, last, pageSize);
+            if (page == null || page.isEmpty())
+                break;
+
+            initPage(page);
+
+            last = page.get(page.size() - 1);
+            total += page.size();
+            if (log.isInfoEnabled())
+                log.info("Recovered " + total + " processes for queue owner " + queueOwner + ".");
+        }
+        while (page.size() == pageSize);
+
+        if (log.isInfoEnabled())
+            log.info("Recovery of queue owner " + queueOwner + " complete, " + total + " processes in " +
+                    (System.currentTimeMillis() - start) + "ms.");
+    }
 
-                    @Override
-                    protected void nextObject(ProcessWrapper process) {
-                        if (process.isFailed() && !process.isRunError())
-                            process.updateRunError();
+    private void initPage(final List<ProcessImpl> page) {
+        writeLocked(new Callback<Void>() {
 
-                        if (process.isRestarted())
-                            process.restart();
-                        else
-                            process.start();
+            @Override
+            protected void doAction() {
+                FilterableArrayList<ProcessWrapper> pageProcesses = new FilterableArrayList<ProcessWrapper>();
+                try {
+                    for (ProcessImpl process : page) {
+                        ProcessWrapper processWrapper = ProcessWrapper.getNewInstance(queueOwner, process, true);
+                        submitProcess(processWrapper);
+                        pageProcesses.add(processWrapper);
                     }
-                }).iterate(processes.valuesByValue());
+                    commit();
+                }
+                catch (RuntimeException re) {
+                    rollback();
+                    throw re;
+                }
+
+                getRecoveryCallback().iterate(pageProcesses);
             }
         });
     }
 
+    private IterativeCallback<ProcessWrapper,Void> getRecoveryCallback() {
+        return new IterativeCallback<ProcessWrapper,Void>() {
+
+            @Override
+            protected void nextObject(ProcessWrapper process) {
+                // A clustered process may be running on another node, it is
+                // recovered by the node that claims it once the lease expires
+                if (process.isFailed() && !process.isRunError() && ClusterNode.getInstance() == null)
+                    process.updateRunError();
+
+                if (process.isRestarted())
+                    process.restart();
+                else
+                    process.start();
+            }
+        };
+    }
+
     public Boolean notifyQueue()
     {
         return getProcessScheduler().notifyAllProcesses(this, null) ? Boolean.TRUE : Boolean.FALSE;
     }
 
+    /**
+     * Stops the processes of the queue from starting, they are parked until
+     * the queue is resumed. Running processes are left to finish.
+     */
+    public void pauseQueue(Queue queue) {
+        states.get(queue).setPaused(true);
+        if (log.isInfoEnabled())
+            log.info("Paused queue " + queue.getShortString() + " of queue owner " + queueOwner + ".");
+    }
+
+    public void resumeQueue(Queue queue) {
+        states.get(queue).setPaused(false);
+        if (log.isInfoEnabled())
+            log.info("Resumed queue " + queue.getShortString() + " of queue owner " + queueOwner + ".");
+        notifyQueue();
+    }
+
+    public boolean isPaused(Queue queue) {
+        return states.get(queue).isPaused();
+    }
+
+    /**
+     * The counts of the processes in each state for each queue.
+     */
+    public List<QueueState> getQueueStates() {
+        return states.getStates();
+    }
+
+    /**
+     * The counts of the processes in each state across all queues.
+     */
+    public QueueState getTotalState() {
+        return states.getTotal();
+    }
+
     void notifyProcess(ProcessWrapper process) {
         getProcessScheduler().notifyProcess(process);
     }
@@ -146,6 +363,7 @@ public class ProcessImplServer<K extends Serializable & Comparable> implements P
     public void commit() {
         processes.commit();
         indexes.finalizeIndexes(true);
+        LifecycleEvents.committed(queueOwner);
 
         (new IterativeCallback<QueueListener,Void>() {
 
@@ -191,11 +409,11 @@ public class ProcessImplServer<K extends Serializable & Comparable> implements P
     }
 
     public <T> T readLocked(Callback<T> callback) {
-        return SyncUtils.synchronizeRead(processes, callback);
+        return SyncUtils.synchronizeRead(processes, LockProfiler.profile(LockProfiler.PROCESSES_READ, callback));
     }
 
     public <T> T writeLocked(Callback<T> callback) {
-        return SyncUtils.synchronizeWrite(processes, callback);
+        return SyncUtils.synchronizeWrite(processes, LockProfiler.profile(LockProfiler.PROCESSES_WRITE, callback));
     }
 
     public void registerListener(QueueListener listener) {
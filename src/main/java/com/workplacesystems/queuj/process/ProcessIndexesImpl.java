@@ -18,6 +18,8 @@ package com.workplacesystems.queuj.process;
 
 import com.workplacesystems.queuj.Process;
 import com.workplacesystems.queuj.Queue;
+import com.workplacesystems.queuj.process.events.Probes;
+import com.workplacesystems.queuj.process.metrics.LockProfiler;
 import com.workplacesystems.utilsj.Callback;
 import com.workplacesystems.utilsj.collections.FilterableArrayList;
 import com.workplacesystems.utilsj.collections.FilterableCollection;
@@ -50,7 +52,18 @@ public final class ProcessIndexesImpl implements ProcessIndexes {
     private final static String NULL_INDEX_KEY = ".null_custom_index_key";
     private final static String NULL_QUEUE_KEY = ".null_queue_key";
 
-    public ProcessIndexesImpl() {}
+    private final QueueStates states;
+
+    /** The changes to the counts of the states made by the current transaction */
+    private final ThreadLocal<HashMap<QueueState,int[]>> pendingCounts = new ThreadLocal<HashMap<QueueState,int[]>>();
+
+    public ProcessIndexesImpl() {
+        this(null);
+    }
+
+    ProcessIndexesImpl(QueueStates states) {
+        this.states = states;
+    }
 
     protected final void initialiseStatuses()
     {
@@ -63,16 +76,38 @@ public final class ProcessIndexesImpl implements ProcessIndexes {
         running_processes.clear();
         failed_processes.clear();
         locked_processes.clear();
+
+        if (states != null) {
+            pendingCounts.remove();
+            states.reset(QueueState.NOT_RUN);
+            states.reset(QueueState.RUNNING);
+            states.reset(QueueState.WAITING_TO_RUN);
+            states.reset(QueueState.FAILED);
+        }
     }
 
     private final Object mutex = SyncUtils.createMutex(this);
 
     public <T> T readLocked(Callback<T> callback) {
-        return SyncUtils.synchronizeRead(mutex, callback);
+        return SyncUtils.synchronizeRead(mutex, probeLockWait("indexes read", LockProfiler.profile(LockProfiler.INDEXES_READ, callback)));
     }
 
     private <T> T writeLocked(Callback<T> callback) {
-        return SyncUtils.synchronizeWrite(mutex, callback);
+        return SyncUtils.synchronizeWrite(mutex, probeLockWait("indexes write", LockProfiler.profile(LockProfiler.INDEXES_WRITE, callback)));
+    }
+
+    private <T> Callback<T> probeLockWait(final String lock, final Callback<T> callback) {
+        if (!Probes.isEnabled())
+            return callback;
+
+        final long start = Probes.start();
+        return new Callback<T>() {
+            @Override
+            protected void doAction() {
+                Probes.lockWaited(start, lock);
+                _return(callback.action());
+            }
+        };
     }
 
     public final boolean addProcessToIndex(ProcessWrapper process)
@@ -91,23 +126,24 @@ public final class ProcessIndexesImpl implements ProcessIndexes {
             return false;
 
         if (process.isNotRun())
-            return updateIndex(not_run_processes, process, add);
+            return updateIndex(not_run_processes, QueueState.NOT_RUN, process, add);
         else if (process.isRunning())
-            return updateIndex(running_processes, process, add);
+            return updateIndex(running_processes, QueueState.RUNNING, process, add);
         else if (process.isWaitingToRun())
-            return updateIndex(locked_processes, process, add);
+            return updateIndex(locked_processes, QueueState.WAITING_TO_RUN, process, add);
         else if (process.isRunError() || process.getResultCode() != 0)
-            return updateIndex(failed_processes, process, add);
+            return updateIndex(failed_processes, QueueState.FAILED, process, add);
         return false;
     }
 
-    private boolean updateIndex(final Map index_map, ProcessWrapper process, boolean add)
+    private boolean updateIndex(final Map index_map, int state, ProcessWrapper process, boolean add)
     {
         boolean modified = false;
+        boolean counted = false;
         final Queue queue = process.getQueue();
         if (queue.hasIndex())
         {
-            Map sub_index_map = (Map)SyncUtils.synchronizeWrite(index_map, new Callback() {
+            Map sub_index_map = (Map)SyncUtils.synchronizeWrite(index_map, LockProfiler.profile(LockProfiler.INDEX_MAP, new Callback() {
                 @Override
                 protected void doAction()
                 {
@@ -119,22 +155,65 @@ public final class ProcessIndexesImpl implements ProcessIndexes {
                     }
                     _return(custom_index_map);
                 }
-            });
+            }));
             modified = updateIndexMap(sub_index_map, process, add, queue.getIndexKey(new Process(process)));
-            updateIndexMap(sub_index_map, process, add, NULL_INDEX_KEY);
+            counted = updateIndexMap(sub_index_map, process, add, NULL_INDEX_KEY);
         }
         else
-            modified = updateIndexMap(index_map, process, add, queue.toString());
+            counted = modified = updateIndexMap(index_map, process, add, queue.toString());
 
         updateIndexMap(index_map, process, add, NULL_QUEUE_KEY);
 
+        if (counted && states != null)
+            countPending(states.get(queue), state, add ? 1 : -1);
+
         return modified;
     }
 
+    private void countPending(QueueState queueState, int state, int delta)
+    {
+        HashMap<QueueState,int[]> pending = pendingCounts.get();
+        if (pending == null)
+        {
+            pending = new HashMap<QueueState,int[]>();
+            pendingCounts.set(pending);
+        }
+        int[] deltas = pending.get(queueState);
+        if (deltas == null)
+        {
+            deltas = new int[QueueState.FAILED + 1];
+            pending.put(queueState, deltas);
+        }
+        deltas[state] += delta;
+    }
+
+    private void finalizeCounts(boolean commit)
+    {
+        HashMap<QueueState,int[]> pending = pendingCounts.get();
+        if (pending == null)
+            return;
+        pendingCounts.remove();
+
+        if (!commit)
+            return;
+        for (Map.Entry<QueueState,int[]> entry : pending.entrySet())
+        {
+            int[] deltas = entry.getValue();
+            for (int state = 0; state < deltas.length; state++)
+            {
+                if (deltas[state] != 0)
+                {
+                    entry.getKey().adjust(state, deltas[state]);
+                    states.getTotal().adjust(state, deltas[state]);
+                }
+            }
+        }
+    }
+
     private boolean updateIndexMap(final Map index_map, final ProcessWrapper process, final boolean add, final Object key)
     {
         final TransactionalSortedFilterableBidiMap queue_index_map =
-                (TransactionalSortedFilterableBidiMap)SyncUtils.synchronizeWrite(index_map, new Callback() {
+                (TransactionalSortedFilterableBidiMap)SyncUtils.synchronizeWrite(index_map, LockProfiler.profile(LockProfiler.INDEX_MAP, new Callback() {
             @Override
             protected void doAction()
             {
@@ -147,10 +226,10 @@ public final class ProcessIndexesImpl implements ProcessIndexes {
                 }
                 _return(queue_index_map);
             }
-        });
+        }));
 
         final Object processKey = process.getProcessKey();
-        return ((Boolean)SyncUtils.synchronizeWrite(queue_index_map, new Callback() {
+        return ((Boolean)SyncUtils.synchronizeWrite(queue_index_map, LockProfiler.profile(LockProfiler.QUEUE_INDEX_MAP, new Callback() {
             @Override
             protected void doAction()
             {
@@ -174,7 +253,7 @@ public final class ProcessIndexesImpl implements ProcessIndexes {
                 }
                 _return(Boolean.TRUE);
             }
-        })).booleanValue();
+        }))).booleanValue();
     }
 
     public void finalizeIndexes(final boolean commit)
@@ -188,11 +267,12 @@ public final class ProcessIndexesImpl implements ProcessIndexes {
                 finalizeIndex(locked_processes, commit, "Waiting to Run Map", false);
             }
         });
+        finalizeCounts(commit);
     }
 
     private int[] finalizeIndex(final Map index_map, final boolean commit, final String map_description, final boolean recursed)
     {
-        int[] total_sizes = (int[])SyncUtils.synchronizeWrite(index_map, new Callback() {
+        int[] total_sizes = (int[])SyncUtils.synchronizeWrite(index_map, LockProfiler.profile(LockProfiler.INDEX_MAP, new Callback() {
             @Override
             protected void doAction()
             {
@@ -241,7 +321,7 @@ public final class ProcessIndexesImpl implements ProcessIndexes {
                 if (log.isDebugEnabled())
                     _return(new int[] {total_size, total_indexed_size});
             }
-        });
+        }));
 
         if (!recursed && log.isDebugEnabled())
             log.debug((commit ? "Committing " : "Rolling back ") + map_description +
@@ -34,5 +34,12 @@ public interface ProcessPersistence<E extends ProcessEntity<K>, K extends Serial
 
     String update();
 
+    /**
+     * Write a status transition of the instance. If only the status, result code,
+     * attempt, run count and timestamps have changed since it was loaded just those
+     * columns are written, otherwise the whole instance is updated.
+     */
+    String updateStatus();
+
     String remove();
 }
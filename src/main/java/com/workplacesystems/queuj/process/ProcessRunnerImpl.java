@@ -1,403 +1,446 @@
-/*
- * Copyright 2010 Workplace Systems PLC (http://www.workplacesystems.com/).
- *
- * Licensed under the Apache License, Version 2.0 (the "License"); you may not
- * use this file except in compliance with the License. You may obtain a copy of
- * the License at
- *
- * http://www.apache.org/licenses/LICENSE-2.0
- *
- * Unless required by applicable law or agreed to in writing, software
- * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
- * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
- * License for the specific language governing permissions and limitations under
- * the License.
- */
-
-package com.workplacesystems.queuj.process;
-
-import com.workplacesystems.queuj.utils.BackgroundProcess;
-import com.workplacesystems.queuj.utils.QueujException;
-import com.workplacesystems.utilsj.Callback;
-import com.workplacesystems.utilsj.threadpool.ThreadObjectFactory;
-import com.workplacesystems.utilsj.threadpool.ThreadPoolCreator;
-import java.util.Collection;
-import java.util.GregorianCalendar;
-import org.apache.commons.logging.Log;
-import org.apache.commons.logging.LogFactory;
-import org.apache.commons.pool.impl.GenericObjectPool;
-import org.apache.commons.pool.impl.GenericObjectPool.Config;
-
-/**
- *
- * @author dave
- */
-public class ProcessRunnerImpl extends BackgroundProcess implements ProcessRunner {
-
-    private final static Log log = LogFactory.getLog(ProcessRunnerImpl.class);
-
-    protected final ProcessWrapper process;
-    private final GregorianCalendar runTime;
-    private final boolean failed;
-    private boolean used = false;
-
-    private volatile boolean started = false;
-
-    private volatile boolean parked = false;
-
-    private volatile boolean interrupted = false;
-
-    private GregorianCalendar nextRun = null;
-
-    private final static ThreadPoolCreator pool_creator = new ThreadPoolCreator() {
-        public ThreadObjectFactory getThreadObjectFactory()
-        {
-            return new ThreadObjectFactory() {
-                private volatile int count = 0;
-
-                @Override
-                public void initialiseThread(Thread thread)
-                {
-                    thread.setName("ProcessRunnerImpl-" + count++);
-                }
-
-                @Override
-                public void activateThread(Thread thread) {}
-
-                @Override
-                public void passivateThread(Thread thread) {}
-            };
-        }
-
-        @Override
-        public Config getThreadPoolConfig() {
-            Config config = new Config();
-            config.maxActive = -1; // No upper limit on the number of threads.
-            config.minIdle   = 5;  // Always have 5 threads waiting to go.
-            config.maxIdle   = 10; // Maximum number of idle threads.
-            config.testOnBorrow = false; // Don't test on borrow to improve performance........
-            config.testOnReturn = true; // But test on return instead
-            config.whenExhaustedAction = GenericObjectPool.WHEN_EXHAUSTED_GROW;
-            return config;
-        }
-
-        @Override
-        public String getThreadPoolName()
-        {
-            return "ProcessRunnerPool";
-        }
-    };
-
-    protected ProcessRunnerImpl(ProcessWrapper process, GregorianCalendar runTime, boolean failed) {
-
-        super(pool_creator);
-
-        this.process = process;
-        this.runTime = runTime;
-        this.failed = failed;
-        initialise();
-    }
-
-    protected final ProcessWrapper getProcess() {
-        return process;
-    }
-
-    public boolean isSleeping()
-    {
-        return parked;
-    }
-
-    public void doStart() {
-        park();
-        doNotify();
-    }
-
-    /**
-     * Currently does nothing and can't safely stop the thread (See http://docs.oracle.com/javase/7/docs/api/java/lang/Thread.html#stop()).
-     * But custom implementors may want to override this method to clear resources or set a 'stopping' flag for the thread to check.
-     */
-    public void stop() {}
-
-    public synchronized void doNotify() {
-        if (parked)
-            process.getContainingServer().getProcessScheduler().notifyProcess(process);
-        else
-            notify();
-    }
-
-    public synchronized void doInterrupt() {
-        if (!interrupted)
-        {
-            log.debug("Interrupting runner: " + hashCode());
-            interrupted = true;
-            doNotify();
-        }
-    }
-
-    private void park() {
-        log.debug("Parking runner: " + hashCode());
-        parked = true;
-        process.getContainingServer().getProcessScheduler().scheduleProcess(process, runTime);
-    }
-
-    boolean unPark(Collection<ProcessRunner> next_runners) {
-        try {
-            initialiseUnpark();
-
-            if (used)
-                return false;
-
-            if (!parked) {
-                new QueujException("Can't unPark a runner that is not parked?!?! ProcessId: "  + process.getProcessKey());
-                return false;
-            }
-
-            if (interrupted) {
-                // Get another thread to deal with this if next_runners != null
-                if (next_runners != null) {
-                    doNotify();
-                    return false;
-                }
-
-                log.debug("Runner interrupted in unPark(): " + hashCode());
-                process.getContainingServer().getProcessScheduler().unScheduleProcess(process);
-                doFinally();
-            }
-            else {
-                if (!process.isNotRun() && !process.isFailed() && !process.isDeleted()) {
-                    try {
-                        attemptProcessPessimisticLock();
-                        if (!process.isDeleted()) // Double check
-                            process.updateNotRun();
-                    }
-                    catch (Exception e) {} // Ignore
-                    finally {
-                        releaseProcessPessimisticLock();
-                    }
-                }
-
-                try {
-                    preStart();
-
-                    ProcessServer ps = process.getContainingServer();
-                    synchronized (ps.getMutex()) {
-                        log.debug("Checking unpark for runner: " + hashCode());
-                        boolean can_unpark = canRunProcess();
-                        boolean pending_delete = process.isDeleted();
-
-                        if (can_unpark || pending_delete) {
-                            log.debug("UnParking runner (pending_delete==" + (pending_delete ? "true" : "false") + "): " + hashCode());
-                            ps.getProcessScheduler().unScheduleProcess(process);
-                            if (!pending_delete) {
-                                used = true;
-                                if (next_runners == null)
-                                    start();
-                                else
-                                    next_runners.add(this);
-
-                                return true;
-                            }
-                            else {
-                                interrupted = false;
-                                doFinally();
-                            }
-                        }
-                        else {
-                            if (!process.isNotRun() && !process.isFailed()) // Because we couldn't get the lock
-                                doNotify();
-                        }
-                    }
-                }
-                catch (Exception e) {
-                    new QueujException(e);
-                    try {
-                        process.getContainingServer().getProcessScheduler().unScheduleProcess(process);
-                        process.updateRunError();
-                        nextRun = process.getNextRunTime();
-                    }
-                    finally {
-                        doFinally();
-                    }
-                }
-            }
-            return false;
-        }
-        finally {
-            finaliseUnpark();
-        }
-    }
-
-    protected void initialise() {}
-    protected void initialiseRun() {}
-    protected void initialiseUnpark() {}
-    protected void finaliseUnpark() {}
-    protected void waitForProcessPessimisticLock() {}
-    protected void waitForProcessExclusivePessimisticLock() {}
-    protected void waitForOtherPessimisticLocks() {}
-    protected void attemptProcessPessimisticLock() {}
-    protected void releaseProcessPessimisticLock() {}
-    protected void releasePessimisticLocks() {}
-    protected void preStart() {}
-    protected void postStart() {}
-    protected void postFinish() {}
-
-    protected void setStarted(boolean started) {
-        this.started = started;
-        if (!started)
-            process.getContainingServer().notifyQueue();
-    }
-
-    protected boolean isStarted() {
-        return started;
-    }
-
-    @Override
-    protected void doRun() {
-        log.debug("Starting runner: " + hashCode());
-
-        initialiseRun();
-
-        // Firstly take a local copy of the parked status for use in if statements
-        boolean local_parked = parked;
-        try
-        {
-            if (local_parked)
-            {
-                // Update class and local parked status
-                parked = false;
-                local_parked = false;
-            }
-            else
-                throw new QueujException("start called on LocalProcessRunner directly.");
-
-            if (!process.isDeleted())
-            {
-                waitForProcessPessimisticLock();
-
-                if (interrupted)
-                {
-                    log.debug("Runner interrupted when about to run: " + hashCode());
-
-                    if (!process.isDeleted())
-                        process.updateNotRun();
-                    return;
-                }
-
-                process.setupOutputFile();
-
-                waitForOtherPessimisticLocks();
-
-                process.updateRunning(runTime);
-
-                postStart();
-
-                process.runProcess(this, failed);
-
-                postFinish();
-
-                // If job didn't fail update its status to complete and delete from the queue
-                if (process.isFailed()) {
-                    nextRun = process.getNextRunTime();
-                }
-                else {
-                    QueujTransaction transaction = QueujFactory.getTransaction();
-                    transaction.doTransaction(process, new Callback<Void>() {
-
-                        @Override
-                        protected void doAction() {
-                            // Must update as other threads may have a reference to it
-                            process.updateComplete();
-
-                            nextRun = process.getNextRunTime();
-
-                            // if ok, remove it from queue and continue
-                            // if failed, leave in queue (so can be displayed) but suspend the controller
-                            if (nextRun == null && !process.keepCompleted()) {
-                                waitForProcessExclusivePessimisticLock();
-                                process.getContainingServer().writeLocked(new Callback() {
-                                    @Override
-                                    protected void doAction() {
-                                        synchronized (ProcessRunnerImpl.this) {
-                                            process.delete();
-                                        }
-                                    }
-                                });
-                            }
-                        }
-                    }, false);
-                }
-            }
-        }
-        catch (final ForceRescheduleException fre)
-        {
-            process.updateOccurrence(fre.getNewOccurence(process.getProcessEntity().getOccurrence()));
-            nextRun = process.getNextRunTime();
-        }
-        catch (Exception e)
-        {
-            new QueujException(e);
-        }
-        finally
-        {
-            releasePessimisticLocks();
-
-            // Only check local parked status in case a second thread is started concurrently
-            if (local_parked)
-            {
-                log.debug("Don't call finally as local_parked==true for runner: " + hashCode());
-            }
-            else
-                doFinally();
-            log.debug("Stopping runner: " + hashCode());
-        }
-    }
-
-    protected void doFinally() {
-        synchronized (process.mutex)
-        {
-            log.debug("Clearing runner: " + hashCode());
-            process.processRunner = null;
-
-            process.mutex.notifyAll();
-        }
-
-        // If another run is due because of failure or schedule then start it again
-        if (nextRun != null || interrupted)
-        {
-            if (log.isDebugEnabled())
-                log.debug("Runner about to call ProcessImpl.start() (interrupted==" + (interrupted ? "true" : "false") + "): " + hashCode());
-            process.start();
-        }
-
-        // Sync'ed just in case multiple threads call doFinally. Should never happen!
-        synchronized (this) {
-            setStarted(false);
-        }
-    }
-
-    private boolean canRunProcess()
-    {
-        synchronized (this) {
-            if (isStarted())
-                return true;
-        }
-
-        GregorianCalendar currentTime = new GregorianCalendar();
-        boolean can_run = process.canRun(currentTime) && !runTime.after(currentTime);
-        if (!can_run || process.isDeleted())
-            return false;
-
-        synchronized (this) {
-            setStarted(true);
-
-            if (!isStarted())
-                return false;
-        }
-
-        waitForProcessExclusivePessimisticLock();
-        process.updateLocked();
-        releasePessimisticLocks();
-
-        return true;
-    }
-}
+/*
+ * Copyright 2010 Workplace Systems PLC (http://www.workplacesystems.com/).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.workplacesystems.queuj.process;
+
+import com.workplacesystems.queuj.process.events.LifecycleEvents;
+import com.workplacesystems.queuj.process.metrics.LockProfiler;
+import com.workplacesystems.queuj.process.metrics.Metrics;
+import com.workplacesystems.queuj.utils.BackgroundProcess;
+import com.workplacesystems.queuj.utils.Clock;
+import com.workplacesystems.queuj.utils.QueujException;
+import com.workplacesystems.utilsj.Callback;
+import com.workplacesystems.utilsj.threadpool.ThreadObjectFactory;
+import com.workplacesystems.utilsj.threadpool.ThreadPoolCreator;
+import java.util.Collection;
+import java.util.GregorianCalendar;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.commons.pool.impl.GenericObjectPool;
+import org.apache.commons.pool.impl.GenericObjectPool.Config;
+
+/**
+ *
+ * @author dave
+ */
+public class ProcessRunnerImpl extends BackgroundProcess implements ProcessRunner {
+
+    private final static Log log = LogFactory.getLog(ProcessRunnerImpl.class);
+
+    protected final ProcessWrapper process;
+    private final GregorianCalendar runTime;
+    private final boolean failed;
+    private boolean used = false;
+
+    private volatile boolean started = false;
+
+    private volatile boolean parked = false;
+
+    private volatile boolean interrupted = false;
+
+    private GregorianCalendar nextRun = null;
+
+    private final static ThreadPoolCreator pool_creator = new ThreadPoolCreator() {
+        public ThreadObjectFactory getThreadObjectFactory()
+        {
+            return new ThreadObjectFactory() {
+                private volatile int count = 0;
+
+                @Override
+                public void initialiseThread(Thread thread)
+                {
+                    thread.setName("ProcessRunnerImpl-" + count++);
+                }
+
+                @Override
+                public void activateThread(Thread thread) {}
+
+                @Override
+                public void passivateThread(Thread thread) {}
+            };
+        }
+
+        @Override
+        public Config getThreadPoolConfig() {
+            Config config = new Config();
+            config.maxActive = -1; // No upper limit on the number of threads.
+            config.minIdle   = 5;  // Always have 5 threads waiting to go.
+            config.maxIdle   = 10; // Maximum number of idle threads.
+            config.testOnBorrow = false; // Don't test on borrow to improve performance........
+            config.testOnReturn = true; // But test on return instead
+            config.whenExhaustedAction = GenericObjectPool.WHEN_EXHAUSTED_GROW;
+            return config;
+        }
+
+        @Override
+        public String getThreadPoolName()
+        {
+            return "ProcessRunnerPool";
+        }
+    };
+
+    protected ProcessRunnerImpl(ProcessWrapper process, GregorianCalendar runTime, boolean failed) {
+
+        super(pool_creator);
+
+        this.process = process;
+        this.runTime = runTime;
+        this.failed = failed;
+        initialise();
+    }
+
+    protected final ProcessWrapper getProcess() {
+        return process;
+    }
+
+    protected final GregorianCalendar getRunTime() {
+        return runTime;
+    }
+
+    /** Is this run a retry of a failed run rather than a scheduled run */
+    protected final boolean isFailedRun() {
+        return failed;
+    }
+
+    public boolean isSleeping()
+    {
+        return parked;
+    }
+
+    public void doStart() {
+        park();
+        doNotify();
+    }
+
+    /**
+     * Currently does nothing and can't safely stop the thread (See http://docs.oracle.com/javase/7/docs/api/java/lang/Thread.html#stop()).
+     * But custom implementors may want to override this method to clear resources or set a 'stopping' flag for the thread to check.
+     */
+    public void stop() {}
+
+    public synchronized void doNotify() {
+        if (parked)
+            process.getContainingServer().getProcessScheduler().notifyProcess(process);
+        else
+            notify();
+    }
+
+    public synchronized void doInterrupt() {
+        if (!interrupted)
+        {
+            log.debug("Interrupting runner: " + hashCode());
+            interrupted = true;
+            doNotify();
+        }
+    }
+
+    private void park() {
+        log.debug("Parking runner: " + hashCode());
+        parked = true;
+        process.getContainingServer().getProcessScheduler().scheduleProcess(process, runTime);
+    }
+
+    boolean unPark(final Collection<ProcessRunner> next_runners) {
+        try {
+            initialiseUnpark();
+
+            if (used)
+                return false;
+
+            if (!parked) {
+                new QueujException("Can't unPark a runner that is not parked?!?! ProcessId: "  + process.getProcessKey());
+                return false;
+            }
+
+            if (interrupted) {
+                // Get another thread to deal with this if next_runners != null
+                if (next_runners != null) {
+                    doNotify();
+                    return false;
+                }
+
+                log.debug("Runner interrupted in unPark(): " + hashCode());
+                process.getContainingServer().getProcessScheduler().unScheduleProcess(process);
+                doFinally();
+            }
+            else {
+                if (!process.isNotRun() && !process.isFailed() && !process.isDeleted()) {
+                    try {
+                        attemptProcessPessimisticLock();
+                        if (!process.isDeleted()) // Double check
+                            process.updateNotRun();
+                    }
+                    catch (Exception e) {} // Ignore
+                    finally {
+                        releaseProcessPessimisticLock();
+                    }
+                }
+
+                try {
+                    preStart();
+
+                    final ProcessServer ps = process.getContainingServer();
+                    boolean unParked = LockProfiler.synchronize(LockProfiler.SERVER_MUTEX, ps.getMutex(), new Callback<Boolean>() {
+
+                        @Override
+                        protected void doAction() {
+                            log.debug("Checking unpark for runner: " + ProcessRunnerImpl.this.hashCode());
+                            boolean can_unpark = canRunProcess();
+                            boolean pending_delete = process.isDeleted();
+
+                            if (can_unpark || pending_delete) {
+                                log.debug("UnParking runner (pending_delete==" + (pending_delete ? "true" : "false") + "): " + ProcessRunnerImpl.this.hashCode());
+                                ps.getProcessScheduler().unScheduleProcess(process);
+                                if (!pending_delete) {
+                                    LifecycleEvents.unparked(process.getProcessKey());
+                                    used = true;
+                                    if (next_runners == null)
+                                        start();
+                                    else
+                                        next_runners.add(ProcessRunnerImpl.this);
+
+                                    _return(Boolean.TRUE);
+                                    return;
+                                }
+                                else {
+                                    interrupted = false;
+                                    doFinally();
+                                }
+                            }
+                            else {
+                                if (!process.isNotRun() && !process.isFailed()) // Because we couldn't get the lock
+                                    doNotify();
+                            }
+                            _return(Boolean.FALSE);
+                        }
+                    }).booleanValue();
+                    if (unParked)
+                        return true;
+                }
+                catch (Exception e) {
+                    new QueujException(e);
+                    try {
+                        process.getContainingServer().getProcessScheduler().unScheduleProcess(process);
+                        process.updateRunError();
+                        nextRun = process.getNextRunTime();
+                    }
+                    finally {
+                        doFinally();
+                    }
+                }
+            }
+            return false;
+        }
+        finally {
+            finaliseUnpark();
+        }
+    }
+
+    protected void initialise() {}
+    protected void initialiseRun() {}
+    protected void initialiseUnpark() {}
+    protected void finaliseUnpark() {}
+    protected void waitForProcessPessimisticLock() {}
+    protected void waitForProcessExclusivePessimisticLock() {}
+    protected void waitForOtherPessimisticLocks() {}
+    protected void attemptProcessPessimisticLock() {}
+    protected void releaseProcessPessimisticLock() {}
+    protected void releasePessimisticLocks() {}
+    protected void preStart() {}
+    protected void postStart() {}
+    protected void postFinish() {}
+
+    /**
+     * Called before a due process is started, returning false leaves the runner
+     * parked. Used to claim the process from the other nodes of a cluster.
+     */
+    protected boolean claimProcess() {
+        return true;
+    }
+
+    protected void setStarted(boolean started) {
+        this.started = started;
+        if (!started)
+            process.getContainingServer().notifyQueue();
+    }
+
+    protected boolean isStarted() {
+        return started;
+    }
+
+    @Override
+    protected void doRun() {
+        log.debug("Starting runner: " + hashCode());
+
+        initialiseRun();
+
+        // Firstly take a local copy of the parked status for use in if statements
+        boolean local_parked = parked;
+        Clock.getInstance().busy();
+        try
+        {
+            if (local_parked)
+            {
+                // Update class and local parked status
+                parked = false;
+                local_parked = false;
+            }
+            else
+                throw new QueujException("start called on LocalProcessRunner directly.");
+
+            if (!process.isDeleted())
+            {
+                waitForProcessPessimisticLock();
+
+                if (interrupted)
+                {
+                    log.debug("Runner interrupted when about to run: " + hashCode());
+
+                    if (!process.isDeleted())
+                        process.updateNotRun();
+                    return;
+                }
+
+                process.setupOutputFile();
+
+                waitForOtherPessimisticLocks();
+
+                process.updateRunning(runTime);
+                Metrics.started(process.getQueue(), process.getProcessName(), Clock.getInstance().currentTimeMillis() - runTime.getTimeInMillis());
+
+                postStart();
+
+                long runStart = System.nanoTime();
+                process.runProcess(this, failed);
+
+                postFinish();
+                Metrics.finished(process.getQueue(), process.getProcessName(), System.nanoTime() - runStart, process.isFailed());
+
+                // If job didn't fail update its status to complete and delete from the queue
+                if (process.isFailed()) {
+                    nextRun = process.getNextRunTime();
+                }
+                else {
+                    QueujTransaction transaction = QueujFactory.getTransaction();
+                    transaction.doTransaction(process, new Callback<Void>() {
+
+                        @Override
+                        protected void doAction() {
+                            // Must update as other threads may have a reference to it
+                            process.updateComplete();
+
+                            nextRun = process.getNextRunTime();
+
+                            // if ok, remove it from queue and continue
+                            // if failed, leave in queue (so can be displayed) but suspend the controller
+                            if (nextRun == null && !process.keepCompleted()) {
+                                waitForProcessExclusivePessimisticLock();
+                                process.getContainingServer().writeLocked(new Callback() {
+                                    @Override
+                                    protected void doAction() {
+                                        synchronized (ProcessRunnerImpl.this) {
+                                            process.delete();
+                                        }
+                                    }
+                                });
+                            }
+                        }
+                    }, false);
+                }
+            }
+        }
+        catch (final ForceRescheduleException fre)
+        {
+            process.updateOccurrence(fre.getNewOccurence(process.getProcessEntity().getOccurrence()));
+            nextRun = process.getNextRunTime();
+        }
+        catch (Exception e)
+        {
+            new QueujException(e);
+        }
+        finally
+        {
+            releasePessimisticLocks();
+
+            // Only check local parked status in case a second thread is started concurrently
+            if (local_parked)
+            {
+                log.debug("Don't call finally as local_parked==true for runner: " + hashCode());
+            }
+            else
+                doFinally();
+            Clock.getInstance().idle();
+            log.debug("Stopping runner: " + hashCode());
+        }
+    }
+
+    protected void doFinally() {
+        LockProfiler.synchronize(LockProfiler.PROCESS_MUTEX, process.mutex, new Callback<Void>()
+        {
+            @Override
+            protected void doAction()
+            {
+                log.debug("Clearing runner: " + ProcessRunnerImpl.this.hashCode());
+                process.processRunner = null;
+
+                process.mutex.notifyAll();
+            }
+        });
+
+        // If another run is due because of failure or schedule then start it again
+        if (nextRun != null || interrupted)
+        {
+            if (log.isDebugEnabled())
+                log.debug("Runner about to call ProcessImpl.start() (interrupted==" + (interrupted ? "true" : "false") + "): " + hashCode());
+            process.start();
+        }
+
+        // Sync'ed just in case multiple threads call doFinally. Should never happen!
+        synchronized (this) {
+            setStarted(false);
+        }
+    }
+
+    private boolean canRunProcess()
+    {
+        synchronized (this) {
+            if (isStarted())
+                return true;
+        }
+
+        GregorianCalendar currentTime = Clock.getInstance().newCalendar();
+        // Check the run time first as restrictions may take a permit
+        boolean can_run = !runTime.after(currentTime) && process.canRun(currentTime);
+        if (!can_run || process.isDeleted())
+            return false;
+
+        if (!claimProcess())
+            return false;
+
+        synchronized (this) {
+            setStarted(true);
+
+            if (!isStarted())
+                return false;
+        }
+
+        waitForProcessExclusivePessimisticLock();
+        process.updateLocked();
+        releasePessimisticLocks();
+
+        return true;
+    }
+}
@@ -16,6 +16,7 @@
 
 package com.workplacesystems.queuj.process;
 
+import com.workplacesystems.queuj.Queue;
 import com.workplacesystems.queuj.QueueOwner;
 import com.workplacesystems.utilsj.Callback;
 import java.io.Serializable;
@@ -48,4 +49,6 @@ public interface ProcessServer<K extends Serializable & Comparable> extends com.
     public boolean removeProcessFromIndex(ProcessWrapper<K> process);
 
     public boolean scheduleOverride(ProcessWrapper<K> process, GregorianCalendar nextRun);
+
+    public boolean isPaused(Queue queue);
 }
@@ -27,7 +27,12 @@ import com.workplacesystems.queuj.Resilience;
 import com.workplacesystems.queuj.Visibility;
 import com.workplacesystems.queuj.process.ProcessEntity.Status;
 import com.workplacesystems.queuj.process.jpa.ProcessImpl;
+import com.workplacesystems.queuj.process.events.LifecycleEvents;
+import com.workplacesystems.queuj.process.events.Probes;
+import com.workplacesystems.queuj.process.metrics.LockProfiler;
+import com.workplacesystems.queuj.process.metrics.Metrics;
 import com.workplacesystems.utilsj.Callback;
+import com.workplacesystems.queuj.utils.Clock;
 import com.workplacesystems.queuj.utils.QueujException;
 import com.workplacesystems.queuj.utils.User;
 import com.workplacesystems.utilsj.collections.FilterableArrayList;
@@ -149,7 +154,7 @@ public class ProcessWrapper<K extends Serializable & Comparable> implements Comp
         process.setKeepCompleted(keep_completed);
         process.setLocale(locale);
 
-        process.setCreationTimestamp(new Timestamp((new Date()).getTime()));
+        process.setCreationTimestamp(new Timestamp(Clock.getInstance().currentTimeMillis()));
 
         return processHome;
     }
@@ -260,10 +265,14 @@ public class ProcessWrapper<K extends Serializable & Comparable> implements Comp
         return true;
     }
 
-    public boolean rescheduleRequired(boolean otherStatus) {
-        synchronized (mutex) {
-            return ((isSleeping() && rescheduleRequired) || (isNotRun() && processRunner != null && processRunner.isSleeping() && (isDeleted() || otherStatus)));
-        }
+    public boolean rescheduleRequired(final boolean otherStatus) {
+        return LockProfiler.synchronize(LockProfiler.PROCESS_MUTEX, mutex, new Callback<Boolean>() {
+
+            @Override
+            protected void doAction() {
+                _return(Boolean.valueOf((isSleeping() && rescheduleRequired) || (isNotRun() && processRunner != null && processRunner.isSleeping() && (isDeleted() || otherStatus))));
+            }
+        }).booleanValue();
     }
 
     public boolean isDeleted() {
@@ -364,8 +373,18 @@ public class ProcessWrapper<K extends Serializable & Comparable> implements Comp
             log.debug("Checking whether " + debug_id + " can run.");
         }
 
+        if (getContainingServer().isPaused(getQueue()))
+        {
+            if (log.isDebugEnabled())
+                log.debug("Queue for " + debug_id + " is paused.");
+            return false;
+        }
+
         // Now ask the Queue if we're ok to run
-        if (!getQueue().canRun(new Process<K>(this)))
+        long start = Probes.start();
+        boolean can_run = getQueue().canRun(new Process<K>(this));
+        Probes.admission(start, getProcessKey(), can_run);
+        if (!can_run)
         {
             if (log.isDebugEnabled())
                 log.debug("Queue for " + debug_id + " reports that it cannot run.");
@@ -404,8 +423,8 @@ public class ProcessWrapper<K extends Serializable & Comparable> implements Comp
                 process.setOccurrence(occurrence);
                 process.setRunCount(0);
                 process.setAttempt(0);
-                process.setScheduledTimestamp((new GregorianCalendar()).getTime());
-                process.setStatus(Status.NOT_RUN);
+                process.setScheduledTimestamp(Clock.getInstance().newDate());
+                changeStatus(Status.NOT_RUN);
                 process.setResultCode(0);
                 if (doStart && isPersistent) processHome.update();
 
@@ -428,9 +447,9 @@ public class ProcessWrapper<K extends Serializable & Comparable> implements Comp
                 getContainingServer().removeProcessFromIndex(ProcessWrapper.this);
                 ProcessPersistence<ProcessEntity<K>,K> processHome = getProcessPersistence();
                 log.debug("ProcessWrapper.updateRunError called for " + process.getProcessId() + "(" + process.getVersion() + ")");
-                process.setStatus(Status.RUN_ERROR);
+                changeStatus(Status.RUN_ERROR);
                 process.setAttempt(process.getAttempt() + 1);
-                if (isPersistent) processHome.update();
+                if (isPersistent) processHome.updateStatus();
                 getContainingServer().addProcessToIndex(ProcessWrapper.this);
                 _return(ProcessWrapper.this);
             }
@@ -448,10 +467,10 @@ public class ProcessWrapper<K extends Serializable & Comparable> implements Comp
 
                     ProcessPersistence<ProcessEntity<K>,K> processHome = getProcessPersistence();
                     log.debug("ProcessWrapper.updateRestart called for " + process.getProcessId() + "(" + process.getVersion() + ")");
-                    process.setStatus(Status.RESTARTED);
+                    changeStatus(Status.RESTARTED);
                     process.setAttempt(0);
                     process.setResultCode(0);
-                    if (isPersistent) processHome.update();
+                    if (isPersistent) processHome.updateStatus();
                     _return(ProcessWrapper.this);
                 }
             });
@@ -468,12 +487,12 @@ public class ProcessWrapper<K extends Serializable & Comparable> implements Comp
                 getContainingServer().removeProcessFromIndex(ProcessWrapper.this);
                 ProcessPersistence<ProcessEntity<K>,K> processHome = getProcessPersistence();
                 log.debug("ProcessWrapper.updateRunning called for " + process.getProcessId() + "(" + process.getVersion() + ")");
-                process.setStatus(Status.RUNNING);
+                changeStatus(Status.RUNNING);
                 process.setResultCode(0);
 
-                process.setStartedTimestamp(new Date());
+                process.setStartedTimestamp(Clock.getInstance().newDate());
                 process.setScheduledTimestamp(runTime.getTime());
-                if (isPersistent) processHome.update();
+                if (isPersistent) processHome.updateStatus();
 
                 getContainingServer().addProcessToIndex(ProcessWrapper.this);
                 _return(ProcessWrapper.this);
@@ -489,10 +508,10 @@ public class ProcessWrapper<K extends Serializable & Comparable> implements Comp
                 getContainingServer().removeProcessFromIndex(ProcessWrapper.this);
                 ProcessPersistence<ProcessEntity<K>,K> processHome = getProcessPersistence();
                 log.debug("ProcessWrapper.updateRunning called for " + process.getProcessId() + "(" + process.getVersion() + ")");
-                process.setStatus(Status.RUNNING);
+                changeStatus(Status.RUNNING);
                 process.setResultCode(0);
 
-                if (isPersistent) processHome.update();
+                if (isPersistent) processHome.updateStatus();
 
                 getContainingServer().addProcessToIndex(ProcessWrapper.this);
                 _return(ProcessWrapper.this);
@@ -508,9 +527,9 @@ public class ProcessWrapper<K extends Serializable & Comparable> implements Comp
                 getContainingServer().removeProcessFromIndex(ProcessWrapper.this);
                 ProcessPersistence<ProcessEntity<K>,K> processHome = getProcessPersistence();
                 log.debug("ProcessWrapper.updateNotRun called for " + process.getProcessId() + "(" + process.getVersion() + ")");
-                process.setStatus(Status.NOT_RUN);
+                changeStatus(Status.NOT_RUN);
                 process.setResultCode(0);
-                if (isPersistent) processHome.update();
+                if (isPersistent) processHome.updateStatus();
                 getContainingServer().addProcessToIndex(ProcessWrapper.this);
                 _return(ProcessWrapper.this);
             }
@@ -525,9 +544,9 @@ public class ProcessWrapper<K extends Serializable & Comparable> implements Comp
                 getContainingServer().removeProcessFromIndex(ProcessWrapper.this);
                 ProcessPersistence<ProcessEntity<K>,K> processHome = getProcessPersistence();
                 log.debug("ProcessWrapper.updateLocked called for " + process.getProcessId() + "(" + process.getVersion() + ")");
-                process.setStatus(Status.LOCKED);
+                changeStatus(Status.LOCKED);
                 process.setResultCode(0);
-                if (isPersistent) processHome.update();
+                if (isPersistent) processHome.updateStatus();
                 getContainingServer().addProcessToIndex(ProcessWrapper.this);
                 _return(ProcessWrapper.this);
             }
@@ -542,10 +561,10 @@ public class ProcessWrapper<K extends Serializable & Comparable> implements Comp
                 getContainingServer().removeProcessFromIndex(ProcessWrapper.this);
                 ProcessPersistence<ProcessEntity<K>,K> processHome = getProcessPersistence();
                 log.debug("ProcessWrapper.updateComplete called for " + process.getProcessId() + "(" + process.getVersion() + ")");
-                process.setStatus(Status.RUN_OK);
+                changeStatus(Status.RUN_OK);
                 process.setRunCount(process.getRunCount() + 1);
                 process.setAttempt(0);
-                if (isPersistent) processHome.update();
+                if (isPersistent) processHome.updateStatus();
                 _return(ProcessWrapper.this);
             }
         });
@@ -586,6 +605,48 @@ public class ProcessWrapper<K extends Serializable & Comparable> implements Comp
         return true;
     }
 
+    /**
+     * Re-reads a persistent process so changes made by the other nodes of a
+     * cluster are seen. Returns true if the process has changed or has been
+     * deleted.
+     */
+    boolean refresh() {
+        if (!isPersistent || deleted)
+            return false;
+
+        final Integer version = process.getVersion();
+        final boolean[] removed = new boolean[1];
+        doTransaction(new Callback() {
+
+            @Override
+            protected void doAction() {
+                ProcessEntity<K> current = process;
+                getContainingServer().removeProcessFromIndex(ProcessWrapper.this);
+                getProcessPersistence();
+                if (process.getProcessId() == null) {
+                    log.debug("ProcessWrapper.refresh found " + current.getProcessId() + " has been deleted");
+                    process = current;
+                    getContainingServer().delete(ProcessWrapper.this);
+                    removed[0] = true;
+                }
+                else
+                    getContainingServer().addProcessToIndex(ProcessWrapper.this);
+                _return(ProcessWrapper.this);
+            }
+        }, new Callback<Void>() {
+
+            @Override
+            protected void doAction() {
+                if (removed[0])
+                    deleted = true;
+            }
+        });
+
+        if (deleted)
+            return true;
+        return version == null ? process.getVersion() != null : !version.equals(process.getVersion());
+    }
+
     public boolean restart(User user, QueueOwner activeQueueOwner) {
         if (deleted)
             return false;
@@ -650,36 +711,48 @@ public class ProcessWrapper<K extends Serializable & Comparable> implements Comp
 
     public void notifyRunner()
     {
-        synchronized (mutex)
+        LockProfiler.synchronize(LockProfiler.PROCESS_MUTEX, mutex, new Callback<Void>()
         {
-            if (isSleeping())
+            @Override
+            protected void doAction()
             {
-                processRunner.doNotify();
+                if (isSleeping())
+                {
+                    processRunner.doNotify();
+                }
             }
-        }
+        });
     }
 
     public void notifyRunnerForDelete()
     {
-        synchronized (mutex)
+        LockProfiler.synchronize(LockProfiler.PROCESS_MUTEX, mutex, new Callback<Void>()
         {
-            if (isNotRun() && processRunner != null && processRunner.isSleeping())
+            @Override
+            protected void doAction()
             {
-                processRunner.doNotify();
+                if (isNotRun() && processRunner != null && processRunner.isSleeping())
+                {
+                    processRunner.doNotify();
+                }
             }
-        }
+        });
     }
 
     public void interruptRunner()
     {
         rescheduleRequired = false;
-        synchronized (mutex)
+        LockProfiler.synchronize(LockProfiler.PROCESS_MUTEX, mutex, new Callback<Void>()
         {
-            if ((isNotRun() && processRunner != null && processRunner.isSleeping()))
+            @Override
+            protected void doAction()
             {
-                processRunner.doInterrupt();
+                if ((isNotRun() && processRunner != null && processRunner.isSleeping()))
+                {
+                    processRunner.doInterrupt();
+                }
             }
-        }
+        });
     }
 
     boolean unPark(FilterableArrayList local_next_runners) {
@@ -700,6 +773,11 @@ public class ProcessWrapper<K extends Serializable & Comparable> implements Comp
         return false;
     }
 
+    private void changeStatus(Status status) {
+        process.setStatus(status);
+        LifecycleEvents.statusChanged(getProcessKey(), status);
+    }
+
     private void doTransaction(Callback<Void> callback) {
         doTransaction(callback, null);
     }
@@ -758,6 +836,8 @@ public class ProcessWrapper<K extends Serializable & Comparable> implements Comp
                 run_status.force_reschedule_exception == null &&
                 !run_status.force_complete)
         {
+            long sectionStart = System.nanoTime();
+            LifecycleEvents.sectionStarted(getProcessKey(), getProcessName());
             try
             {
                 doTransaction(new Callback() {
@@ -800,6 +880,9 @@ public class ProcessWrapper<K extends Serializable & Comparable> implements Comp
 
                 // does not set run error if result code > 1
                 run_status.run_error = run_status.exception_thrown || run_status.result_code.equals (BatchProcessServer.FAILURE);
+
+                Metrics.section(getQueue(), getProcessName(), System.nanoTime() - sectionStart, run_status.run_error);
+                LifecycleEvents.sectionEnded(getProcessKey(), getProcessName(), run_status.run_error);
             }
         }
 
@@ -875,7 +958,7 @@ public class ProcessWrapper<K extends Serializable & Comparable> implements Comp
                     if (run_status.run_error) {
                         // Increase attempt first to prevent exception in higherPriorityJobExists
                         process.setAttempt(process.getAttempt() + 1);
-                        process.setStatus(Status.RUN_ERROR);
+                        changeStatus(Status.RUN_ERROR);
                     }
 
                     getContainingServer().addProcessToIndex(ProcessWrapper.this);
@@ -889,6 +972,10 @@ public class ProcessWrapper<K extends Serializable & Comparable> implements Comp
         {
             new QueujException(e);
         }
+
+        // The parameters and output aren't needed again until the next run
+        if (isPersistent)
+            process.evictPayload();
     }
 
     private void handleRescheduleException(final ProcessRunStatus run_status, ForceRescheduleException fre) {
@@ -1018,32 +1105,42 @@ public class ProcessWrapper<K extends Serializable & Comparable> implements Comp
     }
 
     public void startNow() {
-        start(new GregorianCalendar(), isFailed());
+        start(Clock.getInstance().newCalendar(), isFailed());
     }
 
     private boolean restart0() {
-        return start(new GregorianCalendar(), true);
+        return start(Clock.getInstance().newCalendar(), true);
     }
 
-    public boolean start(GregorianCalendar runTime, boolean isFailed) {
-        synchronized (mutex) {
-            if (processRunner != null)
-                return false;
+    public boolean start(final GregorianCalendar runTime, final boolean isFailed) {
+        return LockProfiler.synchronize(LockProfiler.PROCESS_MUTEX, mutex, new Callback<Boolean>() {
 
-            processRunner = QueujFactory.getProcessRunner(this, runTime, isFailed);
-            processRunner.doStart();
-            return true;
-        }
+            @Override
+            protected void doAction() {
+                if (processRunner != null) {
+                    _return(Boolean.FALSE);
+                    return;
+                }
+
+                processRunner = QueujFactory.getProcessRunner(ProcessWrapper.this, runTime, isFailed);
+                processRunner.doStart();
+                _return(Boolean.TRUE);
+            }
+        }).booleanValue();
     }
 
     public void stop()
     {
-        synchronized (mutex)
+        LockProfiler.synchronize(LockProfiler.PROCESS_MUTEX, mutex, new Callback<Void>()
         {
-            if (processRunner == null)
-                return;
+            @Override
+            protected void doAction()
+            {
+                if (processRunner == null)
+                    return;
 
-            processRunner.stop();
-        }
+                processRunner.stop();
+            }
+        });
     }
 }
@@ -0,0 +1,102 @@
+/*
+ * Copyright 2010 Workplace Systems PLC (http://www.workplacesystems.com/).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.workplacesystems.queuj.process;
+
+import com.workplacesystems.queuj.Queue;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * The number of processes of a queue in each state, kept up to date as the
+ * indexes are committed and the processes are scheduled so they can be read
+ * without iterating the indexes. The counts of a server's processes across
+ * all queues are held in a QueueState without a queue.
+ *
+ * @author dave
+ */
+public final class QueueState {
+
+    static final int NOT_RUN = 0;
+    static final int RUNNING = 1;
+    static final int WAITING_TO_RUN = 2;
+    static final int FAILED = 3;
+    static final int PARKED = 4;
+    static final int READY = 5;
+
+    private final Queue queue;
+
+    private final AtomicIntegerArray counts = new AtomicIntegerArray(6);
+
+    private volatile boolean paused = false;
+
+    QueueState(Queue queue) {
+        this.queue = queue;
+    }
+
+    /**
+     * The queue, null for the totals of the server.
+     */
+    public Queue getQueue() {
+        return queue;
+    }
+
+    void adjust(int state, int delta) {
+        counts.addAndGet(state, delta);
+    }
+
+    void reset(int state) {
+        counts.set(state, 0);
+    }
+
+    public int getNotRunCount() {
+        return counts.get(NOT_RUN);
+    }
+
+    public int getRunningCount() {
+        return counts.get(RUNNING);
+    }
+
+    public int getWaitingToRunCount() {
+        return counts.get(WAITING_TO_RUN);
+    }
+
+    public int getFailedCount() {
+        return counts.get(FAILED);
+    }
+
+    /**
+     * Processes parked in the scheduler until their next run time.
+     */
+    public int getParkedCount() {
+        return counts.get(PARKED);
+    }
+
+    /**
+     * Processes due to run that are parked in the scheduler waiting to be
+     * unparked or for their queue restriction to allow them to run.
+     */
+    public int getReadyCount() {
+        return counts.get(READY);
+    }
+
+    public boolean isPaused() {
+        return paused;
+    }
+
+    void setPaused(boolean paused) {
+        this.paused = paused;
+    }
+}
@@ -0,0 +1,76 @@
+/*
+ * Copyright 2010 Workplace Systems PLC (http://www.workplacesystems.com/).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.workplacesystems.queuj.process;
+
+import com.workplacesystems.queuj.Queue;
+import com.workplacesystems.queuj.process.jmx.Management;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The QueueStates of the queues of a ProcessImplServer, keyed by the queue
+ * id.
+ *
+ * @author dave
+ */
+final class QueueStates {
+
+    private final ProcessImplServer server;
+
+    private final ConcurrentHashMap<String,QueueState> states = new ConcurrentHashMap<String,QueueState>();
+
+    private final QueueState total = new QueueState(null);
+
+    QueueStates(ProcessImplServer server) {
+        this.server = server;
+    }
+
+    QueueState get(Queue queue) {
+        // The id is cached by the queue
+        String key = queue.getQueueId();
+        QueueState state = states.get(key);
+        if (state == null) {
+            state = new QueueState(queue);
+            QueueState existing = states.putIfAbsent(key, state);
+            if (existing != null)
+                return existing;
+            if (server != null)
+                Management.register(server, state);
+        }
+        return state;
+    }
+
+    QueueState getTotal() {
+        return total;
+    }
+
+    List<QueueState> getStates() {
+        return new ArrayList<QueueState>(states.values());
+    }
+
+    void adjust(Queue queue, int state, int delta) {
+        get(queue).adjust(state, delta);
+        total.adjust(state, delta);
+    }
+
+    void reset(int state) {
+        for (QueueState queueState : states.values())
+            queueState.reset(state);
+        total.reset(state);
+    }
+}
@@ -70,6 +70,10 @@ public abstract class QueujFactory<K extends Serializable & Comparable> {
             log.info("Utilsj " + com.workplacesystems.utilsj.Version.getVersionMini());
 
             instance.init();
+
+            ProcessArchiver.start();
+            ClusterSynchroniser.start();
+            ShardManager.start();
         }
         catch (Exception e) {
             throw new QueujException(e);
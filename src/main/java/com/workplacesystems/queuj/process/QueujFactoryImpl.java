@@ -5,11 +5,21 @@
 package com.workplacesystems.queuj.process;
 
 import com.workplacesystems.queuj.ProcessBuilder;
+import com.workplacesystems.queuj.process.cluster.ClusterNode;
 import com.workplacesystems.queuj.process.jpa.ProcessDAO;
 import com.workplacesystems.queuj.process.jpa.ProcessImpl;
+import com.workplacesystems.queuj.utils.QueujException;
 import com.workplacesystems.utilsj.Callback;
+import java.util.ArrayList;
 import java.util.GregorianCalendar;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  *
@@ -19,6 +29,66 @@ public class QueujFactoryImpl extends QueujFactory<Integer> {
     
     protected void init() {}
 
+    /**
+     * Recover the persisted processes of the queue owners, concurrently if
+     * com.workplacesystems.queuj.startupThreads is greater than 1.
+     */
+    protected void initProcessServers(List<String> queueOwners) {
+        // Only the queue owners assigned to this node when sharding a cluster
+        queueOwners = ShardManager.getLocal(queueOwners);
+
+        int threads = Integer.getInteger("com.workplacesystems.queuj.startupThreads", 1).intValue();
+        if (threads <= 1 || queueOwners.size() <= 1) {
+            for (String queueOwner : queueOwners)
+                initProcessServer(queueOwner);
+            return;
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(threads, queueOwners.size()), new ThreadFactory() {
+
+            private final AtomicInteger count = new AtomicInteger();
+
+            public Thread newThread(Runnable r) {
+                return new Thread(r, "QueuJ Recovery " + count.incrementAndGet());
+            }
+        });
+
+        try {
+            ArrayList<Future<?>> futures = new ArrayList<Future<?>>();
+            for (final String queueOwner : queueOwners) {
+                futures.add(executor.submit(new Runnable() {
+
+                    public void run() {
+                        initProcessServer(queueOwner);
+                    }
+                }));
+            }
+
+            for (Future<?> future : futures) {
+                try {
+                    future.get();
+                }
+                catch (ExecutionException ee) {
+                    if (ee.getCause() instanceof RuntimeException)
+                        throw (RuntimeException)ee.getCause();
+                    if (ee.getCause() instanceof Error)
+                        throw (Error)ee.getCause();
+                    throw new QueujException(ee);
+                }
+                catch (InterruptedException ie) {
+                    throw new QueujException(ie);
+                }
+            }
+        }
+        finally {
+            executor.shutdown();
+        }
+    }
+
+    protected void initProcessServer(String queueOwner) {
+        ((ProcessImplServer)getProcessServer0(queueOwner, null)).init();
+    }
+
     protected void setDefaultImplOptions0(ProcessBuilder processBuilder, Map<String, Object> implementation_options) {}
 
     protected ProcessServer getProcessServer0(String queueOwner, Map<String, Object> server_options) {
@@ -46,6 +116,9 @@ public class QueujFactoryImpl extends QueujFactory<Integer> {
     }
 
     protected ProcessRunner getProcessRunner0(ProcessWrapper process, GregorianCalendar runTime, boolean isFailed) {
+        ClusterNode node = ClusterNode.getInstance();
+        if (node != null)
+            return new ClusteredProcessRunner(node, process, runTime, isFailed);
         return new ProcessRunnerImpl(process, runTime, isFailed);
     }
 }
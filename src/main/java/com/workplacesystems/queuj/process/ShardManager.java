@@ -0,0 +1,172 @@
+/*
+ * Copyright 2010 Workplace Systems PLC (http://www.workplacesystems.com/).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.workplacesystems.queuj.process;
+
+import com.workplacesystems.queuj.process.cluster.ClusterNode;
+import com.workplacesystems.queuj.process.cluster.ConsistentHash;
+import com.workplacesystems.queuj.process.cluster.MembershipSource;
+import com.workplacesystems.queuj.process.jpa.ProcessDAO;
+import com.workplacesystems.queuj.utils.QueujException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeSet;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Shares the queue owners between the members of a cluster when
+ * com.workplacesystems.queuj.cluster.sharding is set. Each owner is assigned to
+ * a member by a ConsistentHash with com.workplacesystems.queuj.cluster.virtualNodes
+ * positions per member and the membership is checked every
+ * com.workplacesystems.queuj.cluster.membershipInterval milliseconds. When it
+ * changes the owners assigned to this node are loaded and the others unloaded
+ * once none of their processes are running.
+ *
+ * @author dave
+ */
+class ShardManager implements Runnable {
+
+    private final static Log log = LogFactory.getLog(ShardManager.class);
+
+    private static ShardManager instance;
+
+    private static boolean initialised = false;
+
+    private final ClusterNode node;
+
+    private final MembershipSource membershipSource;
+
+    private final int virtualNodes;
+
+    private final long interval;
+
+    private List<String> members = new ArrayList<String>();
+
+    private volatile ConsistentHash ring;
+
+    ShardManager(ClusterNode node, MembershipSource membershipSource, int virtualNodes, long interval) {
+        this.node = node;
+        this.membershipSource = membershipSource;
+        this.virtualNodes = virtualNodes;
+        this.interval = interval;
+        updateMembers();
+    }
+
+    static synchronized ShardManager getInstance() {
+        if (!initialised) {
+            initialised = true;
+            ClusterNode node = ClusterNode.getInstance();
+            if (node == null || !Boolean.getBoolean("com.workplacesystems.queuj.cluster.sharding"))
+                return null;
+
+            int virtualNodes = Integer.getInteger("com.workplacesystems.queuj.cluster.virtualNodes", 100).intValue();
+            long interval = Long.getLong("com.workplacesystems.queuj.cluster.membershipInterval", 10000).longValue();
+            instance = new ShardManager(node, MembershipSource.newInstance(), virtualNodes, interval);
+        }
+        return instance;
+    }
+
+    static void start() {
+        ShardManager shardManager = getInstance();
+        if (shardManager == null)
+            return;
+
+        Thread thread = new Thread(shardManager, "QueuJ Shard Manager");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Returns true if the queue owner should be loaded by this node.
+     */
+    static boolean isLocal(String queueOwner) {
+        ShardManager shardManager = getInstance();
+        return shardManager == null || shardManager.isAssigned(queueOwner);
+    }
+
+    static List<String> getLocal(List<String> queueOwners) {
+        ArrayList<String> local = new ArrayList<String>();
+        for (String queueOwner : queueOwners) {
+            if (isLocal(queueOwner))
+                local.add(queueOwner);
+        }
+        return local;
+    }
+
+    boolean isAssigned(String queueOwner) {
+        // The default queue owner is loaded everywhere
+        if (queueOwner == null)
+            return true;
+        return node.getNodeId().equals(ring.getMember(queueOwner));
+    }
+
+    /**
+     * Rebuilds the ring if the membership has changed, returns true if it has.
+     */
+    synchronized boolean updateMembers() {
+        TreeSet<String> current = new TreeSet<String>(membershipSource.getMembers(node));
+        current.add(node.getNodeId());
+        List<String> newMembers = new ArrayList<String>(current);
+        if (ring != null && newMembers.equals(members))
+            return false;
+
+        members = newMembers;
+        ring = new ConsistentHash(members, virtualNodes);
+        if (log.isInfoEnabled())
+            log.info("Cluster members are now " + members + ".");
+        return true;
+    }
+
+    public void run() {
+        while (true) {
+            try {
+                Thread.sleep(interval);
+            }
+            catch (InterruptedException ie) {
+                return;
+            }
+
+            try {
+                updateMembers();
+                rebalance();
+            }
+            catch (Exception e) {
+                new QueujException(e);
+            }
+        }
+    }
+
+    /**
+     * Loads the assigned queue owners that are not loaded and unloads the
+     * others. Owners created here by submitting processes for another node are
+     * unloaded too once their processes have run.
+     */
+    void rebalance() {
+        ProcessDAO processDAO = QueujFactory.getProcessDAO();
+        if (processDAO != null) {
+            for (String queueOwner : processDAO.findQueueOwners()) {
+                if (queueOwner != null && isAssigned(queueOwner))
+                    ProcessImplServer.load(queueOwner);
+            }
+        }
+
+        for (ProcessImplServer server : ProcessImplServer.getInstances()) {
+            if (!isAssigned(server.getQueueOwner()))
+                server.teardown();
+        }
+    }
+}
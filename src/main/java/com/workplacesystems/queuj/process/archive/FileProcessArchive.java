@@ -0,0 +1,181 @@
+/*
+ * Copyright 2010 Workplace Systems PLC (http://www.workplacesystems.com/).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.workplacesystems.queuj.process.archive;
+
+import com.workplacesystems.queuj.process.codec.ColumnCodec;
+import com.workplacesystems.queuj.process.jpa.ProcessImpl;
+import com.workplacesystems.queuj.utils.QueujException;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Appends the archived processes of each queue owner to a file in the directory
+ * com.workplacesystems.queuj.archive.directory. Each process is written with the
+ * ColumnCodec including its parameters and output. A partial record left by a
+ * crash is cut off before the file is next appended to.
+ *
+ * @author dave
+ */
+public class FileProcessArchive extends ProcessArchive {
+
+    private final static Log log = LogFactory.getLog(FileProcessArchive.class);
+
+    private static final ColumnCodec codec = ColumnCodec.getInstance();
+
+    private final File directory;
+
+    private final HashSet<File> checked = new HashSet<File>();
+
+    public FileProcessArchive() {
+        directory = new File(System.getProperty("com.workplacesystems.queuj.archive.directory", "queuj-archive"));
+    }
+
+    private File getFile(String queueOwner) {
+        try {
+            return new File(directory, "process" + (queueOwner == null ? "" : "_" + URLEncoder.encode(queueOwner, "UTF-8")) + ".archive");
+        }
+        catch (UnsupportedEncodingException e) {
+            throw new QueujException(e);
+        }
+    }
+
+    @Override
+    public synchronized void archive(String queueOwner, List<ProcessImpl> processes) {
+        if (!directory.isDirectory() && !directory.mkdirs())
+            throw new QueujException("Unable to create archive directory " + directory);
+
+        File file = getFile(queueOwner);
+        try {
+            if (!checked.contains(file))
+                truncateIncomplete(file);
+
+            FileOutputStream fos = new FileOutputStream(file, true);
+            boolean written = false;
+            try {
+                DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fos, 65536));
+                for (ProcessImpl process : processes) {
+                    // Make sure evicted columns are loaded before the process leaves the live queue
+                    process.getParameters();
+                    process.getOutput();
+
+                    byte[] data = codec.encode(process);
+                    out.writeInt(data.length);
+                    out.write(data);
+                }
+                out.flush();
+                fos.getFD().sync();
+                written = true;
+            }
+            finally {
+                fos.close();
+                // A failed write may have left a partial record so check the file again next time
+                if (written)
+                    checked.add(file);
+                else
+                    checked.remove(file);
+            }
+        }
+        catch (IOException e) {
+            throw new QueujException(e);
+        }
+    }
+
+    /**
+     * Cuts off a partial record left by a crash during archive so the next
+     * records aren't appended after it.
+     */
+    private void truncateIncomplete(File file) throws IOException {
+        if (!file.exists())
+            return;
+
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            long length = raf.length();
+            long position = 0;
+            while (position + 4 <= length) {
+                raf.seek(position);
+                int recordLength = raf.readInt();
+                if (recordLength < 0 || position + 4 + recordLength > length)
+                    break;
+                position += 4 + recordLength;
+            }
+            if (position < length) {
+                log.warn("Discarding incomplete archive record at " + position + " in " + file);
+                raf.getChannel().truncate(position);
+                raf.getFD().sync();
+            }
+        }
+        finally {
+            raf.close();
+        }
+    }
+
+    @Override
+    public synchronized List<ProcessImpl> findProcesses(String queueOwner) {
+        File file = getFile(queueOwner);
+        LinkedHashMap<String,ProcessImpl> processes = new LinkedHashMap<String,ProcessImpl>();
+        if (!file.exists())
+            return new ArrayList<ProcessImpl>();
+
+        try {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 65536));
+            try {
+                while (true) {
+                    int length;
+                    try {
+                        length = in.readInt();
+                    }
+                    catch (EOFException eofe) {
+                        break;
+                    }
+                    byte[] data = new byte[length];
+                    in.readFully(data);
+
+                    ProcessImpl process = (ProcessImpl)codec.decode(data);
+                    processes.remove(process.getUUID());
+                    processes.put(process.getUUID(), process);
+                }
+            }
+            catch (EOFException eofe) {
+                // Incomplete final write
+            }
+            finally {
+                in.close();
+            }
+        }
+        catch (IOException e) {
+            throw new QueujException(e);
+        }
+        return new ArrayList<ProcessImpl>(processes.values());
+    }
+}
@@ -0,0 +1,80 @@
+/*
+ * Copyright 2010 Workplace Systems PLC (http://www.workplacesystems.com/).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.workplacesystems.queuj.process.archive;
+
+import com.workplacesystems.queuj.process.jpa.ProcessImpl;
+import java.util.List;
+
+/**
+ * Storage for completed and failed processes that have been moved out of the
+ * live queue. The archive is selected with the system property
+ * com.workplacesystems.queuj.process.archive.ProcessArchive and defaults to
+ * FileProcessArchive.
+ *
+ * @author dave
+ */
+public abstract class ProcessArchive {
+
+    private static ProcessArchive instance;
+
+    public static synchronized ProcessArchive getInstance() {
+        if (instance == null) {
+            ProcessArchive instance0 = null;
+
+            String implClazzStr = System.getProperty("com.workplacesystems.queuj.process.archive.ProcessArchive");
+            if (implClazzStr != null) {
+                try {
+                    Class<ProcessArchive> implClazz = (Class<ProcessArchive>) Class.forName(implClazzStr);
+                    instance0 = implClazz.newInstance();
+                }
+                catch (ClassNotFoundException ex) {
+                }
+                catch (InstantiationException ex) {
+                }
+                catch (IllegalAccessException ex) {
+                }
+            }
+
+            if (instance0 == null)
+                instance0 = new FileProcessArchive();
+
+            instance = instance0;
+        }
+        return instance;
+    }
+
+    protected ProcessArchive() {}
+
+    /**
+     * Add the processes to the archive. A process may be archived more than once
+     * if the removal from the live queue fails, the latest copy is returned.
+     */
+    public abstract void archive(String queueOwner, List<ProcessImpl> processes);
+
+    /**
+     * Returns the archived processes of the queue owner in the order they were archived.
+     */
+    public abstract List<ProcessImpl> findProcesses(String queueOwner);
+
+    public ProcessImpl findProcess(String queueOwner, String uuid) {
+        for (ProcessImpl process : findProcesses(queueOwner)) {
+            if (process.getUUID().equals(uuid))
+                return process;
+        }
+        return null;
+    }
+}
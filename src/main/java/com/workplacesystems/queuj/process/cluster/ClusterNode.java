@@ -0,0 +1,272 @@
+/*
+ * Copyright 2010 Workplace Systems PLC (http://www.workplacesystems.com/).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.workplacesystems.queuj.process.cluster;
+
+import com.workplacesystems.queuj.process.jdbc.JDBCLeaseStore;
+import com.workplacesystems.queuj.utils.QueujException;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * One node of a cluster of JVMs sharing the same process tables. Clustering is
+ * enabled with the system property com.workplacesystems.queuj.cluster and the
+ * node then claims a lease before running a persistent process so it is only
+ * run by one node at a time. The held leases are renewed by a heartbeat every
+ * third of the lease time (com.workplacesystems.queuj.cluster.leaseTime,
+ * milliseconds) so the leases of a node that dies expire and can be claimed by
+ * the others. The LeaseStore is selected with the system property
+ * com.workplacesystems.queuj.process.cluster.LeaseStore and defaults to
+ * JDBCLeaseStore. Expired leases are purged from the store every
+ * com.workplacesystems.queuj.cluster.purgeInterval milliseconds.
+ *
+ * @author dave
+ */
+public class ClusterNode implements Runnable {
+
+    private final static Log log = LogFactory.getLog(ClusterNode.class);
+
+    private static ClusterNode instance;
+
+    private static boolean initialised = false;
+
+    private final String nodeId;
+
+    private final LeaseStore leaseStore;
+
+    private final long leaseTime;
+
+    private final Set<String> leases = Collections.newSetFromMap(new ConcurrentHashMap<String,Boolean>());
+
+    private final LinkedHashMap<Object,Runnable> retries = new LinkedHashMap<Object,Runnable>();
+
+    private final CopyOnWriteArrayList<Runnable> tasks = new CopyOnWriteArrayList<Runnable>();
+
+    private volatile Thread heartbeat;
+
+    private final long purgeInterval = Long.getLong("com.workplacesystems.queuj.cluster.purgeInterval", 600000).longValue();
+
+    private long lastPurge = System.currentTimeMillis();
+
+    /**
+     * Returns the node of this JVM or null if clustering is not enabled.
+     */
+    public static synchronized ClusterNode getInstance() {
+        if (!initialised) {
+            initialised = true;
+            if (!Boolean.getBoolean("com.workplacesystems.queuj.cluster"))
+                return null;
+
+            LeaseStore leaseStore = null;
+            String implClazzStr = System.getProperty("com.workplacesystems.queuj.process.cluster.LeaseStore");
+            if (implClazzStr != null) {
+                try {
+                    Class<LeaseStore> implClazz = (Class<LeaseStore>) Class.forName(implClazzStr);
+                    leaseStore = implClazz.newInstance();
+                }
+                catch (ClassNotFoundException ex) {
+                }
+                catch (InstantiationException ex) {
+                }
+                catch (IllegalAccessException ex) {
+                }
+            }
+
+            if (leaseStore == null)
+                leaseStore = new JDBCLeaseStore();
+
+            String nodeId = System.getProperty("com.workplacesystems.queuj.cluster.nodeId");
+            if (nodeId == null)
+                nodeId = getHostName() + "-" + UUID.randomUUID();
+
+            long leaseTime = Long.getLong("com.workplacesystems.queuj.cluster.leaseTime", 30000).longValue();
+
+            instance = new ClusterNode(nodeId, leaseStore, leaseTime);
+            instance.start();
+
+            if (log.isInfoEnabled())
+                log.info("Started cluster node " + nodeId + ".");
+        }
+        return instance;
+    }
+
+    private static String getHostName() {
+        try {
+            return InetAddress.getLocalHost().getHostName();
+        }
+        catch (UnknownHostException e) {
+            return "queuj";
+        }
+    }
+
+    public ClusterNode(String nodeId, LeaseStore leaseStore, long leaseTime) {
+        this.nodeId = nodeId;
+        this.leaseStore = leaseStore;
+        this.leaseTime = leaseTime;
+    }
+
+    public String getNodeId() {
+        return nodeId;
+    }
+
+    public LeaseStore getLeaseStore() {
+        return leaseStore;
+    }
+
+    public long getLeaseTime() {
+        return leaseTime;
+    }
+
+    /**
+     * Takes the lease for the key, returns false if another node holds it.
+     */
+    public boolean claim(String key) {
+        long now = System.currentTimeMillis();
+        if (!leaseStore.acquire(key, nodeId, now, now + leaseTime))
+            return false;
+        leases.add(key);
+        return true;
+    }
+
+    /**
+     * Takes the leases for the keys in order in one go, stopping at the first
+     * one held by another node. Returns the number of leases taken.
+     */
+    public int claim(List<String> keys) {
+        long now = System.currentTimeMillis();
+        int count = leaseStore.acquire(keys, nodeId, now, now + leaseTime);
+        leases.addAll(keys.subList(0, count));
+        return count;
+    }
+
+    public boolean holds(String key) {
+        return leases.contains(key);
+    }
+
+    public void release(String key) {
+        if (leases.remove(key))
+            leaseStore.release(key, nodeId);
+    }
+
+    /**
+     * Stops renewing the lease but keeps it for the given time so no other
+     * node can take it.
+     */
+    public void retain(String key, long time) {
+        if (leases.remove(key))
+            leaseStore.renew(nodeId, Collections.singletonList(key), System.currentTimeMillis() + time);
+    }
+
+    /**
+     * Runs the callback on the next heartbeat, for retrying a claim that
+     * failed because another node held the lease. Only the last callback
+     * for the key is run.
+     */
+    public void retryLater(Object key, Runnable retry) {
+        synchronized (retries) {
+            retries.put(key, retry);
+        }
+    }
+
+    /**
+     * Runs the task on every heartbeat.
+     */
+    public void addHeartbeatTask(Runnable task) {
+        tasks.add(task);
+    }
+
+    public void heartbeat() {
+        if (!leases.isEmpty()) {
+            Collection<String> lost = leaseStore.renew(nodeId, new ArrayList<String>(leases), System.currentTimeMillis() + leaseTime);
+            for (String key : lost) {
+                leases.remove(key);
+                log.warn("Cluster node " + nodeId + " has lost the lease " + key + ".");
+            }
+        }
+
+        ArrayList<Runnable> due;
+        synchronized (retries) {
+            due = new ArrayList<Runnable>(retries.values());
+            retries.clear();
+        }
+        due.addAll(tasks);
+
+        long now = System.currentTimeMillis();
+        if (purgeInterval > 0 && now - lastPurge >= purgeInterval) {
+            lastPurge = now;
+            leaseStore.purge(now);
+        }
+        for (Runnable retry : due) {
+            try {
+                retry.run();
+            }
+            catch (Exception e) {
+                new QueujException(e);
+            }
+        }
+    }
+
+    public synchronized void start() {
+        if (heartbeat != null)
+            return;
+
+        heartbeat = new Thread(this, "QueuJ Cluster Heartbeat");
+        heartbeat.setDaemon(true);
+        heartbeat.start();
+    }
+
+    /**
+     * Stops the heartbeat without releasing the leases, they are left to
+     * expire.
+     */
+    public synchronized void stop() {
+        if (heartbeat == null)
+            return;
+
+        heartbeat.interrupt();
+        heartbeat = null;
+    }
+
+    public void run() {
+        long interval = Math.max(leaseTime / 3, 1);
+        while (heartbeat == Thread.currentThread()) {
+            try {
+                Thread.sleep(interval);
+            }
+            catch (InterruptedException ie) {
+                return;
+            }
+
+            try {
+                heartbeat();
+            }
+            catch (Exception e) {
+                new QueujException(e);
+            }
+        }
+    }
+}
@@ -0,0 +1,71 @@
+/*
+ * Copyright 2010 Workplace Systems PLC (http://www.workplacesystems.com/).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.workplacesystems.queuj.process.cluster;
+
+import com.workplacesystems.queuj.utils.QueujException;
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collection;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Assigns keys to the members of a cluster. Each member is placed on a hash
+ * ring at a number of virtual node positions and a key belongs to the member
+ * at the first position following the key's hash, so adding or removing a
+ * member only moves the keys between it and its neighbours.
+ *
+ * @author dave
+ */
+public class ConsistentHash {
+
+    private final TreeMap<Integer,String> ring = new TreeMap<Integer,String>();
+
+    public ConsistentHash(Collection<String> members, int virtualNodes) {
+        for (String member : members) {
+            for (int i = 0; i < virtualNodes; i++)
+                ring.put(hash(member + "#" + i), member);
+        }
+    }
+
+    /**
+     * Returns the member the key belongs to or null if there are no members.
+     */
+    public String getMember(String key) {
+        if (ring.isEmpty())
+            return null;
+
+        Map.Entry<Integer,String> entry = ring.ceilingEntry(hash(key));
+        if (entry == null)
+            entry = ring.firstEntry();
+        return entry.getValue();
+    }
+
+    private static int hash(String key) {
+        try {
+            byte[] digest = MessageDigest.getInstance("MD5").digest(key.getBytes("UTF-8"));
+            return ((digest[0] & 0xff) << 24) | ((digest[1] & 0xff) << 16) | ((digest[2] & 0xff) << 8) | (digest[3] & 0xff);
+        }
+        catch (NoSuchAlgorithmException e) {
+            throw new QueujException(e);
+        }
+        catch (UnsupportedEncodingException e) {
+            throw new QueujException(e);
+        }
+    }
+}
@@ -0,0 +1,79 @@
+/*
+ * Copyright 2010 Workplace Systems PLC (http://www.workplacesystems.com/).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.workplacesystems.queuj.process.cluster;
+
+import com.workplacesystems.queuj.utils.QueujException;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reads the members from a shared file with one node id per line, lines
+ * starting with # are ignored. The file is re-read when it is modified.
+ *
+ * @author dave
+ */
+public class FileMembershipSource extends MembershipSource {
+
+    private final File file;
+
+    private long lastModified = -1;
+
+    private List<String> members = new ArrayList<String>();
+
+    public FileMembershipSource(String fileName) {
+        this.file = new File(fileName);
+    }
+
+    @Override
+    public synchronized List<String> getMembers(ClusterNode node) {
+        if (file.lastModified() != lastModified) {
+            lastModified = file.lastModified();
+            members = read();
+        }
+        return new ArrayList<String>(members);
+    }
+
+    private List<String> read() {
+        ArrayList<String> read = new ArrayList<String>();
+        if (!file.exists())
+            return read;
+
+        try {
+            BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"));
+            try {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    line = line.trim();
+                    if (line.length() > 0 && !line.startsWith("#"))
+                        read.add(line);
+                }
+            }
+            finally {
+                reader.close();
+            }
+        }
+        catch (IOException e) {
+            throw new QueujException(e);
+        }
+        return read;
+    }
+}
@@ -0,0 +1,42 @@
+/*
+ * Copyright 2010 Workplace Systems PLC (http://www.workplacesystems.com/).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.workplacesystems.queuj.process.cluster;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Each node holds a lease on its own id in the LeaseStore, which the heartbeat
+ * keeps renewed, so the members are the nodes with a lease that has not
+ * expired.
+ *
+ * @author dave
+ */
+public class LeaseMembershipSource extends MembershipSource {
+
+    private static final String PREFIX = "node:";
+
+    @Override
+    public List<String> getMembers(ClusterNode node) {
+        node.claim(PREFIX + node.getNodeId());
+
+        ArrayList<String> members = new ArrayList<String>();
+        for (String key : node.getLeaseStore().findKeys(PREFIX, System.currentTimeMillis()))
+            members.add(key.substring(PREFIX.length()));
+        return members;
+    }
+}
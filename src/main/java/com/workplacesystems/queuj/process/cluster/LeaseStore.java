@@ -0,0 +1,59 @@
+/*
+ * Copyright 2010 Workplace Systems PLC (http://www.workplacesystems.com/).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.workplacesystems.queuj.process.cluster;
+
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Shared store of the leases held by the nodes of a cluster. A lease is taken
+ * with a compare and set so only one node can hold a key until it is released
+ * or its expiry time passes.
+ *
+ * @author dave
+ */
+public interface LeaseStore {
+
+    /**
+     * Takes the lease if it is free, has expired or is already held by the node.
+     */
+    public boolean acquire(String key, String nodeId, long now, long expires);
+
+    /**
+     * Takes the leases in order in one go, stopping at the first one held by
+     * another node, and returns the number taken.
+     */
+    public int acquire(List<String> keys, String nodeId, long now, long expires);
+
+    /**
+     * Moves on the expiry of the node's leases and returns the keys that the
+     * node no longer holds.
+     */
+    public Collection<String> renew(String nodeId, Collection<String> keys, long expires);
+
+    public void release(String key, String nodeId);
+
+    /**
+     * Returns the keys starting with the prefix whose leases have not expired.
+     */
+    public List<String> findKeys(String prefix, long now);
+
+    /**
+     * Removes the leases that have expired.
+     */
+    public void purge(long now);
+}
@@ -0,0 +1,63 @@
+/*
+ * Copyright 2010 Workplace Systems PLC (http://www.workplacesystems.com/).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.workplacesystems.queuj.process.cluster;
+
+import java.util.List;
+
+/**
+ * Supplies the current members of the cluster for sharding the queue owners.
+ * The source is selected with the system property
+ * com.workplacesystems.queuj.process.cluster.MembershipSource and defaults to
+ * FileMembershipSource when com.workplacesystems.queuj.cluster.membersFile is
+ * set, otherwise to LeaseMembershipSource.
+ *
+ * @author dave
+ */
+public abstract class MembershipSource {
+
+    public static MembershipSource newInstance() {
+        MembershipSource instance = null;
+
+        String implClazzStr = System.getProperty("com.workplacesystems.queuj.process.cluster.MembershipSource");
+        if (implClazzStr != null) {
+            try {
+                Class<MembershipSource> implClazz = (Class<MembershipSource>) Class.forName(implClazzStr);
+                instance = implClazz.newInstance();
+            }
+            catch (ClassNotFoundException ex) {
+            }
+            catch (InstantiationException ex) {
+            }
+            catch (IllegalAccessException ex) {
+            }
+        }
+
+        if (instance == null) {
+            String membersFile = System.getProperty("com.workplacesystems.queuj.cluster.membersFile");
+            instance = membersFile != null ? new FileMembershipSource(membersFile) : new LeaseMembershipSource();
+        }
+
+        return instance;
+    }
+
+    protected MembershipSource() {}
+
+    /**
+     * Returns the ids of the live members, called periodically by each node.
+     */
+    public abstract List<String> getMembers(ClusterNode node);
+}
@@ -0,0 +1,98 @@
+/*
+ * Copyright 2010 Workplace Systems PLC (http://www.workplacesystems.com/).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.workplacesystems.queuj.process.cluster;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * LeaseStore held in memory, for nodes running in the same JVM.
+ *
+ * @author dave
+ */
+public class MemoryLeaseStore implements LeaseStore {
+
+    private final HashMap<String,Lease> leases = new HashMap<String,Lease>();
+
+    private static class Lease {
+        private String nodeId;
+        private long expires;
+    }
+
+    public synchronized boolean acquire(String key, String nodeId, long now, long expires) {
+        Lease lease = leases.get(key);
+        if (lease == null) {
+            lease = new Lease();
+            leases.put(key, lease);
+        }
+        else if (lease.expires >= now && !lease.nodeId.equals(nodeId))
+            return false;
+
+        lease.nodeId = nodeId;
+        lease.expires = expires;
+        return true;
+    }
+
+    public synchronized int acquire(List<String> keys, String nodeId, long now, long expires) {
+        int count = 0;
+        for (String key : keys) {
+            if (!acquire(key, nodeId, now, expires))
+                break;
+            count++;
+        }
+        return count;
+    }
+
+    public synchronized Collection<String> renew(String nodeId, Collection<String> keys, long expires) {
+        ArrayList<String> lost = new ArrayList<String>();
+        for (String key : keys) {
+            Lease lease = leases.get(key);
+            if (lease == null || !lease.nodeId.equals(nodeId))
+                lost.add(key);
+            else
+                lease.expires = expires;
+        }
+        return lost;
+    }
+
+    public synchronized void release(String key, String nodeId) {
+        Lease lease = leases.get(key);
+        if (lease != null && lease.nodeId.equals(nodeId))
+            leases.remove(key);
+    }
+
+    public synchronized List<String> findKeys(String prefix, long now) {
+        ArrayList<String> keys = new ArrayList<String>();
+        for (Map.Entry<String,Lease> lease : leases.entrySet()) {
+            if (lease.getKey().startsWith(prefix) && lease.getValue().expires >= now)
+                keys.add(lease.getKey());
+        }
+        return keys;
+    }
+
+    public synchronized void purge(long now) {
+        Iterator<Lease> i = leases.values().iterator();
+        while (i.hasNext()) {
+            if (i.next().expires < now)
+                i.remove();
+        }
+    }
+}
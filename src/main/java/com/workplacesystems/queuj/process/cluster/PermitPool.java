@@ -0,0 +1,163 @@
+/*
+ * Copyright 2010 Workplace Systems PLC (http://www.workplacesystems.com/).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.workplacesystems.queuj.process.cluster;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A fixed number of permits shared by the nodes of a cluster, each permit is a
+ * lease in the LeaseStore. To keep the round trips down a released permit is
+ * kept by the node for com.workplacesystems.queuj.cluster.permitLinger
+ * milliseconds so it can be reused locally, and after failing to find a free
+ * permit the store isn't asked again for
+ * com.workplacesystems.queuj.cluster.permitRetry milliseconds.
+ *
+ * @author dave
+ */
+public class PermitPool {
+
+    private final static HashMap<String,PermitPool> pools = new HashMap<String,PermitPool>();
+
+    private final ClusterNode node;
+
+    private final String name;
+
+    private final int permits;
+
+    private final long linger;
+
+    private final long retry;
+
+    private final HashMap<String,String> inUse = new HashMap<String,String>();
+
+    /** Held permits that are not in use and the time they were released */
+    private final LinkedHashMap<String,Long> idle = new LinkedHashMap<String,Long>();
+
+    private long fullUntil = 0;
+
+    private int nextSlot = 0;
+
+    public static PermitPool getInstance(ClusterNode node, String name, int permits) {
+        synchronized (pools) {
+            PermitPool pool = pools.get(name);
+            if (pool == null || pool.node != node || pool.permits != permits) {
+                pool = new PermitPool(node, name, permits,
+                        Long.getLong("com.workplacesystems.queuj.cluster.permitLinger", 1000).longValue(),
+                        Long.getLong("com.workplacesystems.queuj.cluster.permitRetry", 1000).longValue());
+                pools.put(name, pool);
+            }
+            return pool;
+        }
+    }
+
+    /**
+     * Releases the permits of every pool held by the holder.
+     */
+    public static void releasePermits(String holder) {
+        PermitPool[] all;
+        synchronized (pools) {
+            all = pools.values().toArray(new PermitPool[pools.size()]);
+        }
+        for (PermitPool pool : all)
+            pool.release(holder);
+    }
+
+    public PermitPool(ClusterNode node, String name, int permits, long linger, long retry) {
+        this.node = node;
+        this.name = name;
+        this.permits = permits;
+        this.linger = linger;
+        this.retry = retry;
+
+        node.addHeartbeatTask(new Runnable() {
+
+            public void run() {
+                expireIdle();
+            }
+        });
+    }
+
+    /**
+     * Takes a permit for the holder, returns false if they are all in use.
+     */
+    public synchronized boolean acquire(String holder) {
+        if (inUse.containsKey(holder))
+            return true;
+
+        // Reuse a permit this node already holds
+        Iterator<String> i = idle.keySet().iterator();
+        while (i.hasNext()) {
+            String key = i.next();
+            i.remove();
+            if (node.holds(key)) {
+                inUse.put(holder, key);
+                return true;
+            }
+        }
+
+        long now = System.currentTimeMillis();
+        if (now < fullUntil)
+            return false;
+
+        for (int attempt = 0; attempt < permits; attempt++) {
+            int slot = (nextSlot + attempt) % permits;
+            String key = "permit:" + name + ":" + slot;
+            if (inUse.containsValue(key))
+                continue;
+
+            if (node.claim(key)) {
+                nextSlot = (slot + 1) % permits;
+                inUse.put(holder, key);
+                return true;
+            }
+        }
+
+        fullUntil = now + retry;
+        return false;
+    }
+
+    public synchronized void release(String holder) {
+        String key = inUse.remove(holder);
+        if (key == null)
+            return;
+
+        if (linger > 0)
+            idle.put(key, Long.valueOf(System.currentTimeMillis()));
+        else
+            node.release(key);
+        fullUntil = 0;
+    }
+
+    public synchronized int getInUse() {
+        return inUse.size();
+    }
+
+    synchronized void expireIdle() {
+        long expiry = System.currentTimeMillis() - linger;
+        Iterator<Map.Entry<String,Long>> i = idle.entrySet().iterator();
+        while (i.hasNext()) {
+            Map.Entry<String,Long> entry = i.next();
+            if (entry.getValue().longValue() <= expiry) {
+                i.remove();
+                node.release(entry.getKey());
+            }
+        }
+    }
+}
@@ -0,0 +1,135 @@
+/*
+ * Copyright 2010 Workplace Systems PLC (http://www.workplacesystems.com/).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.workplacesystems.queuj.process.codec;
+
+import com.workplacesystems.queuj.utils.QueujException;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectStreamClass;
+
+/**
+ * Converts the object valued process columns to and from their stored bytes.
+ * Rows written with plain Java serialization can always be read whichever
+ * codec is selected. The codec is selected with the system property
+ * com.workplacesystems.queuj.process.codec.ColumnCodec and defaults to
+ * CompactColumnCodec.
+ *
+ * @author dave
+ */
+public abstract class ColumnCodec {
+
+    private static final ColumnCodec instance;
+
+    static {
+        ColumnCodec instance0 = null;
+
+        String implClazzStr = System.getProperty("com.workplacesystems.queuj.process.codec.ColumnCodec");
+        if (implClazzStr != null) {
+            try {
+                Class<ColumnCodec> implClazz = (Class<ColumnCodec>) Class.forName(implClazzStr);
+                instance0 = implClazz.newInstance();
+            }
+            catch (ClassNotFoundException ex) {
+            }
+            catch (InstantiationException ex) {
+            }
+            catch (IllegalAccessException ex) {
+            }
+        }
+
+        if (instance0 == null)
+            instance0 = new CompactColumnCodec();
+
+        instance = instance0;
+    }
+
+    public static ColumnCodec getInstance() {
+        return instance;
+    }
+
+    protected ColumnCodec() {}
+
+    public final byte[] encode(Object value) {
+        if (value == null)
+            return null;
+
+        try {
+            return encode0(value);
+        }
+        catch (IOException e) {
+            throw new QueujException(e);
+        }
+    }
+
+    public final Object decode(byte[] data) {
+        if (data == null || data.length == 0)
+            return null;
+
+        try {
+            if (isJavaSerialized(data))
+                return readJavaSerialized(data);
+            return decode0(data);
+        }
+        catch (IOException e) {
+            throw new QueujException(e);
+        }
+        catch (ClassNotFoundException e) {
+            throw new QueujException(e);
+        }
+    }
+
+    protected abstract byte[] encode0(Object value) throws IOException;
+
+    protected abstract Object decode0(byte[] data) throws IOException, ClassNotFoundException;
+
+    private static boolean isJavaSerialized(byte[] data) {
+        return data.length > 1 && data[0] == (byte)0xAC && data[1] == (byte)0xED;
+    }
+
+    private static Object readJavaSerialized(byte[] data) throws IOException, ClassNotFoundException {
+        ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(data)) {
+
+            @Override
+            protected Class<?> resolveClass(ObjectStreamClass desc) throws IOException, ClassNotFoundException {
+                try {
+                    return super.resolveClass(desc);
+                }
+                catch (ClassNotFoundException cnfe) {
+                    return loadClass(desc.getName());
+                }
+            }
+        };
+        try {
+            return in.readObject();
+        }
+        finally {
+            in.close();
+        }
+    }
+
+    static Class<?> loadClass(String name) throws ClassNotFoundException {
+        ClassLoader loader = Thread.currentThread().getContextClassLoader();
+        if (loader != null) {
+            try {
+                return Class.forName(name, false, loader);
+            }
+            catch (ClassNotFoundException cnfe) {}
+        }
+        return Class.forName(name, false, ColumnCodec.class.getClassLoader());
+    }
+}
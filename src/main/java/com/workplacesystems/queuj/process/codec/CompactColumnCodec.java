@@ -0,0 +1,417 @@
+/*
+ * Copyright 2010 Workplace Systems PLC (http://www.workplacesystems.com/).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.workplacesystems.queuj.process.codec;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.Externalizable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InvalidClassException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamClass;
+import java.io.ObjectStreamField;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.io.StreamCorruptedException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.HashMap;
+import java.util.Locale;
+
+/**
+ * Compact versioned encoding of the process columns. Locales are stored as
+ * their language, country and variant. Other objects use Java serialization
+ * with the class name in each class descriptor replaced by a registered type
+ * id (or the class name for unregistered classes). The rest of the descriptor
+ * (serialVersionUID, flags and fields) is kept so rows remain readable after
+ * compatible changes to a class, as with standard serialization. Ids 1 to 999
+ * are reserved for QueuJ, applications should register their own Serializable
+ * classes with registerType using ids from 1000.
+ *
+ * @author dave
+ */
+public class CompactColumnCodec extends ColumnCodec {
+
+    static final byte MAGIC = 'Q';
+
+    static final byte VERSION = 2;
+
+    // Version 1 didn't store the fields of the class descriptors
+    private static final byte VERSION_NO_FIELDS = 1;
+
+    private static final byte LOCALE = 1;
+
+    private static final byte OBJECT = 2;
+
+    private static final HashMap<Class<?>,Integer> type_ids = new HashMap<Class<?>,Integer>();
+
+    private static final HashMap<Integer,Class<?>> types = new HashMap<Integer,Class<?>>();
+
+    static {
+        // Never renumber, these ids are stored in the database
+        String[] builtin_types = new String[] {
+            /* 1 */ "java.lang.Number",
+            /* 2 */ "java.lang.Integer",
+            /* 3 */ "java.lang.Long",
+            /* 4 */ "java.lang.Boolean",
+            /* 5 */ "java.lang.Enum",
+            /* 6 */ "java.util.ArrayList",
+            /* 7 */ "java.util.HashMap",
+            /* 8 */ "java.util.Date",
+            /* 9 */ "java.util.Calendar",
+            /* 10 */ "java.util.GregorianCalendar",
+            /* 11 */ "java.util.Locale",
+            /* 12 */ "java.util.TimeZone",
+            /* 13 */ "[Ljava.lang.Object;",
+            /* 14 */ "[Ljava.lang.Class;",
+            /* 15 */ "[I",
+            /* 16 */ "com.workplacesystems.queuj.Queue",
+            /* 17 */ "com.workplacesystems.queuj.QueueRestriction",
+            /* 18 */ "com.workplacesystems.queuj.Index",
+            /* 19 */ "com.workplacesystems.queuj.Occurrence",
+            /* 20 */ "com.workplacesystems.queuj.Schedule",
+            /* 21 */ "com.workplacesystems.queuj.Resilience",
+            /* 22 */ "com.workplacesystems.queuj.Access",
+            /* 23 */ "com.workplacesystems.queuj.Visibility",
+            /* 24 */ "com.workplacesystems.queuj.Output",
+            /* 25 */ "com.workplacesystems.queuj.ProcessBuilder",
+            /* 26 */ "com.workplacesystems.queuj.access.FullAccess",
+            /* 27 */ "com.workplacesystems.queuj.access.NoAccess",
+            /* 28 */ "com.workplacesystems.queuj.visibility.Visible",
+            /* 29 */ "com.workplacesystems.queuj.visibility.Invisible",
+            /* 30 */ "com.workplacesystems.queuj.output.NoOutput",
+            /* 31 */ "com.workplacesystems.queuj.resilience.CatchUp",
+            /* 32 */ "com.workplacesystems.queuj.resilience.ForgetMissed",
+            /* 33 */ "com.workplacesystems.queuj.resilience.RunOnlyOnce",
+            /* 34 */ "com.workplacesystems.queuj.restriction.GlobalQueueRestriction",
+            /* 35 */ "com.workplacesystems.queuj.restriction.JavaQueueRestriction",
+            /* 36 */ "com.workplacesystems.queuj.restriction.SimpleQueueRestriction",
+            /* 37 */ "com.workplacesystems.queuj.occurrence.FiniteOccurrence",
+            /* 38 */ "com.workplacesystems.queuj.occurrence.InfiniteOccurrence",
+            /* 39 */ "com.workplacesystems.queuj.occurrence.RunOnce",
+            /* 40 */ "com.workplacesystems.queuj.occurrence.RunNever",
+            /* 41 */ "com.workplacesystems.queuj.occurrence.RunFiniteTimes",
+            /* 42 */ "com.workplacesystems.queuj.occurrence.RunMinutely",
+            /* 43 */ "com.workplacesystems.queuj.occurrence.RunHourly",
+            /* 44 */ "com.workplacesystems.queuj.occurrence.RunDaily",
+            /* 45 */ "com.workplacesystems.queuj.occurrence.RunWeekly",
+            /* 46 */ "com.workplacesystems.queuj.occurrence.RunMonthly",
+            /* 47 */ "com.workplacesystems.queuj.occurrence.RunYearly",
+            /* 48 */ "com.workplacesystems.queuj.occurrence.RunVariably",
+            /* 49 */ "com.workplacesystems.queuj.schedule.AbsoluteSchedule",
+            /* 50 */ "com.workplacesystems.queuj.schedule.DelayedSchedule",
+            /* 51 */ "com.workplacesystems.queuj.schedule.MinutelySchedule",
+            /* 52 */ "com.workplacesystems.queuj.schedule.HourlySchedule",
+            /* 53 */ "com.workplacesystems.queuj.schedule.DailySchedule",
+            /* 54 */ "com.workplacesystems.queuj.schedule.WeeklySchedule",
+            /* 55 */ "com.workplacesystems.queuj.schedule.MonthlySchedule",
+            /* 56 */ "com.workplacesystems.queuj.schedule.YearlySchedule",
+            /* 57 */ "com.workplacesystems.queuj.schedule.VariableSchedule",
+            /* 58 */ "com.workplacesystems.queuj.process.ProcessParameters",
+            /* 59 */ "com.workplacesystems.queuj.process.java.JavaProcessBuilder",
+            /* 60 */ "com.workplacesystems.queuj.process.java.JavaProcessServer",
+            /* 61 */ "com.workplacesystems.queuj.process.java.JavaProcessSession",
+            /* 62 */ "com.workplacesystems.queuj.process.java.ProcessSection",
+            /* 63 */ "com.workplacesystems.queuj.process.java.JavaProcessSection",
+            /* 64 */ "com.workplacesystems.queuj.process.java.JavaProcessRunner",
+            /* 65 */ "com.workplacesystems.queuj.process.seam.SeamProcessBuilder",
+            /* 66 */ "com.workplacesystems.queuj.process.seam.SeamProcessServer",
+            /* 67 */ "com.workplacesystems.queuj.process.seam.SeamProcessSection",
+            /* 68 */ "com.workplacesystems.queuj.occurrence.RunCron",
+            /* 69 */ "com.workplacesystems.queuj.schedule.CronSchedule",
+        };
+        for (int i = 0; i < builtin_types.length; i++) {
+            try {
+                registerType0(i + 1, loadClass(builtin_types[i]));
+            }
+            catch (ClassNotFoundException cnfe) {
+                // Optional (e.g. Seam) classes may not be available
+            }
+            catch (LinkageError le) {}
+        }
+    }
+
+    public CompactColumnCodec() {}
+
+    /**
+     * Register an application class to be written with the given id rather
+     * than its class name. The id must never change once rows have been written.
+     */
+    public static void registerType(int id, Class<?> type) {
+        if (id < 1000)
+            throw new IllegalArgumentException("Type ids below 1000 are reserved.");
+        registerType0(id, type);
+    }
+
+    private static synchronized void registerType0(int id, Class<?> type) {
+        Class<?> existing_type = types.get(id);
+        if (existing_type != null && existing_type != type)
+            throw new IllegalArgumentException("Type id " + id + " is already registered for " + existing_type.getName());
+        Integer existing_id = type_ids.get(type);
+        if (existing_id != null && existing_id.intValue() != id)
+            throw new IllegalArgumentException(type.getName() + " is already registered with id " + existing_id);
+        types.put(id, type);
+        type_ids.put(type, id);
+    }
+
+    private static synchronized Integer getTypeId(Class<?> type) {
+        return type_ids.get(type);
+    }
+
+    private static synchronized Class<?> getType(int id) {
+        return types.get(id);
+    }
+
+    private static final HashMap<String,ObjectStreamClass> stream_descs = new HashMap<String,ObjectStreamClass>();
+
+    private static synchronized ObjectStreamClass getStreamDesc(String key) {
+        return stream_descs.get(key);
+    }
+
+    private static synchronized void putStreamDesc(String key, ObjectStreamClass desc) {
+        stream_descs.put(key, desc);
+    }
+
+    @Override
+    protected byte[] encode0(Object value) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+        bytes.write(MAGIC);
+        bytes.write(VERSION);
+
+        if (value instanceof Locale) {
+            Locale locale = (Locale)value;
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeByte(LOCALE);
+            out.writeUTF(locale.getLanguage());
+            out.writeUTF(locale.getCountry());
+            out.writeUTF(locale.getVariant());
+            out.flush();
+        }
+        else {
+            bytes.write(OBJECT);
+            ObjectOutputStream out = new CompactObjectOutputStream(bytes);
+            out.writeObject(value);
+            out.close();
+        }
+
+        return bytes.toByteArray();
+    }
+
+    @Override
+    protected Object decode0(byte[] data) throws IOException, ClassNotFoundException {
+        if (data.length < 3 || data[0] != MAGIC)
+            throw new StreamCorruptedException("Unknown column format.");
+        if (data[1] > VERSION)
+            throw new StreamCorruptedException("Unsupported column format version " + data[1] + ".");
+
+        ByteArrayInputStream bytes = new ByteArrayInputStream(data, 3, data.length - 3);
+        switch (data[2]) {
+            case LOCALE:
+                DataInputStream in = new DataInputStream(bytes);
+                return new Locale(in.readUTF(), in.readUTF(), in.readUTF());
+            case OBJECT:
+                ObjectInputStream oin = new CompactObjectInputStream(bytes, data[1]);
+                try {
+                    return oin.readObject();
+                }
+                finally {
+                    oin.close();
+                }
+            default:
+                throw new StreamCorruptedException("Unknown column type " + data[2] + ".");
+        }
+    }
+
+    private static class CompactObjectOutputStream extends ObjectOutputStream {
+
+        private CompactObjectOutputStream(OutputStream out) throws IOException {
+            super(out);
+        }
+
+        @Override
+        protected void writeStreamHeader() throws IOException {}
+
+        @Override
+        protected void writeClassDescriptor(ObjectStreamClass desc) throws IOException {
+            Integer id = getTypeId(desc.forClass());
+            if (id == null) {
+                writeByte(0);
+                writeUTF(desc.getName());
+            }
+            else
+                writeVarInt(id.intValue());
+            writeLong(desc.getSerialVersionUID());
+            writeByte(getFlags(desc.forClass()));
+
+            ObjectStreamField[] fields = desc.getFields();
+            writeVarInt(fields.length);
+            for (ObjectStreamField field : fields) {
+                writeByte(field.getTypeCode());
+                writeUTF(field.getName());
+                if (!field.isPrimitive())
+                    writeUTF(field.getTypeString());
+            }
+        }
+
+        /**
+         * The descriptor flags as written by standard serialization.
+         */
+        private static byte getFlags(Class<?> type) {
+            byte flags = 0;
+            if (Externalizable.class.isAssignableFrom(type))
+                flags |= SC_EXTERNALIZABLE | SC_BLOCK_DATA;
+            else if (Serializable.class.isAssignableFrom(type)) {
+                flags |= SC_SERIALIZABLE;
+                if (hasWriteObject(type))
+                    flags |= SC_WRITE_METHOD;
+            }
+            // java.lang.Enum itself is written with SC_ENUM too, isEnum() is false for it
+            if (Enum.class.isAssignableFrom(type))
+                flags |= SC_ENUM;
+            return flags;
+        }
+
+        private static boolean hasWriteObject(Class<?> type) {
+            try {
+                Method method = type.getDeclaredMethod("writeObject", ObjectOutputStream.class);
+                int modifiers = method.getModifiers();
+                return method.getReturnType() == Void.TYPE && Modifier.isPrivate(modifiers) && !Modifier.isStatic(modifiers);
+            }
+            catch (NoSuchMethodException nsme) {
+                return false;
+            }
+        }
+
+        private void writeVarInt(int value) throws IOException {
+            while ((value & ~0x7F) != 0) {
+                writeByte((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            writeByte(value);
+        }
+    }
+
+    private static class CompactObjectInputStream extends ObjectInputStream {
+
+        private final byte version;
+
+        private CompactObjectInputStream(InputStream in, byte version) throws IOException {
+            super(in);
+            this.version = version;
+        }
+
+        @Override
+        protected void readStreamHeader() throws IOException {}
+
+        @Override
+        protected ObjectStreamClass readClassDescriptor() throws IOException, ClassNotFoundException {
+            int id = readVarInt();
+            Class<?> type;
+            if (id == 0)
+                type = loadClass(readUTF());
+            else {
+                type = getType(id);
+                if (type == null)
+                    throw new ClassNotFoundException("No class registered for type id " + id);
+            }
+
+            long suid = readLong();
+            if (version == VERSION_NO_FIELDS) {
+                ObjectStreamClass desc = ObjectStreamClass.lookupAny(type);
+                if (desc.getSerialVersionUID() != suid)
+                    throw new InvalidClassException(type.getName(), "stream serialVersionUID " + suid +
+                            " doesn't match local serialVersionUID " + desc.getSerialVersionUID());
+                return desc;
+            }
+
+            // Rebuild the descriptor in the standard stream format so that the
+            // fields are matched to the local class by standard serialization
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(128);
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeShort(STREAM_MAGIC);
+            out.writeShort(STREAM_VERSION);
+            out.writeByte(TC_CLASSDESC);
+            out.writeUTF(type.getName());
+            out.writeLong(suid);
+            out.writeByte(readByte());
+            int field_count = readVarInt();
+            out.writeShort(field_count);
+            for (int i = 0; i < field_count; i++) {
+                byte type_code = readByte();
+                out.writeByte(type_code);
+                out.writeUTF(readUTF());
+                if (type_code == '[' || type_code == 'L') {
+                    out.writeByte(TC_STRING);
+                    out.writeUTF(readUTF());
+                }
+            }
+            out.writeByte(TC_ENDBLOCKDATA);
+            out.writeByte(TC_NULL);
+            out.close();
+
+            // Descriptors are the same for every row written by the same class version
+            byte[] desc_data = bytes.toByteArray();
+            String key = new String(desc_data, "ISO-8859-1");
+            ObjectStreamClass desc = getStreamDesc(key);
+            if (desc == null) {
+                desc = readStreamDesc(type, desc_data);
+                putStreamDesc(key, desc);
+            }
+            return desc;
+        }
+
+        private static ObjectStreamClass readStreamDesc(final Class<?> type, byte[] data) throws IOException, ClassNotFoundException {
+            ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(data)) {
+
+                @Override
+                protected Class<?> resolveClass(ObjectStreamClass desc) {
+                    return type;
+                }
+            };
+            try {
+                return (ObjectStreamClass)in.readObject();
+            }
+            finally {
+                in.close();
+            }
+        }
+
+        @Override
+        protected Class<?> resolveClass(ObjectStreamClass desc) throws IOException, ClassNotFoundException {
+            Class<?> type = desc.forClass();
+            if (type != null)
+                return type;
+            return super.resolveClass(desc);
+        }
+
+        private int readVarInt() throws IOException {
+            int value = 0;
+            int shift = 0;
+            int b;
+            do {
+                b = readUnsignedByte();
+                value |= (b & 0x7F) << shift;
+                shift += 7;
+            } while ((b & 0x80) != 0);
+            return value;
+        }
+    }
+}
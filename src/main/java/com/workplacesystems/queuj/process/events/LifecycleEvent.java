@@ -0,0 +1,95 @@
+/*
+ * Copyright 2010 Workplace Systems PLC (http://www.workplacesystems.com/).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.workplacesystems.queuj.process.events;
+
+/**
+ * A slot of the lifecycle event ring buffer. The slots are reused so a
+ * listener must copy anything it needs to keep before returning.
+ *
+ * @author dave
+ */
+public final class LifecycleEvent {
+
+    public enum Type {
+        /** value is the scheduled time in milliseconds, 0 if due now */
+        SCHEDULED,
+        UNPARKED,
+        /** detail is the new Status */
+        STATUS,
+        SECTION_START,
+        /** value is 1 if the section failed */
+        SECTION_END,
+        /** key is the queue owner */
+        COMMITTED
+    }
+
+    long sequence;
+    long nanoTime;
+    Type type;
+    Object key;
+    String detail;
+    long value;
+
+    LifecycleEvent() {}
+
+    void clear() {
+        key = null;
+        detail = null;
+    }
+
+    public long getSequence() {
+        return sequence;
+    }
+
+    /**
+     * The System.nanoTime the event was recorded.
+     */
+    public long getNanoTime() {
+        return nanoTime;
+    }
+
+    /**
+     * The time the event was recorded in milliseconds.
+     */
+    public long getTime() {
+        return LifecycleEvents.toMillis(nanoTime);
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    /**
+     * The process key, or the queue owner of a commit.
+     */
+    public Object getKey() {
+        return key;
+    }
+
+    public String getDetail() {
+        return detail;
+    }
+
+    public long getValue() {
+        return value;
+    }
+
+    @Override
+    public String toString() {
+        return sequence + " " + getTime() + " " + type + " " + key + (detail == null ? "" : " " + detail) + (value == 0 ? "" : " " + value);
+    }
+}
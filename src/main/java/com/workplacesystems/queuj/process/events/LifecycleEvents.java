@@ -0,0 +1,165 @@
+/*
+ * Copyright 2010 Workplace Systems PLC (http://www.workplacesystems.com/).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.workplacesystems.queuj.process.events;
+
+import com.workplacesystems.queuj.utils.QueujException;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Records every schedule, unpark, status change, section and commit of the
+ * processes into a preallocated ring buffer for tracing. Recording costs a
+ * sequence claim and a few field writes and nothing at all until a listener
+ * is added. The events are passed to the listeners asynchronously by the
+ * QueuJ Lifecycle Events thread, events are dropped rather than holding up
+ * the processes if the listeners fall behind. The size of the ring is set
+ * with com.workplacesystems.queuj.events.bufferSize.
+ *
+ * @author dave
+ */
+public final class LifecycleEvents {
+
+    private static final int bufferSize = Integer.getInteger("com.workplacesystems.queuj.events.bufferSize", 65536).intValue();
+
+    private static final long baseMillis = System.currentTimeMillis();
+
+    private static final long baseNanos = System.nanoTime();
+
+    private static final CopyOnWriteArrayList<LifecycleListener> listeners = new CopyOnWriteArrayList<LifecycleListener>();
+
+    private static volatile RingBuffer buffer = null;
+
+    private static Thread drainThread = null;
+
+    private LifecycleEvents() {}
+
+    public static boolean isEnabled() {
+        return buffer != null;
+    }
+
+    public static synchronized void addListener(LifecycleListener listener) {
+        listeners.add(listener);
+        if (buffer != null)
+            return;
+
+        buffer = new RingBuffer(bufferSize);
+        if (drainThread == null) {
+            drainThread = new Thread("QueuJ Lifecycle Events") {
+
+                @Override
+                public void run() {
+                    drainEvents();
+                }
+            };
+            drainThread.setDaemon(true);
+            drainThread.start();
+        }
+        else
+            LifecycleEvents.class.notifyAll();
+    }
+
+    /**
+     * Removes the listener, recording stops once the last listener has been
+     * removed.
+     */
+    public static synchronized void removeListener(LifecycleListener listener) {
+        listeners.remove(listener);
+        if (listeners.isEmpty())
+            buffer = null;
+    }
+
+    /**
+     * The number of events dropped because the ring was full.
+     */
+    public static long getDropped() {
+        RingBuffer buffer0 = buffer;
+        return buffer0 == null ? 0 : buffer0.getDropped();
+    }
+
+    static long toMillis(long nanoTime) {
+        return baseMillis + (nanoTime - baseNanos) / 1000000;
+    }
+
+    private static final LifecycleListener dispatcher = new LifecycleListener() {
+
+        public void eventRecorded(LifecycleEvent event) {
+            for (LifecycleListener listener : listeners) {
+                try {
+                    listener.eventRecorded(event);
+                }
+                catch (Exception e) {
+                    new QueujException(e);
+                }
+            }
+        }
+    };
+
+    private static void drainEvents() {
+        while (true) {
+            RingBuffer buffer0;
+            synchronized (LifecycleEvents.class) {
+                while ((buffer0 = buffer) == null) {
+                    try {
+                        LifecycleEvents.class.wait();
+                    }
+                    catch (InterruptedException ie) {
+                        return;
+                    }
+                }
+            }
+
+            if (buffer0.drain(dispatcher) == 0)
+                LockSupport.parkNanos(1000000);
+        }
+    }
+
+    public static void scheduled(Object key, long time) {
+        RingBuffer buffer0 = buffer;
+        if (buffer0 != null)
+            buffer0.publish(LifecycleEvent.Type.SCHEDULED, key, null, time);
+    }
+
+    public static void unparked(Object key) {
+        RingBuffer buffer0 = buffer;
+        if (buffer0 != null)
+            buffer0.publish(LifecycleEvent.Type.UNPARKED, key, null, 0);
+    }
+
+    public static void statusChanged(Object key, Enum status) {
+        RingBuffer buffer0 = buffer;
+        if (buffer0 != null)
+            buffer0.publish(LifecycleEvent.Type.STATUS, key, status.name(), 0);
+    }
+
+    public static void sectionStarted(Object key, String processName) {
+        RingBuffer buffer0 = buffer;
+        if (buffer0 != null)
+            buffer0.publish(LifecycleEvent.Type.SECTION_START, key, processName, 0);
+    }
+
+    public static void sectionEnded(Object key, String processName, boolean failed) {
+        RingBuffer buffer0 = buffer;
+        if (buffer0 != null)
+            buffer0.publish(LifecycleEvent.Type.SECTION_END, key, processName, failed ? 1 : 0);
+    }
+
+    public static void committed(String queueOwner) {
+        RingBuffer buffer0 = buffer;
+        if (buffer0 != null)
+            buffer0.publish(LifecycleEvent.Type.COMMITTED, queueOwner, null, 0);
+    }
+}
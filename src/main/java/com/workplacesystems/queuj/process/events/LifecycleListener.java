@@ -0,0 +1,33 @@
+/*
+ * Copyright 2010 Workplace Systems PLC (http://www.workplacesystems.com/).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.workplacesystems.queuj.process.events;
+
+/**
+ * Receives the lifecycle events on the drain thread in the order they were
+ * recorded.
+ *
+ * @author dave
+ */
+public interface LifecycleListener {
+
+    /**
+     * The event is only valid until this returns, its slot is then cleared and
+     * reused for a later event. Copy anything that is needed afterwards rather
+     * than keeping the event.
+     */
+    public void eventRecorded(LifecycleEvent event);
+}
@@ -0,0 +1,72 @@
+/*
+ * Copyright 2010 Workplace Systems PLC (http://www.workplacesystems.com/).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.workplacesystems.queuj.process.events;
+
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Logs a warning for any timing longer than
+ * com.workplacesystems.queuj.process.events.LoggingProbe.threshold
+ * milliseconds (default 100) with the thread and the time it started, to
+ * find the cause of latency spikes in the GC or lock logs.
+ *
+ * @author dave
+ */
+public class LoggingProbe extends Probe {
+
+    private final static Log log = LogFactory.getLog(LoggingProbe.class);
+
+    private final long threshold = Long.getLong("com.workplacesystems.queuj.process.events.LoggingProbe.threshold", 100).longValue() * 1000000;
+
+    @Override
+    public void unparked(long start, long end, int processes) {
+        log(start, end, "Unparking " + processes + " processes");
+    }
+
+    @Override
+    public void admission(long start, long end, Object processKey, boolean admitted) {
+        log(start, end, "Admission check of process " + processKey + (admitted ? " admitted" : " refused"));
+    }
+
+    @Override
+    public void section(long start, long end, Object processKey, String processName, int resultCode) {
+        log(start, end, "Section of process " + processKey + " '" + processName + "' returned " + resultCode);
+    }
+
+    @Override
+    public void committed(long start, long end, int processes) {
+        log(start, end, "Commit of " + processes + " processes");
+    }
+
+    @Override
+    public void lockWaited(long start, long end, String lock) {
+        log(start, end, "Wait for " + lock + " lock");
+    }
+
+    private void log(long start, long end, String message) {
+        long duration = end - start;
+        if (duration < threshold || !log.isWarnEnabled())
+            return;
+
+        long started = System.currentTimeMillis() - (System.nanoTime() - start) / 1000000;
+        log.warn(message + " took " + (duration / 1000000) + "ms on " + Thread.currentThread().getName() +
+                " from " + new SimpleDateFormat("HH:mm:ss.SSS").format(new Date(started)));
+    }
+}
@@ -0,0 +1,61 @@
+/*
+ * Copyright 2010 Workplace Systems PLC (http://www.workplacesystems.com/).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.workplacesystems.queuj.process.events;
+
+/**
+ * Receives the timings of the scheduler, unparking, admission, sections,
+ * commits and index lock waits synchronously on the thread that did the work,
+ * so they can be lined up with GC and lock profiles. The times are
+ * System.nanoTime values. The methods do nothing unless overridden.
+ *
+ * @author dave
+ */
+public abstract class Probe {
+
+    protected Probe() {}
+
+    /**
+     * The scheduler thread waited for the next scheduled time, woken is false
+     * if it was interrupted to reschedule before the time was reached.
+     */
+    public void schedulerWaited(long start, long end, boolean woken) {}
+
+    /**
+     * A batch of processes was unparked by the unpark thread.
+     */
+    public void unparked(long start, long end, int processes) {}
+
+    /**
+     * The queue restrictions were checked before starting the process.
+     */
+    public void admission(long start, long end, Object processKey, boolean admitted) {}
+
+    /**
+     * A section of a Java process was run.
+     */
+    public void section(long start, long end, Object processKey, String processName, int resultCode) {}
+
+    /**
+     * A transaction and its process servers were committed.
+     */
+    public void committed(long start, long end, int processes) {}
+
+    /**
+     * A thread waited for one of the index locks.
+     */
+    public void lockWaited(long start, long end, String lock) {}
+}
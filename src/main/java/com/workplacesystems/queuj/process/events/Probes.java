@@ -0,0 +1,90 @@
+/*
+ * Copyright 2010 Workplace Systems PLC (http://www.workplacesystems.com/).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.workplacesystems.queuj.process.events;
+
+/**
+ * Passes timings to the Probe selected with the system property
+ * com.workplacesystems.queuj.process.events.Probe. With no probe selected
+ * start returns 0 without reading the clock and the other methods return
+ * straight away so the JIT removes them.
+ *
+ * @author dave
+ */
+public final class Probes {
+
+    private static final Probe probe;
+
+    static {
+        Probe probe0 = null;
+
+        String implClazzStr = System.getProperty("com.workplacesystems.queuj.process.events.Probe");
+        if (implClazzStr != null) {
+            try {
+                Class<Probe> implClazz = (Class<Probe>) Class.forName(implClazzStr);
+                probe0 = implClazz.newInstance();
+            }
+            catch (ClassNotFoundException ex) {
+            }
+            catch (InstantiationException ex) {
+            }
+            catch (IllegalAccessException ex) {
+            }
+        }
+
+        probe = probe0;
+    }
+
+    private Probes() {}
+
+    public static boolean isEnabled() {
+        return probe != null;
+    }
+
+    public static long start() {
+        return probe == null ? 0 : System.nanoTime();
+    }
+
+    public static void schedulerWaited(long start, boolean woken) {
+        if (probe != null)
+            probe.schedulerWaited(start, System.nanoTime(), woken);
+    }
+
+    public static void unparked(long start, int processes) {
+        if (probe != null)
+            probe.unparked(start, System.nanoTime(), processes);
+    }
+
+    public static void admission(long start, Object processKey, boolean admitted) {
+        if (probe != null)
+            probe.admission(start, System.nanoTime(), processKey, admitted);
+    }
+
+    public static void section(long start, Object processKey, String processName, int resultCode) {
+        if (probe != null)
+            probe.section(start, System.nanoTime(), processKey, processName, resultCode);
+    }
+
+    public static void committed(long start, int processes) {
+        if (probe != null)
+            probe.committed(start, System.nanoTime(), processes);
+    }
+
+    public static void lockWaited(long start, String lock) {
+        if (probe != null)
+            probe.lockWaited(start, System.nanoTime(), lock);
+    }
+}
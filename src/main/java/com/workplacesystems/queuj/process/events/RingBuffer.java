@@ -0,0 +1,110 @@
+/*
+ * Copyright 2010 Workplace Systems PLC (http://www.workplacesystems.com/).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.workplacesystems.queuj.process.events;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A bounded multi producer, single consumer ring of preallocated events. A
+ * producer claims the next sequence with a CAS, writes the fields of the slot
+ * and publishes it by an ordered write of the sequence. The consumer frees the
+ * slots it has read by moving its sequence on. Producers never wait, an event
+ * is dropped and counted if the ring is full.
+ *
+ * @author dave
+ */
+final class RingBuffer {
+
+    private final LifecycleEvent[] events;
+
+    private final int mask;
+
+    private final AtomicLongArray published;
+
+    private final AtomicLong cursor = new AtomicLong();
+
+    private final AtomicLong consumed = new AtomicLong();
+
+    private final AtomicLong dropped = new AtomicLong();
+
+    RingBuffer(int size) {
+        int capacity = Integer.highestOneBit(Math.max(size, 2) - 1) << 1;
+        events = new LifecycleEvent[capacity];
+        published = new AtomicLongArray(capacity);
+        for (int i = 0; i < capacity; i++) {
+            events[i] = new LifecycleEvent();
+            published.set(i, -1);
+        }
+        mask = capacity - 1;
+    }
+
+    int getCapacity() {
+        return events.length;
+    }
+
+    long getDropped() {
+        return dropped.get();
+    }
+
+    void publish(LifecycleEvent.Type type, Object key, String detail, long value) {
+        long sequence;
+        do {
+            sequence = cursor.get();
+            if (sequence - consumed.get() >= events.length) {
+                dropped.incrementAndGet();
+                return;
+            }
+        }
+        while (!cursor.compareAndSet(sequence, sequence + 1));
+
+        int index = (int)sequence & mask;
+        LifecycleEvent event = events[index];
+        event.sequence = sequence;
+        event.nanoTime = System.nanoTime();
+        event.type = type;
+        event.key = key;
+        event.detail = detail;
+        event.value = value;
+        published.lazySet(index, sequence);
+    }
+
+    /**
+     * Passes the published events to the listener in sequence and returns the
+     * number drained. Only one thread may drain.
+     */
+    int drain(LifecycleListener listener) {
+        int count = 0;
+        long sequence = consumed.get();
+        while (true) {
+            int index = (int)sequence & mask;
+            if (published.get(index) != sequence)
+                break;
+
+            LifecycleEvent event = events[index];
+            try {
+                listener.eventRecorded(event);
+            }
+            finally {
+                event.clear();
+                consumed.lazySet(++sequence);
+            }
+            count++;
+        }
+        return count;
+    }
+}
@@ -21,6 +21,7 @@ import com.workplacesystems.queuj.process.BatchProcessServer;
 import com.workplacesystems.queuj.process.ForceProcessComplete;
 import com.workplacesystems.queuj.process.ForceRescheduleException;
 import com.workplacesystems.queuj.process.ProcessOutputable;
+import com.workplacesystems.queuj.process.events.Probes;
 import com.workplacesystems.queuj.utils.QueujException;
 
 public class JavaProcessServer extends BatchProcessServer {
@@ -45,6 +46,19 @@ public class JavaProcessServer extends BatchProcessServer {
 
     @Override
     protected Integer runProcess(ProcessWrapper process, boolean failureRun) {
+        long start = Probes.start();
+        Integer result_code = null;
+        try {
+            result_code = runSection(process, failureRun);
+            return result_code;
+        }
+        finally {
+            // A thrown ForceProcessComplete or ForceRescheduleException is recorded as -1
+            Probes.section(start, process.getProcessKey(), process.getProcessName(), result_code == null ? -1 : result_code.intValue());
+        }
+    }
+
+    private Integer runSection(ProcessWrapper process, boolean failureRun) {
         try
         {
             JavaProcessSession<JavaProcessSection> jps = getJavaProcessSession(process);
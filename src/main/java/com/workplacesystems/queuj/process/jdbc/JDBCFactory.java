@@ -0,0 +1,233 @@
+/*
+ * Copyright 2010 Workplace Systems PLC (http://www.workplacesystems.com/).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.workplacesystems.queuj.process.jdbc;
+
+import com.workplacesystems.queuj.process.IdBlockAllocator;
+import com.workplacesystems.queuj.process.PersistentTransaction;
+import com.workplacesystems.queuj.process.ProcessEntity;
+import com.workplacesystems.queuj.process.ProcessPersistence;
+import com.workplacesystems.queuj.process.QueujFactoryImpl;
+import com.workplacesystems.queuj.process.QueujTransaction;
+import com.workplacesystems.queuj.process.jpa.ProcessDAO;
+import com.workplacesystems.queuj.process.jpa.ProcessImpl;
+import com.workplacesystems.queuj.utils.QueujException;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import javax.naming.InitialContext;
+import javax.naming.NamingException;
+import javax.sql.DataSource;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * QueujFactory using plain JDBC against the same process table as the JPA
+ * implementation. The connections come from the DataSource bound to the JNDI
+ * name com.workplacesystems.queuj.jdbc.dataSource or from the DriverManager using
+ * com.workplacesystems.queuj.jdbc.url, user and password. Databases without
+ * identity columns can supply com.workplacesystems.queuj.jdbc.nextIdSql to
+ * select the next process id. Alternatively setting
+ * com.workplacesystems.queuj.jdbc.idBlockSize reserves blocks of ids from the
+ * process_id_block table.
+ *
+ * @author dave
+ */
+public class JDBCFactory extends QueujFactoryImpl {
+
+    private final static Log log = LogFactory.getLog(JDBCFactory.class);
+
+    private DataSource dataSource;
+
+    private String url;
+
+    private String user;
+
+    private String password;
+
+    private String nextIdSql;
+
+    private IdBlockAllocator idAllocator;
+
+    private final AtomicBoolean batchCountsReported = new AtomicBoolean(true);
+
+    private final ThreadLocal<JDBCUnitOfWork> tlUnit = new ThreadLocal<JDBCUnitOfWork>();
+
+    public JDBCFactory() {}
+
+    @Override
+    protected void init() {
+        String dataSourceName = System.getProperty("com.workplacesystems.queuj.jdbc.dataSource");
+        if (dataSourceName != null) {
+            try {
+                dataSource = (DataSource)new InitialContext().lookup(dataSourceName);
+            }
+            catch (NamingException e) {
+                throw new QueujException(e);
+            }
+        }
+        else {
+            url = System.getProperty("com.workplacesystems.queuj.jdbc.url");
+            if (url == null)
+                throw new QueujException("No JDBC DataSource or url has been configured.");
+            user = System.getProperty("com.workplacesystems.queuj.jdbc.user");
+            password = System.getProperty("com.workplacesystems.queuj.jdbc.password");
+        }
+        nextIdSql = System.getProperty("com.workplacesystems.queuj.jdbc.nextIdSql");
+        int idBlockSize = Integer.getInteger("com.workplacesystems.queuj.jdbc.idBlockSize", 0).intValue();
+        if (idBlockSize > 0)
+            idAllocator = new JDBCIdAllocator(this, idBlockSize);
+
+        initProcessServers(getProcessDAO().findQueueOwners());
+    }
+
+    Connection openConnection() throws SQLException {
+        Connection connection;
+        if (dataSource != null)
+            connection = dataSource.getConnection();
+        else if (user != null)
+            connection = DriverManager.getConnection(url, user, password);
+        else
+            connection = DriverManager.getConnection(url);
+        connection.setAutoCommit(false);
+        return connection;
+    }
+
+    /**
+     * Returns the connection of the current transaction or a new connection
+     * that must be released with releaseConnection.
+     */
+    Connection getConnection() {
+        JDBCUnitOfWork unit = tlUnit.get();
+        if (unit != null)
+            return unit.getConnection();
+
+        try {
+            return openConnection();
+        }
+        catch (SQLException e) {
+            throw new QueujException(e);
+        }
+    }
+
+    void releaseConnection(Connection connection) {
+        JDBCUnitOfWork unit = tlUnit.get();
+        if (unit != null && unit.getConnection() == connection)
+            return;
+
+        try {
+            connection.rollback();
+            connection.close();
+        }
+        catch (SQLException e) {
+            log.warn("Failed to release connection.", e);
+        }
+    }
+
+    @Override
+    protected ProcessDAO getProcessDAO0() {
+        return new JDBCProcessDAO(this);
+    }
+
+    @Override
+    protected QueujTransaction<Integer> getTransaction0() {
+        return new PersistentTransaction() {
+
+            @Override
+            protected boolean begin() {
+                if (tlUnit.get() != null)
+                    return false;
+                try {
+                    tlUnit.set(new JDBCUnitOfWork(openConnection(), idAllocator, nextIdSql, batchCountsReported));
+                }
+                catch (SQLException e) {
+                    throw new QueujException(e);
+                }
+                return true;
+            }
+
+            @Override
+            protected void commit() {
+                tlUnit.get().commit();
+            }
+
+            @Override
+            protected void end(boolean transactionIsLocal, boolean committed) {
+                if (transactionIsLocal) {
+                    JDBCUnitOfWork unit = tlUnit.get();
+                    tlUnit.remove();
+                    if (!committed)
+                        unit.rollback();
+                    unit.close();
+                }
+            }
+        };
+    }
+
+    @Override
+    protected ProcessPersistence<ProcessEntity<Integer>,Integer> getPersistence0(final String queueOwner, Map<String, Object> server_options) {
+        return new ProcessPersistence<ProcessEntity<Integer>,Integer>() {
+
+            private ProcessImpl instance = null;
+
+            public void clearInstance() {
+                instance = null;
+            }
+
+            public ProcessImpl getInstance() {
+                if (instance == null)
+                    instance = (ProcessImpl)getNewProcessEntity0(queueOwner, true, null);
+                return instance;
+            }
+
+            public void setId(Integer id) {
+                JDBCUnitOfWork unit = getUnit();
+                if (id == null)
+                    return;
+                instance = unit.find(id);
+            }
+
+            public String persist() {
+                getUnit().insert(instance);
+                return null;
+            }
+
+            public String update() {
+                getUnit().update(instance);
+                return null;
+            }
+
+            public String updateStatus() {
+                getUnit().updateStatus(instance);
+                return null;
+            }
+
+            public String remove() {
+                getUnit().delete(instance);
+                return null;
+            }
+
+            private JDBCUnitOfWork getUnit() {
+                JDBCUnitOfWork unit = tlUnit.get();
+                if (unit == null)
+                    throw new QueujException("No transaction.");
+                return unit;
+            }
+        };
+    }
+}
@@ -0,0 +1,117 @@
+/*
+ * Copyright 2010 Workplace Systems PLC (http://www.workplacesystems.com/).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.workplacesystems.queuj.process.jdbc;
+
+import com.workplacesystems.queuj.process.IdBlockAllocator;
+import com.workplacesystems.queuj.utils.QueujException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * Reserves blocks of process ids by moving on the next id held in the
+ * process_id_block table. The block is reserved in its own transaction so the
+ * row lock is only held briefly. The row is created from the highest existing
+ * process id the first time a block is reserved.
+ *
+ * @author dave
+ */
+class JDBCIdAllocator extends IdBlockAllocator {
+
+    private static final String NAME = "process";
+
+    private final JDBCFactory factory;
+
+    JDBCIdAllocator(JDBCFactory factory, int blockSize) {
+        super(blockSize);
+        this.factory = factory;
+    }
+
+    @Override
+    protected int allocateBlock(int size) {
+        try {
+            Connection connection = factory.openConnection();
+            try {
+                // Two nodes may try to create the row at the same time so retry once
+                for (int attempt = 0; attempt < 2; attempt++) {
+                    if (reserve(connection, size)) {
+                        int end = getNextId(connection);
+                        connection.commit();
+                        return end - size;
+                    }
+
+                    try {
+                        create(connection);
+                        connection.commit();
+                    }
+                    catch (SQLException e) {
+                        connection.rollback();
+                        if (attempt > 0)
+                            throw e;
+                    }
+                }
+                throw new QueujException("Unable to reserve a block of process ids.");
+            }
+            finally {
+                connection.rollback();
+                connection.close();
+            }
+        }
+        catch (SQLException e) {
+            throw new QueujException(e);
+        }
+    }
+
+    private boolean reserve(Connection connection, int size) throws SQLException {
+        PreparedStatement ps = connection.prepareStatement("update process_id_block set next_id=next_id+? where name=?");
+        try {
+            ps.setInt(1, size);
+            ps.setString(2, NAME);
+            return ps.executeUpdate() > 0;
+        }
+        finally {
+            ps.close();
+        }
+    }
+
+    private int getNextId(Connection connection) throws SQLException {
+        PreparedStatement ps = connection.prepareStatement("select next_id from process_id_block where name=?");
+        try {
+            ps.setString(1, NAME);
+            ResultSet rs = ps.executeQuery();
+            if (!rs.next())
+                throw new QueujException("No process_id_block row.");
+            return rs.getInt(1);
+        }
+        finally {
+            ps.close();
+        }
+    }
+
+    private void create(Connection connection) throws SQLException {
+        PreparedStatement ps = connection.prepareStatement("insert into process_id_block (name, next_id) " +
+                "select ?, coalesce(max(process_id), 0) + 1 from process");
+        try {
+            ps.setString(1, NAME);
+            ps.executeUpdate();
+        }
+        finally {
+            ps.close();
+        }
+    }
+}
@@ -0,0 +1,324 @@
+/*
+ * Copyright 2010 Workplace Systems PLC (http://www.workplacesystems.com/).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.workplacesystems.queuj.process.jdbc;
+
+import com.workplacesystems.queuj.process.cluster.LeaseStore;
+import com.workplacesystems.queuj.utils.QueujException;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.SQLIntegrityConstraintViolationException;
+import java.sql.Savepoint;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import javax.naming.InitialContext;
+import javax.naming.NamingException;
+import javax.sql.DataSource;
+import org.apache.commons.pool.BasePoolableObjectFactory;
+import org.apache.commons.pool.impl.GenericObjectPool;
+
+/**
+ * LeaseStore using the process_lease table. A lease is taken by updating its
+ * row when it has expired or is already held by the node, so the row's
+ * expiry acts as the version for the compare and set, and by inserting the row
+ * when there is none. The connections are configured with the same properties
+ * as JDBCFactory. A DataSource is expected to pool its connections, those opened
+ * from the url are kept in a pool here so each claim doesn't connect again.
+ *
+ * @author dave
+ */
+public class JDBCLeaseStore implements LeaseStore {
+
+    private DataSource dataSource;
+
+    private GenericObjectPool connections;
+
+    public JDBCLeaseStore() {
+        String dataSourceName = System.getProperty("com.workplacesystems.queuj.jdbc.dataSource");
+        if (dataSourceName != null) {
+            try {
+                dataSource = (DataSource)new InitialContext().lookup(dataSourceName);
+            }
+            catch (NamingException e) {
+                throw new QueujException(e);
+            }
+        }
+        else {
+            final String url = System.getProperty("com.workplacesystems.queuj.jdbc.url");
+            if (url == null)
+                throw new QueujException("No JDBC DataSource or url has been configured.");
+            final String user = System.getProperty("com.workplacesystems.queuj.jdbc.user");
+            final String password = System.getProperty("com.workplacesystems.queuj.jdbc.password");
+
+            connections = new GenericObjectPool(new BasePoolableObjectFactory() {
+
+                @Override
+                public Object makeObject() throws Exception {
+                    Connection connection;
+                    if (user != null)
+                        connection = DriverManager.getConnection(url, user, password);
+                    else
+                        connection = DriverManager.getConnection(url);
+                    connection.setAutoCommit(false);
+                    return connection;
+                }
+
+                @Override
+                public void destroyObject(Object obj) throws Exception {
+                    ((Connection)obj).close();
+                }
+            });
+            connections.setMaxActive(-1);
+            connections.setWhenExhaustedAction(GenericObjectPool.WHEN_EXHAUSTED_GROW);
+        }
+    }
+
+    public JDBCLeaseStore(DataSource dataSource) {
+        this.dataSource = dataSource;
+    }
+
+    private Connection openConnection() throws SQLException {
+        if (dataSource != null) {
+            Connection connection = dataSource.getConnection();
+            connection.setAutoCommit(false);
+            return connection;
+        }
+
+        try {
+            return (Connection)connections.borrowObject();
+        }
+        catch (SQLException e) {
+            throw e;
+        }
+        catch (Exception e) {
+            throw new SQLException(e);
+        }
+    }
+
+    private void releaseConnection(Connection connection) throws SQLException {
+        if (dataSource != null) {
+            try {
+                connection.rollback();
+            }
+            finally {
+                connection.close();
+            }
+            return;
+        }
+
+        try {
+            connection.rollback();
+        }
+        catch (SQLException e) {
+            invalidate(connection);
+            throw e;
+        }
+        try {
+            connections.returnObject(connection);
+        }
+        catch (Exception e) {
+            throw new SQLException(e);
+        }
+    }
+
+    private void invalidate(Connection connection) {
+        try {
+            connections.invalidateObject(connection);
+        }
+        catch (Exception e) {}
+    }
+
+    public boolean acquire(String key, String nodeId, long now, long expires) {
+        return acquire(Collections.singletonList(key), nodeId, now, expires) == 1;
+    }
+
+    public int acquire(List<String> keys, String nodeId, long now, long expires) {
+        try {
+            Connection connection = openConnection();
+            try {
+                int count = 0;
+                PreparedStatement update = connection.prepareStatement("update process_lease set node_id=?, expires=? " +
+                        "where lease_key=? and (expires<? or node_id=?)");
+                PreparedStatement insert = null;
+                try {
+                    for (String key : keys) {
+                        update.setString(1, nodeId);
+                        update.setLong(2, expires);
+                        update.setString(3, key);
+                        update.setLong(4, now);
+                        update.setString(5, nodeId);
+                        if (update.executeUpdate() == 0) {
+                            if (insert == null)
+                                insert = connection.prepareStatement("insert into process_lease (lease_key, node_id, expires) values (?, ?, ?)");
+                            insert.setString(1, key);
+                            insert.setString(2, nodeId);
+                            insert.setLong(3, expires);
+                            // Keeps the leases already taken if the insert fails
+                            Savepoint savepoint = count > 0 ? connection.setSavepoint() : null;
+                            try {
+                                insert.executeUpdate();
+                            }
+                            catch (SQLException e) {
+                                // Only a duplicate key means another node inserted the row first
+                                if (!isConstraintViolation(e))
+                                    throw e;
+                                if (savepoint != null)
+                                    connection.rollback(savepoint);
+                                break;
+                            }
+                        }
+                        count++;
+                    }
+                }
+                finally {
+                    update.close();
+                    if (insert != null)
+                        insert.close();
+                }
+                if (count > 0)
+                    connection.commit();
+                return count;
+            }
+            finally {
+                releaseConnection(connection);
+            }
+        }
+        catch (SQLException e) {
+            throw new QueujException(e);
+        }
+    }
+
+    private static boolean isConstraintViolation(SQLException e) {
+        return e instanceof SQLIntegrityConstraintViolationException || (e.getSQLState() != null && e.getSQLState().startsWith("23"));
+    }
+
+    public Collection<String> renew(String nodeId, Collection<String> keys, long expires) {
+        ArrayList<String> lost = new ArrayList<String>();
+        if (keys.isEmpty())
+            return lost;
+
+        try {
+            Connection connection = openConnection();
+            try {
+                ArrayList<String> batch = new ArrayList<String>(keys);
+                PreparedStatement ps = connection.prepareStatement("update process_lease set expires=? where lease_key=? and node_id=?");
+                try {
+                    for (String key : batch) {
+                        ps.setLong(1, expires);
+                        ps.setString(2, key);
+                        ps.setString(3, nodeId);
+                        ps.addBatch();
+                    }
+                    int[] counts = ps.executeBatch();
+                    for (int i = 0; i < counts.length; i++) {
+                        if (counts[i] == 0)
+                            lost.add(batch.get(i));
+                    }
+                }
+                finally {
+                    ps.close();
+                }
+                connection.commit();
+                return lost;
+            }
+            finally {
+                releaseConnection(connection);
+            }
+        }
+        catch (SQLException e) {
+            throw new QueujException(e);
+        }
+    }
+
+    public void release(String key, String nodeId) {
+        try {
+            Connection connection = openConnection();
+            try {
+                PreparedStatement ps = connection.prepareStatement("delete from process_lease where lease_key=? and node_id=?");
+                try {
+                    ps.setString(1, key);
+                    ps.setString(2, nodeId);
+                    ps.executeUpdate();
+                }
+                finally {
+                    ps.close();
+                }
+                connection.commit();
+            }
+            finally {
+                releaseConnection(connection);
+            }
+        }
+        catch (SQLException e) {
+            throw new QueujException(e);
+        }
+    }
+
+    public List<String> findKeys(String prefix, long now) {
+        try {
+            Connection connection = openConnection();
+            try {
+                PreparedStatement ps = connection.prepareStatement("select lease_key from process_lease where lease_key like ? and expires>=?");
+                try {
+                    ps.setString(1, prefix + "%");
+                    ps.setLong(2, now);
+                    ResultSet rs = ps.executeQuery();
+                    ArrayList<String> keys = new ArrayList<String>();
+                    while (rs.next())
+                        keys.add(rs.getString(1));
+                    return keys;
+                }
+                finally {
+                    ps.close();
+                }
+            }
+            finally {
+                releaseConnection(connection);
+            }
+        }
+        catch (SQLException e) {
+            throw new QueujException(e);
+        }
+    }
+
+    public void purge(long now) {
+        try {
+            Connection connection = openConnection();
+            try {
+                PreparedStatement ps = connection.prepareStatement("delete from process_lease where expires<?");
+                try {
+                    ps.setLong(1, now);
+                    ps.executeUpdate();
+                }
+                finally {
+                    ps.close();
+                }
+                connection.commit();
+            }
+            finally {
+                releaseConnection(connection);
+            }
+        }
+        catch (SQLException e) {
+            throw new QueujException(e);
+        }
+    }
+}
@@ -0,0 +1,137 @@
+/*
+ * Copyright 2010 Workplace Systems PLC (http://www.workplacesystems.com/).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.workplacesystems.queuj.process.jdbc;
+
+import com.workplacesystems.queuj.process.jpa.LazyProcessDAO;
+import com.workplacesystems.queuj.process.jpa.PagedProcessDAO;
+import com.workplacesystems.queuj.process.jpa.ProcessImpl;
+import com.workplacesystems.queuj.utils.QueujException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ *
+ * @author dave
+ */
+public class JDBCProcessDAO implements PagedProcessDAO, LazyProcessDAO {
+
+    private final JDBCFactory factory;
+
+    protected JDBCProcessDAO(JDBCFactory factory) {
+        this.factory = factory;
+    }
+
+    public List<String> findQueueOwners() {
+        Connection connection = factory.getConnection();
+        try {
+            PreparedStatement ps = connection.prepareStatement("select distinct queue_owner_id from process");
+            try {
+                ResultSet rs = ps.executeQuery();
+                ArrayList<String> queueOwners = new ArrayList<String>();
+                while (rs.next())
+                    queueOwners.add(rs.getString(1));
+                return queueOwners;
+            }
+            finally {
+                ps.close();
+            }
+        }
+        catch (SQLException e) {
+            throw new QueujException(e);
+        }
+        finally {
+            factory.releaseConnection(connection);
+        }
+    }
+
+    public List<ProcessImpl> findProcesses(String queueOwner) {
+        return findProcesses(queueOwner, null, 0);
+    }
+
+    public List<ProcessImpl> findProcesses(String queueOwner, ProcessImpl after, int maxResults) {
+        String sql = ProcessTable.SELECT + " where ";
+        sql += queueOwner == null ? "queue_owner_id is null" : "queue_owner_id=?";
+        if (after != null)
+            sql += " and (creation_timestamp>? or (creation_timestamp=? and process_id>?))";
+        sql += " order by creation_timestamp, process_id";
+
+        Connection connection = factory.getConnection();
+        try {
+            PreparedStatement ps = connection.prepareStatement(sql);
+            try {
+                int index = 1;
+                if (queueOwner != null)
+                    ps.setString(index++, queueOwner);
+                if (after != null) {
+                    Timestamp creationTimestamp = new Timestamp(after.getCreationTimestamp().getTime());
+                    ps.setTimestamp(index++, creationTimestamp);
+                    ps.setTimestamp(index++, creationTimestamp);
+                    ps.setInt(index++, after.getProcessId().intValue());
+                }
+                if (maxResults > 0) {
+                    ps.setMaxRows(maxResults);
+                    ps.setFetchSize(maxResults);
+                }
+
+                ResultSet rs = ps.executeQuery();
+                ArrayList<ProcessImpl> processes = new ArrayList<ProcessImpl>();
+                while (rs.next()) {
+                    ProcessImpl process = ProcessTable.read(rs);
+                    // Dormant processes don't need their payload until they run
+                    process.evictPayload();
+                    processes.add(process);
+                }
+                return processes;
+            }
+            finally {
+                ps.close();
+            }
+        }
+        catch (SQLException e) {
+            throw new QueujException(e);
+        }
+        finally {
+            factory.releaseConnection(connection);
+        }
+    }
+
+    public byte[] findProcessColumn(Integer processId, String property) {
+        Connection connection = factory.getConnection();
+        try {
+            PreparedStatement ps = connection.prepareStatement("select " + ProcessTable.getColumn(property) + " from process where process_id=?");
+            try {
+                ps.setInt(1, processId.intValue());
+                ResultSet rs = ps.executeQuery();
+                return rs.next() ? rs.getBytes(1) : null;
+            }
+            finally {
+                ps.close();
+            }
+        }
+        catch (SQLException e) {
+            throw new QueujException(e);
+        }
+        finally {
+            factory.releaseConnection(connection);
+        }
+    }
+}
@@ -0,0 +1,407 @@
+/*
+ * Copyright 2010 Workplace Systems PLC (http://www.workplacesystems.com/).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.workplacesystems.queuj.process.jdbc;
+
+import com.workplacesystems.queuj.process.IdBlockAllocator;
+import com.workplacesystems.queuj.process.jpa.ProcessImpl;
+import com.workplacesystems.queuj.utils.QueujException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Savepoint;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * The processes read and written by a single JDBC transaction. Processes are
+ * inserted immediately if the database generates their id, otherwise inserts,
+ * updates and deletes are held until the transaction commits and are then
+ * written as JDBC batches. Updates
+ * only set the columns that have changed since the process was read and check
+ * the OPTLOCK version like the JPA implementation. Drivers that don't report
+ * the rows affected by each statement of a batch have their updates and deletes
+ * written one at a time so the versions can still be checked.
+ *
+ * @author dave
+ */
+class JDBCUnitOfWork {
+
+    private final static Log log = LogFactory.getLog(JDBCUnitOfWork.class);
+
+    private final Connection connection;
+
+    private final IdBlockAllocator idAllocator;
+
+    private final String nextIdSql;
+
+    private final AtomicBoolean batchCountsReported;
+
+    private final HashMap<Integer,Entry> entries = new HashMap<Integer,Entry>();
+
+    private final LinkedHashSet<Entry> inserted = new LinkedHashSet<Entry>();
+
+    private final LinkedHashSet<Entry> dirty = new LinkedHashSet<Entry>();
+
+    private final LinkedHashSet<Entry> deleted = new LinkedHashSet<Entry>();
+
+    private static class Entry {
+        private ProcessImpl process;
+        private Object[] snapshot;
+        private boolean statusOnly;
+
+        private Entry(ProcessImpl process, Object[] snapshot) {
+            this.process = process;
+            this.snapshot = snapshot;
+        }
+    }
+
+    /**
+     * A single insert, update or delete. Versioned writes check the OPTLOCK
+     * version and updates also move it on.
+     */
+    private static class Write {
+        private final Entry entry;
+        private final ArrayList<Integer> columns;
+        private final Object[] values;
+        private final boolean update;
+        private final boolean versioned;
+
+        private Write(Entry entry, ArrayList<Integer> columns, Object[] values, boolean update, boolean versioned) {
+            this.entry = entry;
+            this.columns = columns;
+            this.values = values;
+            this.update = update;
+            this.versioned = versioned;
+        }
+
+        private void bind(PreparedStatement ps) throws SQLException {
+            int index = 1;
+            for (Integer column : columns)
+                ProcessTable.bind(ps, index++, column, values[column]);
+            if (versioned) {
+                int version = getVersion(entry.process);
+                if (update)
+                    ps.setInt(index++, version + 1);
+                ps.setInt(index++, entry.process.getProcessId().intValue());
+                ps.setInt(index, version);
+            }
+        }
+
+        private QueujException conflict() {
+            return new QueujException("Process " + entry.process.getProcessId() + " has been updated or deleted by another transaction.");
+        }
+    }
+
+    JDBCUnitOfWork(Connection connection, IdBlockAllocator idAllocator, String nextIdSql, AtomicBoolean batchCountsReported) {
+        this.connection = connection;
+        this.batchCountsReported = batchCountsReported;
+        this.idAllocator = idAllocator;
+        this.nextIdSql = nextIdSql;
+    }
+
+    Connection getConnection() {
+        return connection;
+    }
+
+    ProcessImpl find(Integer processId) {
+        Entry entry = entries.get(processId);
+        if (entry != null)
+            return entry.process;
+
+        try {
+            PreparedStatement ps = connection.prepareStatement(ProcessTable.SELECT + " where process_id=?");
+            try {
+                ps.setInt(1, processId.intValue());
+                ResultSet rs = ps.executeQuery();
+                if (!rs.next())
+                    return null;
+
+                ProcessImpl process = ProcessTable.read(rs);
+                entries.put(processId, new Entry(process, ProcessTable.getValues(process)));
+                return process;
+            }
+            finally {
+                ps.close();
+            }
+        }
+        catch (SQLException e) {
+            throw new QueujException(e);
+        }
+    }
+
+    void insert(ProcessImpl process) {
+        try {
+            process.setVersion(0);
+
+            if (idAllocator != null || nextIdSql != null) {
+                // The id is known so the insert can be batched with the others at commit
+                process.setProcessId(idAllocator != null ? idAllocator.nextId() : nextId());
+                Entry entry = new Entry(process, null);
+                entries.put(process.getProcessId(), entry);
+                inserted.add(entry);
+                return;
+            }
+
+            Object[] values = ProcessTable.getValues(process);
+            PreparedStatement ps = connection.prepareStatement(ProcessTable.getInsertSql(false), new String[] { ProcessTable.COLUMNS[ProcessTable.PROCESS_ID] });
+            try {
+                int index = 1;
+                for (int i = 1; i < values.length; i++)
+                    ProcessTable.bind(ps, index++, i, values[i]);
+                ps.executeUpdate();
+
+                ResultSet rs = ps.getGeneratedKeys();
+                if (!rs.next())
+                    throw new QueujException("No process id was generated.");
+                process.setProcessId(rs.getInt(1));
+                values[ProcessTable.PROCESS_ID] = process.getProcessId();
+            }
+            finally {
+                ps.close();
+            }
+
+            entries.put(process.getProcessId(), new Entry(process, values));
+        }
+        catch (SQLException e) {
+            throw new QueujException(e);
+        }
+    }
+
+    private Integer nextId() throws SQLException {
+        Statement s = connection.createStatement();
+        try {
+            ResultSet rs = s.executeQuery(nextIdSql);
+            if (!rs.next())
+                throw new QueujException("No process id was returned by " + nextIdSql);
+            return rs.getInt(1);
+        }
+        finally {
+            s.close();
+        }
+    }
+
+    void update(ProcessImpl process) {
+        Entry entry = getEntry(process);
+        entry.statusOnly = false;
+        if (!deleted.contains(entry) && !inserted.contains(entry))
+            dirty.add(entry);
+    }
+
+    void updateStatus(ProcessImpl process) {
+        if (process.isModified()) {
+            update(process);
+            return;
+        }
+        Entry entry = getEntry(process);
+        if (deleted.contains(entry) || dirty.contains(entry) || inserted.contains(entry))
+            return;
+        entry.statusOnly = true;
+        dirty.add(entry);
+    }
+
+    void delete(ProcessImpl process) {
+        Entry entry = getEntry(process);
+        dirty.remove(entry);
+        if (inserted.remove(entry))
+            entries.remove(process.getProcessId());
+        else
+            deleted.add(entry);
+    }
+
+    private Entry getEntry(ProcessImpl process) {
+        Entry entry = entries.get(process.getProcessId());
+        if (entry == null) {
+            // Not read in this transaction so every column is written
+            entry = new Entry(process, null);
+            entries.put(process.getProcessId(), entry);
+        }
+        else
+            entry.process = process;
+        return entry;
+    }
+
+    void commit() {
+        try {
+            flush();
+            connection.commit();
+        }
+        catch (SQLException e) {
+            throw new QueujException(e);
+        }
+    }
+
+    void rollback() {
+        try {
+            connection.rollback();
+        }
+        catch (SQLException e) {
+            log.warn("Failed to roll back transaction.", e);
+        }
+    }
+
+    void close() {
+        try {
+            connection.close();
+        }
+        catch (SQLException e) {
+            log.warn("Failed to close connection.", e);
+        }
+    }
+
+    private void flush() throws SQLException {
+        LinkedHashMap<String,ArrayList<Write>> writes = new LinkedHashMap<String,ArrayList<Write>>();
+        HashMap<Entry,Object[]> newValues = new HashMap<Entry,Object[]>();
+        HashMap<Entry,Object[]> insertedValues = new HashMap<Entry,Object[]>();
+
+        for (Entry entry : inserted) {
+            Object[] values = ProcessTable.getValues(entry.process);
+            ArrayList<Integer> columns = new ArrayList<Integer>();
+            for (int i = 0; i < values.length; i++)
+                columns.add(i);
+            addWrite(writes, ProcessTable.getInsertSql(true), new Write(entry, columns, values, false, false));
+            insertedValues.put(entry, values);
+        }
+
+        for (Entry entry : dirty) {
+            Object[] values = entry.statusOnly && entry.snapshot != null ?
+                ProcessTable.getStatusValues(entry.process, entry.snapshot) : ProcessTable.getValues(entry.process);
+
+            ArrayList<Integer> changed = new ArrayList<Integer>();
+            StringBuilder sql = new StringBuilder("update process set ");
+            for (int i = ProcessTable.OPTLOCK + 1; i < values.length; i++) {
+                if (entry.snapshot == null || ProcessTable.isChanged(entry.snapshot[i], values[i])) {
+                    changed.add(i);
+                    sql.append(ProcessTable.COLUMNS[i]).append("=?, ");
+                }
+            }
+            if (changed.isEmpty())
+                continue;
+            sql.append("OPTLOCK=? where process_id=? and OPTLOCK=?");
+
+            addWrite(writes, sql.toString(), new Write(entry, changed, values, true, true));
+            newValues.put(entry, values);
+        }
+
+        for (Entry entry : deleted)
+            addWrite(writes, "delete from process where process_id=? and OPTLOCK=?", new Write(entry, new ArrayList<Integer>(), null, false, true));
+
+        if (!writes.isEmpty()) {
+            if (!batchCountsReported.get())
+                executeEach(writes);
+            else {
+                Savepoint savepoint = dirty.isEmpty() && deleted.isEmpty() ? null : connection.setSavepoint();
+                if (!executeBatches(writes)) {
+                    // The driver doesn't report the rows affected by each statement of a batch
+                    // so the version checks can't be made, write them one at a time instead
+                    batchCountsReported.set(false);
+                    connection.rollback(savepoint);
+                    executeEach(writes);
+                }
+            }
+        }
+
+        // Everything has been written so move the versions and snapshots on
+        for (Map.Entry<Entry,Object[]> insertedValue : insertedValues.entrySet()) {
+            insertedValue.getKey().snapshot = insertedValue.getValue();
+            insertedValue.getKey().process.markUnmodified();
+        }
+        for (Map.Entry<Entry,Object[]> newValue : newValues.entrySet()) {
+            Entry entry = newValue.getKey();
+            int version = getVersion(entry.process) + 1;
+            entry.process.setVersion(version);
+            newValue.getValue()[ProcessTable.OPTLOCK] = version;
+            entry.snapshot = newValue.getValue();
+            entry.process.markUnmodified();
+        }
+        for (Entry entry : dirty)
+            entry.statusOnly = false;
+        for (Entry entry : deleted)
+            entries.remove(entry.process.getProcessId());
+        inserted.clear();
+        dirty.clear();
+        deleted.clear();
+    }
+
+    private static void addWrite(Map<String,ArrayList<Write>> writes, String sql, Write write) {
+        ArrayList<Write> batch = writes.get(sql);
+        if (batch == null) {
+            batch = new ArrayList<Write>();
+            writes.put(sql, batch);
+        }
+        batch.add(write);
+    }
+
+    /**
+     * Executes the writes as one batch per statement.
+     *
+     * @return false if the driver didn't report whether the versioned writes matched
+     */
+    private boolean executeBatches(Map<String,ArrayList<Write>> writes) throws SQLException {
+        for (Map.Entry<String,ArrayList<Write>> batch : writes.entrySet()) {
+            PreparedStatement ps = connection.prepareStatement(batch.getKey());
+            try {
+                for (Write write : batch.getValue()) {
+                    write.bind(ps);
+                    ps.addBatch();
+                }
+
+                int[] counts = ps.executeBatch();
+                for (int i = 0; i < counts.length; i++) {
+                    Write write = batch.getValue().get(i);
+                    if (!write.versioned)
+                        continue;
+                    if (counts[i] == Statement.SUCCESS_NO_INFO)
+                        return false;
+                    if (counts[i] == 0)
+                        throw write.conflict();
+                }
+            }
+            finally {
+                ps.close();
+            }
+        }
+        return true;
+    }
+
+    private void executeEach(Map<String,ArrayList<Write>> writes) throws SQLException {
+        for (Map.Entry<String,ArrayList<Write>> batch : writes.entrySet()) {
+            PreparedStatement ps = connection.prepareStatement(batch.getKey());
+            try {
+                for (Write write : batch.getValue()) {
+                    write.bind(ps);
+                    if (ps.executeUpdate() == 0 && write.versioned)
+                        throw write.conflict();
+                }
+            }
+            finally {
+                ps.close();
+            }
+        }
+    }
+
+    private static int getVersion(ProcessImpl process) {
+        return process.getVersion() == null ? 0 : process.getVersion().intValue();
+    }
+}
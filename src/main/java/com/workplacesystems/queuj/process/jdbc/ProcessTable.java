@@ -0,0 +1,231 @@
+/*
+ * Copyright 2010 Workplace Systems PLC (http://www.workplacesystems.com/).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.workplacesystems.queuj.process.jdbc;
+
+import com.workplacesystems.queuj.process.ProcessEntity.Status;
+import com.workplacesystems.queuj.process.codec.ColumnCodec;
+import com.workplacesystems.queuj.process.jpa.ProcessImpl;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.util.Arrays;
+import java.util.Date;
+
+/**
+ * Maps ProcessImpl to the columns of the process table used by the JPA
+ * implementation so both implementations can share the same database.
+ *
+ * @author dave
+ */
+final class ProcessTable {
+
+    static final int PROCESS_ID = 0;
+    static final int OPTLOCK = 1;
+    private static final int SCHEDULED_TIMESTAMP = 7;
+    private static final int STARTED_TIMESTAMP = 8;
+    private static final int STATUS = 13;
+    private static final int ATTEMPT = 19;
+    private static final int RUN_COUNT = 20;
+    private static final int RESULT_CODE = 21;
+
+    static final String[] COLUMNS = new String[] {
+        "process_id", "OPTLOCK", "queue_owner_id", "uuid", "process_name", "creation_timestamp",
+        "description", "scheduled_timestamp", "started_timestamp", "parameters", "queue", "user_id",
+        "locale", "status", "occurrence", "access", "visibility", "resilience", "output", "attempt",
+        "run_count", "result_code", "associated_report", "keep_completed"
+    };
+
+    private static final int[] TYPES = new int[] {
+        Types.INTEGER, Types.INTEGER, Types.VARCHAR, Types.VARCHAR, Types.VARCHAR, Types.TIMESTAMP,
+        Types.VARCHAR, Types.TIMESTAMP, Types.TIMESTAMP, Types.BLOB, Types.BLOB, Types.VARCHAR,
+        Types.BLOB, Types.INTEGER, Types.BLOB, Types.BLOB, Types.BLOB, Types.BLOB, Types.BLOB, Types.INTEGER,
+        Types.INTEGER, Types.INTEGER, Types.BOOLEAN, Types.BOOLEAN
+    };
+
+    private static final String COLUMN_LIST;
+
+    static {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < COLUMNS.length; i++) {
+            if (i > 0)
+                sb.append(", ");
+            sb.append(COLUMNS[i]);
+        }
+        COLUMN_LIST = sb.toString();
+    }
+
+    static final String SELECT = "select " + COLUMN_LIST + " from process";
+
+    private static final ColumnCodec codec = ColumnCodec.getInstance();
+
+    private ProcessTable() {}
+
+    static String getInsertSql(boolean includeId) {
+        StringBuilder sb = new StringBuilder("insert into process (");
+        StringBuilder values = new StringBuilder();
+        for (int i = includeId ? 0 : 1; i < COLUMNS.length; i++) {
+            if (values.length() > 0) {
+                sb.append(", ");
+                values.append(", ");
+            }
+            sb.append(COLUMNS[i]);
+            values.append("?");
+        }
+        return sb.append(") values (").append(values).append(")").toString();
+    }
+
+    /**
+     * Maps the LazyColumn property names of ProcessImpl to their columns.
+     */
+    static String getColumn(String property) {
+        if (property.equals("parametersData"))
+            return "parameters";
+        if (property.equals("outputData"))
+            return "output";
+        throw new IllegalArgumentException("Unknown property " + property);
+    }
+
+    static ProcessImpl read(ResultSet rs) throws SQLException {
+        ProcessImpl process = new ProcessImpl();
+        process.setProcessId(getInteger(rs, 1));
+        process.setVersion(getInteger(rs, 2));
+        process.setQueueOwnerId(rs.getString(3));
+        process.setUUID(rs.getString(4));
+        process.setProcessName(rs.getString(5));
+        process.setCreationTimestamp(getDate(rs, 6));
+        process.setDescription(rs.getString(7));
+        process.setScheduledTimestamp(getDate(rs, 8));
+        process.setStartedTimestamp(getDate(rs, 9));
+        process.setParametersData(rs.getBytes(10));
+        process.setQueueData(rs.getBytes(11));
+        process.setUserId(rs.getString(12));
+        process.setLocaleData(rs.getBytes(13));
+        Integer status = getInteger(rs, 14);
+        process.setStatus(status == null ? null : Status.values()[status.intValue()]);
+        process.setOccurrenceData(rs.getBytes(15));
+        process.setAccessData(rs.getBytes(16));
+        process.setVisibilityData(rs.getBytes(17));
+        process.setResilienceData(rs.getBytes(18));
+        process.setOutputData(rs.getBytes(19));
+        process.setAttempt(rs.getInt(20));
+        process.setRunCount(rs.getInt(21));
+        process.setResultCode(rs.getInt(22));
+        process.setAssociatedReport(rs.getBoolean(23));
+        process.setKeepCompleted(rs.getBoolean(24));
+        process.markUnmodified();
+        return process;
+    }
+
+    /**
+     * Returns the values used to detect changed columns. The heavy columns are
+     * returned as their stored bytes, which are only re-encoded if they have been
+     * decoded. The other object columns are compared by reference.
+     */
+    static Object[] getValues(ProcessImpl process) {
+        return new Object[] {
+            process.getProcessId(),
+            process.getVersion(),
+            process.getQueueOwnerId(),
+            process.getUUID(),
+            process.getProcessName(),
+            copy(process.getCreationTimestamp()),
+            process.getDescription(),
+            copy(process.getScheduledTimestamp()),
+            copy(process.getStartedTimestamp()),
+            process.getParametersData(),
+            process.getQueue(),
+            process.getUserId(),
+            process.getLocale(),
+            process.getStatus(),
+            process.getOccurrence(),
+            process.getAccess(),
+            process.getVisibility(),
+            process.getResilience(),
+            process.getOutputData(),
+            process.getAttempt(),
+            process.getRunCount(),
+            process.getResultCode(),
+            process.isAssociatedReport(),
+            process.isKeepCompleted()
+        };
+    }
+
+    /**
+     * Returns the snapshot with just the status columns replaced by those of the
+     * process so the heavy columns don't need to be encoded.
+     */
+    static Object[] getStatusValues(ProcessImpl process, Object[] snapshot) {
+        Object[] values = snapshot.clone();
+        values[PROCESS_ID] = process.getProcessId();
+        values[OPTLOCK] = process.getVersion();
+        values[SCHEDULED_TIMESTAMP] = copy(process.getScheduledTimestamp());
+        values[STARTED_TIMESTAMP] = copy(process.getStartedTimestamp());
+        values[STATUS] = process.getStatus();
+        values[ATTEMPT] = process.getAttempt();
+        values[RUN_COUNT] = process.getRunCount();
+        values[RESULT_CODE] = process.getResultCode();
+        return values;
+    }
+
+    static boolean isChanged(Object oldValue, Object newValue) {
+        if (oldValue == newValue)
+            return false;
+        if (oldValue == null || newValue == null)
+            return true;
+        if (newValue instanceof byte[])
+            return !Arrays.equals((byte[])oldValue, (byte[])newValue);
+        if (newValue instanceof String || newValue instanceof Number || newValue instanceof Boolean ||
+                newValue instanceof Date || newValue instanceof Status)
+            return !oldValue.equals(newValue);
+        return true;
+    }
+
+    static void bind(PreparedStatement ps, int index, int column, Object value) throws SQLException {
+        if (value == null)
+            ps.setNull(index, TYPES[column]);
+        else if (value instanceof Integer)
+            ps.setInt(index, ((Integer)value).intValue());
+        else if (value instanceof String)
+            ps.setString(index, (String)value);
+        else if (value instanceof Boolean)
+            ps.setBoolean(index, ((Boolean)value).booleanValue());
+        else if (value instanceof Date)
+            ps.setTimestamp(index, new Timestamp(((Date)value).getTime()));
+        else if (value instanceof Status)
+            ps.setInt(index, ((Status)value).ordinal());
+        else if (value instanceof byte[])
+            ps.setBytes(index, (byte[])value);
+        else
+            ps.setBytes(index, codec.encode(value));
+    }
+
+    private static Integer getInteger(ResultSet rs, int index) throws SQLException {
+        int value = rs.getInt(index);
+        return rs.wasNull() ? null : Integer.valueOf(value);
+    }
+
+    private static Date getDate(ResultSet rs, int index) throws SQLException {
+        Timestamp timestamp = rs.getTimestamp(index);
+        return timestamp == null ? null : new Date(timestamp.getTime());
+    }
+
+    private static Date copy(Date date) {
+        return date == null ? null : new Date(date.getTime());
+    }
+}
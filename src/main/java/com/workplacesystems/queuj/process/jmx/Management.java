@@ -0,0 +1,100 @@
+/*
+ * Copyright 2010 Workplace Systems PLC (http://www.workplacesystems.com/).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.workplacesystems.queuj.process.jmx;
+
+import com.workplacesystems.queuj.process.ProcessImplServer;
+import com.workplacesystems.queuj.process.QueueState;
+import com.workplacesystems.queuj.process.metrics.Metrics;
+import com.workplacesystems.queuj.utils.QueujException;
+import com.workplacesystems.utilsj.threadpool.ThreadPool;
+import java.lang.management.ManagementFactory;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Registers the MBeans for the process servers, their queues and the thread
+ * pools with the platform MBeanServer when com.workplacesystems.queuj.jmx is
+ * true. The queues are named as in the Metrics.
+ *
+ * @author dave
+ */
+public final class Management {
+
+    public static final String DOMAIN = "com.workplacesystems.queuj";
+
+    private static final boolean enabled = Boolean.getBoolean("com.workplacesystems.queuj.jmx");
+
+    private Management() {}
+
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    public static void register(ProcessImplServer server) {
+        if (enabled)
+            register(getName(server, "ProcessServer", null), new ProcessServerMonitor(server));
+    }
+
+    public static void register(ProcessImplServer server, QueueState state) {
+        if (enabled)
+            register(getName(server, "Queue", Metrics.getQueueMetrics(state.getQueue()).getName()), new QueueMonitor(server, state));
+    }
+
+    public static void register(String poolName, ThreadPool pool) {
+        if (enabled)
+            register(DOMAIN + ":type=ThreadPool,name=" + ObjectName.quote(poolName), new ThreadPoolMonitor(poolName, pool));
+    }
+
+    /**
+     * Unregisters the MBeans of the server and its queues.
+     */
+    public static void unregister(ProcessImplServer server) {
+        if (!enabled)
+            return;
+
+        try {
+            MBeanServer mbs = ManagementFactory.getPlatformMBeanServer();
+            for (ObjectName name : mbs.queryNames(new ObjectName(DOMAIN + ":owner=" + getOwner(server) + ",*"), null))
+                mbs.unregisterMBean(name);
+        }
+        catch (Exception e) {
+            new QueujException(e);
+        }
+    }
+
+    private static String getName(ProcessImplServer server, String type, String name) {
+        return DOMAIN + ":type=" + type + ",owner=" + getOwner(server) + (name == null ? "" : ",name=" + ObjectName.quote(name));
+    }
+
+    private static String getOwner(ProcessImplServer server) {
+        return ObjectName.quote(server.getQueueOwner() == null ? "" : server.getQueueOwner());
+    }
+
+    private static void register(String name, Object mbean) {
+        try {
+            MBeanServer mbs = ManagementFactory.getPlatformMBeanServer();
+            ObjectName objectName = new ObjectName(name);
+            // Replace the MBean of a queue owner that has been reloaded
+            if (mbs.isRegistered(objectName))
+                mbs.unregisterMBean(objectName);
+            mbs.registerMBean(mbean, objectName);
+        }
+        catch (Exception e) {
+            new QueujException(e);
+        }
+    }
+}
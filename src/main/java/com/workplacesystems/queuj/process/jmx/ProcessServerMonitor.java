@@ -0,0 +1,86 @@
+/*
+ * Copyright 2010 Workplace Systems PLC (http://www.workplacesystems.com/).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.workplacesystems.queuj.process.jmx;
+
+import com.workplacesystems.queuj.process.ProcessImplServer;
+import com.workplacesystems.queuj.process.QueueState;
+import com.workplacesystems.queuj.process.metrics.Metrics;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * The counts of the processes of a queue owner across all of its queues and
+ * the state of its scheduler.
+ *
+ * @author dave
+ */
+public class ProcessServerMonitor implements ProcessServerMonitorMBean {
+
+    private final ProcessImplServer server;
+
+    public ProcessServerMonitor(ProcessImplServer server) {
+        this.server = server;
+    }
+
+    public String getQueueOwner() {
+        return server.getQueueOwner();
+    }
+
+    public int getNotRunCount() {
+        return server.getTotalState().getNotRunCount();
+    }
+
+    public int getWaitingToRunCount() {
+        return server.getTotalState().getWaitingToRunCount();
+    }
+
+    public int getRunningCount() {
+        return server.getTotalState().getRunningCount();
+    }
+
+    public int getFailedCount() {
+        return server.getTotalState().getFailedCount();
+    }
+
+    public int getParkedCount() {
+        return server.getTotalState().getParkedCount();
+    }
+
+    public int getReadyCount() {
+        return server.getTotalState().getReadyCount();
+    }
+
+    public Date getNextFireTime() {
+        return server.getProcessScheduler().getNextFireTime();
+    }
+
+    public int getUnparkBacklog() {
+        return server.getProcessScheduler().getUnparkBacklog();
+    }
+
+    public String[] getQueues() {
+        List<QueueState> states = server.getQueueStates();
+        String[] queues = new String[states.size()];
+        for (int i = 0; i < queues.length; i++)
+            queues[i] = Metrics.getQueueMetrics(states.get(i).getQueue()).getName();
+        return queues;
+    }
+
+    public boolean notifyQueue() {
+        return server.notifyQueue().booleanValue();
+    }
+}
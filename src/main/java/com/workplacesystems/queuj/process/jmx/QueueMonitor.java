@@ -0,0 +1,81 @@
+/*
+ * Copyright 2010 Workplace Systems PLC (http://www.workplacesystems.com/).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.workplacesystems.queuj.process.jmx;
+
+import com.workplacesystems.queuj.process.ProcessImplServer;
+import com.workplacesystems.queuj.process.QueueState;
+
+/**
+ * The counts of the processes of a single queue of a queue owner.
+ *
+ * @author dave
+ */
+public class QueueMonitor implements QueueMonitorMBean {
+
+    private final ProcessImplServer server;
+
+    private final QueueState state;
+
+    public QueueMonitor(ProcessImplServer server, QueueState state) {
+        this.server = server;
+        this.state = state;
+    }
+
+    public String getDefinition() {
+        return state.getQueue().toString();
+    }
+
+    public int getNotRunCount() {
+        return state.getNotRunCount();
+    }
+
+    public int getWaitingToRunCount() {
+        return state.getWaitingToRunCount();
+    }
+
+    public int getRunningCount() {
+        return state.getRunningCount();
+    }
+
+    public int getFailedCount() {
+        return state.getFailedCount();
+    }
+
+    public int getParkedCount() {
+        return state.getParkedCount();
+    }
+
+    public int getReadyCount() {
+        return state.getReadyCount();
+    }
+
+    public boolean isPaused() {
+        return state.isPaused();
+    }
+
+    public void pause() {
+        server.pauseQueue(state.getQueue());
+    }
+
+    public void resume() {
+        server.resumeQueue(state.getQueue());
+    }
+
+    public boolean notifyQueue() {
+        return server.notifyQueue().booleanValue();
+    }
+}
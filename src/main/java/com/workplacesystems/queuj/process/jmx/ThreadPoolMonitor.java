@@ -0,0 +1,48 @@
+/*
+ * Copyright 2010 Workplace Systems PLC (http://www.workplacesystems.com/).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.workplacesystems.queuj.process.jmx;
+
+import com.workplacesystems.utilsj.threadpool.ThreadPool;
+
+/**
+ * The threads of one of the named BackgroundProcess thread pools.
+ *
+ * @author dave
+ */
+public class ThreadPoolMonitor implements ThreadPoolMonitorMBean {
+
+    private final String name;
+
+    private final ThreadPool pool;
+
+    public ThreadPoolMonitor(String name, ThreadPool pool) {
+        this.name = name;
+        this.pool = pool;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int getActiveThreads() {
+        return pool.getNumActive();
+    }
+
+    public int getIdleThreads() {
+        return pool.getNumIdle();
+    }
+}
@@ -0,0 +1,524 @@
+/*
+ * Copyright 2010 Workplace Systems PLC (http://www.workplacesystems.com/).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.workplacesystems.queuj.process.journal;
+
+import com.workplacesystems.queuj.process.jpa.ProcessImpl;
+import com.workplacesystems.queuj.utils.QueujException;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Append only journal of committed process changes. Each commit is written to a
+ * memory mapped journal file as a single checksummed frame so a commit is either
+ * replayed completely or not at all. Once the current journal file grows past the
+ * snapshot size a new journal file is started and the committed rows are written
+ * to a compacted snapshot in the background, after which the older journal files
+ * are deleted. On startup the snapshot is loaded and the remaining journal files
+ * are replayed.
+ *
+ * @author dave
+ */
+class Journal {
+
+    private final static Log log = LogFactory.getLog(Journal.class);
+
+    enum SyncMode {
+        /** Force the journal to disk on every commit. */
+        COMMIT,
+        /** Force the journal once for all the commits waiting to be synced. */
+        GROUP,
+        /** Leave writing the journal to disk to the operating system. */
+        NONE
+    }
+
+    static final int SNAPSHOT_MAGIC = 0x514A534E;
+
+    static final byte SNAPSHOT_VERSION = 1;
+
+    private static final byte PUT = 1;
+
+    private static final byte DELETE = 2;
+
+    private final File directory;
+
+    private final SyncMode syncMode;
+
+    private final long snapshotSize;
+
+    private final int mapSize;
+
+    private final HashMap<Integer,JournalRow> rows = new HashMap<Integer,JournalRow>();
+
+    private int maxProcessId = 0;
+
+    private long generation;
+
+    private RandomAccessFile file;
+
+    private FileChannel channel;
+
+    private MappedByteBuffer buffer;
+
+    private long mapStart;
+
+    /** Total bytes appended since the journal was opened. */
+    private long written = 0;
+
+    private final Object syncMutex = new Object();
+
+    private long synced = 0;
+
+    private boolean snapshotting = false;
+
+    Journal(File directory, SyncMode syncMode, long snapshotSize, int mapSize) {
+        this.directory = directory;
+        this.syncMode = syncMode;
+        this.snapshotSize = snapshotSize;
+        this.mapSize = mapSize;
+    }
+
+    synchronized void open() throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs())
+            throw new IOException("Unable to create journal directory " + directory);
+
+        long firstGeneration = readSnapshot();
+
+        TreeMap<Long,File> journals = new TreeMap<Long,File>();
+        for (File f : directory.listFiles()) {
+            if (f.getName().startsWith("journal.")) {
+                try {
+                    journals.put(Long.valueOf(f.getName().substring(8)), f);
+                }
+                catch (NumberFormatException nfe) {}
+            }
+        }
+
+        generation = firstGeneration;
+        long validEnd = 0;
+        HashMap<ByteBuffer,Object> decoded = new HashMap<ByteBuffer,Object>();
+        for (Long journalGeneration : journals.keySet()) {
+            File journal = journals.get(journalGeneration);
+            if (journalGeneration.longValue() < firstGeneration) {
+                // Already included in the snapshot
+                journal.delete();
+                continue;
+            }
+            generation = journalGeneration.longValue();
+            validEnd = replay(journal, decoded);
+        }
+
+        openGeneration(generation, validEnd);
+
+        if (log.isInfoEnabled())
+            log.info("Journal opened with " + rows.size() + " processes.");
+    }
+
+    private void openGeneration(long generation, long position) throws IOException {
+        if (file != null)
+            file.close();
+
+        this.generation = generation;
+        file = new RandomAccessFile(new File(directory, "journal." + generation), "rw");
+        channel = file.getChannel();
+        // Discard anything after the last complete commit
+        channel.truncate(position);
+        map(position, mapSize);
+    }
+
+    private void map(long position, int size) throws IOException {
+        mapStart = position;
+        buffer = channel.map(FileChannel.MapMode.READ_WRITE, position, size);
+    }
+
+    synchronized JournalRow get(Integer processId) {
+        return rows.get(processId);
+    }
+
+    synchronized Set<String> getQueueOwners() {
+        HashSet<String> queueOwners = new HashSet<String>();
+        for (JournalRow row : rows.values())
+            queueOwners.add(row.queueOwnerId);
+        return queueOwners;
+    }
+
+    synchronized List<JournalRow> getRows(String queueOwner) {
+        ArrayList<JournalRow> queueOwnerRows = new ArrayList<JournalRow>();
+        for (JournalRow row : rows.values()) {
+            if (queueOwner == null ? row.queueOwnerId == null : queueOwner.equals(row.queueOwnerId))
+                queueOwnerRows.add(row);
+        }
+        return queueOwnerRows;
+    }
+
+    synchronized int nextProcessId() {
+        return ++maxProcessId;
+    }
+
+    /**
+     * Reserve a block of process ids and return the first. Unused ids are
+     * forgotten when the journal is reopened.
+     */
+    synchronized int allocateProcessIds(int size) {
+        int first = maxProcessId + 1;
+        maxProcessId += size;
+        return first;
+    }
+
+    /**
+     * Atomically write the given process changes to the journal and apply them
+     * to the committed rows. Throws an exception if any of the processes has been
+     * changed by another transaction.
+     */
+    void commit(Collection<ProcessImpl> puts, Collection<ProcessImpl> deletes) {
+        commit(puts, Collections.<Integer>emptySet(), deletes);
+    }
+
+    /**
+     * As commit but the processes with ids in statusOnly have only had their status
+     * columns changed so their other columns are taken from the committed row.
+     * Processes that have been modified since are written in full.
+     */
+    void commit(Collection<ProcessImpl> puts, Set<Integer> statusOnly, Collection<ProcessImpl> deletes) {
+        long end;
+        synchronized (this) {
+            ArrayList<JournalRow> newRows = new ArrayList<JournalRow>();
+            ArrayList<JournalRow> previousRows = new ArrayList<JournalRow>();
+            for (ProcessImpl process : puts) {
+                JournalRow previous = rows.get(process.getProcessId());
+                checkVersion(process, previous);
+                if (previous != null && statusOnly.contains(process.getProcessId()) && !process.isModified())
+                    newRows.add(JournalRow.withStatus(process, previous));
+                else
+                    newRows.add(JournalRow.fromProcess(process, previous, previous == null ? 0 : previous.version + 1));
+                previousRows.add(previous);
+            }
+            ArrayList<Integer> deletedIds = new ArrayList<Integer>();
+            for (ProcessImpl process : deletes) {
+                JournalRow previous = rows.get(process.getProcessId());
+                if (previous == null)
+                    continue;
+                checkVersion(process, previous);
+                deletedIds.add(process.getProcessId());
+            }
+
+            if (newRows.isEmpty() && deletedIds.isEmpty())
+                return;
+
+            try {
+                ByteArrayOutputStream bytes = new ByteArrayOutputStream(512);
+                DataOutputStream out = new DataOutputStream(bytes);
+                out.writeInt(newRows.size() + deletedIds.size());
+                for (int j = 0; j < newRows.size(); j++) {
+                    out.writeByte(PUT);
+                    newRows.get(j).write(out, previousRows.get(j));
+                }
+                for (Integer processId : deletedIds) {
+                    out.writeByte(DELETE);
+                    out.writeInt(processId.intValue());
+                }
+                out.close();
+                append(bytes.toByteArray());
+            }
+            catch (IOException e) {
+                throw new QueujException(e);
+            }
+
+            int i = 0;
+            for (ProcessImpl process : puts) {
+                JournalRow row = newRows.get(i++);
+                rows.put(process.getProcessId(), row);
+                process.setVersion(Integer.valueOf(row.version));
+                process.markUnmodified();
+            }
+            for (Integer processId : deletedIds)
+                rows.remove(processId);
+
+            end = written;
+            if (syncMode == SyncMode.COMMIT) {
+                buffer.force();
+                synced = written;
+            }
+
+            if (!snapshotting && mapStart + buffer.position() > snapshotSize)
+                startSnapshot();
+        }
+
+        if (syncMode == SyncMode.GROUP)
+            sync(end);
+    }
+
+    private void checkVersion(ProcessImpl process, JournalRow previous) {
+        int version = process.getVersion() == null ? -1 : process.getVersion().intValue();
+        if (previous == null ? version > 0 : previous.version != version)
+            throw new QueujException("Process " + process.getProcessId() + " has been updated or deleted by another transaction.");
+    }
+
+    private void append(byte[] payload) throws IOException {
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+
+        int length = payload.length + 8;
+        if (buffer.remaining() < length) {
+            buffer.force();
+            map(mapStart + buffer.position(), Math.max(mapSize, length));
+        }
+        buffer.putInt(payload.length);
+        buffer.putInt((int)crc.getValue());
+        buffer.put(payload);
+        written += length;
+    }
+
+    /**
+     * Force the journal to disk up to at least the given position. Commits waiting
+     * while another thread forces the journal are usually covered by the next force.
+     */
+    private void sync(long position) {
+        synchronized (syncMutex) {
+            if (synced >= position)
+                return;
+
+            MappedByteBuffer current;
+            long upto;
+            synchronized (this) {
+                current = buffer;
+                upto = written;
+            }
+            current.force();
+            synced = upto;
+        }
+    }
+
+    private long replay(File journal, HashMap<ByteBuffer,Object> decoded) throws IOException {
+        long length = journal.length();
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(journal)));
+        long position = 0;
+        int commits = 0;
+        try {
+            while (position + 8 <= length) {
+                int payloadLength = in.readInt();
+                if (payloadLength <= 0 || position + 8 + payloadLength > length)
+                    break;
+                int checksum = in.readInt();
+                byte[] payload = new byte[payloadLength];
+                in.readFully(payload);
+
+                CRC32 crc = new CRC32();
+                crc.update(payload);
+                if ((int)crc.getValue() != checksum) {
+                    log.warn("Discarding incomplete commit at " + position + " in " + journal);
+                    break;
+                }
+
+                apply(payload, decoded);
+                position += 8 + payloadLength;
+                commits++;
+            }
+        }
+        catch (EOFException eofe) {}
+        finally {
+            in.close();
+        }
+
+        if (log.isDebugEnabled())
+            log.debug("Replayed " + commits + " commits from " + journal);
+        return position;
+    }
+
+    private void apply(byte[] payload, HashMap<ByteBuffer,Object> decoded) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload));
+        int count = in.readInt();
+        for (int i = 0; i < count; i++) {
+            byte type = in.readByte();
+            if (type == PUT) {
+                // Peek the id to find the previous row
+                in.mark(4);
+                Integer processId = Integer.valueOf(in.readInt());
+                in.reset();
+                JournalRow row = JournalRow.read(in, rows.get(processId), decoded);
+                rows.put(processId, row);
+                maxProcessId = Math.max(maxProcessId, row.processId);
+            }
+            else if (type == DELETE)
+                rows.remove(Integer.valueOf(in.readInt()));
+            else
+                throw new IOException("Unknown journal record type " + type);
+        }
+    }
+
+    private void startSnapshot() {
+        snapshotting = true;
+
+        final long snapshotGeneration = generation + 1;
+        final ArrayList<JournalRow> snapshotRows = new ArrayList<JournalRow>(rows.values());
+        final int snapshotMaxProcessId = maxProcessId;
+        try {
+            buffer.force();
+            openGeneration(snapshotGeneration, 0);
+        }
+        catch (IOException e) {
+            snapshotting = false;
+            throw new QueujException(e);
+        }
+
+        Thread thread = new Thread("QueuJ Journal Snapshot") {
+
+            @Override
+            public void run() {
+                try {
+                    writeSnapshot(snapshotRows, snapshotMaxProcessId, snapshotGeneration);
+                    for (File f : directory.listFiles()) {
+                        if (f.getName().startsWith("journal.")) {
+                            try {
+                                if (Long.parseLong(f.getName().substring(8)) < snapshotGeneration)
+                                    f.delete();
+                            }
+                            catch (NumberFormatException nfe) {}
+                        }
+                    }
+                }
+                catch (IOException e) {
+                    new QueujException(e);
+                }
+                finally {
+                    synchronized (Journal.this) {
+                        snapshotting = false;
+                    }
+                }
+            }
+        };
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private void writeSnapshot(Collection<JournalRow> snapshotRows, int snapshotMaxProcessId, long nextGeneration) throws IOException {
+        long start = System.currentTimeMillis();
+
+        File tmp = new File(directory, "snapshot.tmp");
+        FileOutputStream fos = new FileOutputStream(tmp);
+        try {
+            CheckedOutputStream checked = new CheckedOutputStream(new BufferedOutputStream(fos, 65536), new CRC32());
+            DataOutputStream out = new DataOutputStream(checked);
+            out.writeInt(SNAPSHOT_MAGIC);
+            out.writeByte(SNAPSHOT_VERSION);
+            out.writeLong(nextGeneration);
+            out.writeInt(snapshotMaxProcessId);
+            out.writeInt(snapshotRows.size());
+            for (JournalRow row : snapshotRows)
+                row.write(out, null);
+            out.flush();
+            long checksum = checked.getChecksum().getValue();
+            out.writeLong(checksum);
+            out.flush();
+            fos.getFD().sync();
+        }
+        finally {
+            fos.close();
+        }
+
+        File snapshot = new File(directory, "snapshot");
+        if (!tmp.renameTo(snapshot)) {
+            snapshot.delete();
+            if (!tmp.renameTo(snapshot))
+                throw new IOException("Unable to rename " + tmp + " to " + snapshot);
+        }
+
+        if (log.isInfoEnabled())
+            log.info("Journal snapshot of " + snapshotRows.size() + " processes written in " +
+                    (System.currentTimeMillis() - start) + "ms.");
+    }
+
+    /**
+     * Loads the snapshot if there is one and returns the first journal generation
+     * that isn't included in it.
+     */
+    private long readSnapshot() throws IOException {
+        File snapshot = new File(directory, "snapshot");
+        if (snapshot.exists())
+            return readSnapshot(snapshot);
+
+        File tmp = new File(directory, "snapshot.tmp");
+        if (!tmp.exists())
+            return 0;
+
+        // A crash during the rename can leave only the new snapshot. Otherwise the crash
+        // was while the first snapshot was being written, so no journal files have been
+        // deleted yet and the journal is replayed from the start.
+        try {
+            return readSnapshot(tmp);
+        }
+        catch (IOException e) {
+            log.warn("Discarding incomplete snapshot " + tmp, e);
+            rows.clear();
+            maxProcessId = 0;
+            tmp.delete();
+            return 0;
+        }
+    }
+
+    private long readSnapshot(File snapshot) throws IOException {
+        CheckedInputStream checked = new CheckedInputStream(new BufferedInputStream(new FileInputStream(snapshot), 65536), new CRC32());
+        DataInputStream in = new DataInputStream(checked);
+        try {
+            if (in.readInt() != SNAPSHOT_MAGIC)
+                throw new IOException(snapshot + " isn't a journal snapshot.");
+            byte version = in.readByte();
+            if (version > SNAPSHOT_VERSION)
+                throw new IOException("Unsupported journal snapshot version " + version);
+            long nextGeneration = in.readLong();
+            maxProcessId = in.readInt();
+            int count = in.readInt();
+            HashMap<ByteBuffer,Object> decoded = new HashMap<ByteBuffer,Object>();
+            for (int i = 0; i < count; i++) {
+                JournalRow row = JournalRow.read(in, null, decoded);
+                rows.put(Integer.valueOf(row.processId), row);
+            }
+            long checksum = checked.getChecksum().getValue();
+            if (in.readLong() != checksum)
+                throw new IOException(snapshot + " is corrupt.");
+            return nextGeneration;
+        }
+        finally {
+            in.close();
+        }
+    }
+}
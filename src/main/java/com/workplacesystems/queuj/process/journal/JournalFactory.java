@@ -0,0 +1,162 @@
+/*
+ * Copyright 2010 Workplace Systems PLC (http://www.workplacesystems.com/).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.workplacesystems.queuj.process.journal;
+
+import com.workplacesystems.queuj.process.IdBlockAllocator;
+import com.workplacesystems.queuj.process.PersistentTransaction;
+import com.workplacesystems.queuj.process.ProcessEntity;
+import com.workplacesystems.queuj.process.ProcessPersistence;
+import com.workplacesystems.queuj.process.QueujFactoryImpl;
+import com.workplacesystems.queuj.process.QueujTransaction;
+import com.workplacesystems.queuj.process.jpa.ProcessDAO;
+import com.workplacesystems.queuj.process.jpa.ProcessImpl;
+import com.workplacesystems.queuj.utils.QueujException;
+import java.io.File;
+import java.io.IOException;
+import java.util.Map;
+
+/**
+ * QueujFactory persisting the processes to an append only journal on the local
+ * file system so no database is required. The journal is written to the directory
+ * com.workplacesystems.queuj.journal.directory. By default the journal is forced
+ * to disk on every commit, setting com.workplacesystems.queuj.journal.sync to GROUP
+ * shares a single force between concurrent commits and NONE leaves it to the
+ * operating system.
+ *
+ * @author dave
+ */
+public class JournalFactory extends QueujFactoryImpl {
+
+    private Journal journal;
+
+    private IdBlockAllocator idAllocator;
+
+    private final ThreadLocal<JournalUnitOfWork> tlUnit = new ThreadLocal<JournalUnitOfWork>();
+
+    public JournalFactory() {}
+
+    @Override
+    protected void init() {
+        String directory = System.getProperty("com.workplacesystems.queuj.journal.directory", "queuj-journal");
+        Journal.SyncMode syncMode = Journal.SyncMode.valueOf(
+                System.getProperty("com.workplacesystems.queuj.journal.sync", Journal.SyncMode.COMMIT.name()));
+        long snapshotSize = Long.getLong("com.workplacesystems.queuj.journal.snapshotSize", 64L * 1024 * 1024).longValue();
+        int mapSize = Integer.getInteger("com.workplacesystems.queuj.journal.mapSize", 16 * 1024 * 1024).intValue();
+
+        journal = new Journal(new File(directory), syncMode, snapshotSize, mapSize);
+        try {
+            journal.open();
+        }
+        catch (IOException e) {
+            throw new QueujException(e);
+        }
+
+        int idBlockSize = Integer.getInteger("com.workplacesystems.queuj.journal.idBlockSize", 100).intValue();
+        idAllocator = new IdBlockAllocator(idBlockSize) {
+
+            @Override
+            protected int allocateBlock(int size) {
+                return journal.allocateProcessIds(size);
+            }
+        };
+
+        initProcessServers(getProcessDAO().findQueueOwners());
+    }
+
+    @Override
+    protected ProcessDAO getProcessDAO0() {
+        return new JournalProcessDAO(journal);
+    }
+
+    @Override
+    protected QueujTransaction<Integer> getTransaction0() {
+        return new PersistentTransaction() {
+
+            @Override
+            protected boolean begin() {
+                if (tlUnit.get() != null)
+                    return false;
+                tlUnit.set(new JournalUnitOfWork(journal, idAllocator));
+                return true;
+            }
+
+            @Override
+            protected void commit() {
+                tlUnit.get().commit();
+            }
+
+            @Override
+            protected void end(boolean transactionIsLocal, boolean committed) {
+                // Nothing reaches the journal before the commit so there is nothing to roll back
+                if (transactionIsLocal)
+                    tlUnit.remove();
+            }
+        };
+    }
+
+    @Override
+    protected ProcessPersistence<ProcessEntity<Integer>,Integer> getPersistence0(final String queueOwner, Map<String, Object> server_options) {
+        return new ProcessPersistence<ProcessEntity<Integer>,Integer>() {
+
+            private ProcessImpl instance = null;
+
+            public void clearInstance() {
+                instance = null;
+            }
+
+            public ProcessImpl getInstance() {
+                if (instance == null)
+                    instance = (ProcessImpl)getNewProcessEntity0(queueOwner, true, null);
+                return instance;
+            }
+
+            public void setId(Integer id) {
+                JournalUnitOfWork unit = getUnit();
+                if (id == null)
+                    return;
+                instance = unit.find(id);
+            }
+
+            public String persist() {
+                getUnit().insert(instance);
+                return null;
+            }
+
+            public String update() {
+                getUnit().update(instance);
+                return null;
+            }
+
+            public String updateStatus() {
+                getUnit().updateStatus(instance);
+                return null;
+            }
+
+            public String remove() {
+                getUnit().delete(instance);
+                return null;
+            }
+
+            private JournalUnitOfWork getUnit() {
+                JournalUnitOfWork unit = tlUnit.get();
+                if (unit == null)
+                    throw new QueujException("No transaction.");
+                return unit;
+            }
+        };
+    }
+}
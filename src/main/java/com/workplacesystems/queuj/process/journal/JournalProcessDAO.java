@@ -0,0 +1,75 @@
+/*
+ * Copyright 2010 Workplace Systems PLC (http://www.workplacesystems.com/).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.workplacesystems.queuj.process.journal;
+
+import com.workplacesystems.queuj.process.jpa.LazyProcessDAO;
+import com.workplacesystems.queuj.process.jpa.ProcessImpl;
+import com.workplacesystems.queuj.utils.QueujException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ *
+ * @author dave
+ */
+public class JournalProcessDAO implements LazyProcessDAO {
+
+    private final Journal journal;
+
+    JournalProcessDAO(Journal journal) {
+        this.journal = journal;
+    }
+
+    public List<String> findQueueOwners() {
+        return new ArrayList<String>(journal.getQueueOwners());
+    }
+
+    public List<ProcessImpl> findProcesses(String queueOwner) {
+        List<JournalRow> rows = journal.getRows(queueOwner);
+        Collections.sort(rows, new Comparator<JournalRow>() {
+
+            public int compare(JournalRow r1, JournalRow r2) {
+                int c = r1.creationTimestamp.compareTo(r2.creationTimestamp);
+                if (c == 0)
+                    c = r1.processId < r2.processId ? -1 : (r1.processId == r2.processId ? 0 : 1);
+                return c;
+            }
+        });
+
+        ArrayList<ProcessImpl> processes = new ArrayList<ProcessImpl>(rows.size());
+        for (JournalRow row : rows) {
+            ProcessImpl process = row.toProcess();
+            // Dormant processes don't need their payload until they run
+            process.evictPayload();
+            processes.add(process);
+        }
+        return processes;
+    }
+
+    public byte[] findProcessColumn(Integer processId, String property) {
+        JournalRow row = journal.get(processId);
+        if (row == null)
+            return null;
+        if (property.equals("parametersData"))
+            return row.data[JournalRow.PARAMETERS];
+        if (property.equals("outputData"))
+            return row.data[JournalRow.OUTPUT];
+        throw new QueujException("Unknown process column " + property);
+    }
+}
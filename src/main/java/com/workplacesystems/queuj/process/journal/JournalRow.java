@@ -0,0 +1,309 @@
+/*
+ * Copyright 2010 Workplace Systems PLC (http://www.workplacesystems.com/).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.workplacesystems.queuj.process.journal;
+
+import com.workplacesystems.queuj.Access;
+import com.workplacesystems.queuj.Occurrence;
+import com.workplacesystems.queuj.Queue;
+import com.workplacesystems.queuj.Resilience;
+import com.workplacesystems.queuj.Visibility;
+import com.workplacesystems.queuj.process.ProcessEntity.Status;
+import com.workplacesystems.queuj.process.codec.ColumnCodec;
+import com.workplacesystems.queuj.process.jpa.ProcessImpl;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * The committed state of a process in the journal. Rows are never changed once
+ * created, a commit creates a new row sharing the unchanged columns of the
+ * previous one so only the changed columns need to be written to the journal.
+ *
+ * @author dave
+ */
+final class JournalRow {
+
+    static final int PARAMETERS = 0;
+    static final int QUEUE = 1;
+    static final int LOCALE = 2;
+    static final int OCCURRENCE = 3;
+    static final int ACCESS = 4;
+    static final int VISIBILITY = 5;
+    static final int RESILIENCE = 6;
+    static final int OUTPUT = 7;
+
+    private static final int COLUMNS = 8;
+
+    private static final byte UNCHANGED = 0;
+    private static final byte NULL = 1;
+    private static final byte VALUE = 2;
+
+    private static final ColumnCodec codec = ColumnCodec.getInstance();
+
+    int processId;
+    int version;
+    String queueOwnerId;
+    String uuid;
+    String processName;
+    Date creationTimestamp;
+    String description;
+    Date scheduledTimestamp;
+    Date startedTimestamp;
+    String userId;
+    Status status;
+    int attempt;
+    int runCount;
+    int resultCode;
+    boolean associatedReport;
+    boolean keepCompleted;
+
+    /** The stored bytes of each object column. */
+    final byte[][] data = new byte[COLUMNS][];
+
+    /** The decoded values of the object columns other than parameters and output. */
+    final Object[] values = new Object[COLUMNS];
+
+    private JournalRow() {}
+
+    static JournalRow fromProcess(ProcessImpl process, JournalRow previous, int version) {
+        JournalRow row = new JournalRow();
+        row.processId = process.getProcessId().intValue();
+        row.version = version;
+        row.queueOwnerId = process.getQueueOwnerId();
+        row.uuid = process.getUUID();
+        row.processName = process.getProcessName();
+        row.creationTimestamp = copy(process.getCreationTimestamp());
+        row.description = process.getDescription();
+        row.scheduledTimestamp = copy(process.getScheduledTimestamp());
+        row.startedTimestamp = copy(process.getStartedTimestamp());
+        row.userId = process.getUserId();
+        row.status = process.getStatus();
+        row.attempt = process.getAttempt();
+        row.runCount = process.getRunCount();
+        row.resultCode = process.getResultCode();
+        row.associatedReport = process.isAssociatedReport();
+        row.keepCompleted = process.isKeepCompleted();
+
+        row.setData(PARAMETERS, process.getParametersData(), previous);
+        row.setValue(QUEUE, process.getQueue(), previous);
+        row.setValue(LOCALE, process.getLocale(), previous);
+        row.setValue(OCCURRENCE, process.getOccurrence(), previous);
+        row.setValue(ACCESS, process.getAccess(), previous);
+        row.setValue(VISIBILITY, process.getVisibility(), previous);
+        row.setValue(RESILIENCE, process.getResilience(), previous);
+        row.setData(OUTPUT, process.getOutputData(), previous);
+        return row;
+    }
+
+    /**
+     * Creates the next version of the row with just the status columns of the process.
+     */
+    static JournalRow withStatus(ProcessImpl process, JournalRow previous) {
+        JournalRow row = previous.copyRow();
+        row.version = previous.version + 1;
+        row.scheduledTimestamp = copy(process.getScheduledTimestamp());
+        row.startedTimestamp = copy(process.getStartedTimestamp());
+        row.status = process.getStatus();
+        row.attempt = process.getAttempt();
+        row.runCount = process.getRunCount();
+        row.resultCode = process.getResultCode();
+        return row;
+    }
+
+    private JournalRow copyRow() {
+        JournalRow row = new JournalRow();
+        row.processId = processId;
+        row.version = version;
+        row.queueOwnerId = queueOwnerId;
+        row.uuid = uuid;
+        row.processName = processName;
+        row.creationTimestamp = creationTimestamp;
+        row.description = description;
+        row.scheduledTimestamp = scheduledTimestamp;
+        row.startedTimestamp = startedTimestamp;
+        row.userId = userId;
+        row.status = status;
+        row.attempt = attempt;
+        row.runCount = runCount;
+        row.resultCode = resultCode;
+        row.associatedReport = associatedReport;
+        row.keepCompleted = keepCompleted;
+        System.arraycopy(data, 0, row.data, 0, COLUMNS);
+        System.arraycopy(values, 0, row.values, 0, COLUMNS);
+        return row;
+    }
+
+    private void setData(int column, byte[] bytes, JournalRow previous) {
+        // Undecoded columns return the same array they were created with
+        if (previous != null && (bytes == previous.data[column] ||
+                (bytes != null && Arrays.equals(bytes, previous.data[column]))))
+            bytes = previous.data[column];
+        data[column] = bytes;
+    }
+
+    private void setValue(int column, Object value, JournalRow previous) {
+        if (previous != null && value == previous.values[column])
+            data[column] = previous.data[column];
+        else
+            data[column] = codec.encode(value);
+        values[column] = value;
+    }
+
+    ProcessImpl toProcess() {
+        ProcessImpl process = new ProcessImpl();
+        process.setProcessId(Integer.valueOf(processId));
+        process.setVersion(Integer.valueOf(version));
+        process.setQueueOwnerId(queueOwnerId);
+        process.setUUID(uuid);
+        process.setProcessName(processName);
+        process.setCreationTimestamp(copy(creationTimestamp));
+        process.setDescription(description);
+        process.setScheduledTimestamp(copy(scheduledTimestamp));
+        process.setStartedTimestamp(copy(startedTimestamp));
+        process.setUserId(userId);
+        process.setStatus(status);
+        process.setAttempt(attempt);
+        process.setRunCount(runCount);
+        process.setResultCode(resultCode);
+        process.setAssociatedReport(associatedReport);
+        process.setKeepCompleted(keepCompleted);
+
+        process.setParametersData(data[PARAMETERS]);
+        process.setQueue((Queue)values[QUEUE]);
+        process.setLocale((Locale)values[LOCALE]);
+        process.setOccurrence((Occurrence)values[OCCURRENCE]);
+        process.setAccess((Access)values[ACCESS]);
+        process.setVisibility((Visibility)values[VISIBILITY]);
+        process.setResilience((Resilience)values[RESILIENCE]);
+        process.setOutputData(data[OUTPUT]);
+        process.markUnmodified();
+        return process;
+    }
+
+    /**
+     * Writes the row, columns shared with the previous row are written as unchanged.
+     */
+    void write(DataOutputStream out, JournalRow previous) throws IOException {
+        out.writeInt(processId);
+        out.writeInt(version);
+        writeString(out, queueOwnerId);
+        writeString(out, uuid);
+        writeString(out, processName);
+        writeDate(out, creationTimestamp);
+        writeString(out, description);
+        writeDate(out, scheduledTimestamp);
+        writeDate(out, startedTimestamp);
+        writeString(out, userId);
+        out.writeInt(status == null ? -1 : status.ordinal());
+        out.writeInt(attempt);
+        out.writeInt(runCount);
+        out.writeInt(resultCode);
+        out.writeBoolean(associatedReport);
+        out.writeBoolean(keepCompleted);
+
+        for (int i = 0; i < COLUMNS; i++) {
+            if (previous != null && data[i] == previous.data[i])
+                out.writeByte(UNCHANGED);
+            else if (data[i] == null)
+                out.writeByte(NULL);
+            else {
+                out.writeByte(VALUE);
+                out.writeInt(data[i].length);
+                out.write(data[i]);
+            }
+        }
+    }
+
+    /**
+     * Reads a row written by write. Identical column values are decoded once
+     * and shared between rows using the decoded map.
+     */
+    static JournalRow read(DataInputStream in, JournalRow previous, Map<ByteBuffer,Object> decoded) throws IOException {
+        JournalRow row = new JournalRow();
+        row.processId = in.readInt();
+        row.version = in.readInt();
+        row.queueOwnerId = readString(in);
+        row.uuid = readString(in);
+        row.processName = readString(in);
+        row.creationTimestamp = readDate(in);
+        row.description = readString(in);
+        row.scheduledTimestamp = readDate(in);
+        row.startedTimestamp = readDate(in);
+        row.userId = readString(in);
+        int status = in.readInt();
+        row.status = status < 0 ? null : Status.values()[status];
+        row.attempt = in.readInt();
+        row.runCount = in.readInt();
+        row.resultCode = in.readInt();
+        row.associatedReport = in.readBoolean();
+        row.keepCompleted = in.readBoolean();
+
+        for (int i = 0; i < COLUMNS; i++) {
+            byte flag = in.readByte();
+            if (flag == UNCHANGED) {
+                if (previous == null)
+                    throw new IOException("Unchanged column for unknown process " + row.processId);
+                row.data[i] = previous.data[i];
+                row.values[i] = previous.values[i];
+            }
+            else if (flag == VALUE) {
+                byte[] bytes = new byte[in.readInt()];
+                in.readFully(bytes);
+                row.data[i] = bytes;
+                if (i != PARAMETERS && i != OUTPUT) {
+                    ByteBuffer key = ByteBuffer.wrap(bytes);
+                    Object value = decoded.get(key);
+                    if (value == null) {
+                        value = codec.decode(bytes);
+                        decoded.put(key, value);
+                    }
+                    row.values[i] = value;
+                }
+            }
+        }
+        return row;
+    }
+
+    private static void writeString(DataOutputStream out, String s) throws IOException {
+        out.writeBoolean(s != null);
+        if (s != null)
+            out.writeUTF(s);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+
+    private static void writeDate(DataOutputStream out, Date date) throws IOException {
+        out.writeBoolean(date != null);
+        if (date != null)
+            out.writeLong(date.getTime());
+    }
+
+    private static Date readDate(DataInputStream in) throws IOException {
+        return in.readBoolean() ? new Date(in.readLong()) : null;
+    }
+
+    private static Date copy(Date date) {
+        return date == null ? null : new Date(date.getTime());
+    }
+}
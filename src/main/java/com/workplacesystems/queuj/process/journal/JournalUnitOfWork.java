@@ -0,0 +1,96 @@
+/*
+ * Copyright 2010 Workplace Systems PLC (http://www.workplacesystems.com/).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.workplacesystems.queuj.process.journal;
+
+import com.workplacesystems.queuj.process.IdBlockAllocator;
+import com.workplacesystems.queuj.process.jpa.ProcessImpl;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+
+/**
+ * The processes read and written by a single journal transaction. Nothing is
+ * written until the transaction commits when all the changes are appended to
+ * the journal as a single commit.
+ *
+ * @author dave
+ */
+class JournalUnitOfWork {
+
+    private final Journal journal;
+
+    private final IdBlockAllocator idAllocator;
+
+    private final HashMap<Integer,ProcessImpl> found = new HashMap<Integer,ProcessImpl>();
+
+    private final LinkedHashMap<Integer,ProcessImpl> puts = new LinkedHashMap<Integer,ProcessImpl>();
+
+    private final HashSet<Integer> statusOnly = new HashSet<Integer>();
+
+    private final LinkedHashMap<Integer,ProcessImpl> deletes = new LinkedHashMap<Integer,ProcessImpl>();
+
+    JournalUnitOfWork(Journal journal, IdBlockAllocator idAllocator) {
+        this.journal = journal;
+        this.idAllocator = idAllocator;
+    }
+
+    ProcessImpl find(Integer processId) {
+        ProcessImpl process = puts.get(processId);
+        if (process == null)
+            process = found.get(processId);
+        if (process == null && !deletes.containsKey(processId)) {
+            JournalRow row = journal.get(processId);
+            if (row != null) {
+                process = row.toProcess();
+                found.put(processId, process);
+            }
+        }
+        return process;
+    }
+
+    void insert(ProcessImpl process) {
+        process.setProcessId(idAllocator.nextId());
+        process.setVersion(Integer.valueOf(0));
+        puts.put(process.getProcessId(), process);
+    }
+
+    void update(ProcessImpl process) {
+        statusOnly.remove(process.getProcessId());
+        if (!deletes.containsKey(process.getProcessId()))
+            puts.put(process.getProcessId(), process);
+    }
+
+    void updateStatus(ProcessImpl process) {
+        if (deletes.containsKey(process.getProcessId()) || puts.containsKey(process.getProcessId()))
+            return;
+        statusOnly.add(process.getProcessId());
+        puts.put(process.getProcessId(), process);
+    }
+
+    void delete(ProcessImpl process) {
+        statusOnly.remove(process.getProcessId());
+        puts.remove(process.getProcessId());
+        deletes.put(process.getProcessId(), process);
+    }
+
+    void commit() {
+        journal.commit(puts.values(), statusOnly, deletes.values());
+        puts.clear();
+        statusOnly.clear();
+        deletes.clear();
+    }
+}
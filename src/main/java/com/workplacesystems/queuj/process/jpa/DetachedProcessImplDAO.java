@@ -0,0 +1,82 @@
+/*
+ * Copyright 2010 Workplace Systems PLC (http://www.workplacesystems.com/).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.workplacesystems.queuj.process.jpa;
+
+import java.util.List;
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+
+/**
+ * The ProcessDAO used outside of a transaction, e.g. to reload an evicted
+ * column. Each call uses its own EntityManager which is closed before
+ * returning.
+ *
+ * @author dave
+ */
+class DetachedProcessImplDAO extends ProcessImplDAO {
+
+    private final EntityManagerFactory emf;
+
+    DetachedProcessImplDAO(EntityManagerFactory emf) {
+        super(null);
+        this.emf = emf;
+    }
+
+    @Override
+    public List<String> findQueueOwners() {
+        EntityManager em = emf.createEntityManager();
+        try {
+            return super.findQueueOwners(em);
+        }
+        finally {
+            em.close();
+        }
+    }
+
+    @Override
+    public List<ProcessImpl> findProcesses(String queueOwner) {
+        EntityManager em = emf.createEntityManager();
+        try {
+            return super.findProcesses(em, queueOwner);
+        }
+        finally {
+            em.close();
+        }
+    }
+
+    @Override
+    public List<ProcessImpl> findProcesses(String queueOwner, ProcessImpl after, int maxResults) {
+        EntityManager em = emf.createEntityManager();
+        try {
+            return super.findProcesses(em, queueOwner, after, maxResults);
+        }
+        finally {
+            em.close();
+        }
+    }
+
+    @Override
+    public byte[] findProcessColumn(Integer processId, String property) {
+        EntityManager em = emf.createEntityManager();
+        try {
+            return super.findProcessColumn(em, processId, property);
+        }
+        finally {
+            em.close();
+        }
+    }
+}
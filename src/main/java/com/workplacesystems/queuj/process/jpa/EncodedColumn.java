@@ -0,0 +1,67 @@
+/*
+ * Copyright 2010 Workplace Systems PLC (http://www.workplacesystems.com/).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.workplacesystems.queuj.process.jpa;
+
+import com.workplacesystems.queuj.process.codec.ColumnCodec;
+import java.io.Serializable;
+
+/**
+ * Holds one of the object valued ProcessImpl columns with its stored bytes.
+ * The bytes are kept until the value is replaced so the column is only
+ * encoded when it changes, and a row written in an older format reads back
+ * unchanged rather than looking dirty on every flush.
+ *
+ * @author dave
+ */
+class EncodedColumn<T> implements Serializable {
+
+    private static final long serialVersionUID = EncodedColumn.class.getName().hashCode() + 1;
+
+    private static final ColumnCodec codec = ColumnCodec.getInstance();
+
+    private T value = null;
+
+    private byte[] data = null;
+
+    private boolean decoded = true;
+
+    synchronized T get() {
+        if (!decoded) {
+            value = (T)codec.decode(data);
+            decoded = true;
+        }
+        return value;
+    }
+
+    synchronized void set(T value) {
+        this.value = value;
+        this.data = null;
+        this.decoded = true;
+    }
+
+    synchronized byte[] getData() {
+        if (data == null && value != null)
+            data = codec.encode(value);
+        return data;
+    }
+
+    synchronized void setData(byte[] data) {
+        this.value = null;
+        this.data = data;
+        this.decoded = data == null;
+    }
+}
@@ -0,0 +1,234 @@
+/*
+ * Copyright 2010 Workplace Systems PLC (http://www.workplacesystems.com/).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.workplacesystems.queuj.process.jpa;
+
+import com.workplacesystems.queuj.utils.QueujException;
+import java.util.ArrayList;
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Collects the process updates of concurrently committing QueujTransactions and
+ * writes them to the database in a single transaction. The first thread to arrive
+ * becomes the leader and waits for the commit window to expire or the batch to
+ * fill before writing the batch on behalf of all waiting threads. Batches are
+ * written in the order they were collected.
+ *
+ * @author dave
+ */
+class GroupCommitter {
+
+    private final static Log log = LogFactory.getLog(GroupCommitter.class);
+
+    private final EntityManagerFactory emf;
+
+    private final long window_millis;
+
+    private final int batch_size;
+
+    private final Object mutex = new Object();
+
+    private final Object write_mutex = new Object();
+
+    private ArrayList<Unit> pending = new ArrayList<Unit>();
+
+    private boolean leader_active = false;
+
+    GroupCommitter(EntityManagerFactory emf, long window_millis, int batch_size) {
+        this.emf = emf;
+        this.window_millis = window_millis;
+        this.batch_size = batch_size;
+    }
+
+    /**
+     * The updates and removes made by a single QueujTransaction.
+     */
+    static class Unit {
+
+        private final ArrayList<ProcessImpl> updates = new ArrayList<ProcessImpl>();
+        private final ArrayList<ProcessImpl> statusUpdates = new ArrayList<ProcessImpl>();
+        private final ArrayList<ProcessImpl> removes = new ArrayList<ProcessImpl>();
+
+        private boolean done = false;
+        private RuntimeException failure = null;
+
+        void update(ProcessImpl process) {
+            statusUpdates.remove(process);
+            if (!updates.contains(process))
+                updates.add(process);
+        }
+
+        void updateStatus(ProcessImpl process) {
+            if (!updates.contains(process) && !statusUpdates.contains(process))
+                statusUpdates.add(process);
+        }
+
+        void remove(ProcessImpl process) {
+            updates.remove(process);
+            statusUpdates.remove(process);
+            if (!removes.contains(process))
+                removes.add(process);
+        }
+
+        boolean isEmpty() {
+            return updates.isEmpty() && statusUpdates.isEmpty() && removes.isEmpty();
+        }
+
+        private final ArrayList<ProcessImpl> merged = new ArrayList<ProcessImpl>();
+
+        void write(EntityManager em) {
+            merged.clear();
+            for (ProcessImpl process : updates)
+                merged.add(em.merge(process));
+            for (ProcessImpl process : statusUpdates)
+                JPAFactory.updateStatus(em, process);
+            for (ProcessImpl process : removes)
+                em.remove(em.merge(process));
+        }
+
+        /**
+         * Copies the versions written by the group transaction back to the
+         * caller's instances so they aren't left holding a stale version.
+         */
+        private void written() {
+            for (int i = 0; i < updates.size(); i++) {
+                updates.get(i).setVersion(merged.get(i).getVersion());
+                updates.get(i).markUnmodified();
+            }
+            for (ProcessImpl process : statusUpdates)
+                process.setVersion(Integer.valueOf(process.getVersion().intValue() + 1));
+        }
+
+        private synchronized void complete(RuntimeException failure) {
+            this.failure = failure;
+            this.done = true;
+            notifyAll();
+        }
+
+        private synchronized void await() {
+            // The outcome must still be waited for so remember the interrupt for the caller
+            boolean interrupted = false;
+            while (!done) {
+                try {
+                    wait();
+                }
+                catch (InterruptedException ie) {
+                    interrupted = true;
+                }
+            }
+            if (interrupted)
+                Thread.currentThread().interrupt();
+            if (failure != null)
+                throw failure;
+        }
+    }
+
+    /**
+     * Queue the unit for the next group commit and block until it has been
+     * written. Throws the failure if the unit couldn't be committed.
+     */
+    void commit(Unit unit) {
+        boolean leader;
+        synchronized (mutex) {
+            pending.add(unit);
+            if (pending.size() >= batch_size)
+                mutex.notifyAll();
+            leader = !leader_active;
+            if (leader)
+                leader_active = true;
+        }
+
+        if (leader)
+            lead();
+
+        unit.await();
+    }
+
+    private void lead() {
+        synchronized (mutex) {
+            long end = System.currentTimeMillis() + window_millis;
+            long wait_time;
+            while (pending.size() < batch_size && (wait_time = end - System.currentTimeMillis()) > 0) {
+                try {
+                    mutex.wait(wait_time);
+                }
+                catch (InterruptedException ie) {
+                    // Write the batch straight away, the waiting threads still need it
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+            }
+        }
+
+        synchronized (write_mutex) {
+            ArrayList<Unit> batch;
+            synchronized (mutex) {
+                batch = pending;
+                pending = new ArrayList<Unit>();
+                // Units arriving from now on are collected by the next leader
+                leader_active = false;
+            }
+            write(batch);
+        }
+    }
+
+    private void write(ArrayList<Unit> batch) {
+        if (log.isDebugEnabled())
+            log.debug("Group committing " + batch.size() + " transactions.");
+
+        try {
+            EntityManager em = emf.createEntityManager();
+            try {
+                em.getTransaction().begin();
+                for (Unit unit : batch)
+                    unit.write(em);
+                em.getTransaction().commit();
+            }
+            finally {
+                if (em.getTransaction().isActive())
+                    em.getTransaction().rollback();
+                em.close();
+            }
+
+            for (Unit unit : batch) {
+                unit.written();
+                unit.complete(null);
+            }
+        }
+        catch (RuntimeException re) {
+            if (batch.size() == 1) {
+                batch.get(0).complete(re);
+                return;
+            }
+
+            // One bad unit mustn't fail the others so fall back to committing individually
+            log.debug("Group commit failed, committing transactions individually.");
+            for (Unit unit : batch) {
+                ArrayList<Unit> single = new ArrayList<Unit>();
+                single.add(unit);
+                write(single);
+            }
+        }
+        catch (Error e) {
+            for (Unit unit : batch)
+                unit.complete(new QueujException("Group commit failed: " + e.getMessage()));
+            throw e;
+        }
+    }
+}
@@ -16,25 +16,22 @@
 
 package com.workplacesystems.queuj.process.jpa;
 
-import com.workplacesystems.queuj.ProcessServer;
+import com.workplacesystems.queuj.process.PersistentTransaction;
 import com.workplacesystems.queuj.process.ProcessEntity;
-import com.workplacesystems.queuj.process.ProcessImplServer;
 import com.workplacesystems.queuj.process.ProcessPersistence;
-import com.workplacesystems.queuj.process.ProcessWrapper;
 import com.workplacesystems.queuj.process.QueujFactory;
 import com.workplacesystems.queuj.process.QueujFactoryImpl;
 import com.workplacesystems.queuj.process.QueujTransaction;
 import com.workplacesystems.queuj.process.jpa.ProcessImpl;
 import com.workplacesystems.queuj.utils.QueujException;
-import com.workplacesystems.utilsj.Callback;
-import com.workplacesystems.utilsj.collections.FilterableArrayList;
 import java.io.Serializable;
-import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import javax.persistence.EntityManager;
 import javax.persistence.EntityManagerFactory;
 import javax.persistence.Persistence;
+import javax.persistence.TemporalType;
 
 /**
  *
@@ -46,29 +43,9 @@ public class JPAFactory extends QueujFactoryImpl {
 
     private final ThreadLocal<EntityManager> tlEm = new ThreadLocal<EntityManager>();
 
-    private final ThreadLocal<ArrayList<ProcessWrapper>> tlProcesses = new ThreadLocal<ArrayList<ProcessWrapper>>() {
+    private GroupCommitter groupCommitter = null;
 
-        @Override
-        protected ArrayList<ProcessWrapper> initialValue() {
-            return new FilterableArrayList<ProcessWrapper>();
-        }
-    };
-
-    private final ThreadLocal<ArrayList<ProcessWrapper>> tlStartProcesses = new ThreadLocal<ArrayList<ProcessWrapper>>() {
-
-        @Override
-        protected ArrayList<ProcessWrapper> initialValue() {
-            return new FilterableArrayList<ProcessWrapper>();
-        }
-    };
-
-    private final ThreadLocal<ArrayList<Callback<Void>>> tlCommitCallbacks = new ThreadLocal<ArrayList<Callback<Void>>>() {
-
-        @Override
-        protected ArrayList<Callback<Void>> initialValue() {
-            return new FilterableArrayList<Callback<Void>>();
-        }
-    };
+    private final ThreadLocal<GroupCommitter.Unit> tlUnit = new ThreadLocal<GroupCommitter.Unit>();
 
     public JPAFactory() {}
 
@@ -77,126 +54,138 @@ public class JPAFactory extends QueujFactoryImpl {
         String persistenceUnitName = System.getProperty("com.workplacesystems.queuj.jpa.persistenceUnitName");
         if (persistenceUnitName == null)
             persistenceUnitName = System.getProperty("com.workplacesystems.jpa.persistenceUnitName");
-        emf = Persistence.createEntityManagerFactory(persistenceUnitName);
 
-        tlEm.set(emf.createEntityManager());
+        if (Boolean.getBoolean("com.workplacesystems.queuj.jpa.groupCommit")) {
+            long window = Long.getLong("com.workplacesystems.queuj.jpa.groupCommitWindow", 5).longValue();
+            int batchSize = Integer.getInteger("com.workplacesystems.queuj.jpa.groupCommitBatchSize", 100).intValue();
+
+            // Ask the common providers to send the batched updates as JDBC batches
+            Map<String,String> properties = new HashMap<String,String>();
+            properties.put("hibernate.jdbc.batch_size", Integer.toString(batchSize));
+            properties.put("hibernate.jdbc.batch_versioned_data", "true");
+            properties.put("hibernate.order_updates", "true");
+            properties.put("eclipselink.jdbc.batch-writing", "JDBC");
+            properties.put("eclipselink.jdbc.batch-writing.size", Integer.toString(batchSize));
+            properties.put("openjpa.jdbc.DBDictionary", "batchLimit=" + batchSize);
+            emf = Persistence.createEntityManagerFactory(persistenceUnitName, properties);
+
+            groupCommitter = new GroupCommitter(emf, window, batchSize);
+        }
+        else
+            emf = Persistence.createEntityManagerFactory(persistenceUnitName);
+
         List<String> queueOwners = getProcessDAO().findQueueOwners();
-        for (String queueOwner : queueOwners) {
-            ((ProcessImplServer)getProcessServer0(queueOwner, null)).init();
+
+        initProcessServers(queueOwners);
+    }
+
+    @Override
+    protected void initProcessServer(String queueOwner) {
+        EntityManager em = emf.createEntityManager();
+        tlEm.set(em);
+        try {
+            super.initProcessServer(queueOwner);
+        }
+        finally {
+            tlEm.remove();
+            em.close();
         }
-        tlEm.remove();
     }
 
     @Override
     protected ProcessDAO getProcessDAO0() {
         EntityManager em = tlEm.get();
         if (em == null)
-            em = emf.createEntityManager();
+            return new DetachedProcessImplDAO(emf);
         return new ProcessImplDAO(em);
     }
 
     @Override
     protected QueujTransaction<Integer> getTransaction0() {
-        return new QueujTransaction<Integer>() {
+        return new PersistentTransaction() {
 
             private boolean emIsLocal = false;
-            private boolean transactionIsLocal = false;
-
-            public <T> T doTransaction(ProcessWrapper<Integer> process, Callback<T> callback, boolean doStart) {
-                return doTransaction(process.getQueueOwner(), process.isPersistent(), callback, doStart);
-            }
 
-            public <T> T doTransaction(ProcessWrapper<Integer> process, Callback<T> callback, Callback<Void> commitCallback, boolean doStart) {
-                return doTransaction(process.getQueueOwner(), process.isPersistent(), callback, commitCallback, doStart);
+            @Override
+            protected boolean begin() {
+                if (tlEm.get() == null) {
+                    tlEm.set(emf.createEntityManager());
+                    emIsLocal = true;
+                }
+                if (tlEm.get().getTransaction().isActive() || tlUnit.get() != null)
+                    return false;
+
+                // With group commit enabled the database transaction is deferred
+                // until the first persist, otherwise the updates are handed to
+                // the GroupCommitter on commit. Only transactions that own their
+                // EntityManager can defer, a shared EntityManager would be left
+                // holding stale copies of the processes written by the group.
+                if (groupCommitter != null && emIsLocal)
+                    tlUnit.set(new GroupCommitter.Unit());
+                else
+                    tlEm.get().getTransaction().begin();
+                return true;
             }
 
-            public <T> T doTransaction(String queueOwner, boolean persistent, Callback<T> callback, boolean doStart) {
-                return doTransaction(queueOwner, persistent, callback, null, doStart);
+            @Override
+            protected void commit() {
+                GroupCommitter.Unit unit = tlUnit.get();
+                if (tlEm.get().getTransaction().isActive())
+                    tlEm.get().getTransaction().commit();
+                else if (!unit.isEmpty())
+                    groupCommitter.commit(unit);
             }
 
-            public <T> T doTransaction(String queueOwner, boolean persistent, Callback<T> callback, Callback<Void> commitCallback, boolean doStart) {
-                boolean committed = false;
-                try {
-                    if (tlEm.get() == null) {
-                        tlEm.set(emf.createEntityManager());
-                        emIsLocal = true;
-                    }
-                    if (!tlEm.get().getTransaction().isActive()) {
-                        tlEm.get().getTransaction().begin();
-                        transactionIsLocal = true;
-                    }
-
-                    T result = callback.action();
-
-                    if (result instanceof ProcessWrapper) {
-                        tlProcesses.get().add((ProcessWrapper)result);
-                        if (doStart)
-                            tlStartProcesses.get().add((ProcessWrapper)result);
-                    }
-                    if (commitCallback != null)
-                        tlCommitCallbacks.get().add(commitCallback);
-
-                    if (transactionIsLocal) {
-                        tlEm.get().getTransaction().commit();
-
-                        FilterableArrayList<ProcessServer> processServers = new FilterableArrayList<ProcessServer>();
-                        for (ProcessWrapper process : tlProcesses.get()) {
-                            ProcessServer ps = process.getContainingServer();
-                            if (!processServers.contains(ps))
-                                processServers.add(ps);
-                        }
-                        for (ProcessServer ps : processServers)
-                            ((ProcessImplServer)ps).commit();
-
-                        for (Callback<Void> commitCallback0 : tlCommitCallbacks.get()) {
-                            try {
-                                commitCallback0.action();
-                            }
-                            catch (Exception e) {
-                                new QueujException(e);
-                            }
-                        }
-
-                        for (ProcessWrapper process : tlStartProcesses.get()) {
-                            if (process.rescheduleRequired(false))
-                                process.interruptRunner();
-                            else
-                                process.start();
-                        }
-
-                        for (ProcessWrapper process : tlProcesses.get()) {
-                            process.callListeners();
-                        }
-
-                        committed = true;
-                    }
-                    return result;
+            @Override
+            protected void end(boolean transactionIsLocal, boolean committed) {
+                EntityManager em = tlEm.get();
+                if (transactionIsLocal) {
+                    tlUnit.remove();
+                    if (!committed && em.getTransaction().isActive())
+                        em.getTransaction().rollback();
                 }
-                finally {
-                    if (transactionIsLocal) {
-                        if (!committed)
-                            tlEm.get().getTransaction().rollback();
-
-                        FilterableArrayList<ProcessServer> processServers = new FilterableArrayList<ProcessServer>();
-                        for (ProcessWrapper process : tlProcesses.get()) {
-                            ProcessServer ps = process.getContainingServer();
-                            if (!processServers.contains(ps))
-                                processServers.add(ps);
-                        }
-                        for (ProcessServer ps : processServers)
-                            ((ProcessImplServer)ps).rollback();
-
-                        tlProcesses.remove();
-                        tlStartProcesses.remove();
-                        tlCommitCallbacks.remove();
-                    }
-                    if (emIsLocal)
-                        tlEm.remove();
+                if (emIsLocal) {
+                    // Closing detaches the processes so evicting their payload later
+                    // can't cause it to be reloaded by a flush
+                    tlEm.remove();
+                    em.close();
                 }
             }
         };
     }
 
+    /**
+     * Returns the group commit unit if updates are currently being deferred.
+     */
+    private GroupCommitter.Unit getDeferredUnit() {
+        GroupCommitter.Unit unit = tlUnit.get();
+        if (unit == null || tlEm.get().getTransaction().isActive())
+            return null;
+        return unit;
+    }
+
+    /**
+     * Writes just the status columns of the process with a version check.
+     */
+    static void updateStatus(EntityManager em, ProcessImpl process) {
+        int updated = em.createQuery("update ProcessImpl p set p.status = :status, p.resultCode = :resultCode, " +
+                "p.attempt = :attempt, p.runCount = :runCount, p.startedTimestamp = :startedTimestamp, " +
+                "p.scheduledTimestamp = :scheduledTimestamp, p.version = :newVersion " +
+                "where p.processId = :processId and p.version = :version")
+            .setParameter("status", process.getStatus())
+            .setParameter("resultCode", Integer.valueOf(process.getResultCode()))
+            .setParameter("attempt", Integer.valueOf(process.getAttempt()))
+            .setParameter("runCount", Integer.valueOf(process.getRunCount()))
+            .setParameter("startedTimestamp", process.getStartedTimestamp(), TemporalType.TIMESTAMP)
+            .setParameter("scheduledTimestamp", process.getScheduledTimestamp(), TemporalType.TIMESTAMP)
+            .setParameter("newVersion", Integer.valueOf(process.getVersion().intValue() + 1))
+            .setParameter("processId", process.getProcessId())
+            .setParameter("version", process.getVersion())
+            .executeUpdate();
+        if (updated == 0)
+            throw new QueujException("Process " + process.getProcessId() + " has been updated or deleted by another transaction.");
+    }
+
     @Override
     protected ProcessPersistence<ProcessEntity<Integer>,Integer> getPersistence0(final String queueOwner, Map<String, Object> server_options) {
         return new ProcessPersistence<ProcessEntity<Integer>,Integer>() {
@@ -219,13 +208,22 @@ public class JPAFactory extends QueujFactoryImpl {
                 if (id == null)
                     return;
                 instance = tlEm.get().find(ProcessImpl.class, id);
-                tlEm.get().refresh(instance);
+                if (instance != null)
+                    tlEm.get().refresh(instance);
             }
 
             public String persist() {
                 if (tlEm.get() == null)
                     throw new QueujException("No transaction.");
 
+                // The generated id is needed immediately so inserts can't be deferred,
+                // run the whole transaction directly against the database instead.
+                GroupCommitter.Unit unit = getDeferredUnit();
+                if (unit != null) {
+                    tlEm.get().getTransaction().begin();
+                    unit.write(tlEm.get());
+                }
+
                 tlEm.get().persist(instance);
 
                 return null;
@@ -235,7 +233,41 @@ public class JPAFactory extends QueujFactoryImpl {
                 if (tlEm.get() == null)
                     throw new QueujException("No transaction.");
 
-                tlEm.get().flush();
+                GroupCommitter.Unit unit = getDeferredUnit();
+                if (unit != null)
+                    unit.update(instance);
+                else if (tlEm.get().contains(instance))
+                    tlEm.get().flush();
+                else {
+                    // Detached by an earlier status update so write it through a managed copy
+                    ProcessImpl merged = tlEm.get().merge(instance);
+                    tlEm.get().flush();
+                    instance.setVersion(merged.getVersion());
+                    instance.markUnmodified();
+                }
+
+                return null;
+            }
+
+            public String updateStatus() {
+                if (tlEm.get() == null)
+                    throw new QueujException("No transaction.");
+
+                // Any other change would be lost so write the whole process instead
+                if (instance.isModified())
+                    return update();
+
+                GroupCommitter.Unit unit = getDeferredUnit();
+                if (unit != null)
+                    unit.updateStatus(instance);
+                else {
+                    // Detach so the instance isn't flushed again with all its columns,
+                    // anything else pending is flushed before the status is written
+                    tlEm.get().detach(instance);
+                    tlEm.get().flush();
+                    JPAFactory.updateStatus(tlEm.get(), instance);
+                    instance.setVersion(Integer.valueOf(instance.getVersion().intValue() + 1));
+                }
 
                 return null;
             }
@@ -244,7 +276,13 @@ public class JPAFactory extends QueujFactoryImpl {
                 if (tlEm.get() == null)
                     throw new QueujException("No transaction.");
 
-                tlEm.get().remove(instance);
+                GroupCommitter.Unit unit = getDeferredUnit();
+                if (unit != null)
+                    unit.remove(instance);
+                else if (tlEm.get().contains(instance))
+                    tlEm.get().remove(instance);
+                else
+                    tlEm.get().remove(tlEm.get().merge(instance));
 
                 return null;
             }
@@ -0,0 +1,112 @@
+/*
+ * Copyright 2010 Workplace Systems PLC (http://www.workplacesystems.com/).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.workplacesystems.queuj.process.jpa;
+
+import com.workplacesystems.queuj.process.QueujFactory;
+import com.workplacesystems.queuj.process.codec.ColumnCodec;
+import com.workplacesystems.queuj.utils.QueujException;
+import java.io.Serializable;
+
+/**
+ * Holds one of the heavy ProcessImpl columns. The stored bytes are only decoded
+ * when the value is first requested and are kept until the value is replaced.
+ * Once the value is known to be stored it can be evicted and is then reloaded
+ * from the database on demand.
+ *
+ * @author dave
+ */
+class LazyColumn<T> implements Serializable {
+
+    private static final long serialVersionUID = LazyColumn.class.getName().hashCode() + 1;
+
+    private static final ColumnCodec codec = ColumnCodec.getInstance();
+
+    private final String property;
+
+    private T value = null;
+
+    private byte[] data = null;
+
+    private boolean loaded = true;
+
+    private boolean stored = false;
+
+    LazyColumn(String property) {
+        this.property = property;
+    }
+
+    synchronized T get(Integer processId) {
+        if (value == null) {
+            load(processId);
+            if (data != null)
+                value = (T)codec.decode(data);
+        }
+        return value;
+    }
+
+    synchronized void set(T value) {
+        this.value = value;
+        this.data = null;
+        this.loaded = true;
+        this.stored = false;
+    }
+
+    synchronized byte[] getData(Integer processId) {
+        if (value != null) {
+            stored = true;
+            // Keep the bytes so the column is only encoded again once it changes
+            if (data == null)
+                data = codec.encode(value);
+            return data;
+        }
+        load(processId);
+        return data;
+    }
+
+    synchronized void setData(byte[] data) {
+        this.value = null;
+        this.data = data;
+        this.loaded = true;
+        this.stored = true;
+    }
+
+    synchronized void evict() {
+        if (!stored)
+            return;
+        value = null;
+        data = null;
+        loaded = false;
+    }
+
+    synchronized void unload() {
+        value = null;
+        data = null;
+        loaded = false;
+        stored = true;
+    }
+
+    private void load(Integer processId) {
+        if (loaded)
+            return;
+
+        ProcessDAO processDAO = QueujFactory.getProcessDAO();
+        if (!(processDAO instanceof LazyProcessDAO))
+            throw new QueujException("Unable to load " + property + " for process " + processId);
+        data = ((LazyProcessDAO)processDAO).findProcessColumn(processId, property);
+        loaded = true;
+    }
+}
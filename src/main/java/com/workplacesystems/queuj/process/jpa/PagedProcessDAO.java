@@ -0,0 +1,34 @@
+/*
+ * Copyright 2010 Workplace Systems PLC (http://www.workplacesystems.com/).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.workplacesystems.queuj.process.jpa;
+
+import java.util.List;
+
+/**
+ * A ProcessDAO that can return the processes of a queue owner a page at a time
+ * so large queues can be recovered without loading every row at once.
+ *
+ * @author dave
+ */
+public interface PagedProcessDAO extends ProcessDAO {
+
+    /**
+     * Returns up to maxResults processes ordered by creation timestamp and id
+     * that follow the process after, or the first page if after is null.
+     */
+    public List<ProcessImpl> findProcesses(String queueOwner, ProcessImpl after, int maxResults);
+}
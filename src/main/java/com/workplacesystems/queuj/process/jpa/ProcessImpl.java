@@ -30,13 +30,18 @@ import java.util.Date;
 import java.util.Locale;
 import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.persistence.Basic;
 import javax.persistence.Column;
 import javax.persistence.Entity;
 import javax.persistence.EnumType;
 import javax.persistence.Enumerated;
+import javax.persistence.FetchType;
 import javax.persistence.GeneratedValue;
 import javax.persistence.Id;
 import javax.persistence.Lob;
+import javax.persistence.PostLoad;
+import javax.persistence.PostUpdate;
 import javax.persistence.Table;
 import javax.persistence.Temporal;
 import javax.persistence.TemporalType;
@@ -61,23 +66,24 @@ public class ProcessImpl implements ProcessEntity<Integer>, Serializable {
     private String description;//" max_length="50"/>
     private volatile Date scheduledTimestamp;
     private volatile Date startedTimestamp;
-    private ProcessParameters parameters;
-    private Queue queue;
+    private final LazyColumn<ProcessParameters> parameters = new LazyColumn<ProcessParameters>("parametersData");
+    private final EncodedColumn<Queue> queue = new EncodedColumn<Queue>();
     private String userId;
-    private Locale locale;
+    private final EncodedColumn<Locale> locale = new EncodedColumn<Locale>();
     private volatile Status status;
-    private Occurrence occurrence;
-    private Access access;
-    private Visibility visibility;
-    private Resilience resilience;
-    private Output output;
+    private final EncodedColumn<Occurrence> occurrence = new EncodedColumn<Occurrence>();
+    private final EncodedColumn<Access> access = new EncodedColumn<Access>();
+    private final EncodedColumn<Visibility> visibility = new EncodedColumn<Visibility>();
+    private final EncodedColumn<Resilience> resilience = new EncodedColumn<Resilience>();
+    private final LazyColumn<Output> output = new LazyColumn<Output>("outputData");
     private volatile int attempt;
     private volatile int runCount;
     private volatile int resultCode;
     private boolean associatedReport;
     private boolean keepCompleted;
+    private transient boolean modified = true;
 
-    private static int nextProcessId = Integer.MAX_VALUE;
+    private static final AtomicInteger nextProcessId = new AtomicInteger(Integer.MAX_VALUE);
 
     @Id
     @GeneratedValue
@@ -92,24 +98,24 @@ public class ProcessImpl implements ProcessEntity<Integer>, Serializable {
 
     @Column(name = "queue_owner_id")
     public String getQueueOwnerId() { return queueOwnerId; }
-    public void setQueueOwnerId(String queueOwnerId) { this.queueOwnerId = queueOwnerId; }
+    public void setQueueOwnerId(String queueOwnerId) { this.queueOwnerId = queueOwnerId; modified = true; }
 
     @Column(name="uuid",nullable=false,unique=true)
     public String getUUID() { return uuid.toString(); }
-    public void setUUID(String uuid) { this.uuid = UUID.fromString(uuid); }
+    public void setUUID(String uuid) { this.uuid = UUID.fromString(uuid); modified = true; }
 
     @Column(name = "process_name")
     public String getProcessName() { return processName; }
-    public void setProcessName(String processName) { this.processName = processName; }
+    public void setProcessName(String processName) { this.processName = processName; modified = true; }
 
     @Temporal(TemporalType.TIMESTAMP)
     @Column(name = "creation_timestamp")
     public Date getCreationTimestamp() { return creationTimestamp; }
-    public void setCreationTimestamp(Date creationTimestamp) { this.creationTimestamp = creationTimestamp; }
+    public void setCreationTimestamp(Date creationTimestamp) { this.creationTimestamp = creationTimestamp; modified = true; }
 
     @Column(name = "description")
     public String getDescription() { return description; }
-    public void setDescription(String description) { this.description = description; }
+    public void setDescription(String description) { this.description = description; modified = true; }
 
     @Temporal(TemporalType.TIMESTAMP)
     @Column(name = "scheduled_timestamp")
@@ -122,23 +128,36 @@ public class ProcessImpl implements ProcessEntity<Integer>, Serializable {
     public void setStartedTimestamp(Date startedTimestamp) { this.startedTimestamp = startedTimestamp; }
 
     @Lob
+    @Basic(fetch = FetchType.LAZY)
     @Column(name = "parameters")
-    public ProcessParameters getParameters() { return parameters; }
-    public void setParameters(ProcessParameters parameters) { this.parameters = parameters; }
+    public byte[] getParametersData() { return parameters.getData(processId); }
+    public void setParametersData(byte[] data) { parameters.setData(data); modified = true; }
+
+    @Transient
+    public ProcessParameters getParameters() { return parameters.get(processId); }
+    public void setParameters(ProcessParameters parameters) { this.parameters.set(parameters); modified = true; }
 
     @Lob
     @Column(name = "queue")
-    public Queue getQueue() { return queue; }
-    public void setQueue(Queue queue) { this.queue = queue; }
+    public byte[] getQueueData() { return queue.getData(); }
+    public void setQueueData(byte[] data) { this.queue.setData(data); modified = true; }
+
+    @Transient
+    public Queue getQueue() { return queue.get(); }
+    public void setQueue(Queue queue) { this.queue.set(queue); modified = true; }
 
     @Column(name = "user_id")
     public String getUserId() { return userId; }
-    public void setUserId(String userId) { this.userId = userId; }
+    public void setUserId(String userId) { this.userId = userId; modified = true; }
 
     @Lob
     @Column(name = "locale")
-    public Locale getLocale() { return locale; }
-    public void setLocale(Locale locale) { this.locale = locale; }
+    public byte[] getLocaleData() { return locale.getData(); }
+    public void setLocaleData(byte[] data) { this.locale.setData(data); modified = true; }
+
+    @Transient
+    public Locale getLocale() { return locale.get(); }
+    public void setLocale(Locale locale) { this.locale.set(locale); modified = true; }
 
     @Enumerated(EnumType.ORDINAL)
     @Column(name = "status")
@@ -147,28 +166,49 @@ public class ProcessImpl implements ProcessEntity<Integer>, Serializable {
 
     @Lob
     @Column(name = "occurrence")
-    public Occurrence getOccurrence() { return occurrence; }
-    public void setOccurrence(Occurrence occurrence) { this.occurrence = occurrence; }
+    public byte[] getOccurrenceData() { return occurrence.getData(); }
+    public void setOccurrenceData(byte[] data) { this.occurrence.setData(data); modified = true; }
+
+    @Transient
+    public Occurrence getOccurrence() { return occurrence.get(); }
+    public void setOccurrence(Occurrence occurrence) { this.occurrence.set(occurrence); modified = true; }
 
     @Lob
     @Column(name = "access")
-    public Access getAccess() { return access; }
-    public void setAccess(Access access) { this.access = access; }
+    public byte[] getAccessData() { return access.getData(); }
+    public void setAccessData(byte[] data) { this.access.setData(data); modified = true; }
+
+    @Transient
+    public Access getAccess() { return access.get(); }
+    public void setAccess(Access access) { this.access.set(access); modified = true; }
 
     @Lob
     @Column(name = "visibility")
-    public Visibility getVisibility() { return visibility; }
-    public void setVisibility(Visibility visibility) { this.visibility = visibility; }
+    public byte[] getVisibilityData() { return visibility.getData(); }
+    public void setVisibilityData(byte[] data) { this.visibility.setData(data); modified = true; }
+
+    @Transient
+    public Visibility getVisibility() { return visibility.get(); }
+    public void setVisibility(Visibility visibility) { this.visibility.set(visibility); modified = true; }
 
     @Lob
     @Column(name = "resilience")
-    public Resilience getResilience() { return resilience; }
-    public void setResilience(Resilience resilience) { this.resilience = resilience; }
+    public byte[] getResilienceData() { return resilience.getData(); }
+    public void setResilienceData(byte[] data) { this.resilience.setData(data); modified = true; }
+
+    @Transient
+    public Resilience getResilience() { return resilience.get(); }
+    public void setResilience(Resilience resilience) { this.resilience.set(resilience); modified = true; }
 
     @Lob
+    @Basic(fetch = FetchType.LAZY)
     @Column(name = "output")
-    public Output getOutput() { return output; }
-    public void setOutput(Output output) { this.output = output; }
+    public byte[] getOutputData() { return output.getData(processId); }
+    public void setOutputData(byte[] data) { output.setData(data); modified = true; }
+
+    @Transient
+    public Output getOutput() { return output.get(processId); }
+    public void setOutput(Output output) { this.output.set(output); modified = true; }
 
     @Column(name = "attempt")
     public int getAttempt() { return attempt; }
@@ -184,11 +224,11 @@ public class ProcessImpl implements ProcessEntity<Integer>, Serializable {
 
     @Column(name = "associated_report")
     public boolean isAssociatedReport() { return associatedReport; }
-    public void setAssociatedReport(boolean associatedReport) { this.associatedReport = associatedReport; }
+    public void setAssociatedReport(boolean associatedReport) { this.associatedReport = associatedReport; modified = true; }
 
     @Column(name = "keep_completed")
     public boolean isKeepCompleted() { return keepCompleted; }
-    public void setKeepCompleted(boolean keepCompleted) { this.keepCompleted = keepCompleted; }
+    public void setKeepCompleted(boolean keepCompleted) { this.keepCompleted = keepCompleted; modified = true; }
 
     // Entity doesn't require a reverse reference to the wrapper for JPA and Seam implementations
     public void setProcessWrapper(ProcessWrapper<Integer> processWrapper) {}
@@ -196,14 +236,36 @@ public class ProcessImpl implements ProcessEntity<Integer>, Serializable {
     // Implementation options not currently required for JPA and Seam implementations
     public void setImplementationOptions(Map<String, Object> implementation_options) {}
 
-    @Transient
-    public Integer getNextProcessId() {
-        return getNextProcessId0();
+    /**
+     * Drop the heavy columns from memory, they are reloaded if required.
+     */
+    public void evictPayload() {
+        parameters.evict();
+        output.evict();
     }
 
+    /**
+     * The heavy columns weren't selected with the rest of the row, load them on demand.
+     */
+    void setPayloadStored() {
+        parameters.unload();
+        output.unload();
+    }
+
+    /**
+     * True if a column other than the status columns has been set since the process
+     * was last read or updated, a status update must then write the whole process.
+     */
+    @Transient
+    public boolean isModified() { return modified; }
+
+    @PostLoad
+    @PostUpdate
+    public void markUnmodified() { modified = false; }
+
     @Transient
-    private static synchronized int getNextProcessId0() {
-        return nextProcessId--;
+    public Integer getNextProcessId() {
+        return Integer.valueOf(nextProcessId.getAndDecrement());
     }
 
     // No special options required for retrieval of the server
@@ -16,16 +16,31 @@
 
 package com.workplacesystems.queuj.process.jpa;
 
+import com.workplacesystems.queuj.process.ProcessEntity.Status;
+import java.util.ArrayList;
+import java.util.Date;
 import java.util.List;
 import javax.persistence.EntityManager;
 import javax.persistence.EntityNotFoundException;
 import javax.persistence.NoResultException;
+import javax.persistence.Query;
+import javax.persistence.TemporalType;
 
 /**
  *
  * @author dave
  */
-public class ProcessImplDAO implements ProcessDAO {
+public class ProcessImplDAO implements PagedProcessDAO, LazyProcessDAO {
+
+    /**
+     * Every column apart from the heavy parameters and output, which are loaded
+     * on demand. LAZY fetching of basic columns is only a hint that most providers
+     * ignore without bytecode enhancement so the columns are selected explicitly.
+     */
+    private static final String HEADER_COLUMNS = "p.processId, p.version, p.queueOwnerId, p.UUID, p.processName, " +
+            "p.creationTimestamp, p.description, p.scheduledTimestamp, p.startedTimestamp, p.queueData, p.userId, " +
+            "p.localeData, p.status, p.occurrenceData, p.accessData, p.visibilityData, p.resilienceData, " +
+            "p.attempt, p.runCount, p.resultCode, p.associatedReport, p.keepCompleted";
 
     private final EntityManager em;
 
@@ -54,17 +69,103 @@ public class ProcessImplDAO implements ProcessDAO {
 
     protected List<ProcessImpl> findProcesses(EntityManager em, String queueOwner) {
         try {
+            List<Object[]> rows;
             if (queueOwner == null) {
-                return em
-                        .createQuery("select p from ProcessImpl p where p.queueOwnerId is null order by p.creationTimestamp")
+                rows = em
+                        .createQuery("select " + HEADER_COLUMNS + " from ProcessImpl p where p.queueOwnerId is null order by p.creationTimestamp")
                         .getResultList();
             }
             else {
-                return em
-                        .createQuery("select p from ProcessImpl p where p.queueOwnerId=:queueOwnerKey order by p.creationTimestamp")
+                rows = em
+                        .createQuery("select " + HEADER_COLUMNS + " from ProcessImpl p where p.queueOwnerId=:queueOwnerKey order by p.creationTimestamp")
                         .setParameter("queueOwnerKey", queueOwner)
                         .getResultList();
             }
+            return toProcesses(rows);
+        } catch (EntityNotFoundException ex) {
+        } catch (NoResultException ex) {
+        }
+        return null;
+    }
+
+    public List<ProcessImpl> findProcesses(String queueOwner, ProcessImpl after, int maxResults) {
+        // Drop the processes loaded while recovering the previous page, the
+        // pages themselves are never managed so stay usable after clearing
+        em.clear();
+        return findProcesses(em, queueOwner, after, maxResults);
+    }
+
+    protected List<ProcessImpl> findProcesses(EntityManager em, String queueOwner, ProcessImpl after, int maxResults) {
+        try {
+            String ql = "select " + HEADER_COLUMNS + " from ProcessImpl p where ";
+            ql += queueOwner == null ? "p.queueOwnerId is null" : "p.queueOwnerId=:queueOwnerKey";
+            if (after != null)
+                ql += " and (p.creationTimestamp>:creationTimestamp or (p.creationTimestamp=:creationTimestamp and p.processId>:processId))";
+            ql += " order by p.creationTimestamp, p.processId";
+
+            Query query = em.createQuery(ql).setMaxResults(maxResults);
+            if (queueOwner != null)
+                query.setParameter("queueOwnerKey", queueOwner);
+            if (after != null) {
+                query.setParameter("creationTimestamp", after.getCreationTimestamp(), TemporalType.TIMESTAMP);
+                query.setParameter("processId", after.getProcessId());
+            }
+
+            return toProcesses(query.getResultList());
+        } catch (EntityNotFoundException ex) {
+        } catch (NoResultException ex) {
+        }
+        return null;
+    }
+
+    /**
+     * Builds unmanaged processes from the header columns. Dormant processes don't
+     * need their payload until they run and, as they aren't managed, it isn't
+     * reloaded by the provider checking them for changes on flush.
+     */
+    private static List<ProcessImpl> toProcesses(List<Object[]> rows) {
+        List<ProcessImpl> processes = new ArrayList<ProcessImpl>(rows.size());
+        for (Object[] row : rows) {
+            ProcessImpl process = new ProcessImpl();
+            process.setProcessId((Integer)row[0]);
+            process.setVersion((Integer)row[1]);
+            process.setQueueOwnerId((String)row[2]);
+            process.setUUID((String)row[3]);
+            process.setProcessName((String)row[4]);
+            process.setCreationTimestamp((Date)row[5]);
+            process.setDescription((String)row[6]);
+            process.setScheduledTimestamp((Date)row[7]);
+            process.setStartedTimestamp((Date)row[8]);
+            process.setQueueData((byte[])row[9]);
+            process.setUserId((String)row[10]);
+            process.setLocaleData((byte[])row[11]);
+            process.setStatus((Status)row[12]);
+            process.setOccurrenceData((byte[])row[13]);
+            process.setAccessData((byte[])row[14]);
+            process.setVisibilityData((byte[])row[15]);
+            process.setResilienceData((byte[])row[16]);
+            process.setAttempt(((Number)row[17]).intValue());
+            process.setRunCount(((Number)row[18]).intValue());
+            process.setResultCode(((Number)row[19]).intValue());
+            process.setAssociatedReport(((Boolean)row[20]).booleanValue());
+            process.setKeepCompleted(((Boolean)row[21]).booleanValue());
+            process.setPayloadStored();
+            process.markUnmodified();
+            processes.add(process);
+        }
+        return processes;
+    }
+
+    public byte[] findProcessColumn(Integer processId, String property) {
+        return findProcessColumn(em, processId, property);
+    }
+
+    protected byte[] findProcessColumn(EntityManager em, Integer processId, String property) {
+        try {
+            return (byte[])em
+                    .createQuery("select p." + property + " from ProcessImpl p where p.processId=:processId")
+                    .setParameter("processId", processId)
+                    .getSingleResult();
         } catch (EntityNotFoundException ex) {
         } catch (NoResultException ex) {
         }
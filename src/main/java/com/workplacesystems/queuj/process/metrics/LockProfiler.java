@@ -0,0 +1,168 @@
+/*
+ * Copyright 2010 Workplace Systems PLC (http://www.workplacesystems.com/).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.workplacesystems.queuj.process.metrics;
+
+import com.workplacesystems.utilsj.Callback;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Records how often each of the QueuJ monitors and SyncUtils locks is taken
+ * and how long is spent waiting for and holding it. Profiling is turned on
+ * with com.workplacesystems.queuj.lockProfiler, otherwise every method returns
+ * straight away so the JIT removes them. A monitor is profiled by running the
+ * code holding it with synchronize and a SyncUtils lock by wrapping its
+ * callback with profile.
+ *
+ * @author dave
+ */
+public final class LockProfiler {
+
+    private static final boolean enabled = Boolean.getBoolean("com.workplacesystems.queuj.lockProfiler");
+
+    public static final LockStats SCHEDULER = new LockStats("ProcessScheduler");
+    public static final LockStats UNPARK_RUN = new LockStats("UnParkBackgroundProcess.run_mutex");
+    public static final LockStats SERVER_MUTEX = new LockStats("ProcessImplServer.mutex");
+    public static final LockStats PROCESS_MUTEX = new LockStats("ProcessWrapper.mutex");
+    public static final LockStats PROCESSES_READ = new LockStats("ProcessImplServer.processes read");
+    public static final LockStats PROCESSES_WRITE = new LockStats("ProcessImplServer.processes write");
+    public static final LockStats INDEXES_READ = new LockStats("ProcessIndexesImpl read");
+    public static final LockStats INDEXES_WRITE = new LockStats("ProcessIndexesImpl write");
+    public static final LockStats INDEX_MAP = new LockStats("ProcessIndexesImpl index map");
+    public static final LockStats QUEUE_INDEX_MAP = new LockStats("ProcessIndexesImpl queue index map");
+
+    private static final List<LockStats> locks = Collections.unmodifiableList(Arrays.asList(
+            SCHEDULER, UNPARK_RUN, SERVER_MUTEX, PROCESS_MUTEX, PROCESSES_READ, PROCESSES_WRITE,
+            INDEXES_READ, INDEXES_WRITE, INDEX_MAP, QUEUE_INDEX_MAP));
+
+    private LockProfiler() {}
+
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Called before waiting for the lock.
+     */
+    public static long start() {
+        return enabled ? System.nanoTime() : 0;
+    }
+
+    /**
+     * Called first thing once the lock is held, returns the time to pass to
+     * released.
+     */
+    public static long acquired(LockStats lock, long start) {
+        if (!enabled)
+            return 0;
+
+        long now = System.nanoTime();
+        lock.acquired(now - start);
+        return now;
+    }
+
+    public static void released(LockStats lock, long acquired) {
+        if (enabled)
+            lock.released(System.nanoTime() - acquired);
+    }
+
+    /**
+     * Runs the callback holding the monitor and profiles it as the lock.
+     */
+    public static <T> T synchronize(LockStats lock, Object monitor, Callback<T> callback) {
+        long start = start();
+        synchronized (monitor) {
+            long held = acquired(lock, start);
+            try {
+                return callback.action();
+            }
+            finally {
+                released(lock, held);
+            }
+        }
+    }
+
+    /**
+     * Wraps a callback passed to SyncUtils so the lock is profiled.
+     */
+    public static <T> Callback<T> profile(final LockStats lock, final Callback<T> callback) {
+        if (!enabled)
+            return callback;
+
+        final long start = System.nanoTime();
+        return new Callback<T>() {
+
+            @Override
+            protected void doAction() {
+                long held = acquired(lock, start);
+                try {
+                    _return(callback.action());
+                }
+                finally {
+                    released(lock, held);
+                }
+            }
+        };
+    }
+
+    public static List<LockStats> getLocks() {
+        return locks;
+    }
+
+    /**
+     * Returns the locks with the most time spent waiting first.
+     */
+    public static List<LockStats> getLocksByWait() {
+        ArrayList<LockStats> sorted = new ArrayList<LockStats>(locks);
+        Collections.sort(sorted, new Comparator<LockStats>() {
+
+            public int compare(LockStats lock1, LockStats lock2) {
+                long wait1 = lock1.getTotalWait();
+                long wait2 = lock2.getTotalWait();
+                return wait1 > wait2 ? -1 : (wait1 == wait2 ? 0 : 1);
+            }
+        });
+        return sorted;
+    }
+
+    public static void reset() {
+        for (LockStats lock : locks)
+            lock.reset();
+    }
+
+    /**
+     * Returns a table of the locks with the most time spent waiting first,
+     * the totals are in milliseconds and the maximums and averages in
+     * microseconds.
+     */
+    public static String report() {
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format("%-36s %12s %12s %10s %10s %12s %10s%n",
+                "Lock", "Acquired", "Wait ms", "Avg us", "Max us", "Hold ms", "Max us"));
+        for (LockStats lock : getLocksByWait()) {
+            long acquisitions = lock.getAcquisitions();
+            sb.append(String.format("%-36s %12d %12.3f %10.1f %10d %12.3f %10d%n",
+                    lock.getName(), acquisitions, lock.getTotalWait() / 1000000.0,
+                    acquisitions == 0 ? 0.0 : lock.getTotalWait() / 1000.0 / acquisitions,
+                    lock.getMaxWait() / 1000, lock.getTotalHold() / 1000000.0, lock.getMaxHold() / 1000));
+        }
+        return sb.toString();
+    }
+}
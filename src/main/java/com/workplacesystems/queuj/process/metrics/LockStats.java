@@ -0,0 +1,92 @@
+/*
+ * Copyright 2010 Workplace Systems PLC (http://www.workplacesystems.com/).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.workplacesystems.queuj.process.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The acquisitions of one of the QueuJ locks with the time spent waiting for
+ * it and holding it, in nanoseconds.
+ *
+ * @author dave
+ */
+public final class LockStats {
+
+    private final String name;
+
+    private final AtomicLong acquisitions = new AtomicLong();
+
+    private final AtomicLong totalWait = new AtomicLong();
+
+    private final AtomicLong maxWait = new AtomicLong();
+
+    private final AtomicLong totalHold = new AtomicLong();
+
+    private final AtomicLong maxHold = new AtomicLong();
+
+    LockStats(String name) {
+        this.name = name;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    void acquired(long wait) {
+        acquisitions.incrementAndGet();
+        totalWait.addAndGet(wait);
+        setMax(maxWait, wait);
+    }
+
+    void released(long hold) {
+        totalHold.addAndGet(hold);
+        setMax(maxHold, hold);
+    }
+
+    private static void setMax(AtomicLong max, long value) {
+        long current;
+        while (value > (current = max.get()) && !max.compareAndSet(current, value)) {}
+    }
+
+    void reset() {
+        acquisitions.set(0);
+        totalWait.set(0);
+        maxWait.set(0);
+        totalHold.set(0);
+        maxHold.set(0);
+    }
+
+    public long getAcquisitions() {
+        return acquisitions.get();
+    }
+
+    public long getTotalWait() {
+        return totalWait.get();
+    }
+
+    public long getMaxWait() {
+        return maxWait.get();
+    }
+
+    public long getTotalHold() {
+        return totalHold.get();
+    }
+
+    public long getMaxHold() {
+        return maxHold.get();
+    }
+}
@@ -0,0 +1,192 @@
+/*
+ * Copyright 2010 Workplace Systems PLC (http://www.workplacesystems.com/).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.workplacesystems.queuj.process.metrics;
+
+import com.workplacesystems.queuj.Queue;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Latency and throughput metrics recorded at the points processes are
+ * scheduled, started, run and finished, by queue and by process name. The
+ * recording is lock free and doesn't allocate once the queue or process name
+ * has been seen. Metrics are recorded unless com.workplacesystems.queuj.metrics
+ * is set to false. The queues are named by their queue id so the names are the
+ * same on every node and after a restart, the description of each holds the
+ * full queue definition.
+ *
+ * @author dave
+ */
+public final class Metrics {
+
+    private static final boolean enabled = !"false".equals(System.getProperty("com.workplacesystems.queuj.metrics"));
+
+    private static final ConcurrentHashMap<String,QueueMetrics> queues = new ConcurrentHashMap<String,QueueMetrics>();
+
+    private static final ConcurrentHashMap<String,QueueMetrics> processes = new ConcurrentHashMap<String,QueueMetrics>();
+
+    /** How late the scheduler woke for the first due process, in milliseconds */
+    private static final Histogram schedulerLateness = new Histogram();
+
+    /** The number of processes unparked by each scheduler wake up */
+    private static final Histogram unparkBatch = new Histogram();
+
+    private Metrics() {}
+
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    public static QueueMetrics getQueueMetrics(Queue queue) {
+        // The id is cached by the queue
+        String key = queue.getQueueId();
+        QueueMetrics metrics = queues.get(key);
+        if (metrics == null) {
+            metrics = new QueueMetrics("queue-" + key, queue.toString());
+            QueueMetrics existing = queues.putIfAbsent(key, metrics);
+            if (existing != null)
+                metrics = existing;
+        }
+        return metrics;
+    }
+
+    public static QueueMetrics getProcessMetrics(String processName) {
+        QueueMetrics metrics = processes.get(processName);
+        if (metrics == null) {
+            metrics = new QueueMetrics(processName, processName);
+            QueueMetrics existing = processes.putIfAbsent(processName, metrics);
+            if (existing != null)
+                metrics = existing;
+        }
+        return metrics;
+    }
+
+    public static void scheduled(Queue queue) {
+        if (enabled)
+            getQueueMetrics(queue).scheduled();
+    }
+
+    /**
+     * The process has been marked as running, delay is the time since it was
+     * due in milliseconds.
+     */
+    public static void started(Queue queue, String processName, long delay) {
+        if (!enabled)
+            return;
+
+        long micros = delay * 1000;
+        getQueueMetrics(queue).started(micros);
+        if (processName != null)
+            getProcessMetrics(processName).started(micros);
+    }
+
+    public static void finished(Queue queue, String processName, long nanos, boolean failed) {
+        if (!enabled)
+            return;
+
+        long micros = nanos / 1000;
+        getQueueMetrics(queue).finished(micros, failed);
+        if (processName != null)
+            getProcessMetrics(processName).finished(micros, failed);
+    }
+
+    public static void section(Queue queue, String processName, long nanos, boolean failed) {
+        if (!enabled)
+            return;
+
+        long micros = nanos / 1000;
+        getQueueMetrics(queue).section(micros, failed);
+        if (processName != null)
+            getProcessMetrics(processName).section(micros, failed);
+    }
+
+    public static void schedulerWoken(long lateness, int unparked) {
+        if (!enabled)
+            return;
+
+        schedulerLateness.record(lateness);
+        unparkBatch.record(unparked);
+    }
+
+    public static List<QueueMetrics.Snapshot> getQueueSnapshots() {
+        ArrayList<QueueMetrics.Snapshot> snapshots = new ArrayList<QueueMetrics.Snapshot>();
+        for (QueueMetrics metrics : queues.values())
+            snapshots.add(metrics.snapshot());
+        return snapshots;
+    }
+
+    public static List<QueueMetrics.Snapshot> getProcessSnapshots() {
+        ArrayList<QueueMetrics.Snapshot> snapshots = new ArrayList<QueueMetrics.Snapshot>();
+        for (QueueMetrics metrics : processes.values())
+            snapshots.add(metrics.snapshot());
+        return snapshots;
+    }
+
+    public static Histogram.Snapshot getSchedulerLateness() {
+        return schedulerLateness.snapshot();
+    }
+
+    public static Histogram.Snapshot getUnparkBatch() {
+        return unparkBatch.snapshot();
+    }
+
+    /**
+     * Returns every metric as one line of text each in the Prometheus text
+     * format for scraping.
+     */
+    public static String export() {
+        StringBuilder sb = new StringBuilder();
+        for (QueueMetrics.Snapshot snapshot : getQueueSnapshots())
+            export(sb, "queue", snapshot);
+        for (QueueMetrics.Snapshot snapshot : getProcessSnapshots())
+            export(sb, "process", snapshot);
+        export(sb, "queuj_scheduler_lateness_ms", "", getSchedulerLateness());
+        export(sb, "queuj_scheduler_unpark_batch", "", getUnparkBatch());
+        return sb.toString();
+    }
+
+    private static void export(StringBuilder sb, String label, QueueMetrics.Snapshot snapshot) {
+        String labels = label + "=\"" + snapshot.getName().replace("\"", "\\\"") + "\"";
+        export(sb, "queuj_scheduled_total", labels, snapshot.getScheduled());
+        export(sb, "queuj_started_total", labels, snapshot.getStarted());
+        export(sb, "queuj_completed_total", labels, snapshot.getCompleted());
+        export(sb, "queuj_failed_total", labels, snapshot.getFailed());
+        export(sb, "queuj_sections_total", labels, snapshot.getSections());
+        export(sb, "queuj_failed_sections_total", labels, snapshot.getFailedSections());
+        export(sb, "queuj_start_delay_us", labels, snapshot.getStartDelay());
+        export(sb, "queuj_run_time_us", labels, snapshot.getRunTime());
+        export(sb, "queuj_section_time_us", labels, snapshot.getSectionTime());
+    }
+
+    private static void export(StringBuilder sb, String metric, String labels, Histogram.Snapshot snapshot) {
+        String separator = labels.length() == 0 ? "" : ",";
+        export(sb, metric + "_count", labels, snapshot.getCount());
+        export(sb, metric + "_sum", labels, snapshot.getSum());
+        export(sb, metric + "_max", labels, snapshot.getMax());
+        export(sb, metric, labels + separator + "quantile=\"0.5\"", snapshot.getPercentile(50));
+        export(sb, metric, labels + separator + "quantile=\"0.99\"", snapshot.getPercentile(99));
+        export(sb, metric, labels + separator + "quantile=\"0.999\"", snapshot.getPercentile(99.9));
+    }
+
+    private static void export(StringBuilder sb, String metric, String labels, long value) {
+        sb.append(metric);
+        if (labels.length() > 0)
+            sb.append('{').append(labels).append('}');
+        sb.append(' ').append(value).append('\n');
+    }
+}
@@ -0,0 +1,140 @@
+/*
+ * Copyright 2010 Workplace Systems PLC (http://www.workplacesystems.com/).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.workplacesystems.queuj.process.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The counters and histograms of a queue or of the processes with the same
+ * name. Times are in microseconds. The counters are cumulative so throughput
+ * is the difference between two snapshots divided by the time between them.
+ *
+ * @author dave
+ */
+public final class QueueMetrics {
+
+    private final String name;
+
+    private final String description;
+
+    private final AtomicLong scheduled = new AtomicLong();
+
+    private final AtomicLong started = new AtomicLong();
+
+    private final AtomicLong completed = new AtomicLong();
+
+    private final AtomicLong failed = new AtomicLong();
+
+    private final AtomicLong sections = new AtomicLong();
+
+    private final AtomicLong failedSections = new AtomicLong();
+
+    /** Time between the scheduled run time and the process being marked as running */
+    private final Histogram startDelay = new Histogram();
+
+    private final Histogram runTime = new Histogram();
+
+    private final Histogram sectionTime = new Histogram();
+
+    QueueMetrics(String name, String description) {
+        this.name = name;
+        this.description = description;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public String getDescription() {
+        return description;
+    }
+
+    void scheduled() {
+        scheduled.incrementAndGet();
+    }
+
+    void started(long delay) {
+        started.incrementAndGet();
+        startDelay.record(delay);
+    }
+
+    void finished(long time, boolean isFailed) {
+        (isFailed ? failed : completed).incrementAndGet();
+        runTime.record(time);
+    }
+
+    void section(long time, boolean isFailed) {
+        (isFailed ? failedSections : sections).incrementAndGet();
+        sectionTime.record(time);
+    }
+
+    public Snapshot snapshot() {
+        return new Snapshot(this);
+    }
+
+    public static final class Snapshot {
+
+        private final String name;
+        private final String description;
+        private final long timestamp;
+        private final long scheduled;
+        private final long started;
+        private final long completed;
+        private final long failed;
+        private final long sections;
+        private final long failedSections;
+        private final Histogram.Snapshot startDelay;
+        private final Histogram.Snapshot runTime;
+        private final Histogram.Snapshot sectionTime;
+
+        private Snapshot(QueueMetrics metrics) {
+            name = metrics.name;
+            description = metrics.description;
+            timestamp = System.currentTimeMillis();
+            scheduled = metrics.scheduled.get();
+            started = metrics.started.get();
+            completed = metrics.completed.get();
+            failed = metrics.failed.get();
+            sections = metrics.sections.get();
+            failedSections = metrics.failedSections.get();
+            startDelay = metrics.startDelay.snapshot();
+            runTime = metrics.runTime.snapshot();
+            sectionTime = metrics.sectionTime.snapshot();
+        }
+
+        public String getName() { return name; }
+        public String getDescription() { return description; }
+        public long getTimestamp() { return timestamp; }
+        public long getScheduled() { return scheduled; }
+        public long getStarted() { return started; }
+        public long getCompleted() { return completed; }
+        public long getFailed() { return failed; }
+        public long getSections() { return sections; }
+        public long getFailedSections() { return failedSections; }
+        public Histogram.Snapshot getStartDelay() { return startDelay; }
+        public Histogram.Snapshot getRunTime() { return runTime; }
+        public Histogram.Snapshot getSectionTime() { return sectionTime; }
+
+        /**
+         * Returns the processes completed per second since the earlier snapshot.
+         */
+        public double getCompletedRate(Snapshot earlier) {
+            long time = timestamp - earlier.timestamp;
+            return time <= 0 ? 0 : (completed - earlier.completed) * 1000.0 / time;
+        }
+    }
+}
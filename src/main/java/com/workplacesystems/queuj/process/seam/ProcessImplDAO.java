@@ -49,4 +49,14 @@ public class ProcessImplDAO extends com.workplacesystems.queuj.process.jpa.Proce
     public List<ProcessImpl> findProcesses(String queueOwner) {
         return super.findProcesses(entityManager, queueOwner);
     }
+
+    @Override
+    public List<ProcessImpl> findProcesses(String queueOwner, ProcessImpl after, int maxResults) {
+        return super.findProcesses(entityManager, queueOwner, after, maxResults);
+    }
+
+    @Override
+    public byte[] findProcessColumn(Integer processId, String property) {
+        return super.findProcessColumn(entityManager, processId, property);
+    }
 }
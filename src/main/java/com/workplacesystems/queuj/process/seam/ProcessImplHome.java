@@ -33,6 +33,10 @@ public class ProcessImplHome extends EntityHome<ProcessImpl> implements ProcessP
         super.setId(id);
     }
 
+    public String updateStatus() {
+        return update();
+    }
+
     @Override
     protected ProcessImpl loadInstance() 
     {
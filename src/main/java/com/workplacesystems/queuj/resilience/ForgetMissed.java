@@ -38,14 +38,11 @@ public class ForgetMissed extends Resilience
     @Override
     protected GregorianCalendar getAdjustedNextRunTime(Occurrence occurrence, GregorianCalendar schedule_start, int run_count, GregorianCalendar now)
     {
-        GregorianCalendar next_run = occurrence.getNextRunTime(schedule_start, run_count);
-        while (next_run != null && next_run.before(now))
-        {
-            GregorianCalendar saved_run = next_run;
-            next_run = occurrence.getNextRunTime(next_run, run_count);
-            if (!next_run.after(saved_run))
-                break;
-        }
-        return next_run;
+        GregorianCalendar last_run = occurrence.getLastRunTime(schedule_start, run_count, now);
+        if (last_run == null)
+            return occurrence.getNextRunTime(schedule_start, run_count);
+        if (!last_run.before(now))
+            return last_run;
+        return occurrence.getNextRunTime(last_run, run_count);
     }
 }
@@ -40,15 +40,9 @@ public class RunOnlyOnce extends Resilience
     @Override
     protected GregorianCalendar getAdjustedNextRunTime(Occurrence occurrence, GregorianCalendar schedule_start, int run_count, GregorianCalendar now)
     {
-        GregorianCalendar next_run = occurrence.getNextRunTime(schedule_start, run_count);
-        GregorianCalendar saved_run = next_run;
-        while (next_run != null && !next_run.after(now))
-        {
-            saved_run = next_run;
-            next_run = occurrence.getNextRunTime(saved_run, run_count);
-            if (!next_run.after(saved_run))
-                break;
-        }
-        return saved_run;
+        GregorianCalendar last_run = occurrence.getLastRunTime(schedule_start, run_count, now);
+        if (last_run == null)
+            return occurrence.getNextRunTime(schedule_start, run_count);
+        return last_run;
     }
 }
@@ -0,0 +1,84 @@
+/*
+ * Copyright 2010 Workplace Systems PLC (http://www.workplacesystems.com/).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.workplacesystems.queuj.restriction;
+
+import com.workplacesystems.queuj.Process;
+import com.workplacesystems.queuj.Queue;
+import com.workplacesystems.queuj.process.cluster.ClusterNode;
+import com.workplacesystems.queuj.process.cluster.PermitPool;
+
+/**
+ * Limits the number of jobs running in the queue across all the nodes of a
+ * cluster. Each running job holds one of max_concurrent permits shared by the
+ * restrictions with the same name, the local count is checked first so a full
+ * node doesn't go to the shared store. Without clustering it behaves like
+ * SimpleQueueRestriction.
+ *
+ * @author dave
+ */
+public class ClusterQueueRestriction extends SimpleQueueRestriction
+{
+    // Increase the number when an incompatible change is made
+    private static final long serialVersionUID = ClusterQueueRestriction.class.getName().hashCode() + 1;
+
+    private final String name;
+
+    private final int max_concurrent;
+
+    public ClusterQueueRestriction(String name, int max_concurrent)
+    {
+        super(max_concurrent);
+        this.name = name;
+        this.max_concurrent = max_concurrent;
+    }
+
+    @Override
+    protected boolean canRun(Queue queue, final Process process)
+    {
+        if (!super.canRun(queue, process))
+            return false;
+
+        ClusterNode node = ClusterNode.getInstance();
+        if (node == null)
+            return true;
+
+        if (PermitPool.getInstance(node, name, max_concurrent).acquire(getHolder(process)))
+            return true;
+
+        // Permits released on other nodes don't notify this queue so check again later
+        node.retryLater("notify:" + process.getQueueOwner(), new Runnable() {
+
+            public void run() {
+                process.getContainingServer().notifyQueue();
+            }
+        });
+        return false;
+    }
+
+    /**
+     * Returns the id the permits held by the process are released with.
+     */
+    public static String getHolder(Process process)
+    {
+        return process.getQueueOwner() + ":" + process.getProcessKey();
+    }
+
+    @Override
+    protected String getSelfString() {
+        return ", name = " + name + super.getSelfString();
+    }
+}
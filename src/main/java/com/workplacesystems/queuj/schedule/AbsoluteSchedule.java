@@ -61,6 +61,16 @@ public class AbsoluteSchedule extends Schedule
         return next_run;
     }
 
+    @Override
+    protected long getNextRunTime(long schedule_start, ZoneRules rules)
+    {
+        // The date is in its own zone rather than the zone of the rules
+        GregorianCalendar date = getDate();
+        ZoneRules date_rules = ZoneRules.getInstance(date.getTimeZone());
+        long day = LocalDates.floorDiv(date_rules.toWall(date.getTimeInMillis()), LocalDates.DAY);
+        return date_rules.toInstant(day * LocalDates.DAY + scheduled_hour * LocalDates.HOUR + scheduled_minute * LocalDates.MINUTE);
+    }
+
     @Override
     protected String getSelfString()
     {
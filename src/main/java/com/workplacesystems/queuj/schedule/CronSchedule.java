@@ -0,0 +1,363 @@
+/*
+ * Copyright 2010 Workplace Systems PLC (http://www.workplacesystems.com/).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.workplacesystems.queuj.schedule;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.util.GregorianCalendar;
+
+import com.workplacesystems.queuj.Occurrence;
+import com.workplacesystems.queuj.Schedule;
+
+/**
+ * Runs at the times matching a cron expression of minute, hour, day of month,
+ * month and day of week. Fields take numbers, names for months and days, *,
+ * ranges, lists and steps. The day of month also takes L for the last day,
+ * LW for the last weekday and nW for the weekday nearest day n, and the day
+ * of week takes nL for the last day n of the month and n#k for the kth day n.
+ * As with cron a day matches either day field when both are restricted. The
+ * expression is compiled into a bitset per field so finding the next run is
+ * a scan for set bits rather than a search through the minutes.
+ *
+ * @author dave
+ */
+public class CronSchedule extends Schedule
+{
+    // Increase the number when an incompatible change is made
+    private static final long serialVersionUID = CronSchedule.class.getName().hashCode() + 1;
+
+    private static final String[] MONTH_NAMES = new String[] {null, "JAN", "FEB", "MAR", "APR", "MAY", "JUN", "JUL", "AUG", "SEP", "OCT", "NOV", "DEC"};
+
+    private static final String[] DAY_NAMES = new String[] {"SUN", "MON", "TUE", "WED", "THU", "FRI", "SAT"};
+
+    /** Every 7th day from bit 0 */
+    private static final long WEEKLY = 1L | 1L << 7 | 1L << 14 | 1L << 21 | 1L << 28;
+
+    /** Longer than any repeated wall clock time */
+    private static final long OVERLAP = 3 * LocalDates.HOUR;
+
+    /** Searching further than the 400 year Gregorian cycle can't find a match */
+    private static final int MAX_MONTHS = 400 * 12;
+
+    private final String expression;
+
+    private transient long minutes;
+    private transient int hours;
+    private transient long days;
+    private transient int months;
+    private transient int days_of_week;
+
+    private transient boolean last_day;
+    private transient boolean last_weekday;
+    private transient long nearest_weekdays;
+    private transient int last_days_of_week;
+    private transient long nth_days_of_week;
+
+    /** Whether either day field starts with * in which case both must match */
+    private transient boolean any_day;
+
+    /** Creates a new instance of CronSchedule */
+    CronSchedule(String expression)
+    {
+        this.expression = expression;
+        compile();
+    }
+
+    public String getExpression()
+    {
+        return expression;
+    }
+
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException
+    {
+        in.defaultReadObject();
+        compile();
+    }
+
+    private void compile()
+    {
+        if (expression == null)
+            throw new IllegalArgumentException("No cron expression set.");
+
+        String[] fields = expandMacro(expression.trim()).toUpperCase().split("\\s+");
+        if (fields.length != 5)
+            throw new IllegalArgumentException("Cron expression must have 5 fields: " + expression);
+
+        minutes = parse(fields[0], 0, 59, null);
+        hours = (int)parse(fields[1], 0, 23, null);
+        months = (int)(parse(fields[3], 1, 12, MONTH_NAMES) >>> 1);
+
+        for (String part : fields[2].split(","))
+        {
+            if (part.equals("L"))
+                last_day = true;
+            else if (part.equals("LW"))
+                last_weekday = true;
+            else if (part.endsWith("W"))
+                nearest_weekdays |= 1L << parseValue(part.substring(0, part.length() - 1), 1, 31, null);
+            else
+                days |= parse(part, 1, 31, null);
+        }
+
+        for (String part : fields[4].split(","))
+        {
+            int hash = part.indexOf('#');
+            if (part.length() > 1 && part.endsWith("L"))
+                last_days_of_week |= 1 << (parseValue(part.substring(0, part.length() - 1), 0, 7, DAY_NAMES) % 7);
+            else if (hash > 0)
+            {
+                int day_of_week = parseValue(part.substring(0, hash), 0, 7, DAY_NAMES) % 7;
+                nth_days_of_week |= 1L << (day_of_week * 8 + parseValue(part.substring(hash + 1), 1, 5, null));
+            }
+            else
+            {
+                long bits = parse(part, 0, 7, DAY_NAMES);
+                days_of_week |= (int)((bits | bits >>> 7) & 0x7f);
+            }
+        }
+
+        any_day = isAny(fields[2]) || isAny(fields[4]);
+    }
+
+    private static String expandMacro(String expression)
+    {
+        if (expression.equals("@yearly") || expression.equals("@annually"))
+            return "0 0 1 1 *";
+        if (expression.equals("@monthly"))
+            return "0 0 1 * *";
+        if (expression.equals("@weekly"))
+            return "0 0 * * 0";
+        if (expression.equals("@daily") || expression.equals("@midnight"))
+            return "0 0 * * *";
+        if (expression.equals("@hourly"))
+            return "0 * * * *";
+        return expression;
+    }
+
+    private static boolean isAny(String field)
+    {
+        return field.startsWith("*") || field.equals("?");
+    }
+
+    /**
+     * Parse a list of values, ranges and steps into a bitset.
+     */
+    private long parse(String field, int min, int max, String[] names)
+    {
+        long bits = 0;
+        for (String part : field.split(","))
+        {
+            int step = 1;
+            int slash = part.indexOf('/');
+            if (slash >= 0)
+            {
+                step = parseValue(part.substring(slash + 1), 1, max, null);
+                part = part.substring(0, slash);
+            }
+
+            int from;
+            int to;
+            if (part.equals("*") || part.equals("?"))
+            {
+                from = min;
+                to = max;
+            }
+            else
+            {
+                int dash = part.indexOf('-');
+                from = parseValue(dash < 0 ? part : part.substring(0, dash), min, max, names);
+                to = dash < 0 ? (slash >= 0 ? max : from) : parseValue(part.substring(dash + 1), min, max, names);
+                if (to < from)
+                    throw new IllegalArgumentException("Invalid range " + part + " in cron expression: " + expression);
+            }
+
+            for (int i = from; i <= to; i += step)
+                bits |= 1L << i;
+        }
+        return bits;
+    }
+
+    private int parseValue(String value, int min, int max, String[] names)
+    {
+        if (names != null)
+        {
+            for (int i = 0; i < names.length; i++)
+            {
+                if (value.equals(names[i]))
+                    return i;
+            }
+        }
+
+        try
+        {
+            int i = Integer.parseInt(value);
+            if (i >= min && i <= max)
+                return i;
+        }
+        catch (NumberFormatException nfe) {}
+        throw new IllegalArgumentException("Invalid value " + value + " in cron expression: " + expression);
+    }
+
+    @Override
+    protected GregorianCalendar getNextRunTime(GregorianCalendar schedule_start)
+    {
+        long next_run = getNextRunTime(schedule_start.getTimeInMillis(), ZoneRules.getInstance(schedule_start.getTimeZone()));
+        if (next_run == Occurrence.NO_RUN)
+            return null;
+
+        GregorianCalendar gc = (GregorianCalendar)schedule_start.clone();
+        gc.setTimeInMillis(next_run);
+        return gc;
+    }
+
+    @Override
+    protected long getNextRunTime(long schedule_start, ZoneRules rules)
+    {
+        long wall = LocalDates.floorDiv(rules.toWall(schedule_start), LocalDates.MINUTE) * LocalDates.MINUTE + LocalDates.MINUTE;
+        while (true)
+        {
+            wall = getNextMatch(wall);
+            if (wall == Occurrence.NO_RUN)
+                return Occurrence.NO_RUN;
+
+            // Run at the first of a repeated wall clock time and skip those
+            // that a daylight saving change moves back to or before the start
+            long next_run = rules.toInstant(wall);
+            long first_run = wall - rules.getOffset(next_run - OVERLAP);
+            if (first_run < next_run && first_run > schedule_start && rules.toWall(first_run) == wall)
+                return first_run;
+            if (next_run > schedule_start)
+                return next_run;
+            wall += LocalDates.MINUTE;
+        }
+    }
+
+    /**
+     * The first wall clock time from wall that matches, NO_RUN if none does.
+     */
+    private long getNextMatch(long wall)
+    {
+        long day = LocalDates.floorDiv(wall, LocalDates.DAY);
+        int minute_of_day = (int)((wall - day * LocalDates.DAY) / LocalDates.MINUTE);
+        long date = LocalDates.toDate(day);
+        long year = LocalDates.getYear(date);
+        int month = LocalDates.getMonth(date);
+        int day_of_month = LocalDates.getDay(date);
+
+        for (int i = 0; i < MAX_MONTHS; i++)
+        {
+            if ((months & (1 << month)) != 0)
+            {
+                long day_bits = getDays(year, month) & (-1L << day_of_month);
+                while (day_bits != 0)
+                {
+                    int next_day = Long.numberOfTrailingZeros(day_bits);
+                    int time = getNextTime(next_day == day_of_month ? minute_of_day : 0);
+                    if (time >= 0)
+                        return LocalDates.toEpochDay(year, month, next_day) * LocalDates.DAY + time * LocalDates.MINUTE;
+                    day_bits &= day_bits - 1;
+                }
+            }
+
+            if (++month == 12)
+            {
+                month = 0;
+                year++;
+            }
+            day_of_month = 1;
+            minute_of_day = 0;
+        }
+        return Occurrence.NO_RUN;
+    }
+
+    /**
+     * The first matching minute of the day from minute_of_day, -1 if none.
+     */
+    private int getNextTime(int minute_of_day)
+    {
+        int hour = minute_of_day / 60;
+        int hour_bits = hours & (-1 << hour);
+        while (hour_bits != 0)
+        {
+            int next_hour = Integer.numberOfTrailingZeros(hour_bits);
+            long minute_bits = next_hour == hour ? minutes & (-1L << (minute_of_day % 60)) : minutes;
+            if (minute_bits != 0)
+                return next_hour * 60 + Long.numberOfTrailingZeros(minute_bits);
+            hour_bits &= hour_bits - 1;
+        }
+        return -1;
+    }
+
+    /**
+     * The matching days of the month as bits 1 to 31.
+     */
+    private long getDays(long year, int month)
+    {
+        int length = LocalDates.lengthOfMonth(year, month);
+        long month_bits = (1L << (length + 1)) - 2;
+        // 0 for Sunday
+        int first_day_of_week = LocalDates.getDayOfWeek(LocalDates.toEpochDay(year, month, 1)) - 1;
+
+        long day_bits = days;
+        if (last_day)
+            day_bits |= 1L << length;
+        if (last_weekday)
+            day_bits |= 1L << getNearestWeekday(length, length, first_day_of_week);
+        for (long bits = nearest_weekdays; bits != 0; bits &= bits - 1)
+        {
+            int day = Long.numberOfTrailingZeros(bits);
+            if (day <= length)
+                day_bits |= 1L << getNearestWeekday(day, length, first_day_of_week);
+        }
+        day_bits &= month_bits;
+
+        long week_bits = 0;
+        for (int day_of_week = 0; day_of_week < 7; day_of_week++)
+        {
+            // The first day of the month that is this day of the week
+            int first = (day_of_week - first_day_of_week + 7) % 7 + 1;
+            if ((days_of_week & (1 << day_of_week)) != 0)
+                week_bits |= WEEKLY << first;
+            if ((last_days_of_week & (1 << day_of_week)) != 0)
+                week_bits |= 1L << (first + 28 <= length ? first + 28 : first + 21);
+            for (int nth = 1; nth <= 5; nth++)
+            {
+                if ((nth_days_of_week & (1L << (day_of_week * 8 + nth))) != 0)
+                    week_bits |= 1L << (first + 7 * (nth - 1));
+            }
+        }
+        week_bits &= month_bits;
+
+        return any_day ? day_bits & week_bits : day_bits | week_bits;
+    }
+
+    private static int getNearestWeekday(int day, int length, int first_day_of_week)
+    {
+        int day_of_week = (first_day_of_week + day - 1) % 7;
+        if (day_of_week == 6)
+            return day == 1 ? 3 : day - 1;
+        if (day_of_week == 0)
+            return day == length ? day - 2 : day + 1;
+        return day;
+    }
+
+    @Override
+    protected String getSelfString()
+    {
+        return ", expression = " + expression;
+    }
+}
@@ -0,0 +1,48 @@
+/*
+ * Copyright 2010 Workplace Systems PLC (http://www.workplacesystems.com/).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.workplacesystems.queuj.schedule;
+
+import com.workplacesystems.queuj.Schedule;
+
+/**
+ *
+ * @author dave
+ */
+public class CronScheduleBuilder extends ScheduleBuilder
+{
+    private String expression;
+
+    /** Creates a new instance of CronScheduleBuilder */
+    CronScheduleBuilder(ScheduleSetter schedule_setter)
+    {
+        super(schedule_setter);
+    }
+
+    /**
+     * The cron expression, see {@link CronSchedule} for the syntax.
+     */
+    public void setExpression(String expression)
+    {
+        this.expression = expression;
+    }
+
+    @Override
+    Schedule newSchedule()
+    {
+        return new CronSchedule(expression);
+    }
+}
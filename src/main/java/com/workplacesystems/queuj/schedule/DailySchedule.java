@@ -72,6 +72,23 @@ public class DailySchedule extends Schedule
         return next_run;
     }
 
+    @Override
+    protected GregorianCalendar getLastRunTime(GregorianCalendar schedule_start, GregorianCalendar instant)
+    {
+        GregorianCalendar first_run = getNextRunTime(schedule_start);
+        if (first_run.after(instant))
+            return null;
+        return skipTo(first_run, instant, interval_days * 86400000L);
+    }
+
+    @Override
+    protected long getNextRunTime(long schedule_start, ZoneRules rules)
+    {
+        long day = LocalDates.floorDiv(rules.toWall(schedule_start), LocalDates.DAY);
+        long next_run = rules.toInstant(day * LocalDates.DAY + scheduled_hour * LocalDates.HOUR + scheduled_minute * LocalDates.MINUTE);
+        return rules.addDays(next_run, next_run > schedule_start ? interval_days - 1 : interval_days);
+    }
+
     @Override
     protected String getSelfString()
     {
@@ -16,6 +16,7 @@
 
 package com.workplacesystems.queuj.schedule;
 
+import java.util.Calendar;
 import java.util.GregorianCalendar;
 
 import com.workplacesystems.queuj.Schedule;
@@ -59,6 +60,40 @@ public class DelayedSchedule extends Schedule
         return next_run;
     }
 
+    @Override
+    protected long getNextRunTime(long schedule_start, ZoneRules rules)
+    {
+        if (quantity == 0)
+            return schedule_start;
+
+        switch (calendar_type)
+        {
+            case Calendar.MILLISECOND:
+                return schedule_start + quantity;
+            case Calendar.SECOND:
+                return schedule_start + quantity * 1000L;
+            case Calendar.MINUTE:
+                return schedule_start + quantity * LocalDates.MINUTE;
+            case Calendar.HOUR:
+            case Calendar.HOUR_OF_DAY:
+                return schedule_start + quantity * LocalDates.HOUR;
+            case Calendar.DAY_OF_MONTH:
+            case Calendar.DAY_OF_YEAR:
+            case Calendar.DAY_OF_WEEK:
+                return rules.addDays(schedule_start, quantity);
+            case Calendar.WEEK_OF_YEAR:
+            case Calendar.WEEK_OF_MONTH:
+            case Calendar.DAY_OF_WEEK_IN_MONTH:
+                return rules.addDays(schedule_start, 7L * quantity);
+            case Calendar.MONTH:
+                return rules.addMonths(schedule_start, quantity);
+            case Calendar.YEAR:
+                return rules.addMonths(schedule_start, 12L * quantity);
+            default:
+                return super.getNextRunTime(schedule_start, rules);
+        }
+    }
+
     @Override
     protected String getSelfString()
     {
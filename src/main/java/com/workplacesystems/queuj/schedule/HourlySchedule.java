@@ -64,6 +64,23 @@ public class HourlySchedule extends Schedule
         return next_run;
     }
 
+    @Override
+    protected GregorianCalendar getLastRunTime(GregorianCalendar schedule_start, GregorianCalendar instant)
+    {
+        GregorianCalendar first_run = getNextRunTime(schedule_start);
+        if (first_run.after(instant))
+            return null;
+        return skipTo(first_run, instant, interval_hours * 3600000L);
+    }
+
+    @Override
+    protected long getNextRunTime(long schedule_start, ZoneRules rules)
+    {
+        long wall = rules.toWall(schedule_start);
+        long next_run = rules.toInstant(LocalDates.floorDiv(wall, LocalDates.HOUR) * LocalDates.HOUR + scheduled_minute * LocalDates.MINUTE);
+        return next_run + (next_run > schedule_start ? interval_hours - 1 : interval_hours) * LocalDates.HOUR;
+    }
+
     @Override
     protected String getSelfString()
     {
@@ -0,0 +1,134 @@
+/*
+ * Copyright 2010 Workplace Systems PLC (http://www.workplacesystems.com/).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.workplacesystems.queuj.schedule;
+
+import java.util.Calendar;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Proleptic Gregorian date arithmetic on days since 1970-01-01, lenient in
+ * the same way as GregorianCalendar.
+ *
+ * @author dave
+ */
+final class LocalDates
+{
+    static final long MINUTE = 60 * 1000L;
+
+    static final long HOUR = 60 * MINUTE;
+
+    static final long DAY = 24 * HOUR;
+
+    private static final ConcurrentHashMap<Locale,Integer> first_days = new ConcurrentHashMap<Locale,Integer>();
+
+    private LocalDates() {}
+
+    static long floorDiv(long x, long y)
+    {
+        long q = x / y;
+        return (x % y != 0 && (x ^ y) < 0) ? q - 1 : q;
+    }
+
+    static int floorMod(long x, int y)
+    {
+        return (int)(x - floorDiv(x, y) * y);
+    }
+
+    /**
+     * Days since the epoch of the given date, month is 0 based as in Calendar
+     * and either may be out of range.
+     */
+    static long toEpochDay(long year, int month, int day)
+    {
+        year += floorDiv(month, 12);
+        month = floorMod(month, 12);
+
+        // Count years from March so the leap day is last
+        long y = month < 2 ? year - 1 : year;
+        long era = floorDiv(y, 400);
+        long year_of_era = y - era * 400;
+        long day_of_year = (153 * (month < 2 ? month + 10 : month - 2) + 2) / 5;
+        long day_of_era = year_of_era * 365 + year_of_era / 4 - year_of_era / 100 + day_of_year;
+        return era * 146097 + day_of_era - 719468 + day - 1;
+    }
+
+    /**
+     * The year, month (0 based) and day of month of the epoch day packed as
+     * year << 9 | month << 5 | day.
+     */
+    static long toDate(long epoch_day)
+    {
+        long z = epoch_day + 719468;
+        long era = floorDiv(z, 146097);
+        long day_of_era = z - era * 146097;
+        long year_of_era = (day_of_era - day_of_era / 1460 + day_of_era / 36524 - day_of_era / 146096) / 365;
+        long day_of_year = day_of_era - (365 * year_of_era + year_of_era / 4 - year_of_era / 100);
+        long mp = (5 * day_of_year + 2) / 153;
+        int day = (int)(day_of_year - (153 * mp + 2) / 5 + 1);
+        int month = (int)(mp < 10 ? mp + 2 : mp - 10);
+        long year = year_of_era + era * 400 + (month < 2 ? 1 : 0);
+        return year << 9 | month << 5 | day;
+    }
+
+    static long getYear(long date)
+    {
+        return date >> 9;
+    }
+
+    static int getMonth(long date)
+    {
+        return (int)(date >> 5) & 0xf;
+    }
+
+    static int getDay(long date)
+    {
+        return (int)date & 0x1f;
+    }
+
+    static int lengthOfMonth(long year, int month)
+    {
+        if (month == Calendar.FEBRUARY)
+            return (year % 4 == 0 && (year % 100 != 0 || year % 400 == 0)) ? 29 : 28;
+        return (month == Calendar.APRIL || month == Calendar.JUNE || month == Calendar.SEPTEMBER || month == Calendar.NOVEMBER) ? 30 : 31;
+    }
+
+    /**
+     * Day of the week as Calendar.SUNDAY to Calendar.SATURDAY.
+     */
+    static int getDayOfWeek(long epoch_day)
+    {
+        // 1970-01-01 was a Thursday
+        return floorMod(epoch_day + 4, 7) + 1;
+    }
+
+    /**
+     * The first day of the week of the default locale as used by a new
+     * GregorianCalendar.
+     */
+    static int getFirstDayOfWeek()
+    {
+        Locale locale = Locale.getDefault();
+        Integer first_day = first_days.get(locale);
+        if (first_day == null)
+        {
+            first_day = Integer.valueOf(Calendar.getInstance(locale).getFirstDayOfWeek());
+            first_days.put(locale, first_day);
+        }
+        return first_day.intValue();
+    }
+}
@@ -56,6 +56,23 @@ public class MinutelySchedule extends Schedule
         return next_run;
     }
 
+    @Override
+    protected GregorianCalendar getLastRunTime(GregorianCalendar schedule_start, GregorianCalendar instant)
+    {
+        GregorianCalendar first_run = getNextRunTime(schedule_start);
+        if (first_run.after(instant))
+            return null;
+        return skipTo(first_run, instant, interval_minutes * 60000L);
+    }
+
+    @Override
+    protected long getNextRunTime(long schedule_start, ZoneRules rules)
+    {
+        long wall = rules.toWall(schedule_start);
+        long next_run = rules.toInstant(LocalDates.floorDiv(wall, LocalDates.MINUTE) * LocalDates.MINUTE);
+        return next_run + (next_run > schedule_start ? interval_minutes - 1 : interval_minutes) * LocalDates.MINUTE;
+    }
+
     @Override
     protected String getSelfString()
     {
@@ -80,6 +80,15 @@ public class MonthlySchedule extends Schedule
         return next_run;
     }
 
+    @Override
+    protected long getNextRunTime(long schedule_start, ZoneRules rules)
+    {
+        long date = LocalDates.toDate(LocalDates.floorDiv(rules.toWall(schedule_start), LocalDates.DAY));
+        long day = LocalDates.toEpochDay(LocalDates.getYear(date), LocalDates.getMonth(date), scheduled_day);
+        long next_run = rules.toInstant(day * LocalDates.DAY + scheduled_hour * LocalDates.HOUR + scheduled_minute * LocalDates.MINUTE);
+        return rules.addMonths(next_run, next_run > schedule_start ? interval_months - 1 : interval_months);
+    }
+
     @Override
     protected String getSelfString()
     {
@@ -91,4 +91,10 @@ public class ScheduleFactoryImpl extends ScheduleFactory
     {
         return new VariableScheduleBuilder(schedule_setter);
     }
+
+    @Override
+    protected CronScheduleBuilder newCronScheduleBuilder(ScheduleSetter schedule_setter)
+    {
+        return new CronScheduleBuilder(schedule_setter);
+    }
 }
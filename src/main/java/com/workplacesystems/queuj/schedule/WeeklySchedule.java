@@ -80,6 +80,28 @@ public class WeeklySchedule extends Schedule
         return next_run;
     }
 
+    @Override
+    protected GregorianCalendar getLastRunTime(GregorianCalendar schedule_start, GregorianCalendar instant)
+    {
+        GregorianCalendar first_run = getNextRunTime(schedule_start);
+        if (first_run.after(instant))
+            return null;
+        return skipTo(first_run, instant, interval_weeks * 604800000L);
+    }
+
+    @Override
+    protected long getNextRunTime(long schedule_start, ZoneRules rules)
+    {
+        long day = LocalDates.floorDiv(rules.toWall(schedule_start), LocalDates.DAY);
+
+        // Move to the scheduled day in the same week
+        int first_day = LocalDates.getFirstDayOfWeek();
+        day += LocalDates.floorMod(scheduled_day - first_day, 7) - LocalDates.floorMod(LocalDates.getDayOfWeek(day) - first_day, 7);
+
+        long next_run = rules.toInstant(day * LocalDates.DAY + scheduled_hour * LocalDates.HOUR + scheduled_minute * LocalDates.MINUTE);
+        return rules.addDays(next_run, 7L * (next_run > schedule_start ? interval_weeks - 1 : interval_weeks));
+    }
+
     @Override
     protected String getSelfString()
     {
@@ -88,6 +88,15 @@ public class YearlySchedule extends Schedule
         return next_run;
     }
 
+    @Override
+    protected long getNextRunTime(long schedule_start, ZoneRules rules)
+    {
+        long date = LocalDates.toDate(LocalDates.floorDiv(rules.toWall(schedule_start), LocalDates.DAY));
+        long day = LocalDates.toEpochDay(LocalDates.getYear(date), scheduled_month, scheduled_day);
+        long next_run = rules.toInstant(day * LocalDates.DAY + scheduled_hour * LocalDates.HOUR + scheduled_minute * LocalDates.MINUTE);
+        return rules.addMonths(next_run, 12L * (next_run > schedule_start ? interval_years - 1 : interval_years));
+    }
+
     @Override
     protected String getSelfString()
     {
@@ -0,0 +1,215 @@
+/*
+ * Copyright 2010 Workplace Systems PLC (http://www.workplacesystems.com/).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.workplacesystems.queuj.schedule;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.GregorianCalendar;
+import java.util.TimeZone;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The offset changes of a TimeZone between 1900 and 2100 worked out once so
+ * schedules can convert between instants and wall clock times with a binary
+ * search instead of a GregorianCalendar. Wall clock times that are skipped or
+ * repeated by a change are resolved the same way as GregorianCalendar, which
+ * uses the offset from before a skipped hour and after a repeated one.
+ *
+ * @author dave
+ */
+public final class ZoneRules
+{
+    private static final long START = LocalDates.toEpochDay(1900, Calendar.JANUARY, 1) * LocalDates.DAY;
+
+    private static final long END = LocalDates.toEpochDay(2101, Calendar.JANUARY, 1) * LocalDates.DAY;
+
+    private static final ConcurrentHashMap<String,ZoneRules> zone_rules = new ConcurrentHashMap<String,ZoneRules>();
+
+    private final TimeZone zone;
+
+    private final int first_offset;
+
+    /** The instants the offset changes */
+    private final long[] changes;
+
+    /** The offset from each change */
+    private final int[] offsets;
+
+    /** The wall clock time GregorianCalendar starts using each offset */
+    private final long[] wall_changes;
+
+    public static ZoneRules getInstance(TimeZone zone)
+    {
+        ZoneRules rules = zone_rules.get(zone.getID());
+        if (rules == null)
+        {
+            rules = new ZoneRules((TimeZone)zone.clone());
+            ZoneRules existing = zone_rules.putIfAbsent(zone.getID(), rules);
+            if (existing != null)
+                rules = existing;
+        }
+        return rules;
+    }
+
+    /**
+     * The rules for the default time zone, as used by a new GregorianCalendar.
+     */
+    public static ZoneRules getDefault()
+    {
+        return getInstance(TimeZone.getDefault());
+    }
+
+    private ZoneRules(TimeZone zone)
+    {
+        this.zone = zone;
+
+        ArrayList<Long> change_list = new ArrayList<Long>();
+        ArrayList<Integer> offset_list = new ArrayList<Integer>();
+        first_offset = zone.getOffset(START);
+        int offset = first_offset;
+        long time = START;
+        while (time < END)
+        {
+            long next = time + LocalDates.DAY;
+            if (zone.getOffset(next) == offset)
+            {
+                time = next;
+                continue;
+            }
+
+            // Bisect the day for the first millisecond with the new offset
+            while (next - time > 1)
+            {
+                long middle = time + (next - time) / 2;
+                if (zone.getOffset(middle) == offset)
+                    time = middle;
+                else
+                    next = middle;
+            }
+            offset = zone.getOffset(next);
+            change_list.add(Long.valueOf(next));
+            offset_list.add(Integer.valueOf(offset));
+            time = next;
+        }
+
+        changes = new long[change_list.size()];
+        offsets = new int[offset_list.size()];
+        wall_changes = new long[changes.length];
+        for (int i = 0; i < changes.length; i++)
+        {
+            changes[i] = change_list.get(i).longValue();
+            offsets[i] = offset_list.get(i).intValue();
+            wall_changes[i] = changes[i] + offsets[i];
+        }
+    }
+
+    public TimeZone getTimeZone()
+    {
+        return (TimeZone)zone.clone();
+    }
+
+    /**
+     * The offset from UTC in milliseconds at the instant.
+     */
+    public int getOffset(long instant)
+    {
+        if (instant < START || instant >= END)
+            return zone.getOffset(instant);
+
+        int index = Arrays.binarySearch(changes, instant);
+        if (index < 0)
+            index = -index - 2;
+        return index < 0 ? first_offset : offsets[index];
+    }
+
+    /**
+     * The wall clock time at the instant, as milliseconds since 1970-01-01 00:00.
+     */
+    public long toWall(long instant)
+    {
+        return instant + getOffset(instant);
+    }
+
+    /**
+     * The instant of the wall clock time, as milliseconds since 1970-01-01 00:00.
+     */
+    public long toInstant(long wall)
+    {
+        if (wall < START || wall >= END)
+            return toInstantByCalendar(wall);
+
+        int index = Arrays.binarySearch(wall_changes, wall);
+        if (index < 0)
+            index = -index - 2;
+        return wall - (index < 0 ? first_offset : offsets[index]);
+    }
+
+    private long toInstantByCalendar(long wall)
+    {
+        long day = LocalDates.floorDiv(wall, LocalDates.DAY);
+        long date = LocalDates.toDate(day);
+        GregorianCalendar gc = new GregorianCalendar(zone);
+        gc.clear();
+        gc.set((int)LocalDates.getYear(date), LocalDates.getMonth(date), LocalDates.getDay(date));
+        gc.set(Calendar.MILLISECOND, (int)(wall - day * LocalDates.DAY));
+        return gc.getTimeInMillis();
+    }
+
+    /**
+     * Add days keeping the wall clock time, as GregorianCalendar.add does for
+     * the day and week fields.
+     */
+    long addDays(long instant, long days)
+    {
+        if (days == 0)
+            return instant;
+
+        int offset = getOffset(instant);
+        long wall = instant + offset;
+        long day = LocalDates.floorDiv(wall, LocalDates.DAY);
+        long time_of_day = wall - day * LocalDates.DAY;
+        day += days;
+        long next_run = day * LocalDates.DAY + time_of_day - offset;
+
+        // Keep the wall clock time across an offset change unless that
+        // moves to another day
+        int change = offset - getOffset(next_run);
+        if (change != 0 && LocalDates.floorDiv(toWall(next_run + change), LocalDates.DAY) == day)
+            return next_run + change;
+        return next_run;
+    }
+
+    /**
+     * Add months keeping the day of the month if it exists, as
+     * GregorianCalendar.add does for the month and year fields.
+     */
+    long addMonths(long instant, long months)
+    {
+        if (months == 0)
+            return instant;
+
+        long wall = toWall(instant);
+        long day = LocalDates.floorDiv(wall, LocalDates.DAY);
+        long date = LocalDates.toDate(day);
+        long month = LocalDates.getMonth(date) + months;
+        long year = LocalDates.getYear(date) + LocalDates.floorDiv(month, 12);
+        int month_of_year = LocalDates.floorMod(month, 12);
+        int day_of_month = Math.min(LocalDates.getDay(date), LocalDates.lengthOfMonth(year, month_of_year));
+        return toInstant(LocalDates.toEpochDay(year, month_of_year, day_of_month) * LocalDates.DAY + (wall - day * LocalDates.DAY));
+    }
+}
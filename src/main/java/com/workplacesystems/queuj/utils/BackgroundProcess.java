@@ -17,6 +17,7 @@
 package com.workplacesystems.queuj.utils;
 
 import com.workplacesystems.queuj.process.QueujFactory;
+import com.workplacesystems.queuj.process.jmx.Management;
 import com.workplacesystems.utilsj.Callback;
 import com.workplacesystems.utilsj.threadpool.ThreadPool;
 import com.workplacesystems.utilsj.threadpool.ThreadPoolCreator;
@@ -141,6 +142,7 @@ public abstract class BackgroundProcess implements Runnable
         {
             thread_pool = new ThreadPool(tp_creator.getThreadObjectFactory(), tp_creator.getThreadPoolConfig());
             thread_pools.put(tp_name, thread_pool);
+            Management.register(tp_name, thread_pool);
         }
         return thread_pool;
     }
@@ -0,0 +1,88 @@
+/*
+ * Copyright 2010 Workplace Systems PLC (http://www.workplacesystems.com/).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.workplacesystems.queuj.utils;
+
+import java.util.Date;
+import java.util.GregorianCalendar;
+
+/**
+ * The source of time for the engine. The implementation is selected with the
+ * system property com.workplacesystems.queuj.utils.Clock, SystemClock is used
+ * if it isn't set. Elapsed time measurements, lease expiry and attach timeouts
+ * still use the system clock.
+ *
+ * @author dave
+ */
+public abstract class Clock {
+
+    private static final Clock clock;
+
+    static {
+        Clock clock0 = null;
+
+        String implClazzStr = System.getProperty("com.workplacesystems.queuj.utils.Clock");
+        if (implClazzStr != null) {
+            try {
+                Class<Clock> implClazz = (Class<Clock>) Class.forName(implClazzStr);
+                clock0 = implClazz.newInstance();
+            }
+            catch (ClassNotFoundException ex) {
+                new QueujException(ex);
+            }
+            catch (InstantiationException ex) {
+                new QueujException(ex);
+            }
+            catch (IllegalAccessException ex) {
+                new QueujException(ex);
+            }
+        }
+
+        clock = clock0 == null ? new SystemClock() : clock0;
+    }
+
+    public static Clock getInstance() {
+        return clock;
+    }
+
+    public abstract long currentTimeMillis();
+
+    /**
+     * Wait on the monitor, which the caller must hold, until the given time.
+     * May return early so the caller should check the time again.
+     */
+    public abstract void waitUntil(Object monitor, long when) throws InterruptedException;
+
+    /**
+     * Called when a process starts running.
+     */
+    public void busy() {}
+
+    /**
+     * Called when a process has finished running and been rescheduled.
+     */
+    public void idle() {}
+
+    public GregorianCalendar newCalendar() {
+        GregorianCalendar gc = new GregorianCalendar();
+        gc.setTimeInMillis(currentTimeMillis());
+        return gc;
+    }
+
+    public Date newDate() {
+        return new Date(currentTimeMillis());
+    }
+}
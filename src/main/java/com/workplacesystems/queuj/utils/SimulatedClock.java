@@ -0,0 +1,104 @@
+/*
+ * Copyright 2010 Workplace Systems PLC (http://www.workplacesystems.com/).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.workplacesystems.queuj.utils;
+
+import java.util.TreeMap;
+
+/**
+ * Virtual time for simulating schedules. Time stands still while processes
+ * are running and jumps to the next time the scheduler is waiting for once
+ * no process has run for com.workplacesystems.queuj.utils.SimulatedClock.idleMillis
+ * (default 10) real milliseconds, so days of schedules run as fast as the
+ * processes complete. Time starts at com.workplacesystems.queuj.utils.SimulatedClock.start
+ * or the system time if it isn't set.
+ *
+ * @author dave
+ */
+public class SimulatedClock extends Clock {
+
+    private final long idleNanos = Long.getLong("com.workplacesystems.queuj.utils.SimulatedClock.idleMillis", 10L).longValue() * 1000000L;
+
+    private long now = Long.getLong("com.workplacesystems.queuj.utils.SimulatedClock.start", System.currentTimeMillis()).longValue();
+
+    private int busy = 0;
+
+    private long idle_since = System.nanoTime();
+
+    // Times being waited for and the number of waiters for each
+    private final TreeMap<Long,Integer> waiting = new TreeMap<Long,Integer>();
+
+    public synchronized long currentTimeMillis() {
+        return now;
+    }
+
+    /**
+     * Move time forward, used to drive the clock manually.
+     */
+    public synchronized void advance(long millis) {
+        if (millis > 0)
+            now += millis;
+    }
+
+    public void waitUntil(Object monitor, long when) throws InterruptedException {
+        synchronized (this) {
+            if (when <= now)
+                return;
+            Integer count = waiting.get(when);
+            waiting.put(when, count == null ? 1 : count.intValue() + 1);
+        }
+
+        try {
+            if (!advanceIfIdle())
+                monitor.wait(Math.max(1L, idleNanos / 1000000L));
+        }
+        finally {
+            synchronized (this) {
+                Integer count = waiting.remove(when);
+                if (count != null && count.intValue() > 1)
+                    waiting.put(when, count.intValue() - 1);
+            }
+        }
+    }
+
+    public synchronized void busy() {
+        busy++;
+    }
+
+    public synchronized void idle() {
+        if (busy > 0)
+            busy--;
+        idle_since = System.nanoTime();
+    }
+
+    /**
+     * The number of processes currently running.
+     */
+    public synchronized int getBusy() {
+        return busy;
+    }
+
+    private synchronized boolean advanceIfIdle() {
+        if (busy > 0 || waiting.isEmpty() || System.nanoTime() - idle_since < idleNanos)
+            return false;
+
+        long next = waiting.firstKey().longValue();
+        if (next > now)
+            now = next;
+        idle_since = System.nanoTime();
+        return true;
+    }
+}
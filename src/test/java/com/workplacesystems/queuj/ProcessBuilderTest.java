@@ -0,0 +1,70 @@
+/*
+ * Copyright 2010 Workplace Systems PLC (http://www.workplacesystems.com/).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.workplacesystems.queuj;
+
+import com.workplacesystems.queuj.occurrence.RunOnce;
+import com.workplacesystems.queuj.process.QueujFactory;
+import com.workplacesystems.queuj.process.java.JavaProcessBuilder;
+import com.workplacesystems.queuj.schedule.RelativeScheduleBuilder;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import junit.framework.TestCase;
+
+/**
+ *
+ * @author dave
+ */
+public class ProcessBuilderTest extends TestCase {
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+
+        // Init the queue
+        QueujFactory.getProcessServer((String)null, null);
+    }
+
+    public void testNewProcesses() {
+        RunOnce occurrence = new RunOnce();
+        RelativeScheduleBuilder rsb = occurrence.newRelativeScheduleBuilder();
+        rsb.setRunImmediately();
+        rsb.createSchedule();
+
+        final JavaProcessBuilder pb = QueueFactory.DEFAULT_QUEUE.newProcessBuilder(Locale.getDefault());
+        pb.setProcessDescription("Bulk Test");
+        pb.setProcessPersistence(false);
+        pb.setProcessOccurrence(occurrence);
+        pb.setProcessDetails(new EmptyRunner(), "run", new Class[] {}, new Object[] {});
+
+        List<Process<Integer>> processes = pb.newProcesses(Arrays.asList("One", "Two", "Three"), new ProcessBuilder.ItemSetup<String>() {
+
+            public void setup(String item) {
+                pb.setProcessName(item);
+            }
+        });
+
+        assertEquals(3, processes.size());
+        HashSet<String> names = new HashSet<String>();
+        for (Process<Integer> process : processes) {
+            names.add(process.getProcessName());
+            process.attach();
+        }
+        assertEquals(new HashSet<String>(Arrays.asList("One", "Two", "Three")), names);
+    }
+}
@@ -0,0 +1,62 @@
+/*
+ * Copyright 2010 Workplace Systems PLC (http://www.workplacesystems.com/).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.workplacesystems.queuj.process;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import junit.framework.TestCase;
+
+/**
+ *
+ * @author dave
+ */
+public class IdBlockAllocatorTest extends TestCase {
+
+    public void testConcurrentAllocation() throws Exception {
+        final AtomicInteger next = new AtomicInteger(1);
+        final AtomicInteger blocks = new AtomicInteger();
+        final IdBlockAllocator allocator = new IdBlockAllocator(50) {
+
+            @Override
+            protected int allocateBlock(int size) {
+                blocks.incrementAndGet();
+                return next.getAndAdd(size);
+            }
+        };
+
+        final Set<Integer> ids = Collections.synchronizedSet(new HashSet<Integer>());
+        Thread[] threads = new Thread[4];
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new Thread() {
+
+                @Override
+                public void run() {
+                    for (int j = 0; j < 1000; j++)
+                        ids.add(allocator.nextId());
+                }
+            };
+            threads[i].start();
+        }
+        for (Thread thread : threads)
+            thread.join();
+
+        assertEquals(4000, ids.size());
+        assertEquals(80, blocks.get());
+    }
+}
@@ -0,0 +1,96 @@
+/*
+ * Copyright 2010 Workplace Systems PLC (http://www.workplacesystems.com/).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.workplacesystems.queuj.process;
+
+import com.workplacesystems.queuj.EmptyRunner;
+import com.workplacesystems.queuj.Process;
+import com.workplacesystems.queuj.QueueFactory;
+import com.workplacesystems.queuj.occurrence.RunOnce;
+import com.workplacesystems.queuj.process.archive.ProcessArchive;
+import com.workplacesystems.queuj.process.java.JavaProcessBuilder;
+import com.workplacesystems.queuj.process.jpa.ProcessImpl;
+import com.workplacesystems.queuj.schedule.RelativeScheduleBuilder;
+import java.io.File;
+import java.util.Locale;
+import junit.framework.TestCase;
+
+/**
+ *
+ * @author dave
+ */
+public class ProcessArchiverTest extends TestCase {
+
+    private File directory;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+
+        directory = File.createTempFile("queuj", "archive");
+        directory.delete();
+        System.setProperty("com.workplacesystems.queuj.archive.directory", directory.getPath());
+
+        // Init the queue
+        QueujFactory.getProcessServer((String)null, null);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        if (directory.exists()) {
+            for (File f : directory.listFiles())
+                f.delete();
+            directory.delete();
+        }
+        super.tearDown();
+    }
+
+    public void testArchiveCompleted() throws Exception {
+        RunOnce occurrence = new RunOnce();
+        RelativeScheduleBuilder rsb = occurrence.newRelativeScheduleBuilder();
+        rsb.setRunImmediately();
+        rsb.createSchedule();
+
+        JavaProcessBuilder pb = QueueFactory.DEFAULT_QUEUE.newProcessBuilder(Locale.getDefault());
+        pb.setProcessName("ArchiveTest");
+        pb.setProcessDescription("Archive Test");
+        pb.setProcessPersistence(false);
+        pb.setProcessKeepCompleted(true);
+        pb.setProcessOccurrence(occurrence);
+        pb.setProcessDetails(new EmptyRunner(), "run", new Class[] {}, new Object[] {});
+
+        Process process = pb.newProcess();
+        process.attach();
+        assertTrue(process.isComplete());
+
+        ProcessImplServer server = (ProcessImplServer)process.getContainingServer();
+
+        // Wait for the runner to finish with the process
+        long end = System.currentTimeMillis() + 5000;
+        while (((ProcessWrapper)server.get(process.getProcessKey())).processRunner != null &&
+                System.currentTimeMillis() < end)
+            Thread.sleep(10);
+        Thread.sleep(10);
+
+        new ProcessArchiver(1, 60000, 100).archive(server);
+
+        assertFalse(process.exists());
+        String uuid = ((ProcessImpl)process.getProcessEntity()).getUUID();
+        ProcessImpl archived = ProcessArchive.getInstance().findProcess(null, uuid);
+        assertNotNull(archived);
+        assertEquals("ArchiveTest", archived.getProcessName());
+    }
+}
@@ -294,6 +294,11 @@ public class QueueInitialisationTest extends TestCase {
                     return null;
                 }
 
+                @Override
+                public String updateStatus() {
+                    return null;
+                }
+
                 @Override
                 public String remove() {
                     return null;
@@ -0,0 +1,95 @@
+/*
+ * Copyright 2010 Workplace Systems PLC (http://www.workplacesystems.com/).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.workplacesystems.queuj.process.archive;
+
+import com.workplacesystems.queuj.output.NoOutput;
+import com.workplacesystems.queuj.process.ProcessEntity.Status;
+import com.workplacesystems.queuj.process.jpa.ProcessImpl;
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.UUID;
+import junit.framework.TestCase;
+
+/**
+ *
+ * @author dave
+ */
+public class FileProcessArchiveTest extends TestCase {
+
+    private File directory;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        directory = File.createTempFile("queuj", "archive");
+        directory.delete();
+        System.setProperty("com.workplacesystems.queuj.archive.directory", directory.getPath());
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        if (directory.exists()) {
+            for (File f : directory.listFiles())
+                f.delete();
+            directory.delete();
+        }
+        System.clearProperty("com.workplacesystems.queuj.archive.directory");
+        super.tearDown();
+    }
+
+    private ProcessImpl newProcess(String name) {
+        ProcessImpl process = new ProcessImpl();
+        process.setProcessId(Integer.valueOf(1));
+        process.setVersion(Integer.valueOf(0));
+        process.setQueueOwnerId("owner");
+        process.setUUID(UUID.randomUUID().toString());
+        process.setProcessName(name);
+        process.setCreationTimestamp(new Date());
+        process.setStatus(Status.RUN_OK);
+        process.setLocale(Locale.UK);
+        process.setOutput(new NoOutput());
+        return process;
+    }
+
+    public void testTruncatedRecord() throws Exception {
+        new FileProcessArchive().archive("owner", Arrays.asList(newProcess("first"), newProcess("second")));
+
+        // A crash part way through writing the second record
+        File file = directory.listFiles()[0];
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            raf.setLength(raf.length() - 10);
+        }
+        finally {
+            raf.close();
+        }
+
+        FileProcessArchive archive = new FileProcessArchive();
+        archive.archive("owner", Collections.singletonList(newProcess("third")));
+
+        List<String> names = new ArrayList<String>();
+        for (ProcessImpl process : archive.findProcesses("owner"))
+            names.add(process.getProcessName());
+        assertEquals(Arrays.asList("first", "third"), names);
+    }
+}
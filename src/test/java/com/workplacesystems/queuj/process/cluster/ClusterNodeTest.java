@@ -0,0 +1,124 @@
+/*
+ * Copyright 2010 Workplace Systems PLC (http://www.workplacesystems.com/).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.workplacesystems.queuj.process.cluster;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import junit.framework.TestCase;
+
+/**
+ *
+ * @author dave
+ */
+public class ClusterNodeTest extends TestCase {
+
+    public void testSingleClaim() throws Exception {
+        LeaseStore store = new MemoryLeaseStore();
+        final ClusterNode[] nodes = new ClusterNode[3];
+        for (int i = 0; i < nodes.length; i++)
+            nodes[i] = new ClusterNode("node" + i, store, 10000);
+
+        // Every node tries to claim every process, each is only claimed once
+        final Set<String> claimed = Collections.synchronizedSet(new HashSet<String>());
+        final AtomicInteger duplicates = new AtomicInteger();
+        Thread[] threads = new Thread[nodes.length];
+        for (int i = 0; i < threads.length; i++) {
+            final ClusterNode node = nodes[i];
+            threads[i] = new Thread() {
+
+                @Override
+                public void run() {
+                    for (int j = 0; j < 1000; j++) {
+                        String key = "process:" + j;
+                        if (node.claim(key) && !claimed.add(key))
+                            duplicates.incrementAndGet();
+                    }
+                }
+            };
+            threads[i].start();
+        }
+        for (Thread thread : threads)
+            thread.join();
+
+        assertEquals(1000, claimed.size());
+        assertEquals(0, duplicates.get());
+
+        // The holder can claim again and releasing frees the lease
+        assertTrue(nodes[0].claim("process:1") || nodes[1].claim("process:1") || nodes[2].claim("process:1"));
+        for (ClusterNode node : nodes)
+            node.release("process:1");
+        assertTrue(nodes[2].claim("process:1"));
+        assertFalse(nodes[0].claim("process:1"));
+    }
+
+    public void testExpiredLeaseReclaimed() throws Exception {
+        LeaseStore store = new MemoryLeaseStore();
+        ClusterNode live = new ClusterNode("live", store, 300);
+        ClusterNode dead = new ClusterNode("dead", store, 300);
+        live.start();
+        try {
+            assertTrue(live.claim("process:1"));
+            assertTrue(dead.claim("process:2"));
+
+            final AtomicInteger retries = new AtomicInteger();
+            live.retryLater("retry", new Runnable() {
+
+                public void run() {
+                    retries.incrementAndGet();
+                }
+            });
+
+            // The dead node has no heartbeat so its lease expires, the live one is renewed
+            Thread.sleep(1000);
+            assertEquals(1, retries.get());
+            assertTrue(live.claim("process:2"));
+            assertFalse(dead.claim("process:1"));
+            assertTrue(live.holds("process:1"));
+        }
+        finally {
+            live.stop();
+        }
+    }
+
+    public void testSingleFire() throws Exception {
+        LeaseStore store = new MemoryLeaseStore();
+        ClusterNode node1 = new ClusterNode("node1", store, 200);
+        ClusterNode node2 = new ClusterNode("node2", store, 200);
+
+        // The first node to claim a fire time runs it and keeps the claim
+        assertTrue(node1.claim("fire:1:1000"));
+        assertFalse(node2.claim("fire:1:1000"));
+        node1.retain("fire:1:1000", 60000);
+
+        // A node that dies mid-run loses its claim once the lease expires
+        assertTrue(node1.claim("fire:1:1060"));
+
+        Thread.sleep(400);
+        assertFalse(node2.claim("fire:1:1000"));
+        assertTrue(node2.claim("fire:1:1060"));
+        assertTrue(node2.claim("fire:2:1000"));
+
+        // Purging only removes the expired claims
+        Thread.sleep(400);
+        store.purge(System.currentTimeMillis());
+        assertEquals(Arrays.asList("fire:1:1000"), store.findKeys("fire:", 0));
+        assertFalse(node2.claim("fire:1:1000"));
+    }
+}
@@ -0,0 +1,58 @@
+/*
+ * Copyright 2010 Workplace Systems PLC (http://www.workplacesystems.com/).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.workplacesystems.queuj.process.cluster;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import junit.framework.TestCase;
+
+/**
+ *
+ * @author dave
+ */
+public class ConsistentHashTest extends TestCase {
+
+    public void testRebalance() {
+        ConsistentHash three = new ConsistentHash(Arrays.asList("node1", "node2", "node3"), 100);
+        ConsistentHash four = new ConsistentHash(Arrays.asList("node1", "node2", "node3", "node4"), 100);
+
+        HashMap<String,Integer> counts = new HashMap<String,Integer>();
+        int moved = 0;
+        for (int i = 0; i < 3000; i++) {
+            String queueOwner = "owner" + i;
+            String before = three.getMember(queueOwner);
+            String after = four.getMember(queueOwner);
+            Integer count = counts.get(before);
+            counts.put(before, count == null ? 1 : count + 1);
+
+            // Owners only move to the new member
+            if (!before.equals(after)) {
+                assertEquals("node4", after);
+                moved++;
+            }
+        }
+
+        assertEquals(3, counts.size());
+        for (Integer count : counts.values())
+            assertTrue("Uneven spread " + counts, count > 700 && count < 1300);
+        assertTrue("Moved " + moved, moved > 450 && moved < 1050);
+    }
+
+    public void testNoMembers() {
+        assertNull(new ConsistentHash(Arrays.<String>asList(), 100).getMember("owner"));
+    }
+}
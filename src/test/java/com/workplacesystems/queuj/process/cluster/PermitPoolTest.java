@@ -0,0 +1,78 @@
+/*
+ * Copyright 2010 Workplace Systems PLC (http://www.workplacesystems.com/).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.workplacesystems.queuj.process.cluster;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import junit.framework.TestCase;
+
+/**
+ *
+ * @author dave
+ */
+public class PermitPoolTest extends TestCase {
+
+    private final AtomicInteger acquires = new AtomicInteger();
+
+    private final LeaseStore store = new MemoryLeaseStore() {
+
+        @Override
+        public synchronized boolean acquire(String key, String nodeId, long now, long expires) {
+            acquires.incrementAndGet();
+            return super.acquire(key, nodeId, now, expires);
+        }
+    };
+
+    public void testPermitsSharedByNodes() {
+        PermitPool[] pools = new PermitPool[3];
+        for (int i = 0; i < pools.length; i++)
+            pools[i] = new PermitPool(new ClusterNode("node" + i, store, 10000), "downstream", 4, 10000, 10000);
+
+        // 4 permits between the 3 nodes however many jobs each has
+        int granted = 0;
+        for (int job = 0; job < 5; job++) {
+            for (int i = 0; i < pools.length; i++) {
+                if (pools[i].acquire("node" + i + ":" + job))
+                    granted++;
+            }
+        }
+        assertEquals(4, granted);
+
+        // A full pool isn't asked for again until the retry time has passed
+        int before = acquires.get();
+        assertFalse(pools[2].acquire("node2:9"));
+        assertEquals(before, acquires.get());
+
+        // A released permit lingers on the node and is reused locally
+        pools[0].release("node0:0");
+        assertTrue(pools[0].acquire("node0:9"));
+        assertEquals(before, acquires.get());
+    }
+
+    public void testIdlePermitReleased() {
+        ClusterNode node0 = new ClusterNode("node0", store, 10000);
+        ClusterNode node1 = new ClusterNode("node1", store, 10000);
+        PermitPool pool0 = new PermitPool(node0, "downstream", 1, 0, 0);
+        PermitPool pool1 = new PermitPool(node1, "downstream", 1, 0, 0);
+
+        assertTrue(pool0.acquire("job1"));
+        assertFalse(pool1.acquire("job2"));
+        pool0.release("job1");
+        assertTrue(pool1.acquire("job2"));
+        assertEquals(1, pool1.getInUse());
+        assertEquals(0, pool0.getInUse());
+    }
+}
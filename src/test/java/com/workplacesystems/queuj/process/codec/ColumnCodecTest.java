@@ -0,0 +1,176 @@
+/*
+ * Copyright 2010 Workplace Systems PLC (http://www.workplacesystems.com/).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.workplacesystems.queuj.process.codec;
+
+import com.workplacesystems.queuj.Queue;
+import com.workplacesystems.queuj.QueueFactory;
+import com.workplacesystems.queuj.occurrence.RunFiniteTimes;
+import com.workplacesystems.queuj.occurrence.RunWeekly;
+import com.workplacesystems.queuj.process.jpa.ProcessImpl;
+import com.workplacesystems.queuj.schedule.RelativeScheduleBuilder;
+import com.workplacesystems.queuj.schedule.WeeklyScheduleBuilder;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.GregorianCalendar;
+import java.util.Locale;
+import java.util.TreeMap;
+import junit.framework.TestCase;
+
+/**
+ *
+ * @author dave
+ */
+public class ColumnCodecTest extends TestCase {
+
+    private ColumnCodec codec;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        codec = new CompactColumnCodec();
+    }
+
+    public void testLocale() {
+        byte[] data = codec.encode(Locale.UK);
+        assertEquals(Locale.UK, codec.decode(data));
+        assertTrue(data.length < 16);
+    }
+
+    public void testOccurrence() {
+        RunWeekly runWeekly = new RunWeekly();
+        WeeklyScheduleBuilder weeklyScheduleBuilder = runWeekly.newSchedulerBuilder();
+        weeklyScheduleBuilder.setScheduledDay(GregorianCalendar.MONDAY);
+        weeklyScheduleBuilder.setScheduledHour(9);
+        weeklyScheduleBuilder.setScheduledMinute(30);
+        weeklyScheduleBuilder.createSchedule();
+
+        RunWeekly decoded = (RunWeekly)codec.decode(codec.encode(runWeekly));
+        GregorianCalendar start = new GregorianCalendar(2012, 0, 1, 12, 0, 0);
+        assertEquals(runWeekly.getNextRunTime(start, 0), decoded.getNextRunTime(start, 0));
+    }
+
+    public void testQueue() {
+        Queue queue = QueueFactory.DEFAULT_QUEUE;
+        byte[] compact = codec.encode(queue);
+        byte[] legacy = new JavaSerializationCodec().encode(queue);
+        assertTrue(compact.length < legacy.length);
+        assertNotNull(codec.decode(compact));
+    }
+
+    public void testLegacyRows() throws Exception {
+        RunFiniteTimes occurrence = new RunFiniteTimes(2);
+        RelativeScheduleBuilder rsb = occurrence.newRelativeScheduleBuilder();
+        rsb.setRunDelayHours(1);
+        rsb.createSchedule();
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ObjectOutputStream out = new ObjectOutputStream(bytes);
+        out.writeObject(occurrence);
+        out.close();
+
+        RunFiniteTimes decoded = (RunFiniteTimes)codec.decode(bytes.toByteArray());
+        GregorianCalendar start = new GregorianCalendar(2012, 0, 1, 12, 0, 0);
+        assertEquals(occurrence.getNextRunTime(start, 0), decoded.getNextRunTime(start, 0));
+    }
+
+    /** The shape of a class when some rows were written. */
+    static class Old implements Serializable {
+        private static final long serialVersionUID = 1L;
+        private String name;
+        private int count;
+        private long removed;
+    }
+
+    /** A compatible later version of Old with the same serialVersionUID. */
+    static class New implements Serializable {
+        private static final long serialVersionUID = 1L;
+        private Integer added;
+        private int count;
+        private String name;
+    }
+
+    public void testOlderClassVersion() throws Exception {
+        Old old = new Old();
+        old.name = "queuj";
+        old.count = 7;
+        old.removed = 42L;
+
+        // Rewrite the stored class name to simulate the class having changed since the row was written
+        byte[] data = codec.encode(old);
+        byte[] oldName = Old.class.getName().getBytes("UTF-8");
+        byte[] newName = New.class.getName().getBytes("UTF-8");
+        int pos = indexOf(data, oldName);
+        assertTrue(pos > 0);
+        System.arraycopy(newName, 0, data, pos, newName.length);
+
+        New decoded = (New)codec.decode(data);
+        assertEquals("queuj", decoded.name);
+        assertEquals(7, decoded.count);
+        assertNull(decoded.added);
+    }
+
+    private static int indexOf(byte[] data, byte[] pattern) {
+        for (int i = 0; i <= data.length - pattern.length; i++) {
+            if (Arrays.equals(pattern, Arrays.copyOfRange(data, i, i + pattern.length)))
+                return i;
+        }
+        return -1;
+    }
+
+    public void testStoredBytesKept() throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ObjectOutputStream out = new ObjectOutputStream(bytes);
+        out.writeObject(Locale.UK);
+        out.close();
+        byte[] legacy = bytes.toByteArray();
+
+        // A legacy row must read back unchanged so it isn't seen as dirty
+        ProcessImpl process = new ProcessImpl();
+        process.setLocaleData(legacy);
+        assertEquals(Locale.UK, process.getLocale());
+        assertSame(legacy, process.getLocaleData());
+
+        process.setLocale(Locale.FRANCE);
+        byte[] encoded = process.getLocaleData();
+        assertSame(encoded, process.getLocaleData());
+        assertEquals(Locale.FRANCE, codec.decode(encoded));
+    }
+
+    enum Level {
+        LOW,
+        HIGH {
+            @Override
+            public String toString() {
+                return "high";
+            }
+        }
+    }
+
+    public void testEnum() {
+        assertSame(Level.LOW, codec.decode(codec.encode(Level.LOW)));
+        assertSame(Level.HIGH, codec.decode(codec.encode(Level.HIGH)));
+    }
+
+    public void testUnregisteredType() {
+        assertEquals("x", codec.decode(codec.encode("x")));
+        TreeMap<String,Integer> map = new TreeMap<String,Integer>();
+        map.put("a", 1);
+        assertEquals(map, codec.decode(codec.encode(map)));
+    }
+}
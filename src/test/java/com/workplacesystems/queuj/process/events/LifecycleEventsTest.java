@@ -0,0 +1,135 @@
+/*
+ * Copyright 2010 Workplace Systems PLC (http://www.workplacesystems.com/).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.workplacesystems.queuj.process.events;
+
+import com.workplacesystems.queuj.EmptyRunner;
+import com.workplacesystems.queuj.Process;
+import com.workplacesystems.queuj.QueueFactory;
+import com.workplacesystems.queuj.occurrence.RunOnce;
+import com.workplacesystems.queuj.process.QueujFactory;
+import com.workplacesystems.queuj.process.java.JavaProcessBuilder;
+import com.workplacesystems.queuj.schedule.RelativeScheduleBuilder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import junit.framework.TestCase;
+
+/**
+ *
+ * @author dave
+ */
+public class LifecycleEventsTest extends TestCase {
+
+    public void testRingBuffer() throws Exception {
+        final RingBuffer buffer = new RingBuffer(1000);
+        assertEquals(1024, buffer.getCapacity());
+
+        final int producers = 4;
+        final int events = 100000;
+        Thread[] threads = new Thread[producers];
+        for (int i = 0; i < producers; i++) {
+            final Integer producer = new Integer(i);
+            threads[i] = new Thread() {
+
+                @Override
+                public void run() {
+                    for (int value = 0; value < events; value++)
+                        buffer.publish(LifecycleEvent.Type.STATUS, producer, null, value);
+                }
+            };
+            threads[i].start();
+        }
+
+        final long[] last = new long[producers];
+        final long[] next = new long[] { 0 };
+        final int[] count = new int[] { 0 };
+        LifecycleListener listener = new LifecycleListener() {
+
+            public void eventRecorded(LifecycleEvent event) {
+                assertEquals(next[0]++, event.getSequence());
+                int producer = ((Integer)event.getKey()).intValue();
+                assertTrue(event.getValue() >= last[producer]);
+                last[producer] = event.getValue();
+                count[0]++;
+            }
+        };
+
+        boolean alive = true;
+        while (alive) {
+            alive = false;
+            for (Thread thread : threads)
+                alive |= thread.isAlive();
+            buffer.drain(listener);
+        }
+        buffer.drain(listener);
+
+        assertEquals(producers * events, count[0] + buffer.getDropped());
+    }
+
+    public void testProcessEvents() throws Exception {
+        QueujFactory.getProcessServer((String)null, null);
+
+        final List<String> recorded = Collections.synchronizedList(new ArrayList<String>());
+        LifecycleListener listener = new LifecycleListener() {
+
+            public void eventRecorded(LifecycleEvent event) {
+                if (event.getType() == LifecycleEvent.Type.COMMITTED)
+                    recorded.add(event.getType().toString());
+                else if (event.getType() == LifecycleEvent.Type.STATUS)
+                    recorded.add(event.getKey() + " " + event.getDetail());
+                else
+                    recorded.add(event.getKey() + " " + event.getType());
+            }
+        };
+        LifecycleEvents.addListener(listener);
+        try {
+            RunOnce occurrence = new RunOnce();
+            RelativeScheduleBuilder rsb = occurrence.newRelativeScheduleBuilder();
+            rsb.setRunImmediately();
+            rsb.createSchedule();
+
+            JavaProcessBuilder pb = QueueFactory.DEFAULT_QUEUE.newProcessBuilder(Locale.getDefault());
+            pb.setProcessName("Events Test");
+            pb.setProcessPersistence(false);
+            pb.setProcessOccurrence(occurrence);
+            pb.setProcessDetails(new EmptyRunner(), "run", new Class[] {}, new Object[] {});
+            Process<Integer> process = pb.newProcess();
+            process.attach();
+
+            Object key = process.getProcessKey();
+            String[] expected = new String[] { key + " RUNNING", key + " SECTION_START", key + " SECTION_END", key + " RUN_OK", "COMMITTED" };
+            long end = System.currentTimeMillis() + 5000;
+            while (!recorded.containsAll(Arrays.asList(expected)) && System.currentTimeMillis() < end)
+                Thread.sleep(10);
+
+            int index = -1;
+            for (String event : expected) {
+                int next = recorded.indexOf(event);
+                assertTrue(event + " in " + recorded, next >= 0);
+                if (!event.equals("COMMITTED"))
+                    assertTrue(event + " in " + recorded, next > index);
+                index = next;
+            }
+        }
+        finally {
+            LifecycleEvents.removeListener(listener);
+        }
+        assertFalse(LifecycleEvents.isEnabled());
+    }
+}
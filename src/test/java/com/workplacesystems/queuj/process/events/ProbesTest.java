@@ -0,0 +1,94 @@
+/*
+ * Copyright 2010 Workplace Systems PLC (http://www.workplacesystems.com/).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.workplacesystems.queuj.process.events;
+
+import com.workplacesystems.queuj.EmptyRunner;
+import com.workplacesystems.queuj.Process;
+import com.workplacesystems.queuj.QueueFactory;
+import com.workplacesystems.queuj.occurrence.RunOnce;
+import com.workplacesystems.queuj.process.QueujFactory;
+import com.workplacesystems.queuj.process.java.JavaProcessBuilder;
+import com.workplacesystems.queuj.schedule.RelativeScheduleBuilder;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import junit.framework.TestCase;
+
+/**
+ *
+ * @author dave
+ */
+public class ProbesTest extends TestCase {
+
+    static {
+        System.setProperty("com.workplacesystems.queuj.process.events.Probe", RecordingProbe.class.getName());
+    }
+
+    private static final List<String> recorded = Collections.synchronizedList(new ArrayList<String>());
+
+    public static class RecordingProbe extends Probe {
+
+        @Override
+        public void admission(long start, long end, Object processKey, boolean admitted) {
+            assertTrue(end >= start);
+            recorded.add("admission " + processKey + " " + admitted);
+        }
+
+        @Override
+        public void section(long start, long end, Object processKey, String processName, int resultCode) {
+            assertTrue(end >= start);
+            recorded.add("section " + processKey + " " + processName + " " + resultCode);
+        }
+
+        @Override
+        public void committed(long start, long end, int processes) {
+            assertTrue(end >= start);
+            recorded.add("committed");
+        }
+
+        @Override
+        public void lockWaited(long start, long end, String lock) {
+            assertTrue(end >= start);
+            recorded.add(lock);
+        }
+    }
+
+    public void testProbe() {
+        assertTrue(Probes.isEnabled());
+        QueujFactory.getProcessServer((String)null, null);
+
+        RunOnce occurrence = new RunOnce();
+        RelativeScheduleBuilder rsb = occurrence.newRelativeScheduleBuilder();
+        rsb.setRunImmediately();
+        rsb.createSchedule();
+
+        JavaProcessBuilder pb = QueueFactory.DEFAULT_QUEUE.newProcessBuilder(Locale.getDefault());
+        pb.setProcessName("Probe Test");
+        pb.setProcessPersistence(false);
+        pb.setProcessOccurrence(occurrence);
+        pb.setProcessDetails(new EmptyRunner(), "run", new Class[] {}, new Object[] {});
+        Process<Integer> process = pb.newProcess();
+        process.attach();
+
+        Object key = process.getProcessKey();
+        assertTrue(recorded.toString(), recorded.contains("admission " + key + " true"));
+        assertTrue(recorded.toString(), recorded.contains("section " + key + " Probe Test 0"));
+        assertTrue(recorded.toString(), recorded.contains("committed"));
+        assertTrue(recorded.toString(), recorded.contains("indexes write"));
+    }
+}
@@ -0,0 +1,210 @@
+/*
+ * Copyright 2010 Workplace Systems PLC (http://www.workplacesystems.com/).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.workplacesystems.queuj.process.jdbc;
+
+import com.workplacesystems.queuj.process.cluster.ClusterNode;
+import com.workplacesystems.queuj.utils.QueujException;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.Statement;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import junit.framework.TestCase;
+import org.h2.jdbcx.JdbcDataSource;
+
+/**
+ *
+ * @author dave
+ */
+public class JDBCLeaseStoreTest extends TestCase {
+
+    private static final String URL = "jdbc:h2:mem:leaseTest;DB_CLOSE_DELAY=-1;LOCK_TIMEOUT=10000";
+
+    private JdbcDataSource dataSource;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        dataSource = new JdbcDataSource();
+        dataSource.setURL(URL);
+        execute("create table process_lease (lease_key varchar(255) not null primary key, node_id varchar(255) not null, expires bigint not null)");
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        execute("drop table process_lease");
+        super.tearDown();
+    }
+
+    private void execute(String sql) throws Exception {
+        Connection connection = DriverManager.getConnection(URL);
+        try {
+            Statement statement = connection.createStatement();
+            statement.execute(sql);
+            statement.close();
+        }
+        finally {
+            connection.close();
+        }
+    }
+
+    private ClusterNode[] nodes(int count, long leaseTime) {
+        ClusterNode[] nodes = new ClusterNode[count];
+        for (int i = 0; i < nodes.length; i++)
+            nodes[i] = new ClusterNode("node" + i, new JDBCLeaseStore(dataSource), leaseTime);
+        return nodes;
+    }
+
+    public void testRacingAcquires() throws Exception {
+        ClusterNode[] nodes = nodes(4, 10000);
+
+        // Every node races for every key, most of the inserts collide
+        final Set<String> claimed = Collections.synchronizedSet(new HashSet<String>());
+        final AtomicInteger duplicates = new AtomicInteger();
+        final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+        final CountDownLatch go = new CountDownLatch(1);
+        Thread[] threads = new Thread[nodes.length];
+        for (int i = 0; i < threads.length; i++) {
+            final ClusterNode node = nodes[i];
+            threads[i] = new Thread() {
+
+                @Override
+                public void run() {
+                    try {
+                        go.await();
+                        for (int j = 0; j < 200; j++) {
+                            String key = "process:" + j;
+                            if (node.claim(key) && !claimed.add(key))
+                                duplicates.incrementAndGet();
+                        }
+                    }
+                    catch (Throwable t) {
+                        failure.compareAndSet(null, t);
+                    }
+                }
+            };
+            threads[i].start();
+        }
+        go.countDown();
+        for (Thread thread : threads)
+            thread.join();
+
+        assertNull(failure.get());
+        assertEquals(200, claimed.size());
+        assertEquals(0, duplicates.get());
+        assertEquals(200, nodes[0].getLeaseStore().findKeys("process:", System.currentTimeMillis()).size());
+    }
+
+    public void testTakeoverAfterExpiry() throws Exception {
+        ClusterNode[] nodes = nodes(2, 200);
+        ClusterNode dead = nodes[0];
+        ClusterNode live = nodes[1];
+
+        assertTrue(dead.claim("process:1"));
+        assertFalse(live.claim("process:1"));
+
+        // The dead node has no heartbeat so its row expires and the update takes it over
+        Thread.sleep(400);
+        assertTrue(live.claim("process:1"));
+        assertFalse(dead.claim("process:1"));
+
+        // Released leases are inserted again by the next claim
+        live.release("process:1");
+        assertTrue(dead.claim("process:1"));
+    }
+
+    public void testLeaseLostOnRenew() throws Exception {
+        ClusterNode[] nodes = nodes(2, 200);
+        ClusterNode slow = nodes[0];
+        ClusterNode other = nodes[1];
+
+        assertTrue(slow.claim("process:1"));
+        assertTrue(slow.claim("process:2"));
+        slow.heartbeat();
+        assertTrue(slow.holds("process:1"));
+
+        // The heartbeat runs too late, the other node has taken one lease by then
+        Thread.sleep(400);
+        assertTrue(other.claim("process:1"));
+        slow.heartbeat();
+        assertFalse(slow.holds("process:1"));
+        assertTrue(slow.holds("process:2"));
+        assertTrue(other.holds("process:1"));
+
+        // The renewed lease can't be taken
+        assertFalse(other.claim("process:2"));
+    }
+
+    public void testClaimTogether() throws Exception {
+        ClusterNode[] nodes = nodes(2, 10000);
+
+        assertEquals(2, nodes[0].claim(Arrays.asList("process:1", "fire:1:1000")));
+        assertEquals(0, nodes[1].claim(Arrays.asList("process:1", "fire:1:1000")));
+        nodes[0].release("process:1");
+
+        // The process lease is kept when the fire is already claimed
+        assertEquals(1, nodes[1].claim(Arrays.asList("process:1", "fire:1:1000")));
+        assertTrue(nodes[1].holds("process:1"));
+        assertFalse(nodes[1].holds("fire:1:1000"));
+        assertFalse(nodes[0].claim("process:1"));
+    }
+
+    public void testPooledConnections() throws Exception {
+        System.setProperty("com.workplacesystems.queuj.jdbc.url", URL);
+        try {
+            JDBCLeaseStore store = new JDBCLeaseStore();
+            long now = System.currentTimeMillis();
+            for (int i = 0; i < 10; i++)
+                assertTrue(store.acquire("process:" + i, "node1", now, now + 60000));
+            assertFalse(store.acquire("process:1", "node2", now, now + 60000));
+            assertEquals(10, store.findKeys("process:", now).size());
+        }
+        finally {
+            System.clearProperty("com.workplacesystems.queuj.jdbc.url");
+        }
+    }
+
+    public void testFindAndPurge() throws Exception {
+        JDBCLeaseStore store = new JDBCLeaseStore(dataSource);
+        long now = System.currentTimeMillis();
+        assertTrue(store.acquire("fire:1:1000", "node1", now, now + 60000));
+        assertTrue(store.acquire("fire:1:1060", "node1", now, now - 1));
+        assertTrue(store.acquire("process:1", "node1", now, now + 60000));
+
+        assertEquals(Arrays.asList("fire:1:1000"), store.findKeys("fire:", now));
+        store.purge(now);
+        assertEquals(Arrays.asList("fire:1:1000"), store.findKeys("fire:", 0));
+    }
+
+    public void testInsertErrorNotTreatedAsHeld() throws Exception {
+        JDBCLeaseStore store = new JDBCLeaseStore(dataSource);
+        char[] chars = new char[300];
+        Arrays.fill(chars, 'x');
+        String tooLong = new String(chars);
+        long now = System.currentTimeMillis();
+        try {
+            store.acquire(tooLong, "node1", now, now + 60000);
+            fail("The insert error should have been thrown");
+        }
+        catch (QueujException e) {}
+    }
+}
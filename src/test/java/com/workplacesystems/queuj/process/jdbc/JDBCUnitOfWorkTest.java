@@ -0,0 +1,346 @@
+/*
+ * Copyright 2010 Workplace Systems PLC (http://www.workplacesystems.com/).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.workplacesystems.queuj.process.jdbc;
+
+import com.workplacesystems.queuj.output.NoOutput;
+import com.workplacesystems.queuj.process.ProcessEntity.Status;
+import com.workplacesystems.queuj.process.jpa.ProcessImpl;
+import com.workplacesystems.queuj.utils.QueujException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.Locale;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicBoolean;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.Persistence;
+import junit.framework.TestCase;
+
+/**
+ *
+ * @author dave
+ */
+public class JDBCUnitOfWorkTest extends TestCase {
+
+    private static final String URL = "jdbc:h2:mem:queujTest;DB_CLOSE_DELAY=-1";
+
+    private static final String NEXT_ID_SQL = "select coalesce(max(process_id), 0) + 1 from process";
+
+    // The JPA mapping creates the process table shared by both implementations
+    private EntityManagerFactory emf;
+
+    private AtomicBoolean batchCountsReported;
+
+    private boolean noInfo;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        emf = Persistence.createEntityManagerFactory("queujTest");
+        batchCountsReported = new AtomicBoolean(true);
+        noInfo = false;
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        emf.close();
+        super.tearDown();
+    }
+
+    private JDBCUnitOfWork unit() throws SQLException {
+        return unit(null);
+    }
+
+    private JDBCUnitOfWork unit(String nextIdSql) throws SQLException {
+        Connection connection = DriverManager.getConnection(URL);
+        connection.setAutoCommit(false);
+        return new JDBCUnitOfWork(connection, null, nextIdSql, batchCountsReported);
+    }
+
+    private Integer insert() throws SQLException {
+        return insert(null);
+    }
+
+    private Integer insert(String nextIdSql) throws SQLException {
+        ProcessImpl process = new ProcessImpl();
+        process.setQueueOwnerId("owner");
+        process.setUUID(UUID.randomUUID().toString());
+        process.setProcessName("test");
+        process.setCreationTimestamp(new Date());
+        process.setStatus(Status.NOT_RUN);
+        process.setLocale(Locale.UK);
+        process.setOutput(new NoOutput());
+
+        JDBCUnitOfWork unit = unit(nextIdSql);
+        try {
+            unit.insert(process);
+            unit.commit();
+        }
+        finally {
+            unit.close();
+        }
+        return process.getProcessId();
+    }
+
+    private ProcessImpl find(Integer processId) throws SQLException {
+        JDBCUnitOfWork unit = unit();
+        try {
+            return unit.find(processId);
+        }
+        finally {
+            unit.close();
+        }
+    }
+
+    public void testInsert() throws Exception {
+        assertInserted(insert());
+    }
+
+    public void testBatchedInsert() throws Exception {
+        Integer first = insert();
+        // Knowing the id up front lets the insert wait for the commit
+        assertEquals(Integer.valueOf(first.intValue() + 1), insert(NEXT_ID_SQL));
+        assertInserted(Integer.valueOf(first.intValue() + 1));
+    }
+
+    private void assertInserted(Integer processId) throws Exception {
+        ProcessImpl process = find(processId);
+        assertEquals(Integer.valueOf(0), process.getVersion());
+        assertEquals("owner", process.getQueueOwnerId());
+        assertEquals("test", process.getProcessName());
+        assertEquals(Status.NOT_RUN, process.getStatus());
+        assertEquals(Locale.UK, process.getLocale());
+        assertTrue(process.getOutput() instanceof NoOutput);
+    }
+
+    public void testUpdate() throws Exception {
+        Integer processId = insert();
+
+        JDBCUnitOfWork unit = unit();
+        try {
+            ProcessImpl process = unit.find(processId);
+            process.setDescription("updated");
+            process.setLocale(Locale.FRANCE);
+            unit.update(process);
+            unit.commit();
+            assertEquals(Integer.valueOf(1), process.getVersion());
+
+            // The snapshot moves on so the next update starts from the new values
+            process.setStatus(Status.RUNNING);
+            unit.update(process);
+            unit.commit();
+            assertEquals(Integer.valueOf(2), process.getVersion());
+        }
+        finally {
+            unit.close();
+        }
+
+        ProcessImpl process = find(processId);
+        assertEquals(Integer.valueOf(2), process.getVersion());
+        assertEquals("updated", process.getDescription());
+        assertEquals(Locale.FRANCE, process.getLocale());
+        assertEquals(Status.RUNNING, process.getStatus());
+    }
+
+    public void testStatusUpdate() throws Exception {
+        Integer processId = insert();
+
+        JDBCUnitOfWork unit = unit();
+        try {
+            ProcessImpl process = unit.find(processId);
+            process.setStatus(Status.RUN_OK);
+            process.setRunCount(1);
+            unit.updateStatus(process);
+            unit.commit();
+        }
+        finally {
+            unit.close();
+        }
+
+        ProcessImpl process = find(processId);
+        assertEquals(Integer.valueOf(1), process.getVersion());
+        assertEquals(Status.RUN_OK, process.getStatus());
+        assertEquals(1, process.getRunCount());
+    }
+
+    public void testStatusUpdateWritesOtherChanges() throws Exception {
+        Integer processId = insert();
+
+        JDBCUnitOfWork unit = unit();
+        try {
+            ProcessImpl process = unit.find(processId);
+            process.setStatus(Status.RUNNING);
+            process.setLocale(Locale.FRANCE);
+            unit.updateStatus(process);
+            unit.commit();
+        }
+        finally {
+            unit.close();
+        }
+
+        ProcessImpl process = find(processId);
+        assertEquals(Status.RUNNING, process.getStatus());
+        assertEquals(Locale.FRANCE, process.getLocale());
+    }
+
+    public void testDelete() throws Exception {
+        Integer processId = insert();
+
+        JDBCUnitOfWork unit = unit();
+        try {
+            unit.delete(unit.find(processId));
+            unit.commit();
+        }
+        finally {
+            unit.close();
+        }
+
+        assertNull(find(processId));
+    }
+
+    public void testVersionConflict() throws Exception {
+        assertVersionConflict();
+        assertTrue(batchCountsReported.get());
+    }
+
+    public void testVersionConflictWithoutBatchCounts() throws Exception {
+        noInfo = true;
+        assertVersionConflict();
+        assertFalse(batchCountsReported.get());
+    }
+
+    public void testUpdateWithoutBatchCounts() throws Exception {
+        noInfo = true;
+        Integer processId = insert();
+
+        JDBCUnitOfWork unit = noInfoUnit();
+        try {
+            ProcessImpl process = unit.find(processId);
+            process.setDescription("updated");
+            unit.update(process);
+            unit.commit();
+            assertFalse(batchCountsReported.get());
+
+            // Later commits go straight to individual statements
+            process.setStatus(Status.RUNNING);
+            unit.update(process);
+            unit.commit();
+        }
+        finally {
+            unit.close();
+        }
+
+        ProcessImpl process = find(processId);
+        assertEquals(Integer.valueOf(2), process.getVersion());
+        assertEquals("updated", process.getDescription());
+        assertEquals(Status.RUNNING, process.getStatus());
+    }
+
+    private void assertVersionConflict() throws Exception {
+        Integer updatedId = insert();
+        Integer deletedId = insert();
+
+        JDBCUnitOfWork stale = noInfoUnit();
+        try {
+            ProcessImpl staleUpdated = stale.find(updatedId);
+            ProcessImpl staleDeleted = stale.find(deletedId);
+
+            JDBCUnitOfWork unit = unit();
+            try {
+                ProcessImpl process = unit.find(updatedId);
+                process.setDescription("first");
+                unit.update(process);
+                unit.commit();
+            }
+            finally {
+                unit.close();
+            }
+
+            staleUpdated.setDescription("second");
+            stale.update(staleUpdated);
+            stale.delete(staleDeleted);
+            try {
+                stale.commit();
+                fail("Stale version should have been rejected.");
+            }
+            catch (QueujException qe) {
+                stale.rollback();
+            }
+        }
+        finally {
+            stale.close();
+        }
+
+        ProcessImpl process = find(updatedId);
+        assertEquals(Integer.valueOf(1), process.getVersion());
+        assertEquals("first", process.getDescription());
+        assertNotNull(find(deletedId));
+    }
+
+    /**
+     * A unit whose connection reports SUCCESS_NO_INFO for every statement of a
+     * batch while noInfo is set, like some drivers do.
+     */
+    private JDBCUnitOfWork noInfoUnit() throws SQLException {
+        final Connection connection = DriverManager.getConnection(URL);
+        connection.setAutoCommit(false);
+        Connection proxy = proxy(Connection.class, new InvocationHandler() {
+            public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                Object result = delegate(connection, method, args);
+                if (method.getName().equals("prepareStatement"))
+                    return noInfoStatement((PreparedStatement)result);
+                return result;
+            }
+        });
+        return new JDBCUnitOfWork(proxy, null, null, batchCountsReported);
+    }
+
+    private PreparedStatement noInfoStatement(final PreparedStatement ps) {
+        return proxy(PreparedStatement.class, new InvocationHandler() {
+            public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                Object result = delegate(ps, method, args);
+                if (method.getName().equals("executeBatch") && noInfo) {
+                    int[] counts = new int[((int[])result).length];
+                    Arrays.fill(counts, Statement.SUCCESS_NO_INFO);
+                    return counts;
+                }
+                return result;
+            }
+        });
+    }
+
+    private static Object delegate(Object target, Method method, Object[] args) throws Throwable {
+        try {
+            return method.invoke(target, args);
+        }
+        catch (InvocationTargetException e) {
+            throw e.getCause();
+        }
+    }
+
+    private static <T> T proxy(Class<T> type, InvocationHandler handler) {
+        return type.cast(Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[] { type }, handler));
+    }
+}
@@ -0,0 +1,78 @@
+/*
+ * Copyright 2010 Workplace Systems PLC (http://www.workplacesystems.com/).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.workplacesystems.queuj.process.jmx;
+
+import com.workplacesystems.queuj.EmptyRunner;
+import com.workplacesystems.queuj.Process;
+import com.workplacesystems.queuj.Queue;
+import com.workplacesystems.queuj.QueueFactory;
+import com.workplacesystems.queuj.occurrence.RunOnce;
+import com.workplacesystems.queuj.process.ProcessImplServer;
+import com.workplacesystems.queuj.process.QueueState;
+import com.workplacesystems.queuj.process.QueujFactory;
+import com.workplacesystems.queuj.process.java.JavaProcessBuilder;
+import com.workplacesystems.queuj.schedule.RelativeScheduleBuilder;
+import java.util.Locale;
+import junit.framework.TestCase;
+
+/**
+ *
+ * @author dave
+ */
+public class QueueMonitorTest extends TestCase {
+
+    public void testPauseQueue() throws Exception {
+        ProcessImplServer<Integer> server = (ProcessImplServer<Integer>)QueujFactory.getProcessServer((String)null, null);
+        Queue<JavaProcessBuilder> queue = QueueFactory.DEFAULT_QUEUE.newQueueBuilder().newQueue();
+
+        RunOnce occurrence = new RunOnce();
+        RelativeScheduleBuilder rsb = occurrence.newRelativeScheduleBuilder();
+        rsb.setRunImmediately();
+        rsb.createSchedule();
+
+        server.pauseQueue(queue);
+        QueueState state = null;
+        for (QueueState queueState : server.getQueueStates()) {
+            if (queueState.getQueue().equals(queue))
+                state = queueState;
+        }
+        QueueMonitor monitor = new QueueMonitor(server, state);
+        assertTrue(monitor.isPaused());
+
+        JavaProcessBuilder pb = queue.newProcessBuilder(Locale.getDefault());
+        pb.setProcessName("Paused Test");
+        pb.setProcessPersistence(false);
+        pb.setProcessOccurrence(occurrence);
+        pb.setProcessDetails(new EmptyRunner(), "run", new Class[] {}, new Object[] {});
+        Process<Integer> process = pb.newProcess();
+
+        assertFalse(process.attach(500));
+        assertTrue(process.isNotRun());
+        assertEquals(1, monitor.getNotRunCount());
+        assertEquals(1, monitor.getReadyCount());
+        assertEquals(0, monitor.getRunningCount());
+
+        monitor.resume();
+        process.attach();
+        assertTrue(process.isComplete());
+        assertFalse(monitor.isPaused());
+        assertEquals(0, monitor.getNotRunCount());
+        assertEquals(0, monitor.getReadyCount());
+        assertEquals(0, monitor.getParkedCount());
+        assertEquals(0, monitor.getRunningCount());
+    }
+}
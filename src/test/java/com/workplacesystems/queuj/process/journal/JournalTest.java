@@ -0,0 +1,193 @@
+/*
+ * Copyright 2010 Workplace Systems PLC (http://www.workplacesystems.com/).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.workplacesystems.queuj.process.journal;
+
+import com.workplacesystems.queuj.process.ProcessEntity.Status;
+import com.workplacesystems.queuj.process.jpa.ProcessImpl;
+import com.workplacesystems.queuj.utils.QueujException;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.Collections;
+import java.util.Date;
+import java.util.Locale;
+import java.util.UUID;
+import junit.framework.TestCase;
+
+/**
+ *
+ * @author dave
+ */
+public class JournalTest extends TestCase {
+
+    private File directory;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        directory = File.createTempFile("queuj", "journal");
+        directory.delete();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        for (File f : directory.listFiles())
+            f.delete();
+        directory.delete();
+        super.tearDown();
+    }
+
+    private Journal open(long snapshotSize) throws Exception {
+        Journal journal = new Journal(directory, Journal.SyncMode.COMMIT, snapshotSize, 4096);
+        journal.open();
+        return journal;
+    }
+
+    private ProcessImpl newProcess(Journal journal) {
+        ProcessImpl process = new ProcessImpl();
+        process.setProcessId(Integer.valueOf(journal.nextProcessId()));
+        process.setVersion(Integer.valueOf(0));
+        process.setQueueOwnerId("owner");
+        process.setUUID(UUID.randomUUID().toString());
+        process.setProcessName("test");
+        process.setCreationTimestamp(new Date());
+        process.setStatus(Status.NOT_RUN);
+        process.setLocale(Locale.UK);
+        return process;
+    }
+
+    public void testReplay() throws Exception {
+        Journal journal = open(1024 * 1024);
+        ProcessImpl process = newProcess(journal);
+        journal.commit(Collections.singletonList(process), Collections.<ProcessImpl>emptyList());
+        process.setRunCount(3);
+        journal.commit(Collections.singletonList(process), Collections.<ProcessImpl>emptyList());
+        ProcessImpl deleted = newProcess(journal);
+        journal.commit(Collections.singletonList(deleted), Collections.<ProcessImpl>emptyList());
+        journal.commit(Collections.<ProcessImpl>emptyList(), Collections.singletonList(deleted));
+
+        Journal reopened = open(1024 * 1024);
+        ProcessImpl replayed = reopened.get(process.getProcessId()).toProcess();
+        assertEquals(process.getUUID(), replayed.getUUID());
+        assertEquals(3, replayed.getRunCount());
+        assertEquals(Integer.valueOf(1), replayed.getVersion());
+        assertEquals(Locale.UK, replayed.getLocale());
+        assertNull(reopened.get(deleted.getProcessId()));
+        assertTrue(reopened.nextProcessId() > deleted.getProcessId().intValue());
+    }
+
+    public void testStaleVersion() throws Exception {
+        Journal journal = open(1024 * 1024);
+        ProcessImpl process = newProcess(journal);
+        journal.commit(Collections.singletonList(process), Collections.<ProcessImpl>emptyList());
+        ProcessImpl stale = journal.get(process.getProcessId()).toProcess();
+        journal.commit(Collections.singletonList(process), Collections.<ProcessImpl>emptyList());
+
+        try {
+            journal.commit(Collections.singletonList(stale), Collections.<ProcessImpl>emptyList());
+            fail("Stale update was committed.");
+        }
+        catch (QueujException qe) {}
+    }
+
+    public void testStatusUpdate() throws Exception {
+        Journal journal = open(1024 * 1024);
+        ProcessImpl process = newProcess(journal);
+        journal.commit(Collections.singletonList(process), Collections.<ProcessImpl>emptyList());
+        process.setStatus(Status.RUNNING);
+        process.setRunCount(2);
+        journal.commit(Collections.singletonList(process), Collections.singleton(process.getProcessId()), Collections.<ProcessImpl>emptyList());
+
+        ProcessImpl replayed = open(1024 * 1024).get(process.getProcessId()).toProcess();
+        assertEquals(Status.RUNNING, replayed.getStatus());
+        assertEquals(2, replayed.getRunCount());
+        assertEquals(Integer.valueOf(1), replayed.getVersion());
+        assertEquals(Locale.UK, replayed.getLocale());
+    }
+
+    public void testStatusUpdateWritesOtherChanges() throws Exception {
+        Journal journal = open(1024 * 1024);
+        ProcessImpl process = newProcess(journal);
+        journal.commit(Collections.singletonList(process), Collections.<ProcessImpl>emptyList());
+        process.setStatus(Status.RUNNING);
+        process.setLocale(Locale.FRANCE);
+        journal.commit(Collections.singletonList(process), Collections.singleton(process.getProcessId()), Collections.<ProcessImpl>emptyList());
+
+        ProcessImpl replayed = open(1024 * 1024).get(process.getProcessId()).toProcess();
+        assertEquals(Status.RUNNING, replayed.getStatus());
+        // The process was modified so it's written in full
+        assertEquals(Locale.FRANCE, replayed.getLocale());
+    }
+
+    public void testSnapshot() throws Exception {
+        Journal journal = open(2048);
+        for (int i = 0; i < 100; i++)
+            journal.commit(Collections.singletonList(newProcess(journal)), Collections.<ProcessImpl>emptyList());
+
+        // Wait for the background snapshot
+        long end = System.currentTimeMillis() + 10000;
+        while (!new File(directory, "snapshot").exists() && System.currentTimeMillis() < end)
+            Thread.sleep(10);
+        Thread.sleep(100);
+
+        Journal reopened = open(1024 * 1024);
+        assertEquals(100, reopened.getRows("owner").size());
+    }
+
+    public void testSnapshotLeftUnrenamed() throws Exception {
+        Journal journal = open(2048);
+        for (int i = 0; i < 100; i++)
+            journal.commit(Collections.singletonList(newProcess(journal)), Collections.<ProcessImpl>emptyList());
+
+        long end = System.currentTimeMillis() + 10000;
+        while (!new File(directory, "snapshot").exists() && System.currentTimeMillis() < end)
+            Thread.sleep(10);
+        Thread.sleep(100);
+
+        // As if the old snapshot was deleted but the new one not yet renamed
+        assertTrue(new File(directory, "snapshot").renameTo(new File(directory, "snapshot.tmp")));
+
+        Journal reopened = open(1024 * 1024);
+        assertEquals(100, reopened.getRows("owner").size());
+    }
+
+    public void testTruncatedSnapshotTmp() throws Exception {
+        Journal journal = open(1024 * 1024);
+        ProcessImpl process = newProcess(journal);
+        journal.commit(Collections.singletonList(process), Collections.<ProcessImpl>emptyList());
+
+        // A crash while the first snapshot was being written
+        File tmp = new File(directory, "snapshot.tmp");
+        DataOutputStream out = new DataOutputStream(new FileOutputStream(tmp));
+        try {
+            out.writeInt(Journal.SNAPSHOT_MAGIC);
+            out.writeByte(Journal.SNAPSHOT_VERSION);
+            out.writeLong(1);
+            out.writeInt(1000);
+            out.writeInt(10);
+        }
+        finally {
+            out.close();
+        }
+
+        Journal reopened = open(1024 * 1024);
+        assertEquals(Locale.UK, reopened.get(process.getProcessId()).toProcess().getLocale());
+        assertEquals(1, reopened.getRows("owner").size());
+        assertEquals(process.getProcessId().intValue() + 1, reopened.nextProcessId());
+        assertFalse(tmp.exists());
+    }
+}
@@ -0,0 +1,272 @@
+/*
+ * Copyright 2010 Workplace Systems PLC (http://www.workplacesystems.com/).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.workplacesystems.queuj.process.jpa;
+
+import com.workplacesystems.queuj.process.ProcessEntity.Status;
+import com.workplacesystems.queuj.utils.QueujException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.EntityTransaction;
+import javax.persistence.Query;
+import junit.framework.TestCase;
+
+/**
+ *
+ * @author dave
+ */
+public class GroupCommitterTest extends TestCase {
+
+    private FakeDatabase database;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        database = new FakeDatabase();
+    }
+
+    private ProcessImpl newProcess(int id) {
+        ProcessImpl process = new ProcessImpl();
+        process.setProcessId(Integer.valueOf(id));
+        process.setVersion(Integer.valueOf(0));
+        process.setUUID(UUID.randomUUID().toString());
+        process.setStatus(Status.NOT_RUN);
+        database.versions.put(Integer.valueOf(id), Integer.valueOf(0));
+        return process;
+    }
+
+    private GroupCommitter.Unit update(ProcessImpl process) {
+        GroupCommitter.Unit unit = new GroupCommitter.Unit();
+        unit.update(process);
+        return unit;
+    }
+
+    public void testBatching() throws Exception {
+        final GroupCommitter committer = new GroupCommitter(database.emf(), 5000, 3);
+        final ProcessImpl[] processes = { newProcess(1), newProcess(2), newProcess(3) };
+
+        List<Throwable> failures = commitConcurrently(committer, new GroupCommitter.Unit[] {
+            update(processes[0]), update(processes[1]), update(processes[2]) });
+
+        assertTrue(failures.isEmpty());
+        assertEquals(1, database.commits);
+        for (ProcessImpl process : processes) {
+            assertEquals(Integer.valueOf(1), database.versions.get(process.getProcessId()));
+            assertEquals(Integer.valueOf(1), process.getVersion());
+        }
+    }
+
+    public void testStatusUpdate() {
+        GroupCommitter committer = new GroupCommitter(database.emf(), 0, 1);
+        ProcessImpl process = newProcess(1);
+        GroupCommitter.Unit unit = new GroupCommitter.Unit();
+        unit.updateStatus(process);
+
+        committer.commit(unit);
+        assertEquals(Integer.valueOf(1), database.versions.get(process.getProcessId()));
+        assertEquals(Integer.valueOf(1), process.getVersion());
+
+        // The instance carries the new version so can be written again
+        committer.commit(unit);
+        assertEquals(Integer.valueOf(2), database.versions.get(process.getProcessId()));
+    }
+
+    public void testVersionConflict() {
+        GroupCommitter committer = new GroupCommitter(database.emf(), 0, 1);
+        ProcessImpl process = newProcess(1);
+        database.versions.put(process.getProcessId(), Integer.valueOf(5));
+
+        try {
+            committer.commit(update(process));
+            fail("Stale version should have been rejected.");
+        }
+        catch (RuntimeException re) {}
+        assertEquals(0, database.commits);
+        assertEquals(Integer.valueOf(5), database.versions.get(process.getProcessId()));
+        assertEquals(Integer.valueOf(0), process.getVersion());
+    }
+
+    public void testFallbackToIndividualCommits() throws Exception {
+        GroupCommitter committer = new GroupCommitter(database.emf(), 5000, 3);
+        ProcessImpl good1 = newProcess(1);
+        ProcessImpl stale = newProcess(2);
+        ProcessImpl good2 = newProcess(3);
+        database.versions.put(stale.getProcessId(), Integer.valueOf(5));
+
+        List<Throwable> failures = commitConcurrently(committer, new GroupCommitter.Unit[] {
+            update(good1), update(stale), update(good2) });
+
+        // The batch is rolled back then each unit is retried on its own
+        assertEquals(1, failures.size());
+        assertEquals(2, database.commits);
+        assertEquals(Integer.valueOf(1), database.versions.get(good1.getProcessId()));
+        assertEquals(Integer.valueOf(1), database.versions.get(good2.getProcessId()));
+        assertEquals(Integer.valueOf(5), database.versions.get(stale.getProcessId()));
+    }
+
+    public void testInterruptPreserved() throws Exception {
+        GroupCommitter committer = new GroupCommitter(database.emf(), 0, 1);
+        Thread.currentThread().interrupt();
+        committer.commit(update(newProcess(1)));
+        assertTrue(Thread.interrupted());
+        assertEquals(1, database.commits);
+    }
+
+    private List<Throwable> commitConcurrently(final GroupCommitter committer, GroupCommitter.Unit[] units) throws Exception {
+        final List<Throwable> failures = new ArrayList<Throwable>();
+        Thread[] threads = new Thread[units.length];
+        for (int i = 0; i < units.length; i++) {
+            final GroupCommitter.Unit unit = units[i];
+            threads[i] = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        committer.commit(unit);
+                    }
+                    catch (Throwable t) {
+                        synchronized (failures) {
+                            failures.add(t);
+                        }
+                    }
+                }
+            };
+            threads[i].start();
+        }
+        for (Thread thread : threads)
+            thread.join(10000);
+        return failures;
+    }
+
+    /**
+     * Minimal stand in for a database holding the version of each process row.
+     * Writes are only applied when the transaction commits.
+     */
+    private static class FakeDatabase {
+
+        private final Map<Integer,Integer> versions = new HashMap<Integer,Integer>();
+
+        private int commits = 0;
+
+        private synchronized void commit(Map<Integer,Integer> written, List<ProcessImpl> merged) {
+            versions.putAll(written);
+            for (ProcessImpl process : merged)
+                process.setVersion(written.get(process.getProcessId()));
+            commits++;
+        }
+
+        private synchronized void checkVersion(ProcessImpl process) {
+            if (!process.getVersion().equals(versions.get(process.getProcessId())))
+                throw new QueujException("Process " + process.getProcessId() + " is stale.");
+        }
+
+        private synchronized boolean matches(Object processId, Object version) {
+            return version.equals(versions.get(processId));
+        }
+
+        EntityManagerFactory emf() {
+            return proxy(EntityManagerFactory.class, new InvocationHandler() {
+                public Object invoke(Object proxy, Method method, Object[] args) {
+                    if (method.getName().equals("createEntityManager"))
+                        return entityManager();
+                    throw new UnsupportedOperationException(method.getName());
+                }
+            });
+        }
+
+        private EntityManager entityManager() {
+            final Map<Integer,Integer> written = new HashMap<Integer,Integer>();
+            final List<ProcessImpl> merged = new ArrayList<ProcessImpl>();
+            final boolean[] active = { false };
+
+            final EntityTransaction transaction = proxy(EntityTransaction.class, new InvocationHandler() {
+                public Object invoke(Object proxy, Method method, Object[] args) {
+                    String name = method.getName();
+                    if (name.equals("begin"))
+                        active[0] = true;
+                    else if (name.equals("commit")) {
+                        commit(written, merged);
+                        active[0] = false;
+                    }
+                    else if (name.equals("rollback")) {
+                        written.clear();
+                        active[0] = false;
+                    }
+                    else if (name.equals("isActive"))
+                        return Boolean.valueOf(active[0]);
+                    return null;
+                }
+            });
+
+            return proxy(EntityManager.class, new InvocationHandler() {
+                public Object invoke(Object proxy, Method method, Object[] args) {
+                    String name = method.getName();
+                    if (name.equals("getTransaction"))
+                        return transaction;
+                    if (name.equals("merge")) {
+                        ProcessImpl process = (ProcessImpl)args[0];
+                        checkVersion(process);
+                        ProcessImpl copy = new ProcessImpl();
+                        copy.setProcessId(process.getProcessId());
+                        copy.setVersion(process.getVersion());
+                        copy.setUUID(process.getUUID());
+                        written.put(process.getProcessId(), Integer.valueOf(process.getVersion().intValue() + 1));
+                        merged.add(copy);
+                        return copy;
+                    }
+                    if (name.equals("remove"))
+                        return null;
+                    if (name.equals("createQuery"))
+                        return statusQuery(written);
+                    if (name.equals("close"))
+                        return null;
+                    throw new UnsupportedOperationException(name);
+                }
+            });
+        }
+
+        private Query statusQuery(final Map<Integer,Integer> written) {
+            final Map<String,Object> parameters = new HashMap<String,Object>();
+            return proxy(Query.class, new InvocationHandler() {
+                public Object invoke(Object proxy, Method method, Object[] args) {
+                    if (method.getName().equals("setParameter")) {
+                        parameters.put((String)args[0], args[1]);
+                        return proxy;
+                    }
+                    if (method.getName().equals("executeUpdate")) {
+                        Object processId = parameters.get("processId");
+                        if (!matches(processId, parameters.get("version")))
+                            return Integer.valueOf(0);
+                        written.put((Integer)processId, (Integer)parameters.get("newVersion"));
+                        return Integer.valueOf(1);
+                    }
+                    throw new UnsupportedOperationException(method.getName());
+                }
+            });
+        }
+
+        private static <T> T proxy(Class<T> type, InvocationHandler handler) {
+            return type.cast(Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[] { type }, handler));
+        }
+    }
+}
@@ -0,0 +1,177 @@
+/*
+ * Copyright 2010 Workplace Systems PLC (http://www.workplacesystems.com/).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.workplacesystems.queuj.process.jpa;
+
+import com.workplacesystems.queuj.output.NoOutput;
+import com.workplacesystems.queuj.process.ProcessEntity;
+import com.workplacesystems.queuj.process.ProcessEntity.Status;
+import com.workplacesystems.queuj.process.ProcessPersistence;
+import com.workplacesystems.queuj.process.QueujFactory;
+import com.workplacesystems.queuj.process.QueujTransaction;
+import com.workplacesystems.utilsj.Callback;
+import java.util.Date;
+import java.util.Locale;
+import java.util.UUID;
+import junit.framework.TestCase;
+
+/**
+ *
+ * @author dave
+ */
+public class JPAFactoryTest extends TestCase {
+
+    static {
+        System.setProperty("com.workplacesystems.queuj.QueujFactory", JPAFactory.class.getName());
+        System.setProperty("com.workplacesystems.queuj.jpa.persistenceUnitName", "queujTest");
+    }
+
+    private abstract static class Action extends Callback<Void> {
+
+        @Override
+        protected void doAction() {
+            action(getPersistence());
+        }
+
+        protected abstract void action(ProcessPersistence<ProcessEntity<Integer>,Integer> home);
+    }
+
+    private static ProcessPersistence<ProcessEntity<Integer>,Integer> getPersistence() {
+        return (ProcessPersistence<ProcessEntity<Integer>,Integer>)QueujFactory.getPersistence("owner", null);
+    }
+
+    private static void doTransaction(Callback<Void> callback) {
+        ((QueujTransaction<Integer>)QueujFactory.getTransaction()).doTransaction("owner", true, callback, false);
+    }
+
+    private Integer insert() {
+        final Integer[] processId = new Integer[1];
+        doTransaction(new Action() {
+            @Override
+            protected void action(ProcessPersistence<ProcessEntity<Integer>,Integer> home) {
+                ProcessImpl process = (ProcessImpl)home.getInstance();
+                process.setQueueOwnerId("owner");
+                process.setUUID(UUID.randomUUID().toString());
+                process.setProcessName("test");
+                process.setCreationTimestamp(new Date());
+                process.setStatus(Status.NOT_RUN);
+                process.setLocale(Locale.UK);
+                process.setOutput(new NoOutput());
+                home.persist();
+                processId[0] = process.getProcessId();
+            }
+        });
+        return processId[0];
+    }
+
+    private ProcessImpl find(final Integer processId) {
+        final ProcessImpl[] process = new ProcessImpl[1];
+        doTransaction(new Action() {
+            @Override
+            protected void action(ProcessPersistence<ProcessEntity<Integer>,Integer> home) {
+                home.setId(processId);
+                process[0] = (ProcessImpl)home.getInstance();
+            }
+        });
+        return process[0];
+    }
+
+    public void testStatusUpdate() {
+        final Integer processId = insert();
+
+        doTransaction(new Action() {
+            @Override
+            protected void action(ProcessPersistence<ProcessEntity<Integer>,Integer> home) {
+                home.setId(processId);
+                ProcessImpl process = (ProcessImpl)home.getInstance();
+                assertFalse(process.isModified());
+                process.setStatus(Status.RUNNING);
+                process.setResultCode(3);
+                home.updateStatus();
+                assertEquals(Integer.valueOf(1), process.getVersion());
+            }
+        });
+
+        ProcessImpl process = find(processId);
+        assertEquals(Status.RUNNING, process.getStatus());
+        assertEquals(3, process.getResultCode());
+        assertEquals(Integer.valueOf(1), process.getVersion());
+    }
+
+    public void testStatusUpdateWritesOtherChanges() {
+        final Integer processId = insert();
+
+        doTransaction(new Action() {
+            @Override
+            protected void action(ProcessPersistence<ProcessEntity<Integer>,Integer> home) {
+                home.setId(processId);
+                ProcessImpl process = (ProcessImpl)home.getInstance();
+                process.setStatus(Status.RUNNING);
+                process.setLocale(Locale.FRANCE);
+                home.updateStatus();
+            }
+        });
+
+        ProcessImpl process = find(processId);
+        assertEquals(Status.RUNNING, process.getStatus());
+        assertEquals(Locale.FRANCE, process.getLocale());
+        assertEquals(Integer.valueOf(1), process.getVersion());
+    }
+
+    public void testUpdateAfterStatusUpdate() {
+        final Integer processId = insert();
+
+        doTransaction(new Action() {
+            @Override
+            protected void action(ProcessPersistence<ProcessEntity<Integer>,Integer> home) {
+                home.setId(processId);
+                ProcessImpl process = (ProcessImpl)home.getInstance();
+                process.setStatus(Status.RUNNING);
+                home.updateStatus();
+
+                process.setDescription("updated");
+                home.update();
+                assertEquals(Integer.valueOf(2), process.getVersion());
+
+                process.setStatus(Status.RUN_OK);
+                home.updateStatus();
+            }
+        });
+
+        ProcessImpl process = find(processId);
+        assertEquals(Status.RUN_OK, process.getStatus());
+        assertEquals("updated", process.getDescription());
+        assertEquals(Integer.valueOf(3), process.getVersion());
+    }
+
+    public void testRemoveAfterStatusUpdate() {
+        final Integer processId = insert();
+
+        doTransaction(new Action() {
+            @Override
+            protected void action(ProcessPersistence<ProcessEntity<Integer>,Integer> home) {
+                home.setId(processId);
+                ProcessImpl process = (ProcessImpl)home.getInstance();
+                process.setStatus(Status.RUN_OK);
+                home.updateStatus();
+                home.remove();
+            }
+        });
+
+        // Nothing is found so a new process is returned
+        assertNull(find(processId).getProcessId());
+    }
+}
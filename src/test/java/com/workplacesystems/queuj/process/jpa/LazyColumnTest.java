@@ -0,0 +1,178 @@
+/*
+ * Copyright 2010 Workplace Systems PLC (http://www.workplacesystems.com/).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.workplacesystems.queuj.process.jpa;
+
+import com.workplacesystems.queuj.output.NoOutput;
+import com.workplacesystems.queuj.process.ProcessEntity.Status;
+import com.workplacesystems.queuj.process.QueujFactoryImpl;
+import com.workplacesystems.queuj.process.codec.ColumnCodec;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.UUID;
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.Query;
+import junit.framework.TestCase;
+
+/**
+ *
+ * @author dave
+ */
+public class LazyColumnTest extends TestCase {
+
+    private static final byte[] OUTPUT = ColumnCodec.getInstance().encode(new NoOutput());
+
+    private static final List<String> queries = new ArrayList<String>();
+
+    private static final List<String> calls = new ArrayList<String>();
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        System.setProperty("com.workplacesystems.queuj.QueujFactory", TestQueujFactory.class.getName());
+        queries.clear();
+        calls.clear();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        System.clearProperty("com.workplacesystems.queuj.QueujFactory");
+        super.tearDown();
+    }
+
+    public void testStartupSkipsPayload() {
+        List<ProcessImpl> processes = new ProcessImplDAO(entityManager()).findProcesses("owner");
+
+        assertEquals(1, processes.size());
+        ProcessImpl process = processes.get(0);
+        assertEquals(Integer.valueOf(12), process.getProcessId());
+        assertEquals(Integer.valueOf(3), process.getVersion());
+        assertEquals("test", process.getProcessName());
+        assertEquals(Status.NOT_RUN, process.getStatus());
+        assertEquals(2, process.getRunCount());
+
+        // Only the header columns are selected and nothing is left managed
+        assertEquals(1, queries.size());
+        assertFalse(queries.get(0).contains("parametersData"));
+        assertFalse(queries.get(0).contains("outputData"));
+        assertEquals(Collections.singletonList("createQuery"), calls);
+    }
+
+    public void testPayloadLoadedOnDemand() {
+        ProcessImpl process = new ProcessImplDAO(entityManager()).findProcesses("owner").get(0);
+        queries.clear();
+
+        assertTrue(process.getOutput() instanceof NoOutput);
+        assertTrue(process.getOutput() instanceof NoOutput);
+        assertSame(process.getOutputData(), process.getOutputData());
+        assertEquals(1, queries.size());
+        assertTrue(queries.get(0).contains("outputData"));
+
+        process.evictPayload();
+        assertTrue(process.getOutput() instanceof NoOutput);
+        assertEquals(2, queries.size());
+    }
+
+    public void testPayloadNotEvictedUntilStored() {
+        ProcessImpl process = new ProcessImpl();
+        process.setProcessId(Integer.valueOf(12));
+        process.setOutput(new NoOutput());
+
+        // Not yet written so there's nothing to reload it from
+        process.evictPayload();
+        assertTrue(process.getOutput() instanceof NoOutput);
+
+        process.getOutputData();
+        process.evictPayload();
+        assertTrue(process.getOutput() instanceof NoOutput);
+        assertEquals(1, queries.size());
+    }
+
+    public void testDetachedDAOClosesEntityManager() {
+        final int[] opened = { 0 };
+        EntityManagerFactory emf = proxy(EntityManagerFactory.class, new InvocationHandler() {
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                if (method.getName().equals("createEntityManager")) {
+                    opened[0]++;
+                    return entityManager();
+                }
+                throw new UnsupportedOperationException(method.getName());
+            }
+        });
+
+        DetachedProcessImplDAO dao = new DetachedProcessImplDAO(emf);
+        assertNotNull(dao.findProcessColumn(Integer.valueOf(12), "outputData"));
+        assertEquals(1, dao.findProcesses("owner").size());
+        assertEquals(2, opened[0]);
+        assertEquals(2, Collections.frequency(calls, "close"));
+    }
+
+    /**
+     * An EntityManager holding a single process row.
+     */
+    static EntityManager entityManager() {
+        return proxy(EntityManager.class, new InvocationHandler() {
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                calls.add(method.getName());
+                if (method.getName().equals("createQuery"))
+                    return query((String)args[0]);
+                if (method.getName().equals("close"))
+                    return null;
+                throw new UnsupportedOperationException(method.getName());
+            }
+        });
+    }
+
+    private static Query query(final String ql) {
+        queries.add(ql);
+        return proxy(Query.class, new InvocationHandler() {
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                String name = method.getName();
+                if (name.equals("setParameter") || name.equals("setMaxResults"))
+                    return proxy;
+                if (name.equals("getSingleResult"))
+                    return OUTPUT;
+                if (name.equals("getResultList")) {
+                    Object[] row = new Object[] { Integer.valueOf(12), Integer.valueOf(3), "owner", UUID.randomUUID().toString(),
+                        "test", new Date(), null, null, null, null, null, null, Status.NOT_RUN, null, null, null, null,
+                        Integer.valueOf(0), Integer.valueOf(2), Integer.valueOf(0), Boolean.FALSE, Boolean.TRUE };
+                    List<Object[]> rows = new ArrayList<Object[]>();
+                    rows.add(row);
+                    return rows;
+                }
+                throw new UnsupportedOperationException(name);
+            }
+        });
+    }
+
+    private static <T> T proxy(Class<T> type, InvocationHandler handler) {
+        return type.cast(Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[] { type }, handler));
+    }
+
+    public static class TestQueujFactory extends QueujFactoryImpl {
+
+        @Override
+        protected ProcessDAO getProcessDAO0() {
+            return new ProcessImplDAO(entityManager());
+        }
+    }
+}
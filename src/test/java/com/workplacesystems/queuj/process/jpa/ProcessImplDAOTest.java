@@ -0,0 +1,164 @@
+/*
+ * Copyright 2010 Workplace Systems PLC (http://www.workplacesystems.com/).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.workplacesystems.queuj.process.jpa;
+
+import com.workplacesystems.queuj.output.NoOutput;
+import com.workplacesystems.queuj.process.ProcessEntity.Status;
+import com.workplacesystems.queuj.process.QueujFactoryImpl;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.UUID;
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.Persistence;
+import junit.framework.TestCase;
+
+/**
+ *
+ * @author dave
+ */
+public class ProcessImplDAOTest extends TestCase {
+
+    private static EntityManagerFactory emf;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        System.setProperty("com.workplacesystems.queuj.QueujFactory", TestQueujFactory.class.getName());
+        emf = Persistence.createEntityManagerFactory("queujTest");
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        emf.close();
+        System.clearProperty("com.workplacesystems.queuj.QueujFactory");
+        super.tearDown();
+    }
+
+    private List<Integer> insert(Date... creationTimestamps) {
+        List<Integer> ids = new ArrayList<Integer>();
+        EntityManager em = emf.createEntityManager();
+        try {
+            em.getTransaction().begin();
+            for (Date creationTimestamp : creationTimestamps) {
+                ProcessImpl process = new ProcessImpl();
+                process.setQueueOwnerId("owner");
+                process.setUUID(UUID.randomUUID().toString());
+                process.setProcessName("test");
+                process.setCreationTimestamp(creationTimestamp);
+                process.setStatus(Status.NOT_RUN);
+                process.setLocale(Locale.UK);
+                process.setOutput(new NoOutput());
+                em.persist(process);
+                em.flush();
+                ids.add(process.getProcessId());
+            }
+            em.getTransaction().commit();
+        }
+        finally {
+            em.close();
+        }
+        return ids;
+    }
+
+    public void testKeysetPagingWithSharedTimestamps() {
+        Date t1 = new Date(1300000000000L);
+        Date t2 = new Date(1300000001000L);
+        Date t3 = new Date(1300000002000L);
+        // Four rows share t2 so they straddle page boundaries for every page size
+        List<Integer> ids = insert(t1, t2, t2, t2, t2, t3);
+
+        for (int pageSize = 1; pageSize <= ids.size() + 1; pageSize++) {
+            EntityManager em = emf.createEntityManager();
+            try {
+                ProcessImplDAO dao = new ProcessImplDAO(em);
+                List<Integer> paged = new ArrayList<Integer>();
+                ProcessImpl last = null;
+                List<ProcessImpl> page;
+                do {
+                    page = dao.findProcesses("owner", last, pageSize);
+                    for (ProcessImpl process : page)
+                        paged.add(process.getProcessId());
+                    if (!page.isEmpty())
+                        last = page.get(page.size() - 1);
+                }
+                while (page.size() == pageSize);
+
+                assertEquals("Page size " + pageSize, ids, paged);
+            }
+            finally {
+                em.close();
+            }
+        }
+    }
+
+    public void testEarlierPagesUsableAfterClear() {
+        Date t = new Date(1300000000000L);
+        List<Integer> ids = insert(t, t, t, t);
+
+        EntityManager em = emf.createEntityManager();
+        try {
+            ProcessImplDAO dao = new ProcessImplDAO(em);
+            List<ProcessImpl> page1 = dao.findProcesses("owner", null, 2);
+            ProcessImpl registered = page1.get(0);
+            assertFalse(em.contains(registered));
+
+            // Starting a recovered process runs a transaction on the same EntityManager
+            em.getTransaction().begin();
+            ProcessImpl started = em.find(ProcessImpl.class, registered.getProcessId());
+            started.setStatus(Status.RUNNING);
+            em.getTransaction().commit();
+
+            // Reading the next page clears the EntityManager
+            List<ProcessImpl> page2 = dao.findProcesses("owner", page1.get(1), 2);
+            assertEquals(ids.subList(2, 4), idsOf(page2));
+
+            // The registered process still holds its columns and loads its payload on demand
+            assertEquals("test", registered.getProcessName());
+            assertEquals(Locale.UK, registered.getLocale());
+            assertTrue(registered.getOutput() instanceof NoOutput);
+
+            // and is found again by the next transaction that updates it
+            em.getTransaction().begin();
+            ProcessImpl running = em.find(ProcessImpl.class, registered.getProcessId());
+            assertEquals(Status.RUNNING, running.getStatus());
+            running.setStatus(Status.RUN_OK);
+            em.getTransaction().commit();
+            assertEquals(Integer.valueOf(2), running.getVersion());
+        }
+        finally {
+            em.close();
+        }
+    }
+
+    private static List<Integer> idsOf(List<ProcessImpl> processes) {
+        List<Integer> ids = new ArrayList<Integer>();
+        for (ProcessImpl process : processes)
+            ids.add(process.getProcessId());
+        return ids;
+    }
+
+    public static class TestQueujFactory extends QueujFactoryImpl {
+
+        @Override
+        protected ProcessDAO getProcessDAO0() {
+            return new DetachedProcessImplDAO(emf);
+        }
+    }
+}
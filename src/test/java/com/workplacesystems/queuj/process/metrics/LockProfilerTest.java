@@ -0,0 +1,134 @@
+/*
+ * Copyright 2010 Workplace Systems PLC (http://www.workplacesystems.com/).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.workplacesystems.queuj.process.metrics;
+
+import com.workplacesystems.queuj.EmptyRunner;
+import com.workplacesystems.queuj.Process;
+import com.workplacesystems.queuj.QueueFactory;
+import com.workplacesystems.queuj.occurrence.RunOnce;
+import com.workplacesystems.queuj.process.QueujFactory;
+import com.workplacesystems.queuj.process.java.JavaProcessBuilder;
+import com.workplacesystems.queuj.schedule.RelativeScheduleBuilder;
+import com.workplacesystems.utilsj.Callback;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CountDownLatch;
+import junit.framework.TestCase;
+
+/**
+ *
+ * @author dave
+ */
+public class LockProfilerTest extends TestCase {
+
+    static {
+        System.setProperty("com.workplacesystems.queuj.lockProfiler", "true");
+    }
+
+    public void testContention() throws Exception {
+        assertTrue(LockProfiler.isEnabled());
+        LockProfiler.reset();
+
+        final Object monitor = new Object();
+        final CountDownLatch locked = new CountDownLatch(1);
+        Thread holder = new Thread() {
+
+            @Override
+            public void run() {
+                LockProfiler.synchronize(LockProfiler.SERVER_MUTEX, monitor, new Callback<Void>() {
+
+                    @Override
+                    protected void doAction() {
+                        locked.countDown();
+                        try {
+                            Thread.sleep(50);
+                        }
+                        catch (InterruptedException ie) {}
+                    }
+                });
+            }
+        };
+
+        holder.start();
+        locked.await();
+
+        assertEquals("held", LockProfiler.synchronize(LockProfiler.SERVER_MUTEX, monitor, new Callback<String>() {
+
+            @Override
+            protected void doAction() {
+                assertTrue(Thread.holdsLock(monitor));
+                _return("held");
+            }
+        }));
+        holder.join();
+
+        assertEquals(2, LockProfiler.SERVER_MUTEX.getAcquisitions());
+        assertTrue(LockProfiler.SERVER_MUTEX.getMaxWait() >= 10000000L);
+        assertTrue(LockProfiler.SERVER_MUTEX.getMaxHold() >= 10000000L);
+        assertSame(LockProfiler.SERVER_MUTEX, LockProfiler.getLocksByWait().get(0));
+    }
+
+    public void testReleasedOnException() {
+        LockProfiler.reset();
+        try {
+            LockProfiler.synchronize(LockProfiler.SCHEDULER, this, new Callback<Void>() {
+
+                @Override
+                protected void doAction() {
+                    throw new IllegalStateException();
+                }
+            });
+            fail();
+        }
+        catch (IllegalStateException e) {}
+
+        assertFalse(Thread.holdsLock(this));
+        assertEquals(1, LockProfiler.SCHEDULER.getAcquisitions());
+        assertTrue(LockProfiler.SCHEDULER.getTotalHold() > 0);
+    }
+
+    public void testProcessLocks() {
+        QueujFactory.getProcessServer((String)null, null);
+        LockProfiler.reset();
+
+        RunOnce occurrence = new RunOnce();
+        RelativeScheduleBuilder rsb = occurrence.newRelativeScheduleBuilder();
+        rsb.setRunImmediately();
+        rsb.createSchedule();
+
+        JavaProcessBuilder pb = QueueFactory.DEFAULT_QUEUE.newProcessBuilder(Locale.getDefault());
+        pb.setProcessName("Lock Profiler Test");
+        pb.setProcessPersistence(false);
+        pb.setProcessOccurrence(occurrence);
+        pb.setProcessDetails(new EmptyRunner(), "run", new Class[] {}, new Object[] {});
+        Process<Integer> process = pb.newProcess();
+        process.attach();
+
+        assertTrue(LockProfiler.PROCESS_MUTEX.getAcquisitions() > 0);
+        assertTrue(LockProfiler.PROCESSES_WRITE.getAcquisitions() > 0);
+        assertTrue(LockProfiler.INDEXES_WRITE.getAcquisitions() > 0);
+        assertTrue(LockProfiler.QUEUE_INDEX_MAP.getAcquisitions() > 0);
+
+        List<LockStats> locks = LockProfiler.getLocksByWait();
+        for (int i = 1; i < locks.size(); i++)
+            assertTrue(locks.get(i - 1).getTotalWait() >= locks.get(i).getTotalWait());
+
+        String report = LockProfiler.report();
+        assertTrue(report.startsWith("Lock "));
+        assertTrue(report.contains("ProcessWrapper.mutex"));
+    }
+}
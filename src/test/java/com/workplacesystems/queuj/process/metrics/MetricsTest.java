@@ -0,0 +1,113 @@
+/*
+ * Copyright 2010 Workplace Systems PLC (http://www.workplacesystems.com/).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.workplacesystems.queuj.process.metrics;
+
+import com.workplacesystems.queuj.EmptyRunner;
+import com.workplacesystems.queuj.Process;
+import com.workplacesystems.queuj.Queue;
+import com.workplacesystems.queuj.QueueFactory;
+import com.workplacesystems.queuj.occurrence.RunOnce;
+import com.workplacesystems.queuj.process.QueujFactory;
+import com.workplacesystems.queuj.process.java.JavaProcessBuilder;
+import com.workplacesystems.queuj.schedule.RelativeScheduleBuilder;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.Locale;
+import junit.framework.TestCase;
+
+/**
+ *
+ * @author dave
+ */
+public class MetricsTest extends TestCase {
+
+    public void testHistogram() throws Exception {
+        for (long value = 0; value < 1000000; value += 7) {
+            long lower = Histogram.getLowerBound(Histogram.getIndex(value));
+            assertTrue(lower <= value);
+            assertTrue(value - lower <= value / 8);
+        }
+
+        final Histogram histogram = new Histogram();
+        Thread[] threads = new Thread[4];
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new Thread() {
+
+                @Override
+                public void run() {
+                    for (int value = 1; value <= 1000; value++)
+                        histogram.record(value);
+                }
+            };
+            threads[i].start();
+        }
+        for (Thread thread : threads)
+            thread.join();
+
+        Histogram.Snapshot snapshot = histogram.snapshot();
+        assertEquals(4000, snapshot.getCount());
+        assertEquals(1000, snapshot.getMax());
+        assertEquals(500.5, snapshot.getMean(), 0.001);
+        long median = snapshot.getPercentile(50);
+        assertTrue("Median " + median, median >= 500 && median <= 500 * 9 / 8);
+        assertEquals(1000, snapshot.getPercentile(100));
+    }
+
+    public void testQueueNamedById() throws Exception {
+        Queue queue = QueueFactory.DEFAULT_QUEUE;
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ObjectOutputStream out = new ObjectOutputStream(bytes);
+        out.writeObject(queue);
+        out.close();
+        Queue copy = (Queue)new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray())).readObject();
+
+        // A deserialized copy shares the metrics and the name only depends on the definition
+        assertNotSame(queue, copy);
+        assertEquals(16, queue.getQueueId().length());
+        assertEquals(queue.getQueueId(), copy.getQueueId());
+        assertSame(Metrics.getQueueMetrics(queue), Metrics.getQueueMetrics(copy));
+        assertEquals("queue-" + queue.getQueueId(), Metrics.getQueueMetrics(copy).getName());
+        assertFalse(queue.getQueueId().equals(queue.newQueueBuilder().newQueue().getQueueId()));
+    }
+
+    public void testProcessRecorded() {
+        QueujFactory.getProcessServer((String)null, null);
+
+        RunOnce occurrence = new RunOnce();
+        RelativeScheduleBuilder rsb = occurrence.newRelativeScheduleBuilder();
+        rsb.setRunImmediately();
+        rsb.createSchedule();
+
+        JavaProcessBuilder pb = QueueFactory.DEFAULT_QUEUE.newProcessBuilder(Locale.getDefault());
+        pb.setProcessName("Metrics Test");
+        pb.setProcessPersistence(false);
+        pb.setProcessOccurrence(occurrence);
+        pb.setProcessDetails(new EmptyRunner(), "run", new Class[] {}, new Object[] {});
+        Process<Integer> process = pb.newProcess();
+        process.attach();
+
+        QueueMetrics.Snapshot snapshot = Metrics.getProcessMetrics("Metrics Test").snapshot();
+        assertEquals(1, snapshot.getStarted());
+        assertEquals(1, snapshot.getCompleted());
+        assertEquals(1, snapshot.getSections());
+        assertEquals(1, snapshot.getRunTime().getCount());
+        assertTrue(Metrics.getQueueMetrics(QueueFactory.DEFAULT_QUEUE).snapshot().getScheduled() > 0);
+        assertTrue(Metrics.export().contains("queuj_completed_total{process=\"Metrics Test\"} 1\n"));
+    }
+}
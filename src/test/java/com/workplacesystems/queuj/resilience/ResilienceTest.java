@@ -16,12 +16,20 @@
 
 package com.workplacesystems.queuj.resilience;
 
+import com.workplacesystems.queuj.Occurrence;
+import com.workplacesystems.queuj.occurrence.RunDaily;
 import com.workplacesystems.queuj.occurrence.RunFiniteTimes;
+import com.workplacesystems.queuj.occurrence.RunHourly;
+import com.workplacesystems.queuj.occurrence.RunMinutely;
 import com.workplacesystems.queuj.occurrence.RunOnce;
 import com.workplacesystems.queuj.occurrence.RunWeekly;
+import com.workplacesystems.queuj.schedule.DailyScheduleBuilder;
+import com.workplacesystems.queuj.schedule.HourlyScheduleBuilder;
+import com.workplacesystems.queuj.schedule.MinutelyScheduleBuilder;
 import com.workplacesystems.queuj.schedule.RelativeScheduleBuilder;
 import com.workplacesystems.queuj.schedule.WeeklyScheduleBuilder;
 import java.util.GregorianCalendar;
+import java.util.TimeZone;
 import junit.framework.TestCase;
 
 /**
@@ -295,4 +303,81 @@ public class ResilienceTest extends TestCase {
             when2.add(GregorianCalendar.WEEK_OF_YEAR, 1);
         assertTrue(when.equals(when2));
     }
+
+    public void testSkipAhead() {
+        TimeZone timeZone = TimeZone.getDefault();
+        TimeZone.setDefault(TimeZone.getTimeZone("Europe/London"));
+        try {
+            RunMinutely runMinutely = new RunMinutely();
+            MinutelyScheduleBuilder msb = runMinutely.newSchedulerBuilder();
+            msb.setIntervalMinutes(7);
+            msb.createSchedule();
+
+            RunHourly runHourly = new RunHourly();
+            HourlyScheduleBuilder hsb = runHourly.newSchedulerBuilder();
+            hsb.setIntervalHours(5);
+            hsb.setScheduledMinute(15);
+            hsb.createSchedule();
+
+            RunDaily runDaily = new RunDaily();
+            DailyScheduleBuilder dsb = runDaily.newSchedulerBuilder();
+            dsb.setScheduledHour(1);
+            dsb.setScheduledMinute(30);
+            dsb.createSchedule();
+
+            RunWeekly runFortnightly = new RunWeekly();
+            WeeklyScheduleBuilder wsb = runFortnightly.newSchedulerBuilder();
+            wsb.setIntervalWeeks(2);
+            wsb.setScheduledDay(GregorianCalendar.SUNDAY);
+            wsb.setScheduledHour(1);
+            wsb.setScheduledMinute(30);
+            wsb.createSchedule();
+
+            Occurrence[] occurrences = new Occurrence[] {runMinutely, runHourly, runDaily, runFortnightly, runWeekly, runOnce};
+            GregorianCalendar start = new GregorianCalendar(2012, 0, 1, 12, 3, 20);
+            // Across the daylight saving changes and on a run time
+            GregorianCalendar[] instants = new GregorianCalendar[] {
+                new GregorianCalendar(2012, 0, 1, 12, 0, 0),
+                new GregorianCalendar(2012, 0, 8, 12, 0, 0),
+                new GregorianCalendar(2012, 2, 25, 1, 45, 0),
+                new GregorianCalendar(2012, 2, 26, 9, 0, 0),
+                new GregorianCalendar(2012, 9, 28, 1, 30, 0),
+                new GregorianCalendar(2013, 5, 1, 9, 32, 0)};
+
+            for (Occurrence occurrence : occurrences) {
+                for (GregorianCalendar instant : instants) {
+                    assertEquals(occurrence.toString(), stepForgetMissed(occurrence, start, instant),
+                            new ForgetMissed().getAdjustedNextRunTime(occurrence, start, 0, instant));
+                    assertEquals(occurrence.toString(), stepRunOnlyOnce(occurrence, start, instant),
+                            new RunOnlyOnce().getAdjustedNextRunTime(occurrence, start, 0, instant));
+                }
+            }
+        }
+        finally {
+            TimeZone.setDefault(timeZone);
+        }
+    }
+
+    private GregorianCalendar stepForgetMissed(Occurrence occurrence, GregorianCalendar schedule_start, GregorianCalendar now) {
+        GregorianCalendar next_run = occurrence.getNextRunTime(schedule_start, 0);
+        while (next_run != null && next_run.before(now)) {
+            GregorianCalendar saved_run = next_run;
+            next_run = occurrence.getNextRunTime(next_run, 0);
+            if (!next_run.after(saved_run))
+                break;
+        }
+        return next_run;
+    }
+
+    private GregorianCalendar stepRunOnlyOnce(Occurrence occurrence, GregorianCalendar schedule_start, GregorianCalendar now) {
+        GregorianCalendar next_run = occurrence.getNextRunTime(schedule_start, 0);
+        GregorianCalendar saved_run = next_run;
+        while (next_run != null && !next_run.after(now)) {
+            saved_run = next_run;
+            next_run = occurrence.getNextRunTime(saved_run, 0);
+            if (!next_run.after(saved_run))
+                break;
+        }
+        return saved_run;
+    }
 }
@@ -0,0 +1,200 @@
+/*
+ * Copyright 2010 Workplace Systems PLC (http://www.workplacesystems.com/).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.workplacesystems.queuj.schedule;
+
+import com.workplacesystems.queuj.Occurrence;
+import com.workplacesystems.queuj.occurrence.RunCron;
+import com.workplacesystems.queuj.occurrence.RunDaily;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.Calendar;
+import java.util.GregorianCalendar;
+import java.util.TimeZone;
+import junit.framework.TestCase;
+
+/**
+ *
+ * @author dave
+ */
+public class CronScheduleTest extends TestCase {
+
+    private static final TimeZone UTC = TimeZone.getTimeZone("UTC");
+
+    private TimeZone timeZone;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        timeZone = TimeZone.getDefault();
+        TimeZone.setDefault(UTC);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        TimeZone.setDefault(timeZone);
+        super.tearDown();
+    }
+
+    public void testSameAsBruteForce() {
+        String[] expressions = new String[] {"* * * * *", "*/15 9-17 * * MON-FRI", "5,35 */4 1,15 * *",
+            "0 0 13 * 5", "0 12 */10 JAN,jul *", "59 23 31 * *", "0 0 29 2 1", "7 3 * * 7", "@weekly"};
+        long start = time(2011, Calendar.DECEMBER, 31, 22, 0);
+        for (String expression : expressions) {
+            CronSchedule schedule = new CronSchedule(expression);
+            long next_run = start;
+            for (int i = 0; i < 20; i++) {
+                long expected = bruteForce(expression, next_run);
+                next_run = schedule.getNextRunTime(next_run, ZoneRules.getInstance(UTC));
+                assertEquals(expression, expected, next_run);
+            }
+        }
+    }
+
+    public void testLastWeekdayOfFebruary() {
+        Occurrence occurrence = newOccurrence("30 2 LW 2 *");
+        long next_run = time(2012, Calendar.JANUARY, 1, 0, 0);
+        next_run = occurrence.getNextRunTime(next_run, 0);
+        assertEquals(time(2012, Calendar.FEBRUARY, 29, 2, 30), next_run);
+        next_run = occurrence.getNextRunTime(next_run, 0);
+        assertEquals(time(2013, Calendar.FEBRUARY, 28, 2, 30), next_run);
+        next_run = occurrence.getNextRunTime(next_run, 0);
+        assertEquals(time(2014, Calendar.FEBRUARY, 28, 2, 30), next_run);
+        next_run = occurrence.getNextRunTime(next_run, 0);
+        assertEquals(time(2015, Calendar.FEBRUARY, 27, 2, 30), next_run);
+    }
+
+    public void testSpecialDays() {
+        long start = time(2012, Calendar.JANUARY, 1, 0, 0);
+        assertEquals(time(2012, Calendar.JANUARY, 31, 0, 0), newOccurrence("0 0 L * *").getNextRunTime(start, 0));
+        assertEquals(time(2012, Calendar.JANUARY, 16, 0, 0), newOccurrence("0 0 15W * *").getNextRunTime(start, 0));
+        assertEquals(time(2012, Calendar.SEPTEMBER, 3, 0, 0), newOccurrence("0 0 1W 9 ?").getNextRunTime(start, 0));
+        assertEquals(time(2012, Calendar.SEPTEMBER, 28, 0, 0), newOccurrence("0 0 30W 9 *").getNextRunTime(start, 0));
+        assertEquals(time(2012, Calendar.JANUARY, 27, 12, 0), newOccurrence("0 12 * * 5L").getNextRunTime(start, 0));
+        assertEquals(time(2012, Calendar.JANUARY, 9, 9, 0), newOccurrence("0 9 ? * MON#2").getNextRunTime(start, 0));
+        assertEquals(time(2012, Calendar.JANUARY, 30, 9, 0), newOccurrence("0 9 * * 1#5").getNextRunTime(start, 0));
+        assertEquals(Occurrence.NO_RUN, newOccurrence("0 0 30 2 *").getNextRunTime(start, 0));
+        assertNull(newOccurrence("0 0 30 2 *").getNextRunTime(new GregorianCalendar(), 0));
+    }
+
+    public void testDaylightSaving() {
+        TimeZone.setDefault(TimeZone.getTimeZone("Europe/London"));
+        RunDaily runDaily = new RunDaily();
+        DailyScheduleBuilder dsb = runDaily.newSchedulerBuilder();
+        dsb.setScheduledHour(1);
+        dsb.setScheduledMinute(30);
+        dsb.createSchedule();
+        Occurrence occurrence = newOccurrence("30 1 * * *");
+
+        GregorianCalendar gc = new GregorianCalendar(2011, Calendar.DECEMBER, 31, 12, 0);
+        for (int i = 0; i < 800; i++) {
+            GregorianCalendar next_gc = occurrence.getNextRunTime(gc, 0);
+            assertEquals(1, daysBetween(gc, next_gc));
+            if (!TimeZone.getDefault().inDaylightTime(gc.getTime()) && TimeZone.getDefault().inDaylightTime(next_gc.getTime())) {
+                // In the spring gap cron runs once the clocks have gone forward
+                assertEquals(2, next_gc.get(Calendar.HOUR_OF_DAY));
+            }
+            else {
+                assertEquals(next_gc.getTime().toString(), 1, next_gc.get(Calendar.HOUR_OF_DAY));
+                assertEquals(30, next_gc.get(Calendar.MINUTE));
+                GregorianCalendar daily_gc = runDaily.getNextRunTime(gc, 0);
+                // Unlike cron the calendar runs twice in the repeated hour
+                if (daily_gc.get(Calendar.HOUR_OF_DAY) == 1 && daysBetween(gc, daily_gc) == 1)
+                    assertEquals(daily_gc.getTimeInMillis(), next_gc.getTimeInMillis());
+            }
+            gc = next_gc;
+        }
+    }
+
+    public void testSerialization() throws Exception {
+        RunCron runCron = (RunCron)newOccurrence("0 9-17/2 * * 1-5");
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ObjectOutputStream out = new ObjectOutputStream(bytes);
+        out.writeObject(runCron);
+        out.close();
+        Occurrence copy = (Occurrence)new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray())).readObject();
+        long start = time(2012, Calendar.JANUARY, 6, 17, 0);
+        assertEquals(time(2012, Calendar.JANUARY, 9, 9, 0), copy.getNextRunTime(start, 0));
+    }
+
+    public void testInvalid() {
+        String[] expressions = new String[] {"* * * *", "60 * * * *", "* 24 * * *", "* * 0 * *", "* * * 13 *",
+            "* * * * 8", "5-1 * * * *", "* * * FOO *", "*/0 * * * *", "* * 32W * *", "* * * * 1#6"};
+        for (String expression : expressions) {
+            try {
+                new CronSchedule(expression);
+                fail(expression);
+            }
+            catch (IllegalArgumentException iae) {}
+        }
+    }
+
+    private Occurrence newOccurrence(String expression) {
+        RunCron runCron = new RunCron();
+        CronScheduleBuilder csb = runCron.newSchedulerBuilder();
+        csb.setExpression(expression);
+        csb.createSchedule();
+        return runCron;
+    }
+
+    private static int daysBetween(GregorianCalendar from, GregorianCalendar to) {
+        return to.get(Calendar.DAY_OF_YEAR) - from.get(Calendar.DAY_OF_YEAR) + (to.get(Calendar.YEAR) > from.get(Calendar.YEAR) ? from.getActualMaximum(Calendar.DAY_OF_YEAR) : 0);
+    }
+
+    private static long time(int year, int month, int day, int hour, int minute) {
+        GregorianCalendar gc = new GregorianCalendar(year, month, day, hour, minute);
+        return gc.getTimeInMillis();
+    }
+
+    /**
+     * Check every minute after start against plain field values.
+     */
+    private static long bruteForce(String expression, long start) {
+        if (expression.equals("@weekly"))
+            expression = "0 0 * * 0";
+        String[] fields = expression.toUpperCase().replace("MON", "1").replace("FRI", "5").replace("JAN", "1").replace("JUL", "7").split(" ");
+        GregorianCalendar gc = new GregorianCalendar(UTC);
+        gc.setTimeInMillis(start - start % 60000L + 60000L);
+        while (true) {
+            int day_of_week = gc.get(Calendar.DAY_OF_WEEK) - 1;
+            boolean dom = matches(fields[2], gc.get(Calendar.DAY_OF_MONTH), 1);
+            boolean dow = matches(fields[4], day_of_week, 0) || (day_of_week == 0 && matches(fields[4], 7, 0));
+            boolean day = fields[2].startsWith("*") || fields[4].startsWith("*") ? dom && dow : dom || dow;
+            if (day && matches(fields[0], gc.get(Calendar.MINUTE), 0) && matches(fields[1], gc.get(Calendar.HOUR_OF_DAY), 0) &&
+                    matches(fields[3], gc.get(Calendar.MONTH) + 1, 1))
+                return gc.getTimeInMillis();
+            gc.add(Calendar.MINUTE, 1);
+        }
+    }
+
+    private static boolean matches(String field, int value, int min) {
+        for (String part : field.split(",")) {
+            int step = 1;
+            if (part.contains("/")) {
+                step = Integer.parseInt(part.substring(part.indexOf('/') + 1));
+                part = part.substring(0, part.indexOf('/'));
+            }
+            String[] range = part.split("-");
+            int from = part.equals("*") ? min : Integer.parseInt(range[0]);
+            int to = part.equals("*") ? Integer.MAX_VALUE : range.length > 1 ? Integer.parseInt(range[1]) : from;
+            if (value >= from && value <= to && (value - from) % step == 0)
+                return true;
+        }
+        return false;
+    }
+}
@@ -0,0 +1,246 @@
+/*
+ * Copyright 2010 Workplace Systems PLC (http://www.workplacesystems.com/).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.workplacesystems.queuj.schedule;
+
+import com.workplacesystems.queuj.Occurrence;
+import com.workplacesystems.queuj.occurrence.RunDaily;
+import com.workplacesystems.queuj.occurrence.RunHourly;
+import com.workplacesystems.queuj.occurrence.RunMinutely;
+import com.workplacesystems.queuj.occurrence.RunMonthly;
+import com.workplacesystems.queuj.occurrence.RunOnce;
+import com.workplacesystems.queuj.occurrence.RunWeekly;
+import com.workplacesystems.queuj.occurrence.RunYearly;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.GregorianCalendar;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.TimeZone;
+import junit.framework.TestCase;
+
+/**
+ *
+ * @author dave
+ */
+public class ZoneRulesTest extends TestCase {
+
+    private static final String[] ZONES = new String[] {"Europe/London", "America/New_York", "Australia/Sydney",
+        "Australia/Lord_Howe", "America/Sao_Paulo", "Asia/Kolkata", "UTC"};
+
+    private TimeZone timeZone;
+
+    private Locale locale;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        timeZone = TimeZone.getDefault();
+        locale = Locale.getDefault();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        TimeZone.setDefault(timeZone);
+        Locale.setDefault(locale);
+        super.tearDown();
+    }
+
+    public void testLocalDates() {
+        for (long day = -800000; day < 800000; day += 13) {
+            long date = LocalDates.toDate(day);
+            assertEquals(day, LocalDates.toEpochDay(LocalDates.getYear(date), LocalDates.getMonth(date), LocalDates.getDay(date)));
+        }
+        assertEquals(0, LocalDates.toEpochDay(1970, Calendar.JANUARY, 1));
+        assertEquals(LocalDates.toEpochDay(2012, Calendar.MARCH, 2), LocalDates.toEpochDay(2012, Calendar.FEBRUARY, 31));
+        assertEquals(LocalDates.toEpochDay(2013, Calendar.JANUARY, 1), LocalDates.toEpochDay(2012, 12, 1));
+        assertEquals(Calendar.THURSDAY, LocalDates.getDayOfWeek(0));
+        assertEquals(29, LocalDates.lengthOfMonth(2000, Calendar.FEBRUARY));
+        assertEquals(28, LocalDates.lengthOfMonth(1900, Calendar.FEBRUARY));
+    }
+
+    public void testOffsets() {
+        Random random = new Random(1);
+        for (String id : ZONES) {
+            TimeZone zone = TimeZone.getTimeZone(id);
+            ZoneRules rules = ZoneRules.getInstance(zone);
+            for (int i = 0; i < 10000; i++) {
+                long instant = (long)(random.nextDouble() * 4000000000000L) - 1000000000000L;
+                assertEquals(id, zone.getOffset(instant), rules.getOffset(instant));
+            }
+        }
+    }
+
+    public void testSameAsCalendar() {
+        Locale[] locales = new Locale[] {Locale.UK, Locale.US};
+        for (Locale l : locales) {
+            Locale.setDefault(l);
+            for (String id : ZONES) {
+                TimeZone.setDefault(TimeZone.getTimeZone(id));
+                List<Occurrence> occurrences = newOccurrences();
+                Random random = new Random(id.hashCode());
+
+                // Random times and every 37 minutes for the days either side of each offset change
+                ArrayList<Long> starts = new ArrayList<Long>();
+                for (int i = 0; i < 500; i++)
+                    starts.add(Long.valueOf(946684800000L + (long)(random.nextDouble() * 1300000000000L)));
+                TimeZone zone = TimeZone.getDefault();
+                for (long time = 1325376000000L; time < 1388534400000L; time += 3600000L) {
+                    if (zone.getOffset(time) != zone.getOffset(time + 3600000L)) {
+                        for (long start = time - 2 * 86400000L; start < time + 2 * 86400000L; start += 37 * 60000L)
+                            starts.add(Long.valueOf(start));
+                    }
+                }
+
+                for (Occurrence occurrence : occurrences) {
+                    for (Long start : starts)
+                        assertSameAsCalendar(occurrence, start.longValue());
+
+                    // A run of schedule times across the offset changes
+                    GregorianCalendar gc = new GregorianCalendar(2012, Calendar.JANUARY, 1, 12, 3, 20);
+                    long next_run = gc.getTimeInMillis();
+                    for (int i = 0; i < 400 && gc.get(Calendar.YEAR) < 2015; i++) {
+                        GregorianCalendar next_gc = occurrence.getNextRunTime(gc, 0);
+                        next_run = occurrence.getNextRunTime(next_run, 0);
+                        assertEquals(occurrence.toString() + id + l, next_gc.getTimeInMillis(), next_run);
+                        if (!next_gc.after(gc))
+                            break;
+                        gc = next_gc;
+                    }
+                }
+            }
+        }
+    }
+
+    public void testNoRun() {
+        RunOnce runOnce = new RunOnce();
+        runOnce.newRelativeScheduleBuilder().createSchedule();
+        assertEquals(Occurrence.NO_RUN, runOnce.getNextRunTime(System.currentTimeMillis(), 1));
+    }
+
+    private void assertSameAsCalendar(Occurrence occurrence, long start) {
+        GregorianCalendar gc = new GregorianCalendar();
+        gc.setTimeInMillis(start);
+        GregorianCalendar expected = occurrence.getNextRunTime(gc, 0);
+        assertEquals(occurrence.toString() + " " + TimeZone.getDefault().getID() + " " + gc.getTime(),
+                expected.getTimeInMillis(), occurrence.getNextRunTime(start, 0));
+    }
+
+    private List<Occurrence> newOccurrences() {
+        ArrayList<Occurrence> occurrences = new ArrayList<Occurrence>();
+
+        RunMinutely runMinutely = new RunMinutely();
+        MinutelyScheduleBuilder msb = runMinutely.newSchedulerBuilder();
+        msb.setIntervalMinutes(7);
+        msb.createSchedule();
+        occurrences.add(runMinutely);
+
+        RunHourly runHourly = new RunHourly();
+        HourlyScheduleBuilder hsb = runHourly.newSchedulerBuilder();
+        hsb.setIntervalHours(5);
+        hsb.setScheduledMinute(45);
+        hsb.createSchedule();
+        occurrences.add(runHourly);
+
+        // In the gap, the repeated hour and at midnight
+        int[][] times = new int[][] {{2, 30}, {1, 30}, {0, 0}};
+        for (int[] time : times) {
+            RunDaily runDaily = new RunDaily();
+            DailyScheduleBuilder dsb = runDaily.newSchedulerBuilder();
+            dsb.setScheduledHour(time[0]);
+            dsb.setScheduledMinute(time[1]);
+            dsb.createSchedule();
+            occurrences.add(runDaily);
+
+            RunWeekly runWeekly = new RunWeekly();
+            WeeklyScheduleBuilder wsb = runWeekly.newSchedulerBuilder();
+            wsb.setIntervalWeeks(2);
+            wsb.setScheduledDay(Calendar.SUNDAY);
+            wsb.setScheduledHour(time[0]);
+            wsb.setScheduledMinute(time[1]);
+            wsb.createSchedule();
+            occurrences.add(runWeekly);
+        }
+
+        RunDaily runEvery3Days = new RunDaily();
+        DailyScheduleBuilder dsb = runEvery3Days.newSchedulerBuilder();
+        dsb.setIntervalDays(3);
+        dsb.setScheduledHour(9);
+        dsb.createSchedule();
+        occurrences.add(runEvery3Days);
+
+        RunWeekly runWeekly = new RunWeekly();
+        WeeklyScheduleBuilder wsb = runWeekly.newSchedulerBuilder();
+        wsb.setScheduledDay(Calendar.WEDNESDAY);
+        wsb.setScheduledHour(17);
+        wsb.createSchedule();
+        occurrences.add(runWeekly);
+
+        RunMonthly runMonthly = new RunMonthly();
+        MonthlyScheduleBuilder mosb = runMonthly.newSchedulerBuilder();
+        mosb.setScheduledDay(31);
+        mosb.setScheduledHour(2);
+        mosb.setScheduledMinute(30);
+        mosb.createSchedule();
+        occurrences.add(runMonthly);
+
+        RunMonthly runQuarterly = new RunMonthly();
+        mosb = runQuarterly.newSchedulerBuilder();
+        mosb.setIntervalMonths(3);
+        mosb.setScheduledDay(15);
+        mosb.createSchedule();
+        occurrences.add(runQuarterly);
+
+        RunYearly runYearly = new RunYearly();
+        YearlyScheduleBuilder ysb = runYearly.newSchedulerBuilder();
+        ysb.setScheduledMonth(Calendar.FEBRUARY);
+        ysb.setScheduledDay(29);
+        ysb.setScheduledHour(6);
+        ysb.createSchedule();
+        occurrences.add(runYearly);
+
+        occurrences.add(newRunOnce(Calendar.DAY_OF_YEAR, 1));
+        occurrences.add(newRunOnce(Calendar.WEEK_OF_YEAR, 1));
+        occurrences.add(newRunOnce(Calendar.HOUR, 3));
+        occurrences.add(newRunOnce(Calendar.SECOND, 90));
+        occurrences.add(newRunOnce(Calendar.MINUTE, 0));
+
+        RunOnce runAt = new RunOnce();
+        AbsoluteScheduleBuilder asb = runAt.newAbsoluteScheduleBuilder();
+        asb.setDate(new GregorianCalendar(2012, Calendar.MARCH, 25));
+        asb.setScheduledHour(1);
+        asb.setScheduledMinute(30);
+        asb.createSchedule();
+        occurrences.add(runAt);
+
+        return occurrences;
+    }
+
+    private RunOnce newRunOnce(int calendar_type, int quantity) {
+        RunOnce runOnce = new RunOnce();
+        RelativeScheduleBuilder rsb = runOnce.newRelativeScheduleBuilder();
+        switch (calendar_type) {
+            case Calendar.DAY_OF_YEAR: rsb.setRunDelayDays(quantity); break;
+            case Calendar.WEEK_OF_YEAR: rsb.setRunDelayWeeks(quantity); break;
+            case Calendar.HOUR: rsb.setRunDelayHours(quantity); break;
+            case Calendar.SECOND: rsb.setRunDelaySeconds(quantity); break;
+            default: rsb.setRunDelayMinutes(quantity); break;
+        }
+        rsb.createSchedule();
+        return runOnce;
+    }
+}
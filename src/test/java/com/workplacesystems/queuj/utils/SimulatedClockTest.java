@@ -0,0 +1,84 @@
+/*
+ * Copyright 2010 Workplace Systems PLC (http://www.workplacesystems.com/).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.workplacesystems.queuj.utils;
+
+import com.workplacesystems.queuj.Process;
+import com.workplacesystems.queuj.QueueFactory;
+import com.workplacesystems.queuj.occurrence.RunMinutely;
+import com.workplacesystems.queuj.process.QueujFactory;
+import com.workplacesystems.queuj.process.java.JavaProcessBuilder;
+import com.workplacesystems.queuj.process.java.JavaProcessRunner;
+import com.workplacesystems.queuj.schedule.MinutelyScheduleBuilder;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicInteger;
+import junit.framework.TestCase;
+
+/**
+ *
+ * @author dave
+ */
+public class SimulatedClockTest extends TestCase {
+
+    static {
+        System.setProperty("com.workplacesystems.queuj.utils.Clock", SimulatedClock.class.getName());
+    }
+
+    private static final AtomicInteger runs = new AtomicInteger();
+
+    public static class CountingRunner extends JavaProcessRunner {
+
+        public void run() {
+            runs.incrementAndGet();
+        }
+    }
+
+    public void testAdvance() {
+        SimulatedClock clock = new SimulatedClock();
+        long start = clock.currentTimeMillis();
+        clock.advance(60000L);
+        assertEquals(start + 60000L, clock.currentTimeMillis());
+        assertEquals(start + 60000L, clock.newCalendar().getTimeInMillis());
+    }
+
+    public void testMinutelySchedule() throws Exception {
+        assertTrue(Clock.getInstance() instanceof SimulatedClock);
+        QueujFactory.getProcessServer((String)null, null);
+
+        RunMinutely occurrence = new RunMinutely();
+        MinutelyScheduleBuilder msb = occurrence.newSchedulerBuilder();
+        msb.setIntervalMinutes(1);
+        msb.createSchedule();
+
+        JavaProcessBuilder pb = QueueFactory.DEFAULT_QUEUE.newProcessBuilder(Locale.getDefault());
+        pb.setProcessName("Simulated Clock Test");
+        pb.setProcessPersistence(false);
+        pb.setProcessOccurrence(occurrence);
+        pb.setProcessDetails(new CountingRunner(), "run", new Class[] {}, new Object[] {});
+
+        long start = Clock.getInstance().currentTimeMillis();
+        long realStart = System.currentTimeMillis();
+        Process<Integer> process = pb.newProcess();
+
+        // Two hours of minutely runs
+        while (runs.get() < 120 && System.currentTimeMillis() - realStart < 60000L)
+            Thread.sleep(10);
+        process.delete();
+
+        assertTrue(runs.get() >= 120);
+        assertTrue(Clock.getInstance().currentTimeMillis() - start >= 119 * 60000L);
+    }
+}